@@ -0,0 +1,73 @@
+package sandbox.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine. It is only compiled by the jmh profile of the Maven build, since
+ * it needs JMH on the classpath.
+ *
+ * The Bitmap pixel access benchmarks of Sandbox_Benchmarks, written for JMH: each operation is a single setPixel, getPixelARGB or setPixelRegion call on a
+ * square Bitmap of each size. The position moves with each operation in the same way as in Sandbox_Benchmarks, so the two sets of results can be compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class Sandbox_JmhBitmapBenchmarks {
+
+	@Param({ "64", "512", "2048" })
+	public int size;
+
+	private Bitmap bitmap;
+	// The sizes are all powers of two, so pixels can be visited with masks and shifts rather than divisions (which would cost more than the pixel access)
+	private int mask, shift;
+	private int operation = 0;
+
+	@Setup
+	public void setUp() {
+		bitmap = new Bitmap(size, size);
+		bitmap.setPixelRegion(0, 0, size, size, Colour.RED);
+		mask = size - 1;
+		shift = Integer.numberOfTrailingZeros(size);
+	}
+
+	@Benchmark
+	public void setPixel() {
+		final int i = operation++;
+		bitmap.setPixel(i & mask, (i >>> shift) & mask, i);
+	}
+
+	@Benchmark
+	public int getPixelARGB() {
+		final int i = operation++;
+		return bitmap.getPixelARGB(i & mask, (i >>> shift) & mask);
+	}
+
+	@Benchmark
+	public void setPixelRegion16x16() {
+		// The region moves around the Bitmap (sometimes hanging off of the edges, so that clipping is measured too)
+		final int i = operation++;
+		bitmap.setPixelRegion((i * 37) & mask, (i * 101) & mask, 16, 16, i);
+	}
+
+	@Benchmark
+	public void setPixelRegionFull() { bitmap.setPixelRegion(0, 0, size, size, operation++); }
+
+}
@@ -0,0 +1,55 @@
+package sandbox.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.macleod.engine.graphics.Colour;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine. It is only compiled by the jmh profile of the Maven build, since
+ * it needs JMH on the classpath.
+ *
+ * The Colour packing and unpacking benchmarks of Sandbox_Benchmarks, written for JMH. The components come from fields rather than constants, so the JIT can't
+ * fold the whole operation away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class Sandbox_JmhColourBenchmarks {
+
+	private final int[] colours = new int[1024];
+	private int operation = 0;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(0);
+		for(int i = 0; i < colours.length; i++) colours[i] = random.nextInt();
+	}
+
+	@Benchmark
+	public int getARGB() {
+		final int i = operation++;
+		return Colour.getARGB((i >>> 24) & 0xff, (i >>> 16) & 0xff, (i >>> 8) & 0xff, i & 0xff);
+	}
+
+	@Benchmark
+	public int getComponents() {
+		final int colour = colours[operation++ & 1023];
+		return Colour.getAComponent(colour) + Colour.getRComponent(colour) + Colour.getGComponent(colour) + Colour.getBComponent(colour);
+	}
+
+}
@@ -0,0 +1,133 @@
+package sandbox.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.macleod.engine.HeadlessScreen;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine. It is only compiled by the jmh profile of the Maven build, since
+ * it needs JMH on the classpath.
+ *
+ * The GuiSystem benchmarks of Sandbox_Benchmarks, written for JMH: dispatching a mouse or key event, an update, preparing for rendering and a whole headless
+ * frame, each with 10, 100 and 1000 layers. The GuiSystems are created by Sandbox_Benchmarks.createGuiSystem, so they hold the same widgets in the same places.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class Sandbox_JmhGuiSystemBenchmarks {
+
+	@State(Scope.Thread)
+	public static class Layers {
+		@Param({ "10", "100", "1000" })
+		public int layerCount;
+
+		GuiSystem guiSystem;
+
+		@Setup
+		public void createGuiSystem() { guiSystem = Sandbox_Benchmarks.createGuiSystem(layerCount, isRetained()); }
+
+		boolean isRetained() { return false; }
+	}
+
+	/** Layers that keep what they drew between frames, so that preparing for rendering doesn't clear them */
+	@State(Scope.Thread)
+	public static class RetainedLayers extends Layers {
+		boolean isRetained() { return true; }
+	}
+
+	/**
+	 * Layers that have drawn something since the GuiSystem was last prepared for rendering - otherwise preparing would have nothing to clear. The update is run
+	 * before each operation, and isn't timed
+	 */
+	@State(Scope.Thread)
+	public static class UpdatedLayers extends Layers {
+		@Setup(Level.Invocation)
+		public void update() { guiSystem.update(1 / 60f); }
+	}
+
+	@State(Scope.Thread)
+	public static class Screen {
+		HeadlessScreen screen;
+
+		@Setup
+		public void createScreen() { screen = new HeadlessScreen(Sandbox_Benchmarks.SCREEN_WIDTH, Sandbox_Benchmarks.SCREEN_HEIGHT); }
+	}
+
+	private final GuiEvent mouseEvent = new GuiEvent(GuiEvent.EventType.MOUSE_CURSOR_MOVED);
+	private final GuiEvent keyEvent = new GuiEvent(GuiEvent.EventType.KEYBOARD_KEY_PRESSED);
+	private final double[] cursorX = new double[1024], cursorY = new double[1024];
+	private int operation = 0;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(0);
+		for(int i = 0; i < cursorX.length; i++) {
+			cursorX[i] = random.nextInt(Sandbox_Benchmarks.SCREEN_WIDTH);
+			cursorY[i] = random.nextInt(Sandbox_Benchmarks.SCREEN_HEIGHT);
+		}
+	}
+
+	@Benchmark
+	public long recieveMouseEvent(Layers layers) {
+		final int i = operation++ & 1023;
+		mouseEvent.set(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, cursorX[i], cursorY[i]);
+		layers.guiSystem.recieveEvent(mouseEvent);
+		return Sandbox_Benchmarks.BenchmarkLayer.eventsRecieved;
+	}
+
+	@Benchmark
+	public long recieveKeyEvent(Layers layers) {
+		// None of the layers absorb key events, so each of these visits the whole stack
+		keyEvent.set(GuiEvent.EventType.KEYBOARD_KEY_PRESSED, operation++ & 0xff, -1, 0, 0);
+		layers.guiSystem.recieveEvent(keyEvent);
+		return Sandbox_Benchmarks.BenchmarkLayer.eventsRecieved;
+	}
+
+	@Benchmark
+	public int update(RetainedLayers layers) {
+		layers.guiSystem.update(1 / 60f);
+		// Otherwise the dirty regions would never be reset. The layers are retained so this doesn't clear anything, and costs very little
+		layers.guiSystem.prepareForRender();
+		return layers.guiSystem.getLayer(0).getPixelARGB(0, 0);
+	}
+
+	@Benchmark
+	public int prepareForRender(UpdatedLayers layers) {
+		layers.guiSystem.prepareForRender();
+		return layers.guiSystem.getLayer(0).getPixelARGB(0, 0);
+	}
+
+	@Benchmark
+	public long headlessFrame(Layers layers, Screen screen) {
+		// The same work the Application does for each frame (without any input to process)
+		final GuiSystem guiSystem = layers.guiSystem;
+		final HeadlessScreen headlessScreen = screen.screen;
+		guiSystem.applyPendingChanges();
+		guiSystem.prepareForRender();
+		guiSystem.update(1 / 60f);
+		headlessScreen.clear();
+		headlessScreen.draw(guiSystem);
+		headlessScreen.present();
+		return headlessScreen.getPresentedFrameCount();
+	}
+
+}
@@ -1,61 +1,86 @@
 package com.macleod.engine;
 
-import java.awt.Canvas;
-import java.awt.Color;
-import java.awt.Graphics;
-import java.awt.image.BufferStrategy;
-
-import javax.swing.JFrame;
+import java.util.concurrent.Semaphore;
 
+import com.macleod.engine.capture.FrameRecorder;
+import com.macleod.engine.graphics.Bitmap;
 import com.macleod.engine.graphics.gui.GuiSystem;
-import com.macleod.engine.io.FocusHandler;
-import com.macleod.engine.io.KeyboardHandler;
-import com.macleod.engine.io.MouseHandler;
+import com.macleod.engine.io.InputEventQueue;
+import com.macleod.engine.io.InputState;
+import com.macleod.engine.loop.FixedTimestepLoop;
+import com.macleod.engine.loop.GameLoop;
+import com.macleod.engine.loop.LoopTarget;
+import com.macleod.engine.metrics.FrameMetrics;
 
 /**
  * This class is meant to represent the front-end of the application that the user will see (e.g. the window). It therefore is the start of all I/O management
  * and such. However, this means that the Application will appear as a blank window until a GuiSystem has been added (so it has something to render), and the
- * update cycle has been started (see {@code start})
+ * update cycle has been started (see {@code start}).
+ * <br /><br />
+ * Where the Application is actually drawn to is decided by its Screen. Most Applications will use a WindowScreen (which the title/dimension constructors
+ * create), but any Screen can be given - for example a HeadlessScreen when there is no display available
  */
-//TODO: Make a Screen class to contain the Canvas object - making the Application window truly distinct from the functionality of the Graphics rendering and
-// 		input management. This is important for two reasons: one, it's not sightly to have the Canvas methods accessible through the Application instance
-//		(since it's not important to the role of the Application window), and two, it should be a target to have the functionality of input management and
-//		rendering repeatable for non-application window programs (e.g. an Applet)
-public class Application extends Canvas {
-	private static final long serialVersionUID = 1L;
+public class Application {
 
 	// The decision to make this volatile implies the need for safety between multiple threads. In most situations it's expected that only a single thread
 	// would control the state of the application (starting or stopping) so this is purely precautionary
 	private volatile boolean running = false;
 	
-	private final JFrame frame;
+	private final Screen screen;
 	private final Thread applicationThread;
 
-	private GuiSystem guiSystem;
+	// The loop can be swapped while the application is running, so it is volatile to make sure the application thread sees the new loop at the start of its
+	// next frame
+	private volatile GameLoop gameLoop = new FixedTimestepLoop(60);
+
+	// The system can only be read or changed by the application thread while it is running. Anyone else wanting to change it leaves the new system pending,
+	// and the application thread swaps to it between frames
+	private volatile GuiSystem guiSystem;
+	private GuiSystem pendingGuiSystem;
+	private volatile boolean hasPendingGuiSystem = false;
+	// This is a separate lock from the Application itself, since stop holds that lock while it waits for the application thread to finish
+	private final Object guiSystemLock = new Object();
+	
+	// Input arrives on whichever thread produced it (usually the AWT event thread). Rather than handing it straight to the GuiSystem while the application
+	// thread may be updating or rendering the same layers, it waits here until the start of the next update
+	private final InputEventQueue inputEventQueue = new InputEventQueue();
+	// The state of the keyboard and mouse as of the current update, built up from the events as they are drained from the queue
+	private final InputState inputState = new InputState();
+	
+	private final FrameMetrics frameMetrics = new FrameMetrics(this);
+	
+	// Like the loop, the recorder can be changed while running and is picked up by the application thread at its next frame
+	private volatile FrameRecorder frameRecorder;
+	
+	// When pipelined, each frame is composited and presented on the render thread while the application thread carries on with the next update. The two take
+	// turns with the published frame: the application thread takes 'renderIdle' before publishing a frame, and gives 'frameReady' once it has
+	private volatile boolean pipelined = false;
+	private Thread renderThread;
+	private volatile boolean renderThreadRunning = false;
+	private final Semaphore frameReady = new Semaphore(0);
+	private final Semaphore renderIdle = new Semaphore(1);
+	// The system whose frame was last published. This is only changed by the application thread while it holds 'renderIdle', so never while it's rendered
+	private GuiSystem renderGuiSystem;
+	// Anything thrown while rendering on the render thread, which is thrown again on the application thread (just as if it had rendered the frame itself)
+	private volatile Throwable renderFailure;
+	// When the last frame was presented, on whichever thread presented it
+	private long nsLastPresent = -1;
 	
 	public Application(int initialWidth, int initialHeight) { this("Application", initialWidth, initialHeight, 2); }
 	public Application(String title, int initialWidth, int initialHeight) { this(title, initialWidth, initialHeight, 2); }
 	
 	public Application(String title, int initialWidth, int initialHeight, int numberOfGraphicsBuffers) {
-		frame = new JFrame();
-		// We need to attach the Canvas object that this class inherits properties from to the JFrame (because we actually use the Canvas component for
-		// handling rendering and such - not the JFrame). This gives us options to easily restructure our code for a non-JFrame application like a web 
-		// component if we wish
-		frame.getContentPane().add(this);
-		
-		setTitle(title);
-		setSize(initialWidth, initialHeight);
-		setResizable(false);
-		//TODO: Change this close operation to be DO_NOTHING_ON_CLOSE, with a shutdown hook that calls the 'stop' method
-		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.setLocationRelativeTo(null);
-		
-		// We don't start with the window being visible until the user 'starts' the application - mostly this is so that the user is aware that they haven't
-		// started the application when they don't see anything being drawn or updated, the milliseconds of delay before anything is rendered wouldn't have a
-		// noticable impact
-		frame.setVisible(false);
-		
-		Log.info("Have created Application window with dimensions (" + frame.getWidth() + ", " + frame.getHeight() + ")");
+		this(new WindowScreen(title, initialWidth, initialHeight, numberOfGraphicsBuffers));
+	}
+	
+	public Application(Screen screen) {
+		if(screen == null) {
+			final IllegalArgumentException exception = new IllegalArgumentException("An Application cannot be created without a Screen to render to");
+			Log.error("An attempt was made to create an Application with a null Screen", exception);
+			throw exception;
+		}
+		
+		this.screen = screen;
 		
 		// We want to execute everything the application does within it's own thread space, but we don't want to start it prematurely. We set it up here but
 		// expect the user to start the thread via the start method once everything is ready
@@ -68,70 +93,62 @@ public class Application extends Canvas {
 		applicationThread.setDaemon(false);
 		applicationThread.setPriority(Thread.MAX_PRIORITY);
 		
-		// To draw our graphics to the Canvas object, we will be using the supplied Java BufferStrategy/Graphics library
-		createBufferStrategy(numberOfGraphicsBuffers);
-		if(getBufferStrategy() == null) {
-			final IllegalStateException exception = new IllegalStateException("Didn't find a BufferStrategy for the Application window after create attempt");
-			Log.error("Failed to create a BufferStrategy for the Application window", exception);
-			throw exception;
-		} else {
-			Log.info("Graphics system has been created for the Application window");
-		}
-		
-		// As previously stated, it is this Application that inherits the I/O handlers - not the JFrame, so apply them to the Canvas parent class
-		final MouseHandler mouseHandler = new MouseHandler(this);
-		addMouseListener(mouseHandler);
-		addMouseWheelListener(mouseHandler);
-		addMouseMotionListener(mouseHandler);
-		
-		final KeyboardHandler keyboardHandler = new KeyboardHandler(this);
-		addKeyListener(keyboardHandler);
-		
-		final FocusHandler focusHandler = new FocusHandler(this);
-		addFocusListener(focusHandler);
-		Log.info("Have finished adding input listeners to Application window");
+		screen.onAttach(this);
 	}
 	
-	public final void setTitle(String title) { 
-		assert (title != null) : "Cannot set an Application window to have a null title";
-		frame.setTitle(title); 
-	}
-	public final void centreWindow() { frame.setLocationRelativeTo(null); }
-	public final void setVisible(boolean visible) { frame.setVisible(visible); }
-
-	public final void setResizable(boolean resizable) { 
-		frame.setResizable(resizable);
+	/**
+	 * Changes the GuiSystem the application updates and renders (this can be null, to show nothing). If the application is already running, the change takes
+	 * place between two frames - so a frame is never part way through one system when it changes to another
+	 */
+	public final void setGuiSystem(GuiSystem guiSystem) {
+		if(guiSystem != null) guiSystem.setInputState(inputState);
+		
+		synchronized(guiSystemLock) {
+			if(running) {
+				pendingGuiSystem = guiSystem;
+				hasPendingGuiSystem = true;
+			} else {
+				this.guiSystem = guiSystem;
+			}
+		}
 	}
 	
-	public final void setSize(int width, int height) { 
-		assert ((width > 0) && (height > 0)) : 
-			"Cannot set an Application window to have non-positive dimensions. Was given dimensions (" + width + "," + height + ")";
-
-		//TODO: In the future, once the Canvas functionality we use for Graphics and input has been seperated from the Application window functionality, we
-		//		will want to start having the sizing consider the JFrame border. For now, because we use the Canvas size (not JFrame size), we will not have a
-		//		JFrame of the exact dimensions width and height once this method is called. Instead, our Application window will have the additional size of
-		//		the JFrame borders and title area
-		super.setSize(width, height);
-		
-		// Since we are setting the dimensions of the content being drawn within the JFrame (so not including the borders or title of the frame), we must pack
-		// the frame so that the size of the JFrame is constricted to the dimensions of said content. This is what the 'pack' method accomplishes
-		frame.pack();
+	/**
+	 * Changes the loop that decides how often the application updates and renders. If the application is already running, the change takes place between
+	 * two frames
+	 */
+	public final void setGameLoop(GameLoop gameLoop) {
+		assert (gameLoop != null) : "Cannot set an Application to use a null GameLoop";
+		if(gameLoop != null) this.gameLoop = gameLoop;
 	}
 	
-	public final void setGuiSystem(GuiSystem guiSystem) {
-		//TODO: May need to handle hooking and unhooking GUI systems
-		//TODO: Also need to look at making this Thread safe. Want to make sure that we aren't mid-render of a system when we change our target system
-		this.guiSystem = guiSystem;
-	}
+	/**
+	 * Sets the FrameRecorder every frame is captured to once it has been drawn (this can be null, to stop capturing). The Application never closes the
+	 * recorder - whoever created it should close it once it's no longer set, or the Application has been stopped
+	 */
+	public final void setFrameRecorder(FrameRecorder frameRecorder) { this.frameRecorder = frameRecorder; }
+	
+	/**
+	 * Changes whether the application is pipelined. Normally each frame is updated, composited and presented in turn on the application thread. Once
+	 * pipelined, each frame is handed over to a render thread once it has been updated - which composites and presents it while the application thread
+	 * updates the next frame. Each layer keeps a copy of its pixels as of the last frame handed over (see GuiSystem.publishFrame), so a frame is never
+	 * presented part way through being drawn.
+	 * <br /><br />
+	 * Frames are presented one behind the updates, and (on a machine with more than one core) as often as the slower of the two threads allows rather than
+	 * the two put together. How long each thread spends waiting on the other is recorded in the FrameMetrics (WAIT_FOR_RENDER and WAIT_FOR_UPDATE). If the
+	 * application is already running, the change takes place between two frames
+	 */
+	public final void setPipelined(boolean pipelined) { this.pipelined = pipelined; }
 	
 	public synchronized void start() {
 		assert (!running) : "Cannot start an application that is already running";
 
 		Log.info("About to start Application thread");
 		
-		running = true;
+		synchronized(guiSystemLock) { running = true; }
+		frameMetrics.registerMBean();
 		applicationThread.start();
-		frame.setVisible(true);
+		screen.onStart();
 	}
 	
 	public synchronized void stop() {
@@ -144,93 +161,228 @@ public class Application extends Canvas {
 		// released
 		try { applicationThread.join(0);
 		} catch(Exception e) { Log.error("Exception thrown while closing Application thread", e); }
+		
+		screen.onStop();
+		frameMetrics.unregisterMBean();
+		// Anything logged while stopping should be written before we return, in case the program is about to exit
+		Log.flush();
 	}
 	
 	private void applicationLoop() {
 		Log.info("Application thread has started");
 		
-		// Currently we are not limiting the number of updates that will happen per second, so we don't wait for a certain amount of time to elapse before 
-		// updating
-		final double nsTargetTimeBetweenUpdates = 0; //(1000000000.0 / 60.0);
+		// The loop itself decides how often we update and render (and how long to wait between frames), so each iteration here is a single frame. We keep a
+		// local reference so that a change of loop (see setGameLoop) only happens between frames
+		GameLoop currentLoop = gameLoop;
+		currentLoop.reset(System.nanoTime());
 		
-		int numberOfUpdatesThisSecond = 0;
-		long nsLastUpdate = System.nanoTime();
+		long framesAtLastSecond = currentLoop.getFrameCount();
+		long ticksAtLastSecond = currentLoop.getTickCount();
 		long nsLastSecond = System.nanoTime();
 		while(running) {
-			final long nsCurrentTime = System.nanoTime();
-			
-			final long nsTimeSinceLastUpdate = nsCurrentTime - nsLastUpdate;
-			final long nsTimeSinceLastSecond = nsCurrentTime - nsLastSecond;
+			if(hasPendingGuiSystem) swapToPendingGuiSystem();
+			if(pipelined != renderThreadRunning) {
+				if(pipelined) startRenderThread();
+				else stopRenderThread();
+			}
 			
-			if(nsTimeSinceLastUpdate >= nsTargetTimeBetweenUpdates) {
-				final float sTimeSinceLastUpdate = (nsTimeSinceLastUpdate / 1000000000.0f);
-				
-				beforeRenderCall();
-				if(guiSystem != null) guiSystem.update(sTimeSinceLastUpdate);
-				renderCall();
+			if(currentLoop != gameLoop) {
+				currentLoop = gameLoop;
+				currentLoop.reset(System.nanoTime());
 				
-				numberOfUpdatesThisSecond++;
-				
-				nsLastUpdate = nsCurrentTime;
+				framesAtLastSecond = currentLoop.getFrameCount();
+				ticksAtLastSecond = currentLoop.getTickCount();
 			}
 			
-			if(nsTimeSinceLastSecond >= 1000000000) {
-				Log.info(numberOfUpdatesThisSecond + "fps!");
+			currentLoop.runFrame(loopTarget);
+			
+			final long nsCurrentTime = System.nanoTime();
+			if((nsCurrentTime - nsLastSecond) >= 1000000000) {
+				Log.info("{}fps! ({} ticks)", currentLoop.getFrameCount() - framesAtLastSecond, currentLoop.getTickCount() - ticksAtLastSecond);
 				
 				nsLastSecond = nsCurrentTime;
-				numberOfUpdatesThisSecond = 0;
+				framesAtLastSecond = currentLoop.getFrameCount();
+				ticksAtLastSecond = currentLoop.getTickCount();
 			}
 		}
 		
+		// The last frame handed to the render thread is finished before anything is unloaded, since it may still be compositing the system's layers
+		if(renderThreadRunning) stopRenderThread();
+		
 		// As a warning we unhook all GuiLayers currently on the GuiSystem. This gives all the layers an idea that the program is closing so they can release
 		// any resources
+		if(hasPendingGuiSystem) swapToPendingGuiSystem();
 		if(guiSystem != null) guiSystem.onShutdown();
 	}
 	
-	private final void beforeRenderCall() {
-		final BufferStrategy bufferStrategy = getBufferStrategy();
-		assert (bufferStrategy != null) : "Cannot prepare to render a frame when the BufferStrategy being drawn to is null";
+	private void swapToPendingGuiSystem() {
+		synchronized(guiSystemLock) {
+			guiSystem = pendingGuiSystem;
+			pendingGuiSystem = null;
+			hasPendingGuiSystem = false;
+		}
+	}
+	
+	private void startRenderThread() {
+		renderThreadRunning = true;
+		renderThread = new Thread(new Runnable() {
+			public void run() {
+				renderLoop();
+			}
+		}, "Application render thread");
+		// The application thread always stops the render thread before it finishes, so it never needs to keep the virtual machine running by itself
+		renderThread.setDaemon(true);
+		renderThread.setPriority(Thread.MAX_PRIORITY);
+		renderThread.start();
+		Log.info("Application render thread has started");
+	}
+	
+	// Waits for the last frame handed over to be presented, then lets the render thread finish. The system it was rendering goes back to compositing its own
+	// layers, so the application thread can render it again
+	private void stopRenderThread() {
+		renderIdle.acquireUninterruptibly();
+		renderThreadRunning = false;
+		frameReady.release();
+		try { renderThread.join();
+		} catch(InterruptedException e) { Log.error("Interrupted while waiting for the Application render thread to finish", e); }
+		renderThread = null;
+		renderIdle.release();
 		
-		if(bufferStrategy != null) {
-			// We need to get the Graphics instance for the current Buffer frame in the BufferStrategy
-			final Graphics graphics = bufferStrategy.getDrawGraphics();
-
-			if(graphics != null) {
-				// We draw a black rectangle across the entire Buffer frame to make sure we don't see any remnants from a previous frame that was drawn
-				graphics.setColor(Color.BLACK);
-				graphics.fillRect(0, 0, super.getWidth(), super.getHeight());
-			} else {
-				Log.error("A graphics instance was not found for the current draw frame");
+		if(renderGuiSystem != null) renderGuiSystem.stopPublishing();
+		renderGuiSystem = null;
+		Log.info("Application render thread has stopped");
+		
+		rethrowRenderFailure();
+	}
+	
+	private void renderLoop() {
+		boolean isFirstFrame = true;
+		while(true) {
+			final long nsStart = System.nanoTime();
+			frameReady.acquireUninterruptibly();
+			if(!renderThreadRunning) return;
+			// The wait for the first frame includes however long the thread took to start, which says nothing about the pipeline
+			if(!isFirstFrame) frameMetrics.record(FrameMetrics.Phase.WAIT_FOR_UPDATE, System.nanoTime() - nsStart);
+			isFirstFrame = false;
+			
+			try {
+				renderFrame(renderGuiSystem);
+			} catch(RuntimeException | Error e) {
+				renderFailure = e;
+			} finally {
+				renderIdle.release();
 			}
 		}
-
-		guiSystem.prepareForRender();
 	}
 	
-	private final void renderCall() {
-		final BufferStrategy bufferStrategy = getBufferStrategy();
-		assert (bufferStrategy != null) : "Cannot render a frame when the BufferStrategy being drawn to is null";
+	// Hands the frame that has just been updated over to the render thread, once it has finished with the frame before
+	private void handOverFrame() {
+		final long nsStart = System.nanoTime();
+		renderIdle.acquireUninterruptibly();
+		final long nsRenderIdle = System.nanoTime();
+		frameMetrics.record(FrameMetrics.Phase.WAIT_FOR_RENDER, nsRenderIdle - nsStart);
 		
-		if(bufferStrategy != null) {
-			// We need to get the Graphics instance for the current Buffer frame in the BufferStrategy
-			final Graphics graphics = bufferStrategy.getDrawGraphics();
-
-			if(graphics != null) {
-				guiSystem.drawToGraphicsInstance(graphics);
-				
-				// We need to release the resources being used by this Graphics instance so that it can be 'flushed' to the Buffer frame. This is essentially
-				// the draw call to the BufferStrategy
-				graphics.dispose();
-				
-				// This changes (flips) the current Buffer frame to the other Buffer frame/frames in the BufferStrategy. Essentially this changes the current
-				// frame to be the frame being drawn to the Canvas. This is what makes the Buffer frame we have drawn to visible on the Canvas object
-				bufferStrategy.show();
-			}
+		boolean handedOver = false;
+		try {
+			rethrowRenderFailure();
+			
+			// A system that is no longer the one being rendered (because another has been set) goes back to compositing its own layers, in case it's set again
+			// while the application isn't pipelined
+			final GuiSystem currentSystem = guiSystem;
+			if((renderGuiSystem != null) && (renderGuiSystem != currentSystem)) renderGuiSystem.stopPublishing();
+			if(currentSystem != null) currentSystem.publishFrame();
+			renderGuiSystem = currentSystem;
+			frameMetrics.record(FrameMetrics.Phase.PUBLISH, System.nanoTime() - nsRenderIdle);
+			
+			frameReady.release();
+			handedOver = true;
+		} finally {
+			if(!handedOver) renderIdle.release();
 		}
 	}
 	
+	private void rethrowRenderFailure() {
+		final Throwable failure = renderFailure;
+		if(failure == null) return;
+		
+		renderFailure = null;
+		Log.error("Rendering a frame on the Application render thread failed", failure);
+		if(failure instanceof Error) throw (Error) failure;
+		throw (RuntimeException) failure;
+	}
+	
+	private void renderFrame(GuiSystem system) {
+		final long nsStart = System.nanoTime();
+		screen.clear();
+		final long nsCleared = System.nanoTime();
+		screen.draw(system);
+		final long nsDrawn = System.nanoTime();
+		
+		// The frame is captured before it's presented, so it's the frame as the GuiSystem drew it (before any upscaling) and isn't held up by the display
+		final FrameRecorder currentRecorder = frameRecorder;
+		final Bitmap framebuffer = screen.getFramebuffer();
+		if((currentRecorder != null) && (framebuffer != null)) currentRecorder.capture(framebuffer);
+		final long nsCaptured = System.nanoTime();
+		
+		screen.present();
+		final long nsPresented = System.nanoTime();
+		
+		frameMetrics.record(FrameMetrics.Phase.CLEAR, nsCleared - nsStart);
+		frameMetrics.record(FrameMetrics.Phase.DRAW, nsDrawn - nsCleared);
+		if(currentRecorder != null) frameMetrics.record(FrameMetrics.Phase.CAPTURE, nsCaptured - nsDrawn);
+		frameMetrics.record(FrameMetrics.Phase.PRESENT, nsPresented - nsCaptured);
+		if(nsLastPresent >= 0) frameMetrics.record(FrameMetrics.Phase.FRAME_INTERVAL, nsPresented - nsLastPresent);
+		nsLastPresent = nsPresented;
+	}
+	
+	// The layers are cleared as part of each update (rather than each render) because a GuiLayer draws its contents during its update. With a fixed timestep
+	// a frame may have no updates at all, in which case we want the layers to keep what they drew last time rather than render empty
+	// Each phase of the update and render is timed into the frame metrics
+	private final LoopTarget loopTarget = new LoopTarget() {
+		public void update(float sTimeDelay) {
+			final long nsStart = System.nanoTime();
+			
+			// Any layers added or removed since the last update are added or removed now, before the new update sees the stack
+			if(guiSystem != null) guiSystem.applyPendingChanges();
+			
+			inputState.beginTick();
+			inputEventQueue.drainTo(inputState, guiSystem);
+			inputState.dispatchHeldEvents(guiSystem);
+			final long nsInputDrained = System.nanoTime();
+			frameMetrics.record(FrameMetrics.Phase.INPUT, nsInputDrained - nsStart);
+			
+			if(guiSystem != null) {
+				// Only the layers that can be seen on the Screen are prepared and updated (if they are cullable), so the viewport follows any change of size
+				guiSystem.setViewport(0, 0, screen.getWidth(), screen.getHeight());
+				guiSystem.prepareForRender();
+				final long nsPrepared = System.nanoTime();
+				frameMetrics.record(FrameMetrics.Phase.PREPARE, nsPrepared - nsInputDrained);
+				
+				// The update also advances the system's timers by the time delay, so they run on the same clock as the loop (see GuiSystem.getTimerScheduler)
+				guiSystem.setLayerUpdateTimingEnabled(frameMetrics.isLayerTimingEnabled());
+				guiSystem.update(sTimeDelay);
+				frameMetrics.record(FrameMetrics.Phase.UPDATE, System.nanoTime() - nsPrepared);
+			}
+		}
+		
+		public void render() {
+			if(renderThreadRunning) handOverFrame();
+			else renderFrame(guiSystem);
+		}
+	};
 	
+	/** The GuiSystem being updated and rendered. If a different system has been set while running, this is still the old system until the next frame */
 	public final GuiSystem getGuiSystem() { return guiSystem; }
 	public final boolean hasGuiSystem() { return (guiSystem != null); }
+	public final GameLoop getGameLoop() { return gameLoop; }
+	public final FrameRecorder getFrameRecorder() { return frameRecorder; }
+	public final boolean isPipelined() { return pipelined; }
+	/** Input events published to this queue (from any thread) are handed to the GuiSystem at the start of the application's next update */
+	public final InputEventQueue getInputEventQueue() { return inputEventQueue; }
+	/** The state of the keyboard and mouse as of the current update. This must only be used from the application thread */
+	public final InputState getInputState() { return inputState; }
+	/** How long each phase of the application's frames has taken. This is also available over JMX while the application is running */
+	public final FrameMetrics getFrameMetrics() { return frameMetrics; }
+	public final Screen getScreen() { return screen; }
 	
 }
@@ -0,0 +1,47 @@
+package com.macleod.engine;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/**
+ * A HeadlessScreen renders each frame into an off-screen Bitmap rather than a window. Nothing is ever displayed, and there is no vsync or display pipeline to
+ * wait on - so (when paired with an uncapped GameLoop) this measures the raw throughput of the engine. It also works with {@code java.awt.headless=true}, since
+ * it never creates a window or touches the display.
+ * <br /><br />
+ * A HeadlessScreen has no input handlers of its own. Any input needs to be given to the GuiSystem directly
+ */
+public class HeadlessScreen extends Screen {
+
+	private final Compositor compositor;
+
+	private long presentedFrameCount;
+
+	public HeadlessScreen(int width, int height) {
+		compositor = new Compositor(width, height);
+		Log.info("Have created headless Screen with dimensions ({}, {})", width, height);
+	}
+
+	// The compositor only clears (and redraws) the parts of the framebuffer that have changed since the last frame, so there's nothing to do here
+	@Override
+	public void clear() { }
+
+	@Override
+	public void draw(GuiSystem guiSystem) {
+		if(guiSystem != null) guiSystem.compositeTo(compositor);
+	}
+
+	@Override
+	public void present() { presentedFrameCount++; }
+
+	@Override
+	public int getWidth() { return compositor.getWidth(); }
+	@Override
+	public int getHeight() { return compositor.getHeight(); }
+
+	/** The framebuffer holds the last frame presented (or the frame currently being drawn, if called mid-frame from the Application thread) */
+	@Override
+	public final Bitmap getFramebuffer() { return compositor.getFramebuffer(); }
+	public final long getPresentedFrameCount() { return presentedFrameCount; }
+
+}
@@ -1,31 +1,105 @@
 package com.macleod.engine;
 
+import java.util.function.Supplier;
+
+import com.macleod.engine.log.AsyncLogWriter;
+import com.macleod.engine.log.ConsoleLogSink;
+import com.macleod.engine.log.LogRecord;
+import com.macleod.engine.log.LogSink;
+
+/**
+ * Log messages are written in the background (see AsyncLogWriter), so logging never makes the calling thread wait on the console or a file. Messages below the
+ * current log level are ignored before anything is done with them.
+ * <br /><br />
+ * To avoid building messages that may never be written, a message can be given as a format with "{}" placeholders and the arguments to replace them (which
+ * are only turned into text on the logging thread - so an argument shouldn't be changed after it has been logged), or as a Supplier that is only called if
+ * the message is going to be written. Neither allocates anything when the level is disabled, as long as a Supplier doesn't capture anything (and numbers are
+ * given through the long overloads rather than being boxed)
+ */
 public class Log {
 
 	public enum LogLevel {
 		ALL(0), INFO(10), WARN(20), ERROR(30), NONE(40);
-		
+
 		private final int priority;
 		private LogLevel(int priority) { this.priority = priority; }
 	}
-	
-	private static LogLevel currentLogLevel = LogLevel.ALL;
-	
+
+	private static volatile LogLevel currentLogLevel = LogLevel.ALL;
+
+	private static final AsyncLogWriter writer = new AsyncLogWriter(AsyncLogWriter.DEFAULT_CAPACITY, new ConsoleLogSink());
+
 	public static final void setLogLevel(LogLevel newLevel) { currentLogLevel = newLevel; }
-	
-	public static final void error(Object obj) { 
-		if(currentLogLevel.priority <= LogLevel.ERROR.priority) System.err.println("[ERROR] " + obj);
+	public static final LogLevel getLogLevel() { return currentLogLevel; }
+	public static final boolean isEnabled(LogLevel level) { return (currentLogLevel.priority <= level.priority); }
+
+	/** Replaces every sink messages are written to (by default, messages are only written to the console) */
+	public static final void setSinks(LogSink... sinks) { writer.setSinks(sinks); }
+	/** Decides what happens to messages logged while too many messages are already waiting to be written (by default they are dropped) */
+	public static final void setOverflowPolicy(AsyncLogWriter.OverflowPolicy overflowPolicy) { writer.setOverflowPolicy(overflowPolicy); }
+	/** Waits until every message logged so far has been written */
+	public static final void flush() { writer.flush(); }
+	public static final long getDroppedMessageCount() { return writer.getDroppedMessageCount(); }
+
+	public static final void error(Object obj) { if(isEnabled(LogLevel.ERROR)) logMessage(LogLevel.ERROR, obj, null); }
+	public static final void error(String message, Throwable e) { if(isEnabled(LogLevel.ERROR)) logMessage(LogLevel.ERROR, message, e); }
+	public static final void error(String format, Object argument) { if(isEnabled(LogLevel.ERROR)) logFormat(LogLevel.ERROR, format, 1, argument, null, null); }
+	public static final void error(String format, Object first, Object second) {
+		if(isEnabled(LogLevel.ERROR)) logFormat(LogLevel.ERROR, format, 2, first, second, null);
 	}
-	public static final void error(String message, Exception e) { 
-		error(message + " - " + ((e == null) ? "null" : e.getMessage()) + " - " + ((e == null) ? "null" : e.getStackTrace())); 
+	public static final void error(Supplier<String> message) { if(isEnabled(LogLevel.ERROR)) logMessage(LogLevel.ERROR, message.get(), null); }
+
+	public static final void info(Object obj) { if(isEnabled(LogLevel.INFO)) logMessage(LogLevel.INFO, obj, null); }
+	public static final void info(String format, Object argument) { if(isEnabled(LogLevel.INFO)) logFormat(LogLevel.INFO, format, 1, argument, null, null); }
+	public static final void info(String format, Object first, Object second) {
+		if(isEnabled(LogLevel.INFO)) logFormat(LogLevel.INFO, format, 2, first, second, null);
 	}
-	
-	public static final void info(Object obj) { 
-		if(currentLogLevel.priority <= LogLevel.INFO.priority) System.out.println("[INFO] " + obj);
+	public static final void info(String format, Object first, Object second, Object third) {
+		if(isEnabled(LogLevel.INFO)) logFormat(LogLevel.INFO, format, 3, first, second, third);
 	}
-	
-	public static final void warn(Object obj) { 
-		if(currentLogLevel.priority <= LogLevel.WARN.priority) System.out.println("[WARN] " + obj);
+	public static final void info(String format, long argument) { if(isEnabled(LogLevel.INFO)) logFormat(LogLevel.INFO, format, 1, argument, 0); }
+	public static final void info(String format, long first, long second) { if(isEnabled(LogLevel.INFO)) logFormat(LogLevel.INFO, format, 2, first, second); }
+	public static final void info(Supplier<String> message) { if(isEnabled(LogLevel.INFO)) logMessage(LogLevel.INFO, message.get(), null); }
+
+	public static final void warn(Object obj) { if(isEnabled(LogLevel.WARN)) logMessage(LogLevel.WARN, obj, null); }
+	public static final void warn(String format, Object argument) { if(isEnabled(LogLevel.WARN)) logFormat(LogLevel.WARN, format, 1, argument, null, null); }
+	public static final void warn(String format, Object first, Object second) {
+		if(isEnabled(LogLevel.WARN)) logFormat(LogLevel.WARN, format, 2, first, second, null);
 	}
-	
+	public static final void warn(String format, long argument) { if(isEnabled(LogLevel.WARN)) logFormat(LogLevel.WARN, format, 1, argument, 0); }
+	public static final void warn(Supplier<String> message) { if(isEnabled(LogLevel.WARN)) logMessage(LogLevel.WARN, message.get(), null); }
+
+	// Each of these claims a record from the writer, fills it in and hands it back. If the writer is full (and dropping messages) the message is lost
+
+	private static void logMessage(LogLevel level, Object message, Throwable e) {
+		final long position = writer.claim();
+		if(position < 0) return;
+
+		writer.getRecord(position).set(level, message, e);
+		writer.publish(position);
+	}
+
+	private static void logFormat(LogLevel level, String format, int numberOfArguments, Object first, Object second, Object third) {
+		final long position = writer.claim();
+		if(position < 0) return;
+
+		final LogRecord record = writer.getRecord(position);
+		record.set(level, format, null);
+		if(numberOfArguments > 0) record.addArgument(first);
+		if(numberOfArguments > 1) record.addArgument(second);
+		if(numberOfArguments > 2) record.addArgument(third);
+		writer.publish(position);
+	}
+
+	private static void logFormat(LogLevel level, String format, int numberOfArguments, long first, long second) {
+		final long position = writer.claim();
+		if(position < 0) return;
+
+		final LogRecord record = writer.getRecord(position);
+		record.set(level, format, null);
+		if(numberOfArguments > 0) record.addArgument(first);
+		if(numberOfArguments > 1) record.addArgument(second);
+		writer.publish(position);
+	}
+
 }
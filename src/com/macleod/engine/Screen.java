@@ -0,0 +1,63 @@
+package com.macleod.engine;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/**
+ * A Screen is the render target of an Application - whatever the contents of its GuiSystem are being drawn to each frame. Keeping this separate from the
+ * Application means the same update/render cycle can drive a window, or something that isn't a window at all (e.g. an off-screen framebuffer on a machine with
+ * no display).
+ * <br /><br />
+ * Each frame rendered by the Application is made up of three calls, always in this order and always from the Application thread: {@code clear}, {@code draw}
+ * and {@code present}. While the Application is pipelined (see Application.setPipelined) these are called from its render thread instead - but still never
+ * from more than one thread at a time
+ */
+public abstract class Screen {
+
+	private Application application;
+
+	/**
+	 * This is called once when the Screen is given to an Application, before the Application has been started. A Screen can only belong to one Application
+	 */
+	protected void onAttach(Application application) {
+		assert (application != null) : "Cannot attach a Screen to a null Application";
+		assert (this.application == null) : "Cannot attach a Screen to an Application when it already belongs to one";
+
+		this.application = application;
+	}
+
+	/** This is called whenever the owning Application is started - before the first frame is rendered */
+	protected void onStart() { }
+	/** This is called whenever the owning Application is stopped - after the last frame has been rendered */
+	protected void onStop() { }
+
+	/** Prepares the Screen to be drawn to. Once the frame has been drawn, nothing left over from the previous frame should be visible */
+	public abstract void clear();
+
+	/** Draws the contents of the given GuiSystem to the Screen */
+	public abstract void draw(GuiSystem guiSystem);
+
+	/** Makes everything drawn since the last {@code clear} visible */
+	public abstract void present();
+
+	/** The width of whatever the GuiSystem is drawn at - which is the virtual resolution rather than the size of the display, if the two differ */
+	public abstract int getWidth();
+	public abstract int getHeight();
+
+	/**
+	 * Maps a position across the display (e.g. of the mouse cursor, as reported by AWT) to the matching position across the GuiSystem. These are the same
+	 * unless the Screen draws the GuiSystem at a different resolution to the display. This may be called from any thread
+	 */
+	public double toGuiX(double displayX) { return displayX; }
+	/** Maps a position down the display to the matching position down the GuiSystem (see {@code toGuiX}). This may be called from any thread */
+	public double toGuiY(double displayY) { return displayY; }
+
+	/**
+	 * The Bitmap holding the frame drawn by the last {@code draw} (at the resolution the GuiSystem is drawn at), or null if the Screen doesn't keep one. This
+	 * must only be used from the thread rendering the Application's frames
+	 */
+	public Bitmap getFramebuffer() { return null; }
+
+	public final Application getApplication() { return application; }
+
+}
@@ -0,0 +1,234 @@
+package com.macleod.engine;
+
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.awt.image.BufferStrategy;
+
+import javax.swing.JFrame;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.Upscaler;
+import com.macleod.engine.graphics.gui.GuiSystem;
+import com.macleod.engine.io.FocusHandler;
+import com.macleod.engine.io.KeyboardHandler;
+import com.macleod.engine.io.MouseHandler;
+
+/**
+ * A WindowScreen is a Screen shown to the user as a desktop window. The window itself is a JFrame, but all rendering and input is handled through a Canvas
+ * inside of it (using a BufferStrategy for the rendering).
+ * <br /><br />
+ * The layers of a frame are composited in software into a single framebuffer, which is then drawn to the BufferStrategy in one go.
+ * <br /><br />
+ * A WindowScreen can be given a virtual resolution (see {@code setVirtualResolution}), in which case the framebuffer stays at that resolution whatever the
+ * size of the window, and is scaled up to the window by an Upscaler once per frame. Mouse positions are mapped back to the virtual resolution before they
+ * reach the GuiSystem
+ */
+public class WindowScreen extends Screen {
+
+	private final JFrame frame;
+	private final Canvas canvas;
+	private final int numberOfGraphicsBuffers;
+
+	// The compositor is (re)created to match the size of the Canvas (or the virtual resolution) whenever a frame is started, so it only ever changes on the
+	// Application thread
+	private Compositor compositor;
+
+	// A virtual width and height of 0 means the GuiSystem is drawn at the size of the Canvas. They are always changed (and read) together under the lock, so
+	// that no frame can see the width of one resolution and the height of another
+	private int virtualWidth = 0, virtualHeight = 0;
+	private final Upscaler upscaler = new Upscaler(Upscaler.ScaleMode.INTEGER);
+
+	public WindowScreen(String title, int initialWidth, int initialHeight) { this(title, initialWidth, initialHeight, 2); }
+
+	public WindowScreen(String title, int initialWidth, int initialHeight, int numberOfGraphicsBuffers) {
+		assert (numberOfGraphicsBuffers > 0) : "A WindowScreen needs at least one graphics buffer. Was given " + numberOfGraphicsBuffers;
+		this.numberOfGraphicsBuffers = numberOfGraphicsBuffers;
+
+		frame = new JFrame();
+		canvas = new Canvas();
+		// We need to attach the Canvas object to the JFrame (because we actually use the Canvas component for handling rendering and such - not the JFrame).
+		// This gives us options to easily restructure our code for a non-JFrame application like a web component if we wish
+		frame.getContentPane().add(canvas);
+
+		setTitle(title);
+		setSize(initialWidth, initialHeight);
+		setResizable(false);
+		//TODO: Change this close operation to be DO_NOTHING_ON_CLOSE, with a shutdown hook that calls the 'stop' method
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setLocationRelativeTo(null);
+
+		// We don't start with the window being visible until the user 'starts' the application - mostly this is so that the user is aware that they haven't
+		// started the application when they don't see anything being drawn or updated, the milliseconds of delay before anything is rendered wouldn't have a
+		// noticable impact
+		frame.setVisible(false);
+
+		Log.info("Have created Application window with dimensions ({}, {})", frame.getWidth(), frame.getHeight());
+	}
+
+	@Override
+	protected void onAttach(Application application) {
+		super.onAttach(application);
+
+		// To draw our graphics to the Canvas object, we will be using the supplied Java BufferStrategy/Graphics library
+		canvas.createBufferStrategy(numberOfGraphicsBuffers);
+		if(canvas.getBufferStrategy() == null) {
+			final IllegalStateException exception = new IllegalStateException("Didn't find a BufferStrategy for the Application window after create attempt");
+			Log.error("Failed to create a BufferStrategy for the Application window", exception);
+			throw exception;
+		} else {
+			Log.info("Graphics system has been created for the Application window");
+		}
+
+		// As previously stated, it is the Canvas that handles I/O - not the JFrame, so apply the handlers to the Canvas
+		final MouseHandler mouseHandler = new MouseHandler(application);
+		canvas.addMouseListener(mouseHandler);
+		canvas.addMouseWheelListener(mouseHandler);
+		canvas.addMouseMotionListener(mouseHandler);
+
+		final KeyboardHandler keyboardHandler = new KeyboardHandler(application);
+		canvas.addKeyListener(keyboardHandler);
+
+		final FocusHandler focusHandler = new FocusHandler(application);
+		canvas.addFocusListener(focusHandler);
+		Log.info("Have finished adding input listeners to Application window");
+	}
+
+	@Override
+	protected void onStart() { frame.setVisible(true); }
+
+	public final void setTitle(String title) {
+		assert (title != null) : "Cannot set an Application window to have a null title";
+		frame.setTitle(title);
+	}
+	public final void centreWindow() { frame.setLocationRelativeTo(null); }
+	public final void setVisible(boolean visible) { frame.setVisible(visible); }
+
+	/**
+	 * Draws the GuiSystem at the given resolution (e.g. 400x225 for pixel art), scaling each frame up to the size of the window - see Upscaler. This takes
+	 * effect from the next frame
+	 */
+	public final synchronized void setVirtualResolution(int width, int height) {
+		assert ((width > 0) && (height > 0)) : "Cannot set a virtual resolution of non-positive dimensions. Was given (" + width + "," + height + ")";
+		if((width <= 0) || (height <= 0)) return;
+
+		virtualWidth = width;
+		virtualHeight = height;
+	}
+
+	/** Goes back to drawing the GuiSystem at the size of the window, from the next frame */
+	public final synchronized void clearVirtualResolution() {
+		virtualWidth = 0;
+		virtualHeight = 0;
+	}
+
+	/** How the virtual resolution is scaled to fit the window. By default it is only ever scaled by whole numbers (with letterbox bars around it) */
+	public final void setScaleMode(Upscaler.ScaleMode scaleMode) { upscaler.setScaleMode(scaleMode); }
+	public final void setLetterboxColour(int colourARGB) { upscaler.setLetterboxColour(colourARGB); }
+
+	public final void setResizable(boolean resizable) {
+		frame.setResizable(resizable);
+	}
+
+	public final void setSize(int width, int height) {
+		assert ((width > 0) && (height > 0)) :
+			"Cannot set an Application window to have non-positive dimensions. Was given dimensions (" + width + "," + height + ")";
+
+		//TODO: In the future we will want to start having the sizing consider the JFrame border. For now, because we use the Canvas size (not JFrame size),
+		//		we will not have a JFrame of the exact dimensions width and height once this method is called. Instead, our Application window will have the
+		//		additional size of the JFrame borders and title area
+		canvas.setSize(width, height);
+
+		// Since we are setting the dimensions of the content being drawn within the JFrame (so not including the borders or title of the frame), we must pack
+		// the frame so that the size of the JFrame is constricted to the dimensions of said content. This is what the 'pack' method accomplishes
+		frame.pack();
+	}
+
+	@Override
+	public void clear() {
+		int width = Math.max(canvas.getWidth(), 1);
+		int height = Math.max(canvas.getHeight(), 1);
+		synchronized(this) {
+			if(isVirtualResolution()) {
+				width = virtualWidth;
+				height = virtualHeight;
+			}
+		}
+		if((compositor == null) || (compositor.getWidth() != width) || (compositor.getHeight() != height)) compositor = new Compositor(width, height);
+		
+		// There's nothing else to clear here - the compositor only clears (and redraws) the parts of the framebuffer that have changed since the last frame
+	}
+
+	@Override
+	public void draw(GuiSystem guiSystem) {
+		if(guiSystem != null) guiSystem.compositeTo(compositor);
+	}
+
+	@Override
+	public void present() {
+		final BufferStrategy bufferStrategy = canvas.getBufferStrategy();
+		assert (bufferStrategy != null) : "Cannot render a frame when the BufferStrategy being drawn to is null";
+
+		if(bufferStrategy != null) {
+			// We need to get the Graphics instance for the current Buffer frame in the BufferStrategy
+			final Graphics graphics = bufferStrategy.getDrawGraphics();
+
+			if(graphics != null) {
+				// Every layer has already been composited into the framebuffer, so the only drawing left is a single (opaque) copy of it. This has to be the
+				// whole framebuffer (not just what changed) since the contents of a Buffer frame aren't kept once it has been shown
+				if((compositor.getWidth() == canvas.getWidth()) && (compositor.getHeight() == canvas.getHeight())) {
+					compositor.getFramebuffer().drawToGraphicsInstance(graphics, 0, 0);
+				} else {
+					// Scaling here (rather than asking Java2D to scale the framebuffer as it draws it) keeps every frame pixel perfect, and only rescales the
+					// part of the framebuffer that changed
+					final Bitmap upscaled = upscaler.upscale(compositor.getFramebuffer(), compositor.getLastCompositedRegion(), Math.max(canvas.getWidth(), 1),
+							Math.max(canvas.getHeight(), 1));
+					upscaled.drawToGraphicsInstance(graphics, 0, 0);
+				}
+
+				// We need to release the resources being used by this Graphics instance so that it can be 'flushed' to the Buffer frame. This is essentially
+				// the draw call to the BufferStrategy
+				graphics.dispose();
+
+				// This changes (flips) the current Buffer frame to the other Buffer frame/frames in the BufferStrategy. Essentially this changes the current
+				// frame to be the frame being drawn to the Canvas. This is what makes the Buffer frame we have drawn to visible on the Canvas object
+				bufferStrategy.show();
+			} else {
+				Log.error("A graphics instance was not found for the current draw frame");
+			}
+		}
+	}
+
+	/** The framebuffer holds the frame before it is upscaled to the window, if there is a virtual resolution. This is null until the first frame */
+	@Override
+	public Bitmap getFramebuffer() { return ((compositor == null) ? null : compositor.getFramebuffer()); }
+
+	private synchronized boolean isVirtualResolution() { return ((virtualWidth > 0) && (virtualHeight > 0)); }
+
+	@Override
+	public synchronized int getWidth() { return (isVirtualResolution() ? virtualWidth : canvas.getWidth()); }
+	@Override
+	public synchronized int getHeight() { return (isVirtualResolution() ? virtualHeight : canvas.getHeight()); }
+
+	@Override
+	public double toGuiX(double displayX) {
+		final Upscaler.Viewport viewport = upscaler.getViewport();
+		return (isMappedByUpscaler(viewport) ? viewport.toSourceX(displayX) : displayX);
+	}
+
+	@Override
+	public double toGuiY(double displayY) {
+		final Upscaler.Viewport viewport = upscaler.getViewport();
+		return (isMappedByUpscaler(viewport) ? viewport.toSourceY(displayY) : displayY);
+	}
+
+	// The viewport is only in use while the frames are being upscaled, which is whenever the framebuffer and window differ in size
+	private boolean isMappedByUpscaler(Upscaler.Viewport viewport) {
+		return ((viewport != null) && isVirtualResolution() && ((viewport.sourceWidth != canvas.getWidth()) || (viewport.sourceHeight != canvas.getHeight())));
+	}
+
+	/** The width of the window's drawing area, which differs from {@code getWidth} when there is a virtual resolution */
+	public final int getWindowWidth() { return canvas.getWidth(); }
+	public final int getWindowHeight() { return canvas.getHeight(); }
+
+}
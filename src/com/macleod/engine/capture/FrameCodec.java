@@ -0,0 +1,182 @@
+package com.macleod.engine.capture;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The encoding shared by FrameRecorder and FrameRecordingReader.
+ * <br /><br />
+ * A recording starts with an uncompressed header (the magic number and version, as little-endian ints), followed by a deflated stream of records. Each record
+ * starts with its type: a frame, a key frame (a frame with new dimensions, which is encoded against a fully zero previous frame) or the end of the recording.
+ * A frame record holds the frame number, the nanoseconds since the recording started, the dimensions (key frames only), and the size of the encoded pixels
+ * followed by the pixels themselves.
+ * <br /><br />
+ * The pixels of a frame are XORed with the pixels of the frame before it (so any pixel that hasn't changed becomes 0), and the result is run-length encoded
+ * as a sequence of runs. Each run starts with a varint holding its length and kind: a run of unchanged pixels, a run of one XORed value repeated (followed by
+ * the value), or a run of literal XORed values (followed by every value)
+ */
+final class FrameCodec {
+
+	// "JGER" - so that anything that isn't a recording is rejected straight away
+	static final int MAGIC = 0x4A474552;
+	static final int VERSION = 1;
+
+	static final int RECORD_END = 0;
+	static final int RECORD_FRAME = 1;
+	static final int RECORD_KEY_FRAME = 2;
+
+	private static final int RUN_UNCHANGED = 0, RUN_REPEATED = 1, RUN_LITERAL = 2;
+	private static final int RUN_KIND_BITS = 2;
+	// A repeated run shorter than this is cheaper to write as literals
+	private static final int MIN_REPEATED_RUN = 3;
+
+	// The encoded bytes of the last frame (or record header) encoded. This grows to fit the largest frame, and is then reused for every frame after
+	private byte[] buffer = new byte[64 * 1024];
+	private int size = 0;
+
+	/** Encodes the difference between the two frames into the buffer (replacing whatever it held) */
+	void encodeFrame(int[] current, int[] previous, int length) {
+		size = 0;
+
+		int i = 0;
+		while(i < length) {
+			final int difference = current[i] ^ previous[i];
+			final int runStart = i;
+
+			if(difference == 0) {
+				i++;
+				while((i < length) && (current[i] == previous[i])) i++;
+				writeRun(RUN_UNCHANGED, i - runStart);
+				continue;
+			}
+
+			i++;
+			while((i < length) && ((current[i] ^ previous[i]) == difference)) i++;
+			if((i - runStart) >= MIN_REPEATED_RUN) {
+				writeRun(RUN_REPEATED, i - runStart);
+				writeInt(difference);
+				continue;
+			}
+
+			// A literal run carries on until it reaches an unchanged pixel, or a long enough repeated run to be worth writing as one
+			i = runStart + 1;
+			while((i < length) && !isRunBreak(current, previous, i, length)) i++;
+			writeRun(RUN_LITERAL, i - runStart);
+			ensureCapacity(4 * (i - runStart));
+			for(int j = runStart; j < i; j++) writeInt(current[j] ^ previous[j]);
+		}
+	}
+
+	private static boolean isRunBreak(int[] current, int[] previous, int i, int length) {
+		final int difference = current[i] ^ previous[i];
+		if(difference == 0) return true;
+		if((i + MIN_REPEATED_RUN) > length) return false;
+
+		for(int j = i + 1; j < (i + MIN_REPEATED_RUN); j++) {
+			if((current[j] ^ previous[j]) != difference) return false;
+		}
+		return true;
+	}
+
+	private void writeRun(int kind, int length) { writeVarLong(((long) length << RUN_KIND_BITS) | kind); }
+
+	void clear() { size = 0; }
+
+	void writeByte(int value) {
+		ensureCapacity(1);
+		buffer[size++] = (byte) value;
+	}
+
+	void writeInt(int value) {
+		ensureCapacity(4);
+		buffer[size++] = (byte) value;
+		buffer[size++] = (byte) (value >>> 8);
+		buffer[size++] = (byte) (value >>> 16);
+		buffer[size++] = (byte) (value >>> 24);
+	}
+
+	// 7 bits at a time, lowest first, with the top bit of each byte set if more follow - so small values (most run lengths) only take a single byte
+	void writeVarLong(long value) {
+		ensureCapacity(10);
+		while((value & ~0x7fL) != 0) {
+			buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+	}
+
+	private void ensureCapacity(int extraBytes) {
+		if((size + extraBytes) > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extraBytes));
+	}
+
+	byte[] getBuffer() { return buffer; }
+	int getSize() { return size; }
+
+	/**
+	 * Applies an encoded frame to the given pixels (which must hold the previous frame). Anything that would read or write beyond the end of the encoded bytes
+	 * or the frame means the recording is damaged
+	 */
+	static void decodeFrame(byte[] data, int dataLength, int[] pixels, int length) throws IOException {
+		int position = 0;
+		int i = 0;
+		while(i < length) {
+			long run = 0;
+			for(int shift = 0; ; shift += 7) {
+				if((position >= dataLength) || (shift >= 64)) throw new IOException("Found a damaged run at pixel " + i);
+				final int part = data[position++];
+				run |= (long) (part & 0x7f) << shift;
+				if((part & 0x80) == 0) break;
+			}
+
+			final int kind = (int) (run & ((1 << RUN_KIND_BITS) - 1));
+			final long runLength = (run >>> RUN_KIND_BITS);
+			if((runLength <= 0) || (runLength > (length - i))) throw new IOException("Found a run of " + runLength + " pixels with only " + (length - i) + " left");
+
+			final int runEnd = i + (int) runLength;
+			switch(kind) {
+				case RUN_UNCHANGED: i = runEnd; break;
+				case RUN_REPEATED: {
+					if((position + 4) > dataLength) throw new IOException("Found a repeated run missing its value at pixel " + i);
+					final int difference = getInt(data, position);
+					position += 4;
+					for(; i < runEnd; i++) pixels[i] ^= difference;
+					break;
+				}
+				case RUN_LITERAL: {
+					if((position + (4L * runLength)) > dataLength) throw new IOException("Found a literal run missing its values at pixel " + i);
+					for(; i < runEnd; i++, position += 4) pixels[i] ^= getInt(data, position);
+					break;
+				}
+				default: throw new IOException("Found a run of unknown kind " + kind);
+			}
+		}
+		if(position != dataLength) throw new IOException("Found " + (dataLength - position) + " bytes left over after a frame");
+	}
+
+	private static int getInt(byte[] data, int position) {
+		return ((data[position] & 0xff) | ((data[position + 1] & 0xff) << 8) | ((data[position + 2] & 0xff) << 16) | ((data[position + 3] & 0xff) << 24));
+	}
+
+	static int readByte(InputStream in) throws IOException {
+		final int value = in.read();
+		if(value < 0) throw new EOFException("The recording ended part way through a record");
+		return value;
+	}
+
+	static int readInt(InputStream in) throws IOException {
+		return (readByte(in) | (readByte(in) << 8) | (readByte(in) << 16) | (readByte(in) << 24));
+	}
+
+	static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			final int part = readByte(in);
+			value |= (long) (part & 0x7f) << shift;
+			if((part & 0x80) == 0) return value;
+		}
+		throw new IOException("Found a varint longer than 64 bits");
+	}
+
+}
@@ -0,0 +1,254 @@
+package com.macleod.engine.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.macleod.engine.Log;
+import com.macleod.engine.graphics.Bitmap;
+
+/**
+ * A FrameRecorder records every frame it is given to a file, which can be played back with a FrameRecordingReader (see FrameCodec for the format). Each frame
+ * is stored as its difference from the frame before it, so a frame where little has changed takes up very little space - and the whole recording is deflated
+ * on top of that, so that a recording of an hour or more stays a manageable size.
+ * <br /><br />
+ * Capturing a frame only copies its pixels into one of a fixed number of reused buffers, and never waits. The buffer is then encoded and written by a
+ * background thread. If the background thread falls behind (so every buffer is still waiting to be written) the frame is dropped rather than the frame loop
+ * being held up. Dropped frames still use up a frame number, so they show up as gaps when the recording is played back.
+ * <br /><br />
+ * Frames should only be captured from a single thread (normally the Application thread, see {@code Application.setFrameRecorder}). The recording is flushed
+ * roughly once a second, so if the program dies without the recorder being closed everything up to the last flush can still be played back
+ */
+public final class FrameRecorder implements Closeable {
+
+	public static final int DEFAULT_NUMBER_OF_BUFFERS = 4;
+
+	private static final long NS_FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final Path file;
+	private final OutputStream out;
+
+	// Buffers cycle from free, to pending (once captured), and back to free (once written). There are never more than numberOfBuffers of them in the pending
+	// queue, so there's always room for the end of recording marker as well
+	private final ArrayBlockingQueue<CapturedFrame> freeFrames;
+	private final ArrayBlockingQueue<CapturedFrame> pendingFrames;
+	private final CapturedFrame endOfRecording = new CapturedFrame();
+
+	private final Thread writerThread;
+	private final long nsStart = System.nanoTime();
+
+	private volatile boolean closed = false;
+	private volatile IOException failure;
+
+	private volatile long capturedFrameCount = 0;
+	private final AtomicLong droppedFrameCount = new AtomicLong(0);
+	private final AtomicLong writtenFrameCount = new AtomicLong(0);
+	private final AtomicLong writtenByteCount = new AtomicLong(0);
+
+	// These are only used by the background thread
+	private final FrameCodec recordHeader = new FrameCodec();
+	private final FrameCodec framePixels = new FrameCodec();
+	private int[] previousPixels = new int[0];
+	private int previousWidth = -1, previousHeight = -1;
+
+	public FrameRecorder(Path file) throws IOException { this(file, DEFAULT_NUMBER_OF_BUFFERS); }
+
+	/** Creates (or replaces) the given file and starts recording to it. The number of buffers is how many frames can be waiting to be written at once */
+	public FrameRecorder(Path file, int numberOfBuffers) throws IOException {
+		if((file == null) || (numberOfBuffers <= 0)) {
+			final IllegalArgumentException exception = new IllegalArgumentException("A FrameRecorder needs a file and a positive number of buffers. Was given "
+					+ file + " and " + numberOfBuffers);
+			Log.error("An attempt was made to create a FrameRecorder with invalid arguments", exception);
+			throw exception;
+		}
+
+		this.file = file;
+		final Path directory = file.toAbsolutePath().getParent();
+		if(directory != null) Files.createDirectories(directory);
+
+		final OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(file), STREAM_BUFFER_SIZE);
+		try {
+			recordHeader.writeInt(FrameCodec.MAGIC);
+			recordHeader.writeInt(FrameCodec.VERSION);
+			fileOut.write(recordHeader.getBuffer(), 0, recordHeader.getSize());
+		} catch(IOException e) {
+			fileOut.close();
+			throw e;
+		}
+		// Sync flushing is what lets everything written before a flush be read back even if the recording is never finished
+		out = new DeflaterOutputStream(fileOut, new Deflater(Deflater.BEST_SPEED), STREAM_BUFFER_SIZE, true);
+
+		freeFrames = new ArrayBlockingQueue<CapturedFrame>(numberOfBuffers);
+		pendingFrames = new ArrayBlockingQueue<CapturedFrame>(numberOfBuffers + 1);
+		for(int i = 0; i < numberOfBuffers; i++) freeFrames.add(new CapturedFrame());
+
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "Frame recorder");
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		Log.info("Have started recording frames to {}", file);
+	}
+
+	/**
+	 * Copies the pixels of the given frame to be written to the recording. This never waits for the background thread.
+	 *
+	 * @return
+	 * 		Whether the frame was captured - false if it was dropped because every buffer was still waiting to be written, or the recorder has been closed or
+	 * 		has failed to write to its file
+	 */
+	public boolean capture(Bitmap frame) {
+		assert (frame != null) : "Cannot capture a null frame";
+		if(frame == null) return false;
+
+		final long frameNumber = capturedFrameCount;
+		capturedFrameCount = frameNumber + 1;
+
+		final CapturedFrame captured = (closed || (failure != null)) ? null : freeFrames.poll();
+		if(captured == null) {
+			droppedFrameCount.incrementAndGet();
+			return false;
+		}
+
+		final int length = frame.getWidth() * frame.getHeight();
+		if(captured.pixels.length < length) captured.pixels = new int[length];
+		frame.getPixels(captured.pixels);
+		captured.width = frame.getWidth();
+		captured.height = frame.getHeight();
+		captured.frameNumber = frameNumber;
+		captured.nsTimestamp = System.nanoTime() - nsStart;
+
+		pendingFrames.add(captured);
+		return true;
+	}
+
+	private void writeLoop() {
+		long nsLastFlush = System.nanoTime();
+		while(true) {
+			final CapturedFrame frame;
+			try { frame = pendingFrames.take();
+			} catch(InterruptedException e) { continue; }
+			if(frame == endOfRecording) break;
+
+			if(failure == null) {
+				try {
+					writeFrame(frame);
+					if((System.nanoTime() - nsLastFlush) >= NS_FLUSH_INTERVAL) {
+						out.flush();
+						nsLastFlush = System.nanoTime();
+					}
+				} catch(IOException e) {
+					Log.error("Failed to write a frame to the recording " + file + ". Nothing more will be recorded", e);
+					failure = e;
+				}
+			}
+
+			// The frame just written is what the next frame is compared against, so its pixels are kept, and the buffer takes the old ones in exchange
+			final int[] written = frame.pixels;
+			frame.pixels = previousPixels;
+			previousPixels = written;
+			freeFrames.add(frame);
+		}
+
+		try {
+			try {
+				if(failure == null) {
+					out.write(FrameCodec.RECORD_END);
+					out.flush();
+				}
+			} finally {
+				out.close();
+			}
+		} catch(IOException e) {
+			Log.error("Failed to finish the recording " + file, e);
+			if(failure == null) failure = e;
+		}
+	}
+
+	private void writeFrame(CapturedFrame frame) throws IOException {
+		final int length = frame.width * frame.height;
+		final boolean keyFrame = ((frame.width != previousWidth) || (frame.height != previousHeight));
+		if(keyFrame) {
+			// A key frame is compared against a frame of nothing but zeroes, so it can be decoded without anything before it
+			if(previousPixels.length < length) previousPixels = new int[length];
+			else Arrays.fill(previousPixels, 0, length, 0);
+			previousWidth = frame.width;
+			previousHeight = frame.height;
+		}
+
+		framePixels.encodeFrame(frame.pixels, previousPixels, length);
+
+		recordHeader.clear();
+		recordHeader.writeByte(keyFrame ? FrameCodec.RECORD_KEY_FRAME : FrameCodec.RECORD_FRAME);
+		recordHeader.writeVarLong(frame.frameNumber);
+		recordHeader.writeVarLong(frame.nsTimestamp);
+		if(keyFrame) {
+			recordHeader.writeVarLong(frame.width);
+			recordHeader.writeVarLong(frame.height);
+		}
+		recordHeader.writeVarLong(framePixels.getSize());
+
+		out.write(recordHeader.getBuffer(), 0, recordHeader.getSize());
+		out.write(framePixels.getBuffer(), 0, framePixels.getSize());
+		writtenFrameCount.incrementAndGet();
+		writtenByteCount.addAndGet(recordHeader.getSize() + framePixels.getSize());
+	}
+
+	/**
+	 * Stops recording, and waits for every frame already captured to be written and the file to be closed. Closing a recorder that is already closed does
+	 * nothing.
+	 *
+	 * @throws IOException
+	 * 		If anything failed to be written to the recording (including before it was closed)
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(!closed) {
+				closed = true;
+				pendingFrames.add(endOfRecording);
+			}
+		}
+
+		boolean interrupted = false;
+		while(writerThread.isAlive()) {
+			try { writerThread.join();
+			} catch(InterruptedException e) { interrupted = true; }
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+
+		if(failure != null) throw new IOException("Failed to write the recording " + file, failure);
+	}
+
+	public Path getFile() { return file; }
+	public boolean isClosed() { return closed; }
+	/** Whether writing to the file has failed. Once it has, every frame captured after is dropped */
+	public boolean hasFailed() { return (failure != null); }
+	/** The number of frames given to {@code capture}, including those that were dropped */
+	public long getCapturedFrameCount() { return capturedFrameCount; }
+	public long getDroppedFrameCount() { return droppedFrameCount.get(); }
+	public long getWrittenFrameCount() { return writtenFrameCount.get(); }
+	/** The number of bytes of records written so far, before being deflated */
+	public long getWrittenByteCount() { return writtenByteCount.get(); }
+
+	private static final class CapturedFrame {
+		private int[] pixels = new int[0];
+		private int width, height;
+		private long frameNumber;
+		private long nsTimestamp;
+	}
+
+}
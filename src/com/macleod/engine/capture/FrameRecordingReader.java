@@ -0,0 +1,164 @@
+package com.macleod.engine.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.macleod.engine.Log;
+import com.macleod.engine.graphics.Bitmap;
+
+/**
+ * A FrameRecordingReader plays back a recording made by a FrameRecorder, one frame at a time. Each call to {@code nextFrame} moves on to the next frame in the
+ * recording, which can then be drawn or compared through {@code getFrame}.
+ * <br /><br />
+ * A recording that was never finished (e.g. because the program recording it died) can still be played back up to the last frame that made it into the file -
+ * {@code isTruncated} then says so once the end has been reached
+ */
+public final class FrameRecordingReader implements Closeable {
+
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	private final Path file;
+	private final Inflater inflater = new Inflater();
+	private final InputStream in;
+
+	private byte[] encodedPixels = new byte[STREAM_BUFFER_SIZE];
+	private int[] pixels = new int[0];
+	private int width = 0, height = 0;
+	private long frameNumber = -1, nsTimestamp = -1;
+
+	// The frame is only copied into the Bitmap when it's asked for, so skipping through a recording doesn't pay for every frame being copied
+	private Bitmap frame;
+	private boolean frameOutOfDate = false;
+
+	private boolean ended = false, truncated = false;
+
+	public FrameRecordingReader(Path file) throws IOException {
+		assert (file != null) : "Cannot read a recording from a null file";
+
+		this.file = file;
+		final InputStream fileIn = new BufferedInputStream(Files.newInputStream(file), STREAM_BUFFER_SIZE);
+		try {
+			final int magic = FrameCodec.readInt(fileIn);
+			final int version = FrameCodec.readInt(fileIn);
+			if((magic != FrameCodec.MAGIC) || (version != FrameCodec.VERSION)) {
+				final IOException exception = new IOException(file + " is not a recording this FrameRecordingReader can read (found magic number "
+						+ Integer.toHexString(magic) + " and version " + version + ")");
+				Log.error("An attempt was made to read something that isn't a supported recording", exception);
+				throw exception;
+			}
+		} catch(IOException e) {
+			fileIn.close();
+			inflater.end();
+			throw e;
+		}
+
+		// The records are mostly read a byte at a time, so they're buffered again after being inflated
+		in = new BufferedInputStream(new InflaterInputStream(fileIn, inflater, STREAM_BUFFER_SIZE), STREAM_BUFFER_SIZE);
+	}
+
+	/**
+	 * Moves on to the next frame of the recording.
+	 *
+	 * @return
+	 * 		Whether there was another frame - false once the end of the recording (or the end of what was written, for a recording that was never finished)
+	 * 		has been reached
+	 * @throws IOException
+	 * 		If the recording is damaged, or can't be read
+	 */
+	public boolean nextFrame() throws IOException {
+		if(ended) return false;
+
+		try {
+			final int type = in.read();
+			if(type == FrameCodec.RECORD_END) {
+				ended = true;
+				return false;
+			}
+			if(type < 0) throw new EOFException("The recording ended without an end record");
+			if((type != FrameCodec.RECORD_FRAME) && (type != FrameCodec.RECORD_KEY_FRAME)) throw new IOException("Found a record of unknown type " + type);
+
+			frameNumber = FrameCodec.readVarLong(in);
+			nsTimestamp = FrameCodec.readVarLong(in);
+			if(type == FrameCodec.RECORD_KEY_FRAME) {
+				final long newWidth = FrameCodec.readVarLong(in), newHeight = FrameCodec.readVarLong(in);
+				if((newWidth <= 0) || (newHeight <= 0) || ((newWidth * newHeight) > Integer.MAX_VALUE)) {
+					throw new IOException("Found a key frame with invalid dimensions (" + newWidth + "," + newHeight + ")");
+				}
+
+				width = (int) newWidth;
+				height = (int) newHeight;
+				if(pixels.length < (width * height)) pixels = new int[width * height];
+				else Arrays.fill(pixels, 0, width * height, 0);
+			} else if(width == 0) {
+				throw new IOException("Found a frame before the first key frame");
+			}
+
+			final long encodedSize = FrameCodec.readVarLong(in);
+			if((encodedSize <= 0) || (encodedSize > Integer.MAX_VALUE)) throw new IOException("Found a frame with an invalid size of " + encodedSize + " bytes");
+			if(encodedPixels.length < encodedSize) encodedPixels = new byte[(int) encodedSize];
+			readFully(encodedPixels, (int) encodedSize);
+
+			FrameCodec.decodeFrame(encodedPixels, (int) encodedSize, pixels, width * height);
+			frameOutOfDate = true;
+			return true;
+		} catch(EOFException e) {
+			// Whatever was flushed before the recording stopped is still worth playing back, so running out part way through isn't treated as an error
+			Log.info("The recording {} ends part way through, after frame {}", file, frameNumber);
+			ended = true;
+			truncated = true;
+			return false;
+		}
+	}
+
+	private void readFully(byte[] destination, int length) throws IOException {
+		int offset = 0;
+		while(offset < length) {
+			final int numberRead = in.read(destination, offset, length - offset);
+			if(numberRead < 0) throw new EOFException("The recording ended part way through a frame");
+			offset += numberRead;
+		}
+	}
+
+	/**
+	 * The current frame (see {@code nextFrame}), or null before the first frame. This is the same Bitmap every time (with its pixels replaced for each frame)
+	 * until the dimensions of the frames change
+	 */
+	public Bitmap getFrame() {
+		if(width == 0) return null;
+
+		if((frame == null) || (frame.getWidth() != width) || (frame.getHeight() != height)) {
+			frame = new Bitmap(width, height);
+			frameOutOfDate = true;
+		}
+		if(frameOutOfDate) {
+			frame.setPixels(pixels);
+			frameOutOfDate = false;
+		}
+		return frame;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try { in.close();
+		} finally { inflater.end(); }
+	}
+
+	public Path getFile() { return file; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	/** The number of the current frame, counting from 0 at the first frame captured. Gaps between frame numbers are frames that were dropped */
+	public long getFrameNumber() { return frameNumber; }
+	/** The time the current frame was captured, in nanoseconds since the recording started */
+	public long getNsTimestamp() { return nsTimestamp; }
+	/** Whether the recording was never finished - which is only known once {@code nextFrame} has reached the end of it */
+	public boolean isTruncated() { return truncated; }
+
+}
@@ -0,0 +1,49 @@
+package com.macleod.engine.entity;
+
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+
+/**
+ * An EntityLayer is a GuiLayer showing an EntityWorld. Every update it moves the entities (see MovementSystem), then draws them all into itself in one batch
+ * (see SpriteBatch) - so however many entities there are, the GuiSystem only ever sees a single layer with a single update.
+ * <br /><br />
+ * Anything else the entities need to do each update (spawning, steering, destroying...) can be done by overriding {@code updateEntities}, which is called
+ * before they are moved
+ */
+public class EntityLayer extends GuiLayer {
+
+	private final EntityWorld world;
+	private final MovementSystem movementSystem = new MovementSystem();
+	private final SpriteBatch spriteBatch = new SpriteBatch();
+
+	public EntityLayer(int x, int y, int width, int height) { this(x, y, width, height, new EntityWorld()); }
+
+	public EntityLayer(int x, int y, int width, int height, EntityWorld world) {
+		super(x, y, width, height);
+		assert (world != null) : "Cannot create an EntityLayer with a null EntityWorld";
+		this.world = world;
+	}
+
+	/** Called at the start of every update, before the entities are moved and drawn */
+	protected void updateEntities(float sTimeDelay) { }
+
+	@Override
+	public void update(float sTimeDelay) {
+		updateEntities(sTimeDelay);
+		movementSystem.update(world, sTimeDelay);
+		spriteBatch.draw(world, this);
+	}
+
+	@Override
+	public boolean recieveGuiEvent(GuiEvent event) { return false; }
+
+	@Override
+	public void onLoad() { }
+	@Override
+	public void onUnload() { }
+
+	public final EntityWorld getWorld() { return world; }
+	public final MovementSystem getMovementSystem() { return movementSystem; }
+	public final SpriteBatch getSpriteBatch() { return spriteBatch; }
+
+}
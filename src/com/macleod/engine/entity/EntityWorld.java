@@ -0,0 +1,243 @@
+package com.macleod.engine.entity;
+
+import com.macleod.engine.Log;
+
+/**
+ * An EntityWorld holds large numbers of simple moving objects (entities) - far more than could each be a GuiLayer. Rather than an object per entity, every
+ * property is kept in its own primitive array (struct-of-arrays), so that a system working through one or two properties of every entity (see MovementSystem)
+ * only touches the memory it needs, in order, in a loop the JIT can keep tight.
+ * <br /><br />
+ * The live entities are always packed at the start of the arrays, from index 0 up to {@code getCount}. Destroying an entity moves the last entity into its
+ * place, so the index of an entity changes over time and must never be kept - keep its handle (a long returned by {@code create}) instead. A handle holds the
+ * entity's slot and the generation of that slot, so the handle of a destroyed entity is never mistaken for a later entity given the same slot.
+ * <br /><br />
+ * Slots are recycled, so once the world has grown to the largest number of entities it holds at once, creating and destroying entities never allocates.
+ * Entities must not be created or destroyed while a system is iterating over the arrays (collect the handles, and destroy them afterwards). An EntityWorld is
+ * only meant to be used by a single thread at a time - normally from within the update of the layer showing it
+ */
+public final class EntityWorld {
+
+	/** A handle that never belongs to an entity, since every generation starts at 1 */
+	public static final long NO_ENTITY = 0;
+
+	/** The entity is drawn by a SpriteBatch. Every entity starts visible */
+	public static final int FLAG_VISIBLE = 1;
+	/** The entity bounces off the edges of the bounds of a MovementSystem, rather than carrying on past them */
+	public static final int FLAG_BOUNDED = 1 << 1;
+
+	// The properties of the live entities, packed from index 0 up to count
+	private float[] x, y, velocityX, velocityY;
+	private int[] sprite, z, flags;
+	// The slot of the entity at each index, and the index of the entity in each slot (or -1 if the slot is free)
+	private int[] indexToSlot, slotToIndex;
+	private int[] slotGenerations;
+	// The free slots are kept as a stack, so the most recently freed slot (most likely still in the cache) is reused first
+	private int[] freeSlots;
+	private int freeSlotCount = 0;
+	private int slotCount = 0;
+
+	private int count = 0;
+
+	public EntityWorld() { this(1024); }
+
+	public EntityWorld(int initialCapacity) {
+		assert (initialCapacity > 0) : "An EntityWorld needs a positive initial capacity. Was given " + initialCapacity;
+		allocate(Math.max(initialCapacity, 1));
+	}
+
+	/**
+	 * Creates an entity at the given position (with no velocity, and visible), showing the given sprite at the given depth (see SpriteBatch). This only
+	 * allocates if the world is already full, in which case its capacity doubles
+	 *
+	 * @return
+	 * 		The handle of the new entity
+	 */
+	public long create(float x, float y, int spriteId, int z) {
+		if(count == this.x.length) allocate(this.x.length * 2);
+
+		final int slot = (freeSlotCount > 0) ? freeSlots[--freeSlotCount] : slotCount++;
+		final int index = count++;
+		indexToSlot[index] = slot;
+		slotToIndex[slot] = index;
+
+		this.x[index] = x;
+		this.y[index] = y;
+		velocityX[index] = 0;
+		velocityY[index] = 0;
+		sprite[index] = spriteId;
+		this.z[index] = z;
+		flags[index] = FLAG_VISIBLE;
+
+		return toHandle(slot, slotGenerations[slot]);
+	}
+
+	/**
+	 * Destroys the entity with the given handle, moving the last entity into its index. Its slot is reused by a later entity, under a new generation
+	 *
+	 * @return
+	 * 		Whether the entity was destroyed - which it isn't if it had already been destroyed
+	 */
+	public boolean destroy(long entity) {
+		final int index = indexOf(entity);
+		if(index < 0) return false;
+
+		final int slot = indexToSlot[index];
+		final int lastIndex = --count;
+		if(index != lastIndex) {
+			x[index] = x[lastIndex];
+			y[index] = y[lastIndex];
+			velocityX[index] = velocityX[lastIndex];
+			velocityY[index] = velocityY[lastIndex];
+			sprite[index] = sprite[lastIndex];
+			z[index] = z[lastIndex];
+			flags[index] = flags[lastIndex];
+
+			final int movedSlot = indexToSlot[lastIndex];
+			indexToSlot[index] = movedSlot;
+			slotToIndex[movedSlot] = index;
+		}
+
+		slotToIndex[slot] = -1;
+		// The generation skips 0 as it wraps, so that NO_ENTITY can never be a real handle
+		slotGenerations[slot] = (slotGenerations[slot] == Integer.MAX_VALUE) ? 1 : (slotGenerations[slot] + 1);
+		freeSlots[freeSlotCount++] = slot;
+		return true;
+	}
+
+	/** Destroys every entity. Every handle given out so far stops being valid */
+	public void clear() {
+		while(count > 0) destroy(getEntity(count - 1));
+	}
+
+	/** The index of the entity with the given handle (which changes as other entities are destroyed), or -1 if it has been destroyed */
+	public int indexOf(long entity) {
+		final int slot = (int) entity;
+		if((slot < 0) || (slot >= slotCount) || (slotGenerations[slot] != (int) (entity >>> 32))) return -1;
+		return slotToIndex[slot];
+	}
+
+	public boolean isAlive(long entity) { return (indexOf(entity) >= 0); }
+
+	/** The handle of the entity at the given index */
+	public long getEntity(int index) {
+		assert ((index >= 0) && (index < count)) : "Cannot get the entity at index " + index + " of an EntityWorld holding " + count + " entities";
+
+		final int slot = indexToSlot[index];
+		return toHandle(slot, slotGenerations[slot]);
+	}
+
+	public void setPosition(long entity, float x, float y) {
+		final int index = checkedIndexOf(entity);
+		if(index < 0) return;
+
+		this.x[index] = x;
+		this.y[index] = y;
+	}
+
+	public void setVelocity(long entity, float velocityX, float velocityY) {
+		final int index = checkedIndexOf(entity);
+		if(index < 0) return;
+
+		this.velocityX[index] = velocityX;
+		this.velocityY[index] = velocityY;
+	}
+
+	public void setSprite(long entity, int spriteId) {
+		final int index = checkedIndexOf(entity);
+		if(index >= 0) sprite[index] = spriteId;
+	}
+
+	public void setZ(long entity, int z) {
+		final int index = checkedIndexOf(entity);
+		if(index >= 0) this.z[index] = z;
+	}
+
+	public void setFlags(long entity, int flags) {
+		final int index = checkedIndexOf(entity);
+		if(index >= 0) this.flags[index] = flags;
+	}
+
+	/** The x position of the entity. Throws an IllegalArgumentException if the entity has been destroyed (check isAlive first, if it might have been) */
+	public float getX(long entity) { return x[liveIndexOf(entity)]; }
+	/** The y position of the entity. Throws an IllegalArgumentException if the entity has been destroyed (check isAlive first, if it might have been) */
+	public float getY(long entity) { return y[liveIndexOf(entity)]; }
+	/** The flags of the entity. Throws an IllegalArgumentException if the entity has been destroyed (check isAlive first, if it might have been) */
+	public int getFlags(long entity) { return flags[liveIndexOf(entity)]; }
+
+	// Unlike changing a destroyed entity, reading one has no sensible answer - so it throws, whether or not assertions are enabled
+	private int liveIndexOf(long entity) {
+		final int index = indexOf(entity);
+		if(index < 0) {
+			final IllegalArgumentException exception = new IllegalArgumentException("The entity " + Long.toHexString(entity) + " has been destroyed");
+			Log.error("An attempt was made to read an entity after it was destroyed", exception);
+			throw exception;
+		}
+		return index;
+	}
+
+	// Changing a destroyed entity is almost certainly a mistake (the handle has been kept too long), but it's ignored rather than changing another entity
+	private int checkedIndexOf(long entity) {
+		final int index = indexOf(entity);
+		assert (index >= 0) : "Cannot use the entity " + Long.toHexString(entity) + " after it has been destroyed";
+		return index;
+	}
+
+	/** Makes sure the world can hold the given number of entities without allocating again */
+	public void ensureCapacity(int capacity) {
+		if(capacity > x.length) allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		if(capacity < 0) {
+			final IllegalStateException exception = new IllegalStateException("An EntityWorld cannot hold more than " + Integer.MAX_VALUE + " entities");
+			Log.error("An EntityWorld has run out of room for more entities", exception);
+			throw exception;
+		}
+
+		x = grow(x, capacity);
+		y = grow(y, capacity);
+		velocityX = grow(velocityX, capacity);
+		velocityY = grow(velocityY, capacity);
+		sprite = grow(sprite, capacity);
+		z = grow(z, capacity);
+		flags = grow(flags, capacity);
+		indexToSlot = grow(indexToSlot, capacity);
+		slotToIndex = grow(slotToIndex, capacity);
+		freeSlots = grow(freeSlots, capacity);
+
+		final int oldSlots = (slotGenerations == null) ? 0 : slotGenerations.length;
+		slotGenerations = grow(slotGenerations, capacity);
+		for(int i = oldSlots; i < capacity; i++) slotGenerations[i] = 1;
+	}
+
+	private static float[] grow(float[] array, int capacity) {
+		final float[] grown = new float[capacity];
+		if(array != null) System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		final int[] grown = new int[capacity];
+		if(array != null) System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static long toHandle(int slot, int generation) { return (((long) generation << 32) | slot); }
+
+	/** The number of live entities, which are at indices 0 up to (but not including) this count */
+	public int getCount() { return count; }
+	/** How many entities the world can hold before it needs to allocate more room */
+	public int getCapacity() { return x.length; }
+
+	// The arrays themselves, for systems that work through every entity. Only the first getCount elements are live entities. These arrays are replaced
+	// whenever the world grows, so they should be fetched again after creating any entities
+
+	public float[] getXs() { return x; }
+	public float[] getYs() { return y; }
+	public float[] getVelocityXs() { return velocityX; }
+	public float[] getVelocityYs() { return velocityY; }
+	public int[] getSprites() { return sprite; }
+	public int[] getZs() { return z; }
+	public int[] getFlagsArray() { return flags; }
+
+}
@@ -0,0 +1,69 @@
+package com.macleod.engine.entity;
+
+/**
+ * The MovementSystem moves every entity of an EntityWorld along its velocity (in pixels per second). Entities flagged as bounded (see
+ * EntityWorld.FLAG_BOUNDED) bounce off the edges of the system's bounds, so they always stay within them.
+ * <br /><br />
+ * The positions are moved in one loop over the arrays, and the (rarer) bounces are handled in a second loop - keeping the first loop free of branches, so
+ * the JIT can vectorise it
+ */
+public final class MovementSystem {
+
+	private float minX = 0, minY = 0, maxX = 0, maxY = 0;
+	private boolean hasBounds = false;
+
+	/**
+	 * Sets the area that bounded entities bounce around inside of (from the point (x, y), with the given dimensions). An entity's position is its top-left
+	 * corner, so the width and height should usually leave room for the size of the sprites
+	 */
+	public void setBounds(float x, float y, float width, float height) {
+		assert ((width >= 0) && (height >= 0)) : "Cannot give a MovementSystem bounds of negative dimensions. Was given (" + width + "," + height + ")";
+
+		minX = x;
+		minY = y;
+		maxX = x + Math.max(width, 0);
+		maxY = y + Math.max(height, 0);
+		hasBounds = true;
+	}
+
+	/** Removes the bounds, so that no entity bounces */
+	public void clearBounds() { hasBounds = false; }
+
+	public void update(EntityWorld world, float sTimeDelay) {
+		final int count = world.getCount();
+		final float[] x = world.getXs(), y = world.getYs();
+		final float[] velocityX = world.getVelocityXs(), velocityY = world.getVelocityYs();
+
+		for(int i = 0; i < count; i++) {
+			x[i] += velocityX[i] * sTimeDelay;
+			y[i] += velocityY[i] * sTimeDelay;
+		}
+
+		if(hasBounds) bounce(world, count, x, y, velocityX, velocityY);
+	}
+
+	// Anything that has moved past an edge is reflected back inside (by as far as it went past), and its velocity away from that edge is reversed
+	private void bounce(EntityWorld world, int count, float[] x, float[] y, float[] velocityX, float[] velocityY) {
+		final int[] flags = world.getFlagsArray();
+		for(int i = 0; i < count; i++) {
+			if((flags[i] & EntityWorld.FLAG_BOUNDED) == 0) continue;
+
+			if(x[i] < minX) {
+				x[i] = Math.min((2 * minX) - x[i], maxX);
+				velocityX[i] = Math.abs(velocityX[i]);
+			} else if(x[i] > maxX) {
+				x[i] = Math.max((2 * maxX) - x[i], minX);
+				velocityX[i] = -Math.abs(velocityX[i]);
+			}
+
+			if(y[i] < minY) {
+				y[i] = Math.min((2 * minY) - y[i], maxY);
+				velocityY[i] = Math.abs(velocityY[i]);
+			} else if(y[i] > maxY) {
+				y[i] = Math.max((2 * maxY) - y[i], minY);
+				velocityY[i] = -Math.abs(velocityY[i]);
+			}
+		}
+	}
+
+}
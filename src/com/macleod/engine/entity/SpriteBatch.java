@@ -0,0 +1,223 @@
+package com.macleod.engine.entity;
+
+import java.util.Arrays;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.CompiledSprite;
+
+/**
+ * A SpriteBatch draws every visible entity of an EntityWorld into a single Bitmap (normally the GuiLayer showing the world - see EntityLayer), each as the
+ * sprite it has been given. The batch works in a few passes over the entities:
+ * <ul>
+ * <li>Culling - every entity that is visible and overlaps the target (once offset by the camera) is noted, along with where it will be drawn</li>
+ * <li>Banding - the noted entities are split up by which band of rows of the target they land in (see {@code draw}), with a counting sort</li>
+ * <li>Sorting and drawing - a band at a time, the entities in the band are ordered by their depth (z), from 0 up to {@code Z_LEVELS - 1}, with another
+ * counting sort, and then each sprite is drawn in that order - so entities of a greater depth appear over those of a lesser depth. Entities of the same depth
+ * are drawn in the order of their index in the world</li>
+ * </ul>
+ * The sorts move where each entity is drawn into the order they are drawn in (rather than sorting indices), so the drawing reads its arrays in order. Every
+ * sprite is compiled as it is added (see CompiledSprite), so drawing one never has to look at the alpha of its pixels. The batch keeps its working arrays
+ * between frames, so once they have grown to the number of entities in the world, drawing never allocates
+ */
+public final class SpriteBatch {
+
+	/** The number of depths an entity can be drawn at. Any depth outside of 0 to {@code Z_LEVELS - 1} is drawn at the nearest depth that is */
+	public static final int Z_LEVELS = 256;
+
+	// The target is drawn a band of this many rows at a time (as a power of two)
+	private static final int BAND_SHIFT = 6;
+
+	private Bitmap[] sprites = new Bitmap[8];
+	private CompiledSprite[] compiledSprites = new CompiledSprite[8];
+	private int[] spriteWidths = new int[8], spriteHeights = new int[8];
+	private int spriteCount = 0;
+
+	private float cameraX = 0, cameraY = 0;
+
+	// Where each part of an entity that survived culling will be drawn (its sprite, and which band and depth it is drawn in) - first in the order of the world's
+	// arrays, then split up into bands, and then (a band at a time) sorted by depth into the first arrays again. An entity overlapping several bands has a
+	// part in each
+	private int[] partX = new int[0], partY = new int[0], partSprite = new int[0], partDepth = new int[0];
+	private int[] bandedX = new int[0], bandedY = new int[0], bandedSprite = new int[0], bandedDepth = new int[0];
+	private int[] partBands = new int[0];
+	// The counts (and then the starts) of the parts in each band, and of the parts of the band being sorted at each depth
+	private int[] bandStarts = new int[0];
+	private final int[] depthStarts = new int[Z_LEVELS + 1];
+
+	private int drawnCount = 0, culledCount = 0, partCount = 0;
+
+	/**
+	 * Adds a sprite that entities can be drawn as, which is drawn with the given BlitMode (BlitMode.OPAQUE is the cheapest, if the sprite has no transparent
+	 * pixels). The sprite is compiled as it is added, so any later changes to it aren't drawn
+	 *
+	 * @return
+	 * 		The id of the sprite, to give to the entities that should be drawn as it. Ids are given out in order, starting from 0
+	 */
+	public int addSprite(Bitmap sprite, Bitmap.BlitMode blitMode) {
+		assert (sprite != null) : "Cannot add a null sprite to a SpriteBatch";
+		assert (blitMode != null) : "Cannot add a sprite to a SpriteBatch with a null BlitMode";
+
+		if(spriteCount == sprites.length) {
+			final int capacity = sprites.length * 2;
+			final Bitmap[] grownSprites = new Bitmap[capacity];
+			final CompiledSprite[] grownCompiled = new CompiledSprite[capacity];
+			final int[] grownWidths = new int[capacity], grownHeights = new int[capacity];
+			System.arraycopy(sprites, 0, grownSprites, 0, spriteCount);
+			System.arraycopy(compiledSprites, 0, grownCompiled, 0, spriteCount);
+			System.arraycopy(spriteWidths, 0, grownWidths, 0, spriteCount);
+			System.arraycopy(spriteHeights, 0, grownHeights, 0, spriteCount);
+			sprites = grownSprites;
+			compiledSprites = grownCompiled;
+			spriteWidths = grownWidths;
+			spriteHeights = grownHeights;
+		}
+
+		sprites[spriteCount] = sprite;
+		compiledSprites[spriteCount] = new CompiledSprite(sprite, blitMode);
+		spriteWidths[spriteCount] = sprite.width;
+		spriteHeights[spriteCount] = sprite.height;
+		return spriteCount++;
+	}
+
+	/** Moves the camera, so that the point (x, y) of the world is drawn at the top-left of the target */
+	public void setCamera(float x, float y) {
+		cameraX = x;
+		cameraY = y;
+	}
+
+	/**
+	 * Draws every visible entity of the world that overlaps the target. Entities whose sprite id hasn't been added to the batch are skipped. This doesn't clear
+	 * the target first (a GuiLayer that isn't retained is cleared before each update anyway).
+	 * <br /><br />
+	 * The target is drawn a band of rows at a time, from the top down - every entity in a band, in depth order, before any entity of the next band - so that
+	 * the part of the target being drawn to stays in the cache, rather than every entity landing somewhere else in a target far bigger than the cache. An entity
+	 * overlapping several bands is drawn in each, clipped to the rows of that band. Since entities only overlap where they share rows, every pixel still ends
+	 * up exactly as if every entity had been drawn in depth order
+	 *
+	 * @return
+	 * 		The number of entities drawn
+	 */
+	public int draw(EntityWorld world, Bitmap target) {
+		assert ((world != null) && (target != null)) : "Cannot draw a null EntityWorld, or draw into a null Bitmap";
+		if((world == null) || (target == null)) return 0;
+
+		final int count = world.getCount();
+		if(partX.length < count) growParts(count);
+
+		final int numberOfBands = (target.height + (1 << BAND_SHIFT) - 1) >> BAND_SHIFT;
+		if(bandStarts.length < (numberOfBands + 1)) bandStarts = new int[numberOfBands + 1];
+
+		final int numberToDraw = cull(world, count, target.width, target.height, numberOfBands);
+		splitIntoBands(numberOfBands);
+
+		for(int band = 0; band < numberOfBands; band++) {
+			final int start = (band == 0) ? 0 : bandStarts[band - 1], end = bandStarts[band];
+			if(start == end) continue;
+
+			sortByDepth(start, end);
+			final int bandTop = band << BAND_SHIFT, bandBottom = bandTop + (1 << BAND_SHIFT);
+			for(int part = start; part < end; part++) compiledSprites[partSprite[part]].drawTo(target, partX[part], partY[part], bandTop, bandBottom);
+		}
+
+		drawnCount = numberToDraw;
+		culledCount = count - numberToDraw;
+		return numberToDraw;
+	}
+
+	private void growParts(int numberOfParts) {
+		final int capacity = Math.max(numberOfParts, partX.length * 2);
+		partX = Arrays.copyOf(partX, capacity);
+		partY = Arrays.copyOf(partY, capacity);
+		partSprite = Arrays.copyOf(partSprite, capacity);
+		partDepth = Arrays.copyOf(partDepth, capacity);
+		partBands = Arrays.copyOf(partBands, capacity);
+		bandedX = new int[capacity];
+		bandedY = new int[capacity];
+		bandedSprite = new int[capacity];
+		bandedDepth = new int[capacity];
+	}
+
+	// Notes down every part of every entity that will be drawn (and counts how many parts will be drawn in each band, to split them up into bands)
+	private int cull(EntityWorld world, int count, int targetWidth, int targetHeight, int numberOfBands) {
+		final float[] x = world.getXs(), y = world.getYs();
+		final int[] sprite = world.getSprites(), z = world.getZs(), flags = world.getFlagsArray();
+		final int[] bandCounts = bandStarts;
+		Arrays.fill(bandCounts, 0, numberOfBands + 1, 0);
+
+		int numberToDraw = 0, numberOfParts = 0;
+		for(int i = 0; i < count; i++) {
+			final int spriteId = sprite[i];
+			if(((flags[i] & EntityWorld.FLAG_VISIBLE) == 0) || (spriteId < 0) || (spriteId >= spriteCount)) continue;
+
+			final int drawX = (int) Math.floor(x[i] - cameraX), drawY = (int) Math.floor(y[i] - cameraY);
+			final int drawBottom = drawY + spriteHeights[spriteId];
+			if((drawX >= targetWidth) || (drawY >= targetHeight) || ((drawX + spriteWidths[spriteId]) <= 0) || (drawBottom <= 0)) continue;
+
+			final int depth = Math.max(0, Math.min(z[i], Z_LEVELS - 1));
+			final int firstBand = Math.max(drawY, 0) >> BAND_SHIFT, lastBand = (Math.min(drawBottom, targetHeight) - 1) >> BAND_SHIFT;
+			if((numberOfParts + (lastBand - firstBand) + 1) > partX.length) growParts(numberOfParts + (lastBand - firstBand) + 1);
+
+			for(int band = firstBand; band <= lastBand; band++) {
+				partX[numberOfParts] = drawX;
+				partY[numberOfParts] = drawY;
+				partSprite[numberOfParts] = spriteId;
+				partDepth[numberOfParts] = depth;
+				partBands[numberOfParts] = band;
+				bandCounts[band]++;
+				numberOfParts++;
+			}
+			numberToDraw++;
+		}
+		partCount = numberOfParts;
+		return numberToDraw;
+	}
+
+	// The first of two counting sorts - the parts are put into the banded arrays by band, keeping the order of the world within each band. There are only a few
+	// dozen bands, so every band being written to stays in the cache (unlike sorting by band and depth at once, which writes to thousands of places). Once
+	// this is done, bandStarts[band] is where the next band starts
+	private void splitIntoBands(int numberOfBands) {
+		final int[] starts = bandStarts;
+		int total = 0;
+		for(int band = 0; band < numberOfBands; band++) {
+			final int bandCount = starts[band];
+			starts[band] = total;
+			total += bandCount;
+		}
+
+		final int numberOfParts = partCount;
+		for(int i = 0; i < numberOfParts; i++) {
+			final int position = starts[partBands[i]]++;
+			bandedX[position] = partX[i];
+			bandedY[position] = partY[i];
+			bandedSprite[position] = partSprite[i];
+			bandedDepth[position] = partDepth[i];
+		}
+	}
+
+	// The second counting sort - the parts of one band are put back into the part arrays (in the same place) by depth, keeping the order of the world within
+	// each depth. It is done just before the band is drawn, while its parts are still in the cache
+	private void sortByDepth(int start, int end) {
+		final int[] starts = depthStarts;
+		Arrays.fill(starts, 0);
+		for(int i = start; i < end; i++) starts[bandedDepth[i] + 1]++;
+		starts[0] = start;
+		for(int depth = 1; depth < starts.length; depth++) starts[depth] += starts[depth - 1];
+
+		for(int i = start; i < end; i++) {
+			final int position = starts[bandedDepth[i]]++;
+			partX[position] = bandedX[i];
+			partY[position] = bandedY[i];
+			partSprite[position] = bandedSprite[i];
+		}
+	}
+
+	public int getSpriteCount() { return spriteCount; }
+	public Bitmap getSprite(int spriteId) { return sprites[spriteId]; }
+	public float getCameraX() { return cameraX; }
+	public float getCameraY() { return cameraY; }
+	/** How many entities the last {@code draw} drew */
+	public int getDrawnCount() { return drawnCount; }
+	/** How many entities the last {@code draw} skipped, because they were hidden, off the target, or had no sprite */
+	public int getCulledCount() { return culledCount; }
+
+}
@@ -15,7 +15,40 @@ public class Bitmap {
 	protected final int[] pixels;
 	public final int width, height;
 	
-	public Bitmap(int width, int height) {
+	// The dirty region covers every pixel that has been written to since the region was last cleared. Anything writing to the pixels array directly (rather
+	// than through the methods of this class) is expected to call markDirty itself
+	private final DirtyRegion dirtyRegion = new DirtyRegion();
+	
+	// The pool the pixels were taken from (if any), which they are given back to by release
+	private final BitmapPool pool;
+	private boolean released = false;
+	
+	public Bitmap(int width, int height) { this(width, height, true); }
+	
+	/**
+	 * A Bitmap without an alpha channel is treated as fully opaque when drawn (whatever the alpha bits of its pixels hold). This is much cheaper to draw to a
+	 * Graphics instance, so is preferred for anything that is always opaque - such as a framebuffer
+	 */
+	public Bitmap(int width, int height, boolean hasAlphaChannel) { this(createBufferedImage(width, height, hasAlphaChannel), null); }
+	
+	/**
+	 * Creates a Bitmap whose pixels are taken from the given pool, rather than newly allocated. The pixels start fully transparent, just like a new Bitmap's.
+	 * Once the Bitmap is no longer needed, {@code release} gives its pixels back to the pool
+	 */
+	public Bitmap(BitmapPool pool, int width, int height, boolean hasAlphaChannel) { this(pool.acquireImage(width, height, hasAlphaChannel), pool); }
+	
+	private Bitmap(BufferedImage bufferedImage, BitmapPool pool) {
+		this.bufferedImage = bufferedImage;
+		this.pool = pool;
+		this.width = bufferedImage.getWidth();
+		this.height = bufferedImage.getHeight();
+		
+//		// We can exploit the internal pixel array of the BufferedImage to retrieve an integer array of ARGB colours, which, when manipulated, will alter the
+//		// BufferedImage - still allowing the BufferedImage to be drawn using the included Java graphics library
+		pixels = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+	}
+	
+	static BufferedImage createBufferedImage(int width, int height, boolean hasAlphaChannel) {
 		if((width < 0) || (height < 0)) {
 			final InvalidParameterException exception = 
 					new InvalidParameterException("The dimensions of a Bitmap must be positive. Was given dimensions (" + width + "," + height + ")");
@@ -23,53 +56,219 @@ public class Bitmap {
 			throw exception;
 		}
 		
-		this.width = width;
-		this.height = height;
-
-		bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-//		// We can exploit the internal pixel array of the BufferedImage to retrieve an integer array of ARGB colours, which, when manipulated, will alter the
-//		// BufferedImage - still allowing the BufferedImage to be drawn using the included Java graphics library
-		pixels = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+		return new BufferedImage(width, height, (hasAlphaChannel ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB));
+	}
+	
+	/**
+	 * Gives the pixels of this Bitmap back to the pool it took them from, so that they can be reused by another Bitmap. The Bitmap must not be used at all
+	 * afterwards - its pixels may already belong to someone else. This does nothing to a Bitmap that didn't come from a pool
+	 */
+	public void release() {
+		assert (!released) : "Cannot release a Bitmap that has already been released";
+		if((pool == null) || released) return;
+		
+		released = true;
+		pool.releaseImage(bufferedImage);
 	}
 	
+	public final boolean isReleased() { return released; }
+	public final BitmapPool getPool() { return pool; }
+	
 	public final int getWidth() { return width; }
 	public final int getHeight() { return height; }
+	public final boolean hasAlphaChannel() { return (bufferedImage.getType() == BufferedImage.TYPE_INT_ARGB); }
 	public final boolean isPointInDimensions(int x, int y) { return ((x >= 0) && (y >= 0) && (x < width) && (y < height)); }	
 	
 	public void setPixel(int x, int y, int colourARGB) {
 		assert (isPointInDimensions(x, y)) : 
 			"Cannot set a pixel at point (" + x + "," + y + ") outside of the Bitmap dimensions (" + width + "," + height + ").";
 		
-		if(isPointInDimensions(x, y)) pixels[x + y * width] = colourARGB;
+		if(isPointInDimensions(x, y)) {
+			pixels[x + y * width] = colourARGB;
+			dirtyRegion.add(x, y, 1, 1);
+		}
 	}
 
+	/**
+	 * Sets every pixel in the given region to the given colour. Any part of the region that falls outside of the Bitmap is ignored
+	 */
 	public void setPixelRegion(int x, int y, int width, int height, int colourARGB) {
 		assert ((width > 0) && (height > 0)) : 
 			"The dimensions of a pixel region being drawn cannot be non-positive. Was given dimensions (" + width + "," + height + ")";
 		
-		final int endingX = x + width - 1;
-		final int endingY = y + height - 1;
+		// We clip the region to the Bitmap once up front, so that whole rows can be filled at a time without considering the bounds of each pixel
+		final int startX = Math.max(x, 0);
+		final int startY = Math.max(y, 0);
+		final int endX = Math.min(x + width, this.width);
+		final int endY = Math.min(y + height, this.height);
+		if((startX >= endX) || (startY >= endY)) return;
 		
-		assert (isPointInDimensions(x, y)) :
-			"Cannot set a pixel region starting at the point (" + x + "," + y + ") - outside of the Bitmap dimensions (" + width + "," + height + ").";
-		assert (isPointInDimensions(endingX, endingY)) :
-			"Cannot set a pixel region ending at the point (" + endingX + "," + endingY + ") outside of the Bitmap dimensions (" + width + "," + height + ").";
+		final int regionWidth = endX - startX;
+		final int regionHeight = endY - startY;
+		if(ParallelRaster.shouldRunInParallel(regionWidth * regionHeight)) {
+			ParallelRaster.forEachRowBand(regionHeight, regionWidth, new ParallelRaster.RowBandOperation() {
+				public void run(int startRow, int endRow) {
+					PixelKernels.fillRect(pixels, Bitmap.this.width, startX, startY + startRow, regionWidth, endRow - startRow, colourARGB);
+				}
+			});
+		} else {
+			PixelKernels.fillRect(pixels, this.width, startX, startY, regionWidth, regionHeight, colourARGB);
+		}
+		dirtyRegion.add(startX, startY, regionWidth, regionHeight);
+	}
+	
+	/**
+	 * This decides how the pixels of a Bitmap are combined with the pixels they are drawn over (see {@code drawBitmap})
+	 */
+	public enum BlitMode {
+		/** Every pixel is copied exactly as it is (including its alpha, unless the source has no alpha channel), replacing whatever it is drawn over */
+		OPAQUE,
+		/** Every pixel is blended over whatever it is drawn over, according to its alpha (see Colour.blendSourceOver) */
+		ALPHA_BLEND,
+		/** Every pixel is copied exactly as it is, apart from pixels that exactly match the colour key - which are skipped */
+		COLOUR_KEY
+	}
+	
+	/** Draws the whole of the given Bitmap to this Bitmap, with its top-left corner at the point (destX, destY) */
+	public final void drawBitmap(Bitmap source, int destX, int destY, BlitMode mode) {
+		drawBitmap(source, 0, 0, source.width, source.height, destX, destY, mode, Colour.MAGENTA);
+	}
+	
+	/** Copies a region of the given Bitmap to this Bitmap (see BlitMode.OPAQUE) */
+	public final void drawBitmap(Bitmap source, int sourceX, int sourceY, int width, int height, int destX, int destY) {
+		drawBitmap(source, sourceX, sourceY, width, height, destX, destY, BlitMode.OPAQUE, Colour.MAGENTA);
+	}
+	
+	/** Draws a region of the given Bitmap to this Bitmap. If the mode is BlitMode.COLOUR_KEY then the colour key used is Colour.MAGENTA */
+	public final void drawBitmap(Bitmap source, int sourceX, int sourceY, int width, int height, int destX, int destY, BlitMode mode) {
+		drawBitmap(source, sourceX, sourceY, width, height, destX, destY, mode, Colour.MAGENTA);
+	}
+	
+	/**
+	 * Draws the region of the given Bitmap (starting at the point (sourceX, sourceY) with the given dimensions) to this Bitmap, with the top-left corner of the
+	 * region at the point (destX, destY). Any part of the region outside of either Bitmap is ignored. The colour key is only used by BlitMode.COLOUR_KEY.
+	 * <br /><br />
+	 * A Bitmap can be drawn to itself, but only BlitMode.OPAQUE is guaranteed to give the expected result when the source and destination regions overlap.
+	 * A source without an alpha channel is opaque, so BlitMode.ALPHA_BLEND copies it just as BlitMode.OPAQUE does - and drawn into a Bitmap with an alpha
+	 * channel, every pixel copied is made fully opaque, whatever its alpha bits held
+	 */
+	public void drawBitmap(Bitmap source, int sourceX, int sourceY, int width, int height, int destX, int destY, BlitMode mode, int colourKey) {
+		assert (source != null) : "Cannot draw a null Bitmap";
+		assert (mode != null) : "Cannot draw a Bitmap with a null BlitMode";
+		if((source == null) || (mode == null)) return;
 		
-		yLoop : for(int currentY = y; currentY <= endingY; currentY++) {
-			// If we have extended beyond the height of the bitmap, we have no further pixels to draw (since we draw from the top down)
-			if(currentY >= this.height) break yLoop;
-			if(currentY < 0) continue yLoop;
-
-			xLoop : for(int currentX = x; currentX <= endingX; currentX++) {
-				// If we have extended beyond the width of the bitmap, we don't need to consider the pixels still further beyond the end of the width
-				if(currentX >= this.width) break xLoop;
-				if(currentX < 0) continue xLoop;
-				
-				pixels[currentX + currentY * this.width] = colourARGB;
+		// Clip the region against the source Bitmap, then the destination (this) Bitmap - moving both corners together so they stay aligned
+		final int clipLeft = Math.max(Math.max(-sourceX, -destX), 0);
+		final int clipTop = Math.max(Math.max(-sourceY, -destY), 0);
+		final int clippedWidth = Math.min(Math.min(source.width - sourceX, this.width - destX), width) - clipLeft;
+		final int clippedHeight = Math.min(Math.min(source.height - sourceY, this.height - destY), height) - clipTop;
+		if((clippedWidth <= 0) || (clippedHeight <= 0)) return;
+		
+		final int srcX = sourceX + clipLeft, srcY = sourceY + clipTop;
+		final int dstX = destX + clipLeft, dstY = destY + clipTop;
+		
+		if(source == this) {
+			// When drawing a Bitmap onto itself, we work upwards if the destination is below the source - so no row is read after it has been written to. 
+			// This relies on the order of the rows, so it can never be run in parallel
+			if(dstY > srcY) {
+				for(int row = clippedHeight - 1; row >= 0; row--) blitRows(source, srcX, srcY, dstX, dstY, clippedWidth, row, row + 1, mode, colourKey);
+			} else {
+				blitRows(source, srcX, srcY, dstX, dstY, clippedWidth, 0, clippedHeight, mode, colourKey);
+			}
+		} else if(ParallelRaster.shouldRunInParallel(clippedWidth * clippedHeight)) {
+			ParallelRaster.forEachRowBand(clippedHeight, clippedWidth, new ParallelRaster.RowBandOperation() {
+				public void run(int startRow, int endRow) {
+					blitRows(source, srcX, srcY, dstX, dstY, clippedWidth, startRow, endRow, mode, colourKey);
+				}
+			});
+		} else {
+			blitRows(source, srcX, srcY, dstX, dstY, clippedWidth, 0, clippedHeight, mode, colourKey);
+		}
+		
+		dirtyRegion.add(dstX, dstY, clippedWidth, clippedHeight);
+	}
+	
+	private void blitRows(Bitmap source, int srcX, int srcY, int dstX, int dstY, int rowLength, int startRow, int endRow, BlitMode mode, int colourKey) {
+		// The alpha bits of a source without an alpha channel mean nothing, so they are only forced to opaque where this Bitmap would keep them. When the
+		// source is this Bitmap that is never needed, which keeps the copy safe for overlapping regions
+		final boolean sourceOpaque = !source.hasAlphaChannel();
+		final boolean forceOpaque = (sourceOpaque && hasAlphaChannel());
+		for(int row = startRow; row < endRow; row++) {
+			final int srcOffset = srcX + ((srcY + row) * source.width);
+			final int dstOffset = dstX + ((dstY + row) * this.width);
+			
+			if(forceOpaque && (mode != BlitMode.COLOUR_KEY)) {
+				PixelKernels.copyRowAsOpaque(source.pixels, srcOffset, pixels, dstOffset, rowLength);
+				continue;
+			}
+			switch(mode) {
+				case OPAQUE: System.arraycopy(source.pixels, srcOffset, pixels, dstOffset, rowLength); break;
+				case ALPHA_BLEND:
+					if(sourceOpaque) System.arraycopy(source.pixels, srcOffset, pixels, dstOffset, rowLength);
+					else PixelKernels.blendRowSourceOver(source.pixels, srcOffset, pixels, dstOffset, rowLength);
+					break;
+				case COLOUR_KEY: PixelKernels.colourKeyRow(source.pixels, srcOffset, pixels, dstOffset, rowLength, colourKey); break;
 			}
 		}
 	}
 	
+	/**
+	 * Draws text in the given font, with the top-left of its first line at the point (x, y). Each glyph is tinted by the given colour (see BitmapFont), and any
+	 * part of the text outside of this Bitmap is ignored
+	 */
+	public final void drawText(BitmapFont font, CharSequence text, int x, int y, int tintARGB) {
+		drawText(font, text, x, y, tintARGB, 0, 0, width, height);
+	}
+	
+	/**
+	 * Draws text in the given font (see above), ignoring any part of it outside of the given clip rectangle. A String is laid out once and cached by the font,
+	 * while any other CharSequence (e.g. a StringBuilder holding a number that changes every frame) is laid out again each time, without allocating
+	 */
+	public void drawText(BitmapFont font, CharSequence text, int x, int y, int tintARGB, int clipX, int clipY, int clipWidth, int clipHeight) {
+		assert (font != null) : "Cannot draw text in a null BitmapFont";
+		assert (text != null) : "Cannot draw null text";
+		if((font == null) || (text == null)) return;
+		
+		font.draw(this, text, x, y, tintARGB, clipX, clipY, clipWidth, clipHeight);
+	}
+	
+	/** Copies the ARGB value of every pixel (row by row, from the top-left) into the given array, which must hold at least width * height values */
+	public final void getPixels(int[] destination) {
+		assert ((destination != null) && (destination.length >= pixels.length)) : "Cannot copy the pixels of a Bitmap into an array that is null or too small";
+		System.arraycopy(pixels, 0, destination, 0, pixels.length);
+	}
+	
+	/** Replaces every pixel with the ARGB values in the given array (row by row, from the top-left), which must hold at least width * height values */
+	public void setPixels(int[] source) {
+		assert ((source != null) && (source.length >= pixels.length)) : "Cannot copy the pixels of a Bitmap from an array that is null or too small";
+		System.arraycopy(source, 0, pixels, 0, pixels.length);
+		dirtyRegion.add(0, 0, width, height);
+	}
+	
+	/** Multiplies the colour of every pixel by its alpha (see Colour.premultiply) */
+	public void premultiplyAlpha() {
+		PixelKernels.premultiplyRow(pixels, 0, pixels.length);
+		dirtyRegion.add(0, 0, width, height);
+	}
+	
+	/** Reverses {@code premultiplyAlpha} (see Colour.unpremultiply). Any precision lost by premultiplying (most of it, for nearly transparent pixels) is gone */
+	public void unpremultiplyAlpha() {
+		PixelKernels.unpremultiplyRow(pixels, 0, pixels.length);
+		dirtyRegion.add(0, 0, width, height);
+	}
+	
+	/**
+	 * Copies one channel of every pixel into the given array (one byte per pixel, in the same order as the pixels), e.g. to build a mask from the alpha channel.
+	 * A new array is created if the one given is null or too small
+	 */
+	public byte[] extractChannel(Colour.Channel channel, byte[] destination) {
+		assert (channel != null) : "Cannot extract a null channel";
+		
+		final byte[] result = ((destination != null) && (destination.length >= pixels.length)) ? destination : new byte[pixels.length];
+		PixelKernels.extractChannelRow(pixels, 0, result, 0, pixels.length, channel.shift);
+		return result;
+	}
+	
 	public final void drawToGraphicsInstance(Graphics target, int x, int y) {
 		drawToGraphicsInstance(target, x, y, width, height);
 	}
@@ -79,9 +278,35 @@ public class Bitmap {
 		assert ((scaledWidth > 0) && (scaledHeight > 0)) : 
 			"Cannot draw a Bitmap with a non-positive dimensions. Was given dimensions: (" + scaledWidth + "," + scaledHeight + ")";
 		
-		if(target != null) target.drawImage(bufferedImage, x, y, scaledWidth, scaledHeight, null);		
+		if(target != null) target.drawImage(bufferedImage, x, y, scaledWidth, scaledHeight, null);
+	}
+
+	/**
+	 * Creates a Graphics instance that draws directly into this Bitmap. Whoever calls this is responsible for disposing of the Graphics instance once they
+	 * have finished with it
+	 */
+	public final Graphics createGraphicsInstance() { 
+		// We have no way of knowing what will be drawn through the Graphics instance, so we have to assume all of it will be
+		markDirty(0, 0, width, height);
+		return bufferedImage.createGraphics(); 
 	}
 	
+	/** Adds the given region (clipped to the dimensions of this Bitmap) to the dirty region */
+	protected final void markDirty(int x, int y, int width, int height) {
+		final int startX = Math.max(x, 0);
+		final int startY = Math.max(y, 0);
+		final int endX = Math.min(x + width, this.width);
+		final int endY = Math.min(y + height, this.height);
+		
+		dirtyRegion.add(startX, startY, endX - startX, endY - startY);
+	}
+	
+	public final boolean isDirty() { return !dirtyRegion.isEmpty(); }
+	public void clearDirtyRegion() { dirtyRegion.clear(); }
+	
+	/** The dirty region is the bounding rectangle of every pixel written to since the last call to {@code clearDirtyRegion} */
+	public final DirtyRegion getDirtyRegion() { return dirtyRegion; }
+
 	public int getPixelARGB(int x, int y) { 
 		assert (isPointInDimensions(x, y)) : 
 			"Cannot get the pixel colour at point (" + x + "," + y + ") outside of the Bitmap dimensions (" + width + "," + height + ").";
@@ -0,0 +1,111 @@
+package com.macleod.engine.graphics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A BitmapCache keeps the Bitmaps loaded from image files (see BitmapLoader), so that loading the same file again returns the same Bitmap rather than
+ * decoding it again. The Bitmaps are shared by everything that loads them, so they must be treated as read-only - anything that wants to draw into a loaded
+ * Bitmap should draw it into a Bitmap of its own first.
+ * <br /><br />
+ * The cache holds at most {@code maxBytes} of pixels. Once it is full, the Bitmaps that have gone the longest without being asked for are dropped from the
+ * cache (anything still using them can carry on doing so). A Bitmap bigger than the whole cache is loaded as normal, but never kept.
+ * <br /><br />
+ * Any number of threads can load through the same cache at once. Files are decoded outside of the cache's lock, so one slow image doesn't hold up the rest
+ */
+public class BitmapCache {
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	// In access order, so the first entry is always the least recently used
+	private final LinkedHashMap<Path, Bitmap> bitmaps = new LinkedHashMap<Path, Bitmap>(64, 0.75f, true);
+	private final long maxBytes;
+	private final Path rawCacheDirectory;
+
+	private long retainedBytes = 0;
+	private long hitCount = 0, missCount = 0, evictionCount = 0;
+
+	public BitmapCache() { this(DEFAULT_MAX_BYTES, null); }
+	public BitmapCache(long maxBytes) { this(maxBytes, null); }
+
+	/** If a raw cache directory is given, files are loaded through it (see BitmapLoader.load) so that they only ever need decoding once */
+	public BitmapCache(long maxBytes, Path rawCacheDirectory) {
+		assert (maxBytes >= 0) : "A BitmapCache cannot have a negative size. Was given " + maxBytes;
+
+		this.maxBytes = Math.max(0, maxBytes);
+		this.rawCacheDirectory = rawCacheDirectory;
+	}
+
+	/** Returns the Bitmap of the given image file, loading it if it isn't already in the cache */
+	public Bitmap get(Path file) throws IOException {
+		assert (file != null) : "Cannot load a Bitmap from a null path";
+
+		final Path key = file.toAbsolutePath().normalize();
+		synchronized(this) {
+			final Bitmap cached = bitmaps.get(key);
+			if(cached != null) {
+				hitCount++;
+				return cached;
+			}
+			missCount++;
+		}
+
+		final Bitmap loaded = BitmapLoader.load(key, rawCacheDirectory);
+
+		synchronized(this) {
+			// Another thread may have loaded the same file in the meantime, in which case everyone should share the one already cached
+			final Bitmap cached = bitmaps.get(key);
+			if(cached != null) return cached;
+
+			bitmaps.put(key, loaded);
+			retainedBytes += bytesOf(loaded);
+			evictUntilWithinLimit();
+			return loaded;
+		}
+	}
+
+	/** Returns the Bitmap of the given image file if it is in the cache, without loading it otherwise. Either way, it counts as a hit or a miss */
+	public synchronized Bitmap getIfPresent(Path file) {
+		final Bitmap cached = bitmaps.get(file.toAbsolutePath().normalize());
+		if(cached != null) hitCount++;
+		else missCount++;
+		return cached;
+	}
+
+	public synchronized boolean contains(Path file) { return bitmaps.containsKey(file.toAbsolutePath().normalize()); }
+
+	/** Drops the Bitmap of the given image file from the cache, so that it is loaded from the file again next time */
+	public synchronized void remove(Path file) {
+		final Bitmap removed = bitmaps.remove(file.toAbsolutePath().normalize());
+		if(removed != null) retainedBytes -= bytesOf(removed);
+	}
+
+	public synchronized void clear() {
+		bitmaps.clear();
+		retainedBytes = 0;
+	}
+
+	private void evictUntilWithinLimit() {
+		final Iterator<Map.Entry<Path, Bitmap>> iterator = bitmaps.entrySet().iterator();
+		while((retainedBytes > maxBytes) && iterator.hasNext()) {
+			retainedBytes -= bytesOf(iterator.next().getValue());
+			iterator.remove();
+			evictionCount++;
+		}
+	}
+
+	private static long bytesOf(Bitmap bitmap) { return (4L * bitmap.width * bitmap.height); }
+
+	public final long getMaxBytes() { return maxBytes; }
+	public final Path getRawCacheDirectory() { return rawCacheDirectory; }
+
+	public synchronized int size() { return bitmaps.size(); }
+	public synchronized long getRetainedBytes() { return retainedBytes; }
+	public synchronized long getHitCount() { return hitCount; }
+	public synchronized long getMissCount() { return missCount; }
+	public synchronized long getEvictionCount() { return evictionCount; }
+
+}
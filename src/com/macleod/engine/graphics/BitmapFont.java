@@ -0,0 +1,683 @@
+package com.macleod.engine.graphics;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.font.TextAttribute;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.macleod.engine.Log;
+
+/**
+ * A BitmapFont holds every glyph of a font (at a single size) in one or more atlas Bitmaps, so that text can be drawn into any Bitmap by blitting glyphs
+ * rather than going through a Graphics instance (see {@code Bitmap.drawText}). The atlas is either rasterised from an AWT Font once, when the BitmapFont is
+ * created, or loaded from the text format of an AngelCode BMFont file. The glyphs are white, with their coverage in the alpha channel, so they can be drawn in
+ * any colour by tinting them.
+ * <br /><br />
+ * Text is positioned to a 64th of a pixel (each glyph is then drawn at the nearest whole pixel), with the font's kerning applied between each pair of glyphs.
+ * A '\n' starts a new line. The position of every glyph in a String drawn more than once is worked out once and kept in a Layout, in a cache of the most
+ * recently drawn Strings - so a label drawn every frame only costs the blits. A String is only cached the second time it is seen (until then it is laid out
+ * into a per-thread scratch Layout, like any other CharSequence), so that text which changes every frame (e.g. a number) doesn't flood the cache with Strings
+ * that are only drawn once. Such text is still better drawn from a reused StringBuilder, which allocates nothing at all.
+ * <br /><br />
+ * A BitmapFont never changes once created, so it can be shared by every layer and drawn with from any number of threads at once
+ */
+public final class BitmapFont {
+
+	/** The characters rasterised by default: printable ASCII and Latin-1 */
+	public static final String DEFAULT_CHARACTERS;
+	static {
+		final StringBuilder characters = new StringBuilder();
+		for(char c = 32; c < 127; c++) characters.append(c);
+		for(char c = 160; c < 256; c++) characters.append(c);
+		DEFAULT_CHARACTERS = characters.toString();
+	}
+
+	public static final int DEFAULT_MAX_CACHED_LAYOUTS = 1024;
+
+	private static final int ATLAS_WIDTH = 512;
+	// Glyphs are kept this far apart in the atlas, so that no antialiased edge bleeds into the next glyph
+	private static final int ATLAS_PADDING = 1;
+	// Positions are held in 64ths of a pixel
+	private static final int SUBPIXEL_SHIFT = 6;
+	private static final int SUBPIXELS = (1 << SUBPIXEL_SHIFT);
+	private static final Pattern BMFONT_ATTRIBUTE = Pattern.compile("(\\w+)=(\"[^\"]*\"|\\S+)");
+
+	private final String name;
+	private final Bitmap[] pages;
+	private final int lineHeight, ascent;
+
+	// Glyphs for the first 256 code points are found directly, and any others by a binary search of the sorted code points
+	private final Glyph[] latinGlyphs = new Glyph[256];
+	private final int[] otherCodePoints;
+	private final Glyph[] otherGlyphs;
+	// Drawn in place of any character the font has no glyph for (or null to skip those characters)
+	private final Glyph missingGlyph;
+
+	// Every kerning pair, sorted by key ((first << 16) | second), with the adjustment in 64ths of a pixel. Only pairs of characters in the Basic Multilingual
+	// Plane are kerned, which covers any font this is likely to be used for
+	private final int[] kerningKeys;
+	private final int[] kerningAmounts;
+
+	// In access order, so the first entry is always the least recently used
+	private final LinkedHashMap<String, Layout> layouts = new LinkedHashMap<String, Layout>(64, 0.75f, true);
+	private final int maxCachedLayouts;
+	private long hitCount = 0, missCount = 0;
+	// The hash codes of Strings that have been laid out once but not cached, by the low bits of the hash code. A String is only cached once its hash code is
+	// found here - so two Strings sharing a slot can push each other out before either is cached, which only costs another layout
+	private final int[] seenHashCodes;
+
+	private final ThreadLocal<Layout> scratchLayouts = new ThreadLocal<Layout>() {
+		protected Layout initialValue() { return new Layout(16); }
+	};
+	private final ThreadLocal<CoverageBatch> coverageBatches = new ThreadLocal<CoverageBatch>() {
+		protected CoverageBatch initialValue() { return new CoverageBatch(); }
+	};
+
+	private BitmapFont(String name, Bitmap[] pages, int lineHeight, int ascent, Map<Integer, Glyph> glyphs, Map<Integer, Integer> kerning,
+			int maxCachedLayouts) {
+		this.name = name;
+		this.pages = pages;
+		this.lineHeight = lineHeight;
+		this.ascent = ascent;
+		this.maxCachedLayouts = maxCachedLayouts;
+		this.seenHashCodes = new int[Integer.highestOneBit(Math.max(2 * maxCachedLayouts, 1))];
+
+		// When every visible pixel of a page is white, only the alpha of its glyphs matters - so each glyph's alpha is copied out into an array of its own, along
+		// with a list of just the pixels with any coverage, which can be blended far faster (see CoverageBatch, and PixelKernels.blendCoverageOntoOpaque)
+		final boolean[] coverageOnlyPages = new boolean[pages.length];
+		for(int i = 0; i < pages.length; i++) {
+			boolean coverageOnly = true;
+			for(int argb : pages[i].pixels) coverageOnly &= (((argb >>> 24) == 0) || ((argb & 0x00ffffff) == 0x00ffffff));
+			coverageOnlyPages[i] = coverageOnly;
+		}
+		for(Glyph glyph : glyphs.values()) {
+			if(!coverageOnlyPages[glyph.page]) continue;
+			final Bitmap page = pages[glyph.page];
+			glyph.coverage = new int[glyph.width * glyph.height];
+			int coveredCount = 0;
+			for(int y = 0; y < glyph.height; y++) {
+				for(int x = 0; x < glyph.width; x++) {
+					glyph.coverage[x + (y * glyph.width)] = (page.pixels[(glyph.x + x) + ((glyph.y + y) * page.width)] >>> 24);
+					if(glyph.coverage[x + (y * glyph.width)] != 0) coveredCount++;
+				}
+			}
+
+			glyph.coveredX = new int[coveredCount];
+			glyph.coveredY = new int[coveredCount];
+			glyph.coveredAmounts = new int[coveredCount];
+			int covered = 0;
+			for(int i = 0; i < glyph.coverage.length; i++) {
+				if(glyph.coverage[i] == 0) continue;
+				glyph.coveredX[covered] = (i % glyph.width);
+				glyph.coveredY[covered] = (i / glyph.width);
+				glyph.coveredAmounts[covered++] = glyph.coverage[i];
+			}
+		}
+
+		kerningKeys = new int[kerning.size()];
+		kerningAmounts = new int[kerning.size()];
+		int pairIndex = 0;
+		for(Map.Entry<Integer, Integer> pair : new TreeMap<Integer, Integer>(kerning).entrySet()) {
+			kerningKeys[pairIndex] = pair.getKey();
+			kerningAmounts[pairIndex++] = pair.getValue();
+			final Glyph first = glyphs.get(pair.getKey() >>> 16);
+			if(first != null) first.hasKerning = true;
+		}
+
+		final TreeMap<Integer, Glyph> others = new TreeMap<Integer, Glyph>();
+		for(Glyph glyph : glyphs.values()) {
+			if(glyph.codePoint < latinGlyphs.length) latinGlyphs[glyph.codePoint] = glyph;
+			else others.put(glyph.codePoint, glyph);
+		}
+		otherCodePoints = new int[others.size()];
+		otherGlyphs = new Glyph[others.size()];
+		int glyphIndex = 0;
+		for(Glyph glyph : others.values()) {
+			otherCodePoints[glyphIndex] = glyph.codePoint;
+			otherGlyphs[glyphIndex++] = glyph;
+		}
+
+		missingGlyph = glyphs.get((int) '?');
+	}
+
+	public static BitmapFont create(Font font, boolean antialiased) { return create(font, antialiased, DEFAULT_CHARACTERS, DEFAULT_MAX_CACHED_LAYOUTS); }
+
+	/**
+	 * Rasterises the given characters of an AWT Font (at its size) into a new atlas. Any character the font can't display is left out. The kerning between each
+	 * pair of printable ASCII characters is measured as well - only those pairs, since measuring every pair of a large character set would take far longer
+	 * than rasterising it
+	 */
+	public static BitmapFont create(Font font, boolean antialiased, String characters, int maxCachedLayouts) {
+		assert (font != null) : "Cannot create a BitmapFont from a null Font";
+		assert (characters != null) : "Cannot create a BitmapFont from a null set of characters";
+		assert (maxCachedLayouts >= 0) : "A BitmapFont cannot cache a negative number of layouts. Was given " + maxCachedLayouts;
+
+		final FontRenderContext context = new FontRenderContext(null, antialiased, true);
+		final LineMetrics lineMetrics = font.getLineMetrics("Ag", context);
+		final int ascent = (int) Math.ceil(lineMetrics.getAscent());
+		final int lineHeight = Math.max(1, (int) Math.ceil(lineMetrics.getAscent() + lineMetrics.getDescent() + lineMetrics.getLeading()));
+
+		// Measure every glyph first, so that they can be packed into rows of similar heights
+		final Map<Integer, Glyph> glyphs = new HashMap<Integer, Glyph>();
+		final HashMap<Glyph, GlyphVector> vectors = new HashMap<Glyph, GlyphVector>();
+		final ArrayList<Glyph> packingOrder = new ArrayList<Glyph>();
+		for(int i = 0; i < characters.length(); i += Character.charCount(characters.codePointAt(i))) {
+			final int codePoint = characters.codePointAt(i);
+			if(glyphs.containsKey(codePoint) || !font.canDisplay(codePoint)) continue;
+
+			final GlyphVector vector = font.createGlyphVector(context, Character.toChars(codePoint));
+			final Rectangle pixelBounds = vector.getPixelBounds(context, 0, 0);
+			final Glyph glyph = new Glyph(codePoint, Math.round(vector.getGlyphMetrics(0).getAdvanceX() * SUBPIXELS));
+			glyph.width = pixelBounds.width;
+			glyph.height = pixelBounds.height;
+			glyph.xOffset = pixelBounds.x;
+			glyph.yOffset = ascent + pixelBounds.y;
+
+			glyphs.put(codePoint, glyph);
+			vectors.put(glyph, vector);
+			packingOrder.add(glyph);
+		}
+
+		// Shelf packing: the tallest glyphs first, filling each row from the left before starting a new one below it
+		Collections.sort(packingOrder, new Comparator<Glyph>() {
+			public int compare(Glyph a, Glyph b) { return Integer.compare(b.height, a.height); }
+		});
+		int atlasWidth = ATLAS_WIDTH;
+		for(Glyph glyph : packingOrder) atlasWidth = Math.max(atlasWidth, glyph.width + (2 * ATLAS_PADDING));
+		int rowX = ATLAS_PADDING, rowY = ATLAS_PADDING, rowHeight = 0;
+		for(Glyph glyph : packingOrder) {
+			if((glyph.width == 0) || (glyph.height == 0)) continue;
+			if((rowX + glyph.width + ATLAS_PADDING) > atlasWidth) {
+				rowX = ATLAS_PADDING;
+				rowY += rowHeight + ATLAS_PADDING;
+				rowHeight = 0;
+			}
+			glyph.x = rowX;
+			glyph.y = rowY;
+			rowX += glyph.width + ATLAS_PADDING;
+			rowHeight = Math.max(rowHeight, glyph.height);
+		}
+
+		final Bitmap atlas = new Bitmap(atlasWidth, Math.max(1, rowY + rowHeight + ATLAS_PADDING));
+		final Graphics2D graphics = (Graphics2D) atlas.createGraphicsInstance();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+					antialiased ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+			graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+			graphics.setColor(Color.WHITE);
+			for(Glyph glyph : packingOrder) {
+				if((glyph.width == 0) || (glyph.height == 0)) continue;
+				// The offsets are where the pixel bounds start relative to the origin of the glyph, so this puts the bounds at the glyph's place in the atlas
+				graphics.drawGlyphVector(vectors.get(glyph), glyph.x - glyph.xOffset, glyph.y - (glyph.yOffset - ascent));
+			}
+		} finally {
+			graphics.dispose();
+		}
+		// AWT may round the colour of the edges slightly off white, so every glyph is made exactly white - which keeps tinting exact (and the untinted case fast)
+		for(int i = 0; i < atlas.pixels.length; i++) atlas.pixels[i] = ((atlas.pixels[i] >>> 24) == 0) ? 0 : (atlas.pixels[i] | 0x00ffffff);
+
+		final Map<Integer, Integer> kerning = measureKerning(font, context, glyphs);
+		Log.info("Have rasterised {} glyphs of {}, with {} kerning pairs", glyphs.size(), font.getFontName() + " " + font.getSize(), kerning.size());
+		return new BitmapFont(font.getFontName() + " " + font.getSize(), new Bitmap[] { atlas }, lineHeight, ascent, glyphs, kerning, maxCachedLayouts);
+	}
+
+	// Lays out each printable ASCII character followed by every other (c, a, c, b, c, c...) with kerning on, so that the kerning of every pair starting with
+	// that character comes from a single layout rather than one per pair
+	private static Map<Integer, Integer> measureKerning(Font font, FontRenderContext context, Map<Integer, Glyph> glyphs) {
+		final Map<Integer, Integer> kerning = new HashMap<Integer, Integer>();
+		final Font kernedFont = font.deriveFont(Collections.singletonMap(TextAttribute.KERNING, TextAttribute.KERNING_ON));
+
+		final StringBuilder kernable = new StringBuilder();
+		for(char c = 33; c < 127; c++) if(glyphs.containsKey((int) c)) kernable.append(c);
+		final int count = kernable.length();
+		final char[] sequence = new char[2 * count];
+		for(int first = 0; first < count; first++) {
+			final char firstCharacter = kernable.charAt(first);
+			for(int second = 0; second < count; second++) {
+				sequence[2 * second] = firstCharacter;
+				sequence[(2 * second) + 1] = kernable.charAt(second);
+			}
+
+			final GlyphVector vector = kernedFont.layoutGlyphVector(context, sequence, 0, sequence.length, Font.LAYOUT_LEFT_TO_RIGHT);
+			// A ligature would merge glyphs and throw every position after it out, so a font that makes one isn't kerned from this character
+			if(vector.getNumGlyphs() != sequence.length) continue;
+
+			final float[] positions = vector.getGlyphPositions(0, sequence.length, null);
+			final int firstAdvance = glyphs.get((int) firstCharacter).advance;
+			for(int second = 0; second < count; second++) {
+				final float gap = positions[2 * ((2 * second) + 1)] - positions[2 * (2 * second)];
+				final int amount = Math.round(gap * SUBPIXELS) - firstAdvance;
+				if(amount != 0) kerning.put(kerningKey(firstCharacter, kernable.charAt(second)), amount);
+			}
+		}
+		return kerning;
+	}
+
+	public static BitmapFont load(Path file) throws IOException { return load(file, DEFAULT_MAX_CACHED_LAYOUTS); }
+
+	/**
+	 * Loads a font from the text format of an AngelCode BMFont file (the .fnt file, with its pages alongside it). Pages without an alpha channel are taken to
+	 * hold the coverage of each glyph in their red channel. Glyphs packed into separate channels of a page aren't supported
+	 */
+	public static BitmapFont load(Path file, int maxCachedLayouts) throws IOException {
+		assert (file != null) : "Cannot load a BitmapFont from a null path";
+		assert (maxCachedLayouts >= 0) : "A BitmapFont cannot cache a negative number of layouts. Was given " + maxCachedLayouts;
+
+		final Path directory = file.toAbsolutePath().getParent();
+		final Map<Integer, Glyph> glyphs = new HashMap<Integer, Glyph>();
+		final Map<Integer, Integer> kerning = new HashMap<Integer, Integer>();
+		final TreeMap<Integer, Bitmap> pages = new TreeMap<Integer, Bitmap>();
+		String name = file.getFileName().toString();
+		int lineHeight = -1, ascent = -1;
+
+		try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while((line = reader.readLine()) != null) {
+				lineNumber++;
+				final String trimmed = line.trim();
+				final int tagEnd = trimmed.indexOf(' ');
+				final String tag = (tagEnd < 0) ? trimmed : trimmed.substring(0, tagEnd);
+
+				final Map<String, String> attributes = new HashMap<String, String>();
+				final Matcher matcher = BMFONT_ATTRIBUTE.matcher(trimmed);
+				while(matcher.find()) {
+					final String value = matcher.group(2);
+					attributes.put(matcher.group(1), value.startsWith("\"") ? value.substring(1, value.length() - 1) : value);
+				}
+
+				try {
+					switch(tag) {
+						case "info":
+							if(attributes.containsKey("face")) name = attributes.get("face") + " " + attributes.get("size");
+							break;
+						case "common":
+							lineHeight = Integer.parseInt(attributes.get("lineHeight"));
+							ascent = Integer.parseInt(attributes.get("base"));
+							break;
+						case "page":
+							pages.put(Integer.parseInt(attributes.get("id")), loadPage(directory.resolve(attributes.get("file"))));
+							break;
+						case "char":
+							final Glyph glyph = new Glyph(Integer.parseInt(attributes.get("id")), Integer.parseInt(attributes.get("xadvance")) * SUBPIXELS);
+							glyph.x = Integer.parseInt(attributes.get("x"));
+							glyph.y = Integer.parseInt(attributes.get("y"));
+							glyph.width = Integer.parseInt(attributes.get("width"));
+							glyph.height = Integer.parseInt(attributes.get("height"));
+							glyph.xOffset = Integer.parseInt(attributes.get("xoffset"));
+							glyph.yOffset = Integer.parseInt(attributes.get("yoffset"));
+							glyph.page = attributes.containsKey("page") ? Integer.parseInt(attributes.get("page")) : 0;
+							if(glyph.codePoint >= 0) glyphs.put(glyph.codePoint, glyph);
+							break;
+						case "kerning":
+							final int first = Integer.parseInt(attributes.get("first")), second = Integer.parseInt(attributes.get("second"));
+							final int amount = Integer.parseInt(attributes.get("amount"));
+							if((first <= 0xffff) && (second <= 0xffff) && (amount != 0)) kerning.put(kerningKey(first, second), amount * SUBPIXELS);
+							break;
+						default:
+							// The counts ("chars", "kernings") and anything else aren't needed
+							break;
+					}
+				} catch(NumberFormatException e) {
+					// Integer.parseInt(null) throws this as well, so it also covers a missing attribute
+					final IOException exception = new IOException("Line " + lineNumber + " of the font " + file + " is malformed: " + trimmed, e);
+					Log.error("Failed to load a BitmapFont", exception);
+					throw exception;
+				}
+			}
+		}
+
+		if((lineHeight <= 0) || pages.isEmpty() || (pages.firstKey() != 0) || (pages.lastKey() != (pages.size() - 1))) {
+			final IOException exception = new IOException("The font " + file + " has no line height or is missing pages");
+			Log.error("Failed to load a BitmapFont", exception);
+			throw exception;
+		}
+		final Bitmap[] pageArray = pages.values().toArray(new Bitmap[pages.size()]);
+		for(Glyph glyph : glyphs.values()) {
+			final Bitmap page = ((glyph.page >= 0) && (glyph.page < pageArray.length)) ? pageArray[glyph.page] : null;
+			if((page == null) || (glyph.width < 0) || (glyph.height < 0) || (glyph.x < 0) || (glyph.y < 0) || ((glyph.x + glyph.width) > page.width)
+					|| ((glyph.y + glyph.height) > page.height)) {
+				final IOException exception = new IOException("The glyph for code point " + glyph.codePoint + " in the font " + file
+						+ " lies outside of its page");
+				Log.error("Failed to load a BitmapFont", exception);
+				throw exception;
+			}
+		}
+
+		Log.info("Have loaded {} glyphs of {} from {}", glyphs.size(), name, file);
+		return new BitmapFont(name, pageArray, lineHeight, ascent, glyphs, kerning, maxCachedLayouts);
+	}
+
+	private static Bitmap loadPage(Path file) throws IOException {
+		final Bitmap page = BitmapLoader.load(file);
+		if(page.hasAlphaChannel()) return page;
+
+		final Bitmap converted = new Bitmap(page.width, page.height);
+		for(int i = 0; i < page.pixels.length; i++) {
+			final int coverage = ((page.pixels[i] >> 16) & 0xff);
+			converted.pixels[i] = (coverage == 0) ? 0 : ((coverage << 24) | 0x00ffffff);
+		}
+		return converted;
+	}
+
+	private static int kerningKey(int first, int second) { return ((first << 16) | second); }
+
+	/** The glyph for the given code point, or the glyph drawn in place of missing characters if the font has none (which may be null) */
+	private Glyph getGlyph(int codePoint) {
+		final Glyph glyph = findGlyph(codePoint);
+		return (glyph != null) ? glyph : missingGlyph;
+	}
+
+	private Glyph findGlyph(int codePoint) {
+		if((codePoint >= 0) && (codePoint < latinGlyphs.length)) return latinGlyphs[codePoint];
+		final int index = Arrays.binarySearch(otherCodePoints, codePoint);
+		return (index >= 0) ? otherGlyphs[index] : null;
+	}
+
+	/** The kerning between two characters, in 64ths of a pixel */
+	private int getKerning(int first, int second) {
+		if((first > 0xffff) || (second > 0xffff)) return 0;
+		final int index = Arrays.binarySearch(kerningKeys, kerningKey(first, second));
+		return (index >= 0) ? kerningAmounts[index] : 0;
+	}
+
+	/**
+	 * Returns the Layout of the given String, from the cache if it has been laid out recently. The Layout is shared with anything else drawing the same String,
+	 * so it must not be held on to for long if the String may be evicted - it stays correct, but the cache will make another one
+	 */
+	public Layout getLayout(String text) {
+		assert (text != null) : "Cannot lay out a null String";
+
+		final Layout layout = findLayout(text);
+		return (layout == scratchLayouts.get()) ? layout.copy() : layout;
+	}
+
+	// The cached Layout of the String - or, if it isn't cached, the per-thread scratch Layout with the String laid out into it (which is only valid until the
+	// thread next lays something out). The String is cached if this is the second time it has been seen
+	private Layout findLayout(String text) {
+		final boolean seenBefore;
+		synchronized(this) {
+			final Layout cached = layouts.get(text);
+			if(cached != null) {
+				hitCount++;
+				return cached;
+			}
+			missCount++;
+
+			final int hashCode = text.hashCode(), slot = (hashCode & (seenHashCodes.length - 1));
+			seenBefore = ((maxCachedLayouts > 0) && (seenHashCodes[slot] == hashCode));
+			seenHashCodes[slot] = hashCode;
+		}
+
+		final Layout scratch = scratchLayouts.get();
+		layOut(text, scratch);
+		if(!seenBefore) return scratch;
+
+		final Layout layout = scratch.copy();
+		synchronized(this) {
+			layouts.put(text, layout);
+			if(layouts.size() > maxCachedLayouts) {
+				layouts.remove(layouts.keySet().iterator().next());
+			}
+		}
+		return layout;
+	}
+
+	/** The width of the widest line of the given text, in pixels */
+	public int measureWidth(CharSequence text) {
+		assert (text != null) : "Cannot measure null text";
+		if(text instanceof String) return findLayout((String) text).width;
+
+		final Layout scratch = scratchLayouts.get();
+		layOut(text, scratch);
+		return scratch.width;
+	}
+
+	// Works out where every glyph of the text goes, relative to the top-left of the first line
+	private void layOut(CharSequence text, Layout layout) {
+		layout.glyphCount = 0;
+		layout.lineCount = 1;
+		int pen = 0, widest = 0;
+		int previousCodePoint = -1;
+		Glyph previous = null;
+
+		final int length = text.length();
+		for(int i = 0; i < length; ) {
+			int codePoint = text.charAt(i++);
+			if(Character.isHighSurrogate((char) codePoint) && (i < length) && Character.isLowSurrogate(text.charAt(i))) {
+				codePoint = Character.toCodePoint((char) codePoint, text.charAt(i++));
+			}
+
+			if(codePoint == '\n') {
+				widest = Math.max(widest, roundSubpixels(pen));
+				pen = 0;
+				previous = null;
+				layout.lineCount++;
+				continue;
+			}
+
+			final Glyph glyph = getGlyph(codePoint);
+			if(glyph == null) continue;
+			if((previous != null) && previous.hasKerning) pen += getKerning(previousCodePoint, glyph.codePoint);
+
+			if((glyph.width > 0) && (glyph.height > 0)) {
+				layout.add(glyph, roundSubpixels(pen) + glyph.xOffset, ((layout.lineCount - 1) * lineHeight) + glyph.yOffset);
+			}
+			pen += glyph.advance;
+			previous = glyph;
+			previousCodePoint = glyph.codePoint;
+		}
+
+		layout.width = Math.max(widest, roundSubpixels(pen));
+		layout.height = layout.lineCount * lineHeight;
+	}
+
+	private static int roundSubpixels(int subpixels) { return ((subpixels + (SUBPIXELS / 2)) >> SUBPIXEL_SHIFT); }
+
+	/** Draws text into the target, with the top-left of its first line at (x, y), clipped to the given rectangle (see {@code Bitmap.drawText}) */
+	void draw(Bitmap target, CharSequence text, int x, int y, int tintARGB, int clipX, int clipY, int clipWidth, int clipHeight) {
+		if((tintARGB >>> 24) == 0) return;
+
+		final Layout layout;
+		if(text instanceof String) {
+			layout = findLayout((String) text);
+		} else {
+			layout = scratchLayouts.get();
+			layOut(text, layout);
+		}
+		draw(target, layout, x, y, tintARGB, clipX, clipY, clipWidth, clipHeight);
+	}
+
+	void draw(Bitmap target, Layout layout, int x, int y, int tintARGB, int clipX, int clipY, int clipWidth, int clipHeight) {
+		final int left = Math.max(clipX, 0), top = Math.max(clipY, 0);
+		final int right = Math.min(clipX + clipWidth, target.width), bottom = Math.min(clipY + clipHeight, target.height);
+		if((left >= right) || (top >= bottom) || (layout.glyphCount == 0)) return;
+
+		// A Bitmap without an alpha channel is always drawn as opaque, so the cheaper blend can be used whatever its alpha bits hold
+		final boolean ontoOpaque = !target.hasAlphaChannel();
+		final CoverageBatch batch = ontoOpaque ? coverageBatches.get() : null;
+		int dirtyLeft = Integer.MAX_VALUE, dirtyTop = Integer.MAX_VALUE, dirtyRight = Integer.MIN_VALUE, dirtyBottom = Integer.MIN_VALUE;
+		for(int i = 0; i < layout.glyphCount; i++) {
+			final Glyph glyph = layout.glyphs[i];
+			final int glyphX = x + layout.glyphX[i], glyphY = y + layout.glyphY[i];
+
+			// Clip the glyph once up front, so that the kernels never need to check the bounds of a pixel
+			final int startX = Math.max(glyphX, left), startY = Math.max(glyphY, top);
+			final int endX = Math.min(glyphX + glyph.width, right), endY = Math.min(glyphY + glyph.height, bottom);
+			if((startX >= endX) || (startY >= endY)) continue;
+
+			final boolean clipped = ((startX != glyphX) || (startY != glyphY) || (endX != (glyphX + glyph.width)) || (endY != (glyphY + glyph.height)));
+			if(ontoOpaque && (glyph.coverage != null) && !clipped) {
+				// A glyph that starts left of the right edge of any glyph already in the batch may cover the same pixels, so the batch must be blended first
+				if(startX < batch.right) batch.blend(target.pixels, tintARGB);
+				batch.add(glyph, target.pixels, startX + (startY * target.width), target.width);
+				batch.right = endX;
+			} else if(ontoOpaque && (glyph.coverage != null)) {
+				batch.blend(target.pixels, tintARGB);
+				PixelKernels.blendCoverageOntoOpaque(glyph.coverage, (startX - glyphX) + ((startY - glyphY) * glyph.width), glyph.width, target.pixels,
+						startX + (startY * target.width), target.width, endX - startX, endY - startY, tintARGB);
+			} else {
+				if(batch != null) batch.blend(target.pixels, tintARGB);
+				final Bitmap page = pages[glyph.page];
+				for(int row = startY; row < endY; row++) {
+					final int srcOffset = (glyph.x + (startX - glyphX)) + ((glyph.y + (row - glyphY)) * page.width);
+					PixelKernels.blendTintedRow(page.pixels, srcOffset, target.pixels, startX + (row * target.width), endX - startX, tintARGB, ontoOpaque);
+				}
+			}
+
+			dirtyLeft = Math.min(dirtyLeft, startX);
+			dirtyTop = Math.min(dirtyTop, startY);
+			dirtyRight = Math.max(dirtyRight, endX);
+			dirtyBottom = Math.max(dirtyBottom, endY);
+		}
+
+		if(batch != null) batch.blend(target.pixels, tintARGB);
+		if(dirtyLeft < dirtyRight) target.markDirty(dirtyLeft, dirtyTop, dirtyRight - dirtyLeft, dirtyBottom - dirtyTop);
+	}
+
+	public String getName() { return name; }
+	/** The distance from the top of one line to the top of the next, in pixels */
+	public int getLineHeight() { return lineHeight; }
+	/** The distance from the top of a line to its baseline, in pixels */
+	public int getAscent() { return ascent; }
+	public int getPageCount() { return pages.length; }
+	/** The atlas holding the glyphs of the given page, which must be treated as read-only */
+	public Bitmap getPage(int index) { return pages[index]; }
+	public int getKerningPairCount() { return kerningKeys.length; }
+	public boolean hasGlyph(int codePoint) { return (findGlyph(codePoint) != null); }
+
+	public int getMaxCachedLayouts() { return maxCachedLayouts; }
+	public synchronized int getCachedLayoutCount() { return layouts.size(); }
+	public synchronized long getLayoutHitCount() { return hitCount; }
+	public synchronized long getLayoutMissCount() { return missCount; }
+	public synchronized void clearLayoutCache() { layouts.clear(); }
+
+	@Override
+	public String toString() { return "BitmapFont(" + name + ")"; }
+
+	// Where a glyph is in its page, and how it is placed relative to the pen (which sits at the top of the line, rather than on the baseline)
+	private static final class Glyph {
+		private final int codePoint;
+		// How far the pen moves on after this glyph, in 64ths of a pixel
+		private final int advance;
+		private int page, x, y, width, height, xOffset, yOffset;
+		// Whether this glyph is the first of any kerning pair, so that the kerning needn't be looked up after any other glyph
+		private boolean hasKerning = false;
+		// The alpha of each pixel of the glyph, row by row - only held when the glyph's page is entirely white
+		private int[] coverage = null;
+		// Where each pixel with any coverage is, relative to the top-left of the glyph, and its coverage - held alongside the coverage
+		private int[] coveredX = null, coveredY = null, coveredAmounts = null;
+
+		private Glyph(int codePoint, int advance) {
+			this.codePoint = codePoint;
+			this.advance = advance;
+		}
+	}
+
+	// The covered pixels of the glyphs being drawn onto an opaque target, gathered from wherever they are in the target so that they can all be blended in one
+	// loop that the JIT can vectorise (see PixelKernels.blendCoverageSpan), and then put back. Blending each glyph on its own would cost a short loop (or a
+	// copy in and out of a scratch buffer) for every row of every glyph, which costs far more than the blend itself. The glyphs gathered mustn't overlap, since
+	// each is blended as if the others weren't there
+	private static final class CoverageBatch {
+		private int[] indices = new int[1024], pixels = new int[1024], coverage = new int[1024];
+		private int count = 0;
+		// The right edge of the last glyph added - glyphs are added left to right, so no glyph starting at or after it can overlap one already in the batch
+		private int right = Integer.MIN_VALUE;
+
+		private void add(Glyph glyph, int[] dst, int dstOffset, int dstStride) {
+			final int coveredCount = glyph.coveredAmounts.length;
+			if((count + coveredCount) > indices.length) {
+				final int capacity = Math.max(2 * indices.length, count + coveredCount);
+				indices = Arrays.copyOf(indices, capacity);
+				pixels = Arrays.copyOf(pixels, capacity);
+				coverage = Arrays.copyOf(coverage, capacity);
+			}
+
+			final int[] coveredX = glyph.coveredX, coveredY = glyph.coveredY;
+			System.arraycopy(glyph.coveredAmounts, 0, coverage, count, coveredCount);
+			for(int i = 0; i < coveredCount; i++) {
+				final int index = dstOffset + coveredX[i] + (coveredY[i] * dstStride);
+				indices[count + i] = index;
+				pixels[count + i] = dst[index];
+			}
+			count += coveredCount;
+		}
+
+		private void blend(int[] dst, int tintARGB) {
+			PixelKernels.blendCoverageSpan(coverage, pixels, count, tintARGB);
+			for(int i = 0; i < count; i++) dst[indices[i]] = pixels[i];
+			count = 0;
+			right = Integer.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Where every glyph of a piece of text is drawn, relative to the top-left of its first line, along with the size of the text. Only glyphs that have any
+	 * pixels (so not spaces) are held
+	 */
+	public static final class Layout {
+		private Glyph[] glyphs;
+		private int[] glyphX, glyphY;
+		private int glyphCount = 0;
+		private int width = 0, height = 0, lineCount = 0;
+
+		private Layout(int capacity) {
+			glyphs = new Glyph[capacity];
+			glyphX = new int[capacity];
+			glyphY = new int[capacity];
+		}
+
+		private void add(Glyph glyph, int x, int y) {
+			if(glyphCount == glyphs.length) {
+				final int capacity = 2 * glyphs.length;
+				glyphs = Arrays.copyOf(glyphs, capacity);
+				glyphX = Arrays.copyOf(glyphX, capacity);
+				glyphY = Arrays.copyOf(glyphY, capacity);
+			}
+			glyphs[glyphCount] = glyph;
+			glyphX[glyphCount] = x;
+			glyphY[glyphCount] = y;
+			glyphCount++;
+		}
+
+		private Layout copy() {
+			final Layout copy = new Layout(Math.max(glyphCount, 1));
+			System.arraycopy(glyphs, 0, copy.glyphs, 0, glyphCount);
+			System.arraycopy(glyphX, 0, copy.glyphX, 0, glyphCount);
+			System.arraycopy(glyphY, 0, copy.glyphY, 0, glyphCount);
+			copy.glyphCount = glyphCount;
+			copy.width = width;
+			copy.height = height;
+			copy.lineCount = lineCount;
+			return copy;
+		}
+
+		/** The width of the widest line, in pixels */
+		public int getWidth() { return width; }
+		/** The number of lines times the line height, in pixels */
+		public int getHeight() { return height; }
+		public int getLineCount() { return lineCount; }
+		public int getGlyphCount() { return glyphCount; }
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.macleod.engine.graphics;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.ImageIO;
+
+import com.macleod.engine.Log;
+
+/**
+ * Creates Bitmaps from image files (anything ImageIO can decode - PNG, JPEG, GIF, BMP...).
+ * <br /><br />
+ * Decoding an image is slow compared to copying its pixels, so a decoded Bitmap can also be written to a 'raw' file: a small header followed by the ARGB value
+ * of every pixel, exactly as they are held in memory. Reading a raw file back is just a memory-mapped bulk copy, with no decoding at all. When a raw cache
+ * directory is given to {@code load}, the raw file for each image is created the first time it is loaded and used every time after that (until the image
+ * file changes)
+ */
+public final class BitmapLoader {
+
+	// "JGEB" - so that anything that isn't a raw file is rejected straight away
+	private static final int RAW_MAGIC = 0x4A474542;
+	// Version 1 files could hold Bitmaps without an alpha channel whose alpha bits were left at 0 - so they are rejected, and written again
+	private static final int RAW_VERSION = 2;
+	private static final int RAW_FLAG_HAS_ALPHA = 1;
+	// The header holds the magic number, version, width, height, flags and a spare int, then the size, modification time and path hash of the image it was
+	// made from. It is kept to a multiple of 4 bytes so that the pixels after it are aligned
+	private static final int RAW_HEADER_BYTES = 48;
+	private static final String RAW_FILE_EXTENSION = ".rawbitmap";
+
+	private BitmapLoader() { }
+
+	/**
+	 * Decodes the given image file into a new Bitmap. The Bitmap only has an alpha channel if the image does - if not, every pixel is still fully opaque, so it
+	 * is drawn the same way whatever it is drawn into
+	 */
+	public static Bitmap load(Path file) throws IOException {
+		assert (file != null) : "Cannot load a Bitmap from a null path";
+
+		final BufferedImage image = ImageIO.read(file.toFile());
+		if(image == null) {
+			final IOException exception = new IOException("There is no decoder for the format of the image " + file);
+			Log.error("Failed to load a Bitmap", exception);
+			throw exception;
+		}
+
+		final Bitmap bitmap = new Bitmap(image.getWidth(), image.getHeight(), image.getColorModel().hasAlpha());
+		if(image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			// The image already holds its pixels in the same form as a Bitmap, so they can be copied straight across
+			System.arraycopy(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, bitmap.pixels, 0, bitmap.pixels.length);
+		} else {
+			// Java2D has optimised loops for converting between most image types, which are far faster than converting each pixel through getRGB
+			final Graphics2D graphics = (Graphics2D) bitmap.createGraphicsInstance();
+			graphics.setComposite(AlphaComposite.Src);
+			graphics.drawImage(image, 0, 0, null);
+			graphics.dispose();
+			// Java2D leaves the alpha bits of an image without an alpha channel at 0, which anything reading the alpha of the pixels would take as transparent
+			if(!bitmap.hasAlphaChannel()) {
+				for(int i = 0; i < bitmap.pixels.length; i++) bitmap.pixels[i] |= 0xff000000;
+			}
+		}
+
+		bitmap.clearDirtyRegion();
+		return bitmap;
+	}
+
+	/**
+	 * Loads the given image file, through a raw file in the given directory. If the directory already holds a raw file made from the image (and the image
+	 * hasn't changed since), the Bitmap is read from that instead of being decoded. Otherwise, the image is decoded and a raw file is written for next time.
+	 * Failing to write the raw file only logs a warning - the Bitmap is still returned
+	 */
+	public static Bitmap load(Path file, Path rawCacheDirectory) throws IOException {
+		assert (file != null) : "Cannot load a Bitmap from a null path";
+		if(rawCacheDirectory == null) return load(file);
+
+		final Path absoluteFile = file.toAbsolutePath().normalize();
+		final long sourceSize = Files.size(absoluteFile);
+		final long sourceModified = Files.getLastModifiedTime(absoluteFile).toMillis();
+		final long sourcePathHash = hashOf(absoluteFile.toString());
+
+		final Path rawFile = getRawCacheFile(absoluteFile, rawCacheDirectory);
+		if(Files.isRegularFile(rawFile)) {
+			try {
+				final Bitmap cached = readRaw(rawFile, true, sourceSize, sourceModified, sourcePathHash);
+				if(cached != null) return cached;
+			} catch(IOException e) {
+				// A damaged raw file is simply replaced
+				Log.warn("Ignoring the unreadable raw Bitmap {} - {}", rawFile, e);
+			}
+		}
+
+		final Bitmap bitmap = load(absoluteFile);
+		try {
+			Files.createDirectories(rawCacheDirectory);
+			writeRaw(bitmap, rawFile, sourceSize, sourceModified, sourcePathHash);
+		} catch(IOException e) {
+			Log.warn("Failed to write the raw Bitmap {} - {}", rawFile, e);
+		}
+		return bitmap;
+	}
+
+	/** The raw file in the given directory that {@code load} uses for the given image file */
+	public static Path getRawCacheFile(Path file, Path rawCacheDirectory) {
+		final Path absoluteFile = file.toAbsolutePath().normalize();
+		// Images with the same name in different directories must not share a raw file, so the name also includes a hash of the whole path
+		return rawCacheDirectory.resolve(absoluteFile.getFileName() + "-" + Long.toHexString(hashOf(absoluteFile.toString())) + RAW_FILE_EXTENSION);
+	}
+
+	/** Reads a Bitmap from a raw file (e.g. one written by {@code writeRaw} as part of the build of a game, rather than by {@code load}) */
+	public static Bitmap readRaw(Path rawFile) throws IOException { return readRaw(rawFile, false, 0, 0, 0); }
+
+	/** Writes the given Bitmap to a raw file, which can be read back with {@code readRaw} */
+	public static void writeRaw(Bitmap bitmap, Path rawFile) throws IOException { writeRaw(bitmap, rawFile, -1, -1, 0); }
+
+	/**
+	 * Reads a raw file. When the source is checked, null is returned if the raw file wasn't made from the given image (or the image has changed since).
+	 * <br /><br />
+	 * The header is read and checked before any of the file is mapped. A mapping lasts until it is garbage collected, and on some platforms (e.g. Windows) a
+	 * mapped file can't be replaced - so mapping a stale raw file would stop {@code load} from ever writing a fresh one in its place
+	 */
+	private static Bitmap readRaw(Path rawFile, boolean checkSource, long sourceSize, long sourceModified, long sourcePathHash) throws IOException {
+		try(FileChannel channel = FileChannel.open(rawFile, StandardOpenOption.READ)) {
+			final long fileSize = channel.size();
+			if(fileSize < RAW_HEADER_BYTES) throw new IOException(rawFile + " is too small to be a raw Bitmap");
+
+			// Raw files are always little endian, which matches the memory of almost every machine - so the bulk copy below is a straight memory copy
+			final ByteBuffer buffer = ByteBuffer.allocate(RAW_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer, buffer.position()) < 0) throw new IOException(rawFile + " is too small to be a raw Bitmap");
+			}
+			buffer.flip();
+
+			if(buffer.getInt() != RAW_MAGIC) throw new IOException(rawFile + " is not a raw Bitmap");
+			final int version = buffer.getInt();
+			if(version != RAW_VERSION) throw new IOException(rawFile + " is a raw Bitmap of version " + version + " (expected " + RAW_VERSION + ")");
+
+			final int width = buffer.getInt();
+			final int height = buffer.getInt();
+			final int flags = buffer.getInt();
+			buffer.getInt();
+			final long rawSourceSize = buffer.getLong();
+			final long rawSourceModified = buffer.getLong();
+			final long rawSourcePathHash = buffer.getLong();
+
+			if(checkSource && ((rawSourceSize != sourceSize) || (rawSourceModified != sourceModified) || (rawSourcePathHash != sourcePathHash))) return null;
+			if((width < 0) || (height < 0) || (fileSize != (RAW_HEADER_BYTES + (4L * width * height)))) {
+				throw new IOException(rawFile + " has the wrong size for a raw Bitmap of dimensions (" + width + "," + height + ")");
+			}
+
+			final Bitmap bitmap = new Bitmap(width, height, ((flags & RAW_FLAG_HAS_ALPHA) != 0));
+			if(bitmap.pixels.length > 0) {
+				final MappedByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, RAW_HEADER_BYTES, fileSize - RAW_HEADER_BYTES);
+				pixels.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(bitmap.pixels);
+			}
+			return bitmap;
+		}
+	}
+
+	private static void writeRaw(Bitmap bitmap, Path rawFile, long sourceSize, long sourceModified, long sourcePathHash) throws IOException {
+		assert (bitmap != null) : "Cannot write a null Bitmap to a raw file";
+
+		final ByteBuffer buffer = ByteBuffer.allocate(RAW_HEADER_BYTES + (4 * bitmap.pixels.length)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(RAW_MAGIC).putInt(RAW_VERSION).putInt(bitmap.width).putInt(bitmap.height);
+		buffer.putInt(bitmap.hasAlphaChannel() ? RAW_FLAG_HAS_ALPHA : 0).putInt(0);
+		buffer.putLong(sourceSize).putLong(sourceModified).putLong(sourcePathHash);
+		if(bitmap.hasAlphaChannel()) {
+			buffer.asIntBuffer().put(bitmap.pixels);
+		} else {
+			// Written fully opaque whatever the alpha bits hold, so that reading the file back always gives pixels that are drawn the same way (see load)
+			for(int i = 0; i < bitmap.pixels.length; i++) buffer.putInt(bitmap.pixels[i] | 0xff000000);
+		}
+		buffer.clear();
+
+		// The file is written under another name and then moved into place, so nothing can ever read a partly written raw file
+		final Path temporaryFile = rawFile.resolveSibling(rawFile.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining()) channel.write(buffer);
+		}
+
+		try {
+			Files.move(temporaryFile, rawFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile, rawFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// FNV-1a - String.hashCode is only 32 bits, which is too few to tell a few thousand image paths apart reliably
+	private static long hashOf(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+}
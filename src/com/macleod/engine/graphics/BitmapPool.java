@@ -0,0 +1,259 @@
+package com.macleod.engine.graphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BitmapPool keeps hold of the pixels of released Bitmaps, so that the next Bitmap of the same dimensions can reuse them rather than allocating new ones.
+ * This matters for anything short-lived (popups, tooltips, transient overlays...) - without a pool, each one allocates (and soon leaves behind) a whole image
+ * worth of pixels, which can quickly add up to enough garbage to cause a noticeable collection part way through a frame.
+ * <br /><br />
+ * Bitmaps are taken from a pool with {@code acquire} (or the pool constructors of Bitmap and GuiLayer), and given back with {@code Bitmap.release}. Released
+ * pixels are only reused by a Bitmap with exactly the same dimensions and alpha channel. The pool never keeps more than {@code maxBytes} of idle pixels, and
+ * forgets any that have been idle for longer than the maximum idle time - in both cases, the pixels that have been idle the longest go first.
+ * <br /><br />
+ * Any thread can acquire from and release to a pool
+ */
+public final class BitmapPool {
+
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	public static final long DEFAULT_MS_MAX_IDLE = TimeUnit.SECONDS.toMillis(30);
+
+	private static final BitmapPool sharedPool = new BitmapPool(DEFAULT_MAX_BYTES, DEFAULT_MS_MAX_IDLE);
+
+	private final long maxBytes;
+	private final long nsMaxIdle;
+
+	// Every idle image is in two lists at once: the list of every idle image (from the oldest release to the newest), and the list of idle images with the
+	// same dimensions (whose newest entry is kept in the table below). Acquiring takes the newest image of its size, while evicting takes the oldest image of all
+	private IdleImage oldestIdle, newestIdle;
+	// Nodes no longer in either list, linked through their newer field, so that releasing an image reuses a node rather than allocating one
+	private IdleImage freeNodes;
+	private int idleCount = 0;
+	private long retainedBytes = 0;
+
+	// The newest idle image of each size, found by linear probing from the hash of the size's key (see keyOf) - rather than through a HashMap, which would box
+	// the key and allocate an entry on every release. A slot is empty when it has no image, and the table is kept at most half full
+	private long[] sizeKeys = new long[16];
+	private IdleImage[] newestIdleBySize = new IdleImage[16];
+	private int sizeCount = 0;
+
+	private long hitCount = 0, missCount = 0, evictionCount = 0;
+
+	public BitmapPool() { this(DEFAULT_MAX_BYTES, DEFAULT_MS_MAX_IDLE); }
+
+	public BitmapPool(long maxBytes, long msMaxIdle) {
+		assert (maxBytes >= 0) : "A BitmapPool cannot have a negative size. Was given " + maxBytes;
+		assert (msMaxIdle >= 0) : "A BitmapPool cannot have a negative maximum idle time. Was given " + msMaxIdle;
+
+		this.maxBytes = Math.max(0, maxBytes);
+		this.nsMaxIdle = TimeUnit.MILLISECONDS.toNanos(Math.max(0, msMaxIdle));
+	}
+
+	/** A pool that can be shared by the whole engine (holding up to DEFAULT_MAX_BYTES, for up to DEFAULT_MS_MAX_IDLE) */
+	public static BitmapPool getShared() { return sharedPool; }
+
+	public Bitmap acquire(int width, int height) { return acquire(width, height, true); }
+
+	/** Returns a fully transparent Bitmap of the given dimensions, reusing released pixels if there are any. It should be released once it is finished with */
+	public Bitmap acquire(int width, int height, boolean hasAlphaChannel) { return new Bitmap(this, width, height, hasAlphaChannel); }
+
+	BufferedImage acquireImage(int width, int height, boolean hasAlphaChannel) {
+		final BufferedImage idleImage = takeIdleImage(width, height, hasAlphaChannel);
+		if(idleImage == null) return Bitmap.createBufferedImage(width, height, hasAlphaChannel);
+
+		// Cleared outside of the lock, so that one large clear doesn't hold up every other thread using the pool
+		Arrays.fill(((DataBufferInt) idleImage.getRaster().getDataBuffer()).getData(), 0);
+		return idleImage;
+	}
+
+	private synchronized BufferedImage takeIdleImage(int width, int height, boolean hasAlphaChannel) {
+		evictIdleSince(System.nanoTime());
+
+		final IdleImage idle = getNewestIdle(keyOf(width, height, hasAlphaChannel));
+		if(idle == null) {
+			missCount++;
+			return null;
+		}
+
+		hitCount++;
+		final BufferedImage image = idle.image;
+		remove(idle);
+		return image;
+	}
+
+	synchronized void releaseImage(BufferedImage image) {
+		final long nsNow = System.nanoTime();
+		IdleImage idle = freeNodes;
+		if(idle != null) freeNodes = idle.newer;
+		else idle = new IdleImage();
+		idle.set(image, keyOf(image.getWidth(), image.getHeight(), (image.getType() == BufferedImage.TYPE_INT_ARGB)), nsNow);
+
+		idle.newer = null;
+		idle.older = newestIdle;
+		if(newestIdle != null) newestIdle.newer = idle;
+		else oldestIdle = idle;
+		newestIdle = idle;
+
+		idle.olderSameSize = putNewestIdle(idle.key, idle);
+		if(idle.olderSameSize != null) idle.olderSameSize.newerSameSize = idle;
+
+		idleCount++;
+		retainedBytes += idle.bytes;
+
+		// The image just released is the newest, so it is only evicted here if it is bigger than the whole pool
+		while((retainedBytes > maxBytes) && (oldestIdle != null)) evict(oldestIdle);
+		evictIdleSince(nsNow);
+	}
+
+	/** Forgets every image that has been idle for longer than the maximum idle time. This also happens whenever the pool is acquired from or released to */
+	public synchronized void evictIdle() { evictIdleSince(System.nanoTime()); }
+
+	/** Forgets every idle image */
+	public synchronized void clear() {
+		while(oldestIdle != null) evict(oldestIdle);
+	}
+
+	private void evictIdleSince(long nsNow) {
+		while((oldestIdle != null) && ((nsNow - oldestIdle.nsReleased) > nsMaxIdle)) evict(oldestIdle);
+	}
+
+	private void evict(IdleImage idle) {
+		remove(idle);
+		evictionCount++;
+	}
+
+	// Takes the image out of both lists, and keeps its node to be reused by the next release
+	private void remove(IdleImage idle) {
+		if(idle.older != null) idle.older.newer = idle.newer;
+		else oldestIdle = idle.newer;
+		if(idle.newer != null) idle.newer.older = idle.older;
+		else newestIdle = idle.older;
+
+		if(idle.olderSameSize != null) idle.olderSameSize.newerSameSize = idle.newerSameSize;
+		if(idle.newerSameSize != null) {
+			idle.newerSameSize.olderSameSize = idle.olderSameSize;
+		} else if(idle.olderSameSize != null) {
+			putNewestIdle(idle.key, idle.olderSameSize);
+		} else {
+			removeNewestIdle(idle.key);
+		}
+
+		idleCount--;
+		retainedBytes -= idle.bytes;
+
+		idle.set(null, 0, 0);
+		idle.older = idle.olderSameSize = idle.newerSameSize = null;
+		idle.newer = freeNodes;
+		freeNodes = idle;
+	}
+
+	private IdleImage getNewestIdle(long key) {
+		final int mask = sizeKeys.length - 1;
+		for(int slot = slotOf(key, mask); newestIdleBySize[slot] != null; slot = (slot + 1) & mask) {
+			if(sizeKeys[slot] == key) return newestIdleBySize[slot];
+		}
+		return null;
+	}
+
+	// Makes the image the newest idle image of its size, returning the image that was the newest (or null if there were none of that size)
+	private IdleImage putNewestIdle(long key, IdleImage idle) {
+		if(((sizeCount + 1) * 2) > sizeKeys.length) growSizeTable();
+
+		final int mask = sizeKeys.length - 1;
+		int slot = slotOf(key, mask);
+		for(; newestIdleBySize[slot] != null; slot = (slot + 1) & mask) {
+			if(sizeKeys[slot] == key) {
+				final IdleImage previous = newestIdleBySize[slot];
+				newestIdleBySize[slot] = idle;
+				return previous;
+			}
+		}
+
+		sizeKeys[slot] = key;
+		newestIdleBySize[slot] = idle;
+		sizeCount++;
+		return null;
+	}
+
+	private void removeNewestIdle(long key) {
+		final int mask = sizeKeys.length - 1;
+		int slot = slotOf(key, mask);
+		while(sizeKeys[slot] != key) {
+			if(newestIdleBySize[slot] == null) return;
+			slot = (slot + 1) & mask;
+		}
+		if(newestIdleBySize[slot] == null) return;
+
+		newestIdleBySize[slot] = null;
+		sizeCount--;
+
+		// Any later entry of the same run that could have been placed in the emptied slot is moved back into it, so that no lookup stops short of its entry
+		for(int next = (slot + 1) & mask; newestIdleBySize[next] != null; next = (next + 1) & mask) {
+			final int home = slotOf(sizeKeys[next], mask);
+			if(((next - home) & mask) >= ((next - slot) & mask)) {
+				sizeKeys[slot] = sizeKeys[next];
+				newestIdleBySize[slot] = newestIdleBySize[next];
+				newestIdleBySize[next] = null;
+				slot = next;
+			}
+		}
+	}
+
+	private void growSizeTable() {
+		final long[] oldKeys = sizeKeys;
+		final IdleImage[] oldImages = newestIdleBySize;
+		sizeKeys = new long[oldKeys.length * 2];
+		newestIdleBySize = new IdleImage[oldImages.length * 2];
+
+		final int mask = sizeKeys.length - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldImages[i] == null) continue;
+
+			int slot = slotOf(oldKeys[i], mask);
+			while(newestIdleBySize[slot] != null) slot = (slot + 1) & mask;
+			sizeKeys[slot] = oldKeys[i];
+			newestIdleBySize[slot] = oldImages[i];
+		}
+	}
+
+	private static int slotOf(long key, int mask) { return ((int) ((key * 0x9E3779B97F4A7C15L) >>> 32)) & mask; }
+
+	private static long keyOf(int width, int height, boolean hasAlphaChannel) {
+		return (((long) width << 32) | ((long) height << 1) | (hasAlphaChannel ? 1 : 0));
+	}
+
+	public long getMaxBytes() { return maxBytes; }
+	public long getMsMaxIdle() { return TimeUnit.NANOSECONDS.toMillis(nsMaxIdle); }
+
+	/** The number of acquires that reused released pixels */
+	public synchronized long getHitCount() { return hitCount; }
+	/** The number of acquires that had to allocate new pixels */
+	public synchronized long getMissCount() { return missCount; }
+	/** The number of released images that were forgotten (for being idle too long, or to keep within the maximum size) */
+	public synchronized long getEvictionCount() { return evictionCount; }
+	/** The number of bytes of idle pixels currently held */
+	public synchronized long getRetainedBytes() { return retainedBytes; }
+	public synchronized int getIdleCount() { return idleCount; }
+
+	// The nodes are reused (see freeNodes), so nothing here is final
+	private static final class IdleImage {
+		private BufferedImage image;
+		private long key;
+		private long bytes;
+		private long nsReleased;
+
+		private IdleImage older, newer;
+		private IdleImage olderSameSize, newerSameSize;
+
+		private void set(BufferedImage image, long key, long nsReleased) {
+			this.image = image;
+			this.key = key;
+			this.bytes = (image == null) ? 0 : (4L * image.getWidth() * image.getHeight());
+			this.nsReleased = nsReleased;
+		}
+	}
+
+}
@@ -11,6 +11,9 @@ public class Colour {
 	
 	public static final int NO_ALPHA_VALUE = getARGB(0, 0, 0, 0);
 	
+	/** The default colour treated as transparent when drawing a Bitmap with a colour key (see Bitmap.BlitMode) */
+	public static final int MAGENTA = getARGB(255, 255, 0, 255);
+	
 	private Colour() { }
 	
 	public final static int getARGB(int a, int r, int g, int b) { return ((a << 24) | (r << 16) | (g << 8) | b); } 
@@ -20,4 +23,98 @@ public class Colour {
 	public final static int getRComponent(int argb) { return ((argb & 0x00ff0000) >> 16); }
 	public final static int getAComponent(int argb) { return ((argb & 0xff000000) >> 24); }
 	
+	/**
+	 * Blends the source colour over the destination colour, treating the destination as fully opaque (whatever its alpha bits hold). The result is always fully
+	 * opaque. Each channel is rounded to the nearest value, so blending with a fully opaque source gives exactly the source colour and a fully transparent source
+	 * gives exactly the destination colour
+	 */
+	public final static int blendOntoOpaque(int srcARGB, int dstARGB) {
+		return blendWeightedOntoOpaque(weightRedBlue(srcARGB), weightGreen(srcARGB), 255 - (srcARGB >>> 24), dstARGB);
+	}
+	
+	// blendOntoOpaque is split into the parts that only depend on the source colour (its red and blue channels, and its green channel, weighted by its alpha
+	// and with the rounding added) and the blend of those onto the destination - so that a source colour blended many times (such as a pixel of a
+	// CompiledSprite) only needs weighting once
+	final static int weightRedBlue(int srcARGB) { return (((srcARGB & 0x00ff00ff) * (srcARGB >>> 24)) + 0x00800080); }
+	final static int weightGreen(int srcARGB) { return (((srcARGB & 0x0000ff00) * (srcARGB >>> 24)) + 0x00008000); }
+	
+	final static int blendWeightedOntoOpaque(int srcRedBlue, int srcGreen, int dstWeight, int dstARGB) {
+		// The red and blue channels are blended together with a single multiply each, since each weighted channel fits within its own 16 bits of the integer.
+		// The rounding division by 255 is then done for both halves at once (see divideBy255)
+		int redBlue = srcRedBlue + ((dstARGB & 0x00ff00ff) * dstWeight);
+		redBlue = ((redBlue + ((redBlue >>> 8) & 0x00ff00ff)) >>> 8) & 0x00ff00ff;
+		
+		int green = srcGreen + ((dstARGB & 0x0000ff00) * dstWeight);
+		green = ((green + ((green >>> 8) & 0x00ffff00)) >>> 8) & 0x0000ff00;
+		
+		return (0xff000000 | redBlue | green);
+	}
+	
+	/**
+	 * Blends the source colour over the destination colour (the standard 'source over' operation), where neither colour is premultiplied by its alpha. Unlike
+	 * {@code blendOntoOpaque}, the destination may be translucent - so the result is only opaque if one of the two colours was
+	 */
+	public final static int blendSourceOver(int srcARGB, int dstARGB) {
+		final int srcAlpha = (srcARGB >>> 24);
+		if(srcAlpha == 0xff) return srcARGB;
+		if(srcAlpha == 0) return dstARGB;
+		
+		final int dstAlpha = (dstARGB >>> 24);
+		if(dstAlpha == 0xff) return blendOntoOpaque(srcARGB, dstARGB);
+		if(dstAlpha == 0) return srcARGB;
+		
+		// How much of each colour contributes to the result (both scaled up by 255, so that no precision is lost by rounding them before they are used)
+		final int srcWeight = srcAlpha * 255;
+		final int dstWeight = dstAlpha * (255 - srcAlpha);
+		final int totalWeight = srcWeight + dstWeight;
+		final int rounding = (totalWeight >> 1);
+		
+		final int outAlpha = divideBy255(totalWeight);
+		final int r = ((((srcARGB >> 16) & 0xff) * srcWeight) + (((dstARGB >> 16) & 0xff) * dstWeight) + rounding) / totalWeight;
+		final int g = ((((srcARGB >> 8) & 0xff) * srcWeight) + (((dstARGB >> 8) & 0xff) * dstWeight) + rounding) / totalWeight;
+		final int b = (((srcARGB & 0xff) * srcWeight) + ((dstARGB & 0xff) * dstWeight) + rounding) / totalWeight;
+		
+		return ((outAlpha << 24) | (r << 16) | (g << 8) | b);
+	}
+	
+	/** Multiplies each colour channel by the alpha (rounding to the nearest value), as many image formats and blending operations expect */
+	public final static int premultiply(int argb) {
+		final int alpha = (argb >>> 24);
+		return ((argb & 0xff000000) | (divideBy255(((argb >> 16) & 0xff) * alpha) << 16) | (divideBy255(((argb >> 8) & 0xff) * alpha) << 8)
+				| divideBy255((argb & 0xff) * alpha));
+	}
+	
+	/**
+	 * Reverses {@code premultiply}, dividing each colour channel by the alpha (rounding to the nearest value, and never going above 255). A fully transparent
+	 * colour has no colour left to recover, so it becomes NO_ALPHA_VALUE
+	 */
+	public final static int unpremultiply(int argb) {
+		final int alpha = (argb >>> 24);
+		if(alpha == 0xff) return argb;
+		if(alpha == 0) return NO_ALPHA_VALUE;
+		
+		final int rounding = (alpha >> 1);
+		final int r = Math.min(255, ((((argb >> 16) & 0xff) * 255) + rounding) / alpha);
+		final int g = Math.min(255, ((((argb >> 8) & 0xff) * 255) + rounding) / alpha);
+		final int b = Math.min(255, (((argb & 0xff) * 255) + rounding) / alpha);
+		return ((argb & 0xff000000) | (r << 16) | (g << 8) | b);
+	}
+	
+	/** The four 8 bit channels of an ARGB colour, along with how far each is shifted within it */
+	public enum Channel {
+		ALPHA(24), RED(16), GREEN(8), BLUE(0);
+		
+		public final int shift;
+		
+		private Channel(int shift) { this.shift = shift; }
+		
+		public int getComponent(int argb) { return ((argb >>> shift) & 0xff); }
+	}
+	
+	// This gives the same result as Math.round(value / 255.0) for any value in the range 0 <= value <= (255 * 255), without a division
+	final static int divideBy255(int value) { 
+		final int rounded = value + 128;
+		return ((rounded + (rounded >> 8)) >> 8); 
+	}
+	
 }
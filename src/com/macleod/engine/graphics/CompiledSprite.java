@@ -0,0 +1,283 @@
+package com.macleod.engine.graphics;
+
+/**
+ * A CompiledSprite is a copy of a Bitmap made for drawing small images many thousands of times a frame (see SpriteBatch). Drawing a Bitmap has to check the
+ * alpha of every source pixel each time, to find which pixels can be copied and which must be blended - a sprite's pixels never change, so a CompiledSprite
+ * does that once, as it is created. Each row is stored as a list of runs: runs of opaque pixels (copied straight into the target), and runs of translucent
+ * pixels (blended over the target). Fully transparent pixels aren't stored at all, so cost nothing to draw.
+ * <br /><br />
+ * A small sprite is mostly made of short runs, and a loop over a handful of pixels costs far more than the pixels themselves - so unless some of its columns
+ * are outside of the target, a sprite is instead drawn from lists of every pixel it copies and every pixel it blends, each a single loop however many runs
+ * the pixels came from. Only opaque runs long enough to be worth copying in bulk are left as runs.
+ * <br /><br />
+ * The pixels are copied as the sprite is compiled, so later changes to the source Bitmap aren't drawn
+ */
+public final class CompiledSprite {
+
+	// What drawing each pixel involves
+	private static final int SKIPPED = 0, COPIED = 1, BLENDED = 2;
+
+	// Opaque runs at least this long are always copied with System.arraycopy, rather than a pixel at a time
+	private static final int LONG_RUN_LENGTH = 16;
+
+	public final int width, height;
+
+	// The pixels of every run, one after another. Run i starts at runStarts[i] in this array, is drawn from runX[i] along its row, and is runLengths[i] long.
+	// The runs of row r are runs rowRuns[r] up to (but not including) rowRuns[r + 1]
+	private final int[] runPixels;
+	private final int[] runStarts, runX, runLengths;
+	private final boolean[] runOpaque;
+	private final int[] rowRuns;
+	// Whether every row is a single opaque run as wide as the sprite - in which case the runs are one after another in runPixels, exactly like the pixels of a
+	// Bitmap, so any part of any row can be copied without looking at the runs at all
+	private final boolean solid;
+
+	// For drawing the sprite when none of its columns are clipped: the opaque runs long enough to copy in bulk, and every other opaque pixel and every
+	// translucent pixel on its own. Each pixel is stored with where it is in the sprite (as x + (y * width)). The translucent pixels are also stored weighted
+	// by their alpha, ready to be blended onto an opaque pixel (see Colour.blendWeightedOntoOpaque). Each list is in order of row, and those of row r start at
+	// rowLongRuns[r], rowCopied[r] and rowBlended[r]
+	private final int[] longRuns;
+	private final int[] copiedPixels, copiedPositions;
+	private final int[] blendedPixels, blendedPositions, blendedRedBlue, blendedGreen, blendedWeight;
+	private final int[] rowLongRuns, rowCopied, rowBlended;
+
+	// Where those land in the last width of target drawn into (see TargetOffsets)
+	private TargetOffsets targetOffsets = null;
+
+	/**
+	 * Compiles the given Bitmap to be drawn with the given BlitMode. With BlitMode.OPAQUE every pixel is copied, with BlitMode.COLOUR_KEY every pixel but
+	 * those of the colour key is copied, and with BlitMode.ALPHA_BLEND fully opaque pixels are copied, translucent pixels are blended and transparent pixels
+	 * are skipped
+	 */
+	public CompiledSprite(Bitmap source, Bitmap.BlitMode mode, int colourKey) {
+		assert (source != null) : "Cannot compile a null Bitmap into a sprite";
+		assert (mode != null) : "Cannot compile a sprite with a null BlitMode";
+
+		width = source.width;
+		height = source.height;
+		// A Bitmap without an alpha channel is opaque whatever its alpha bits hold, so it is compiled from its pixels made fully opaque (just as drawBitmap
+		// draws it). The colour key is matched against the pixels exactly as they are, so those are left alone
+		final int[] pixels = (source.hasAlphaChannel() || (mode == Bitmap.BlitMode.COLOUR_KEY)) ? source.pixels : opaqueCopyOf(source.pixels);
+
+		// Counted first, so that every array is allocated exactly once
+		int runCount = 0, pixelCount = 0, longRunCount = 0, copiedCount = 0, blendedCount = 0;
+		for(int y = 0; y < height; y++) {
+			int x = 0;
+			while(x < width) {
+				final int kind = kindOf(pixels[x + (y * width)], mode, colourKey);
+				final int end = findRunEnd(pixels, width, y, x, kind, mode, colourKey);
+				if(kind != SKIPPED) {
+					runCount++;
+					pixelCount += end - x;
+				}
+				if(kind == BLENDED) blendedCount += end - x;
+				else if((kind == COPIED) && ((end - x) >= LONG_RUN_LENGTH)) longRunCount++;
+				else if(kind == COPIED) copiedCount += end - x;
+				x = end;
+			}
+		}
+
+		runPixels = new int[pixelCount];
+		runStarts = new int[runCount];
+		runX = new int[runCount];
+		runLengths = new int[runCount];
+		runOpaque = new boolean[runCount];
+		rowRuns = new int[height + 1];
+		longRuns = new int[longRunCount];
+		copiedPixels = new int[copiedCount];
+		copiedPositions = new int[copiedCount];
+		blendedPixels = new int[blendedCount];
+		blendedPositions = new int[blendedCount];
+		blendedRedBlue = new int[blendedCount];
+		blendedGreen = new int[blendedCount];
+		blendedWeight = new int[blendedCount];
+		rowLongRuns = new int[height + 1];
+		rowCopied = new int[height + 1];
+		rowBlended = new int[height + 1];
+
+		int run = 0, pixel = 0, longRun = 0, copied = 0, blended = 0;
+		for(int y = 0; y < height; y++) {
+			rowRuns[y] = run;
+			rowLongRuns[y] = longRun;
+			rowCopied[y] = copied;
+			rowBlended[y] = blended;
+			int x = 0;
+			while(x < width) {
+				final int kind = kindOf(pixels[x + (y * width)], mode, colourKey);
+				final int end = findRunEnd(pixels, width, y, x, kind, mode, colourKey);
+				if(kind != SKIPPED) {
+					runStarts[run] = pixel;
+					runX[run] = x;
+					runLengths[run] = end - x;
+					runOpaque[run] = (kind == COPIED);
+					System.arraycopy(pixels, x + (y * width), runPixels, pixel, end - x);
+					if((kind == COPIED) && ((end - x) >= LONG_RUN_LENGTH)) longRuns[longRun++] = run;
+					pixel += end - x;
+					run++;
+				}
+
+				for(int i = x; (i < end) && (kind != SKIPPED); i++) {
+					final int argb = pixels[i + (y * width)];
+					if(kind == BLENDED) {
+						blendedPixels[blended] = argb;
+						blendedPositions[blended] = i + (y * width);
+						blendedRedBlue[blended] = Colour.weightRedBlue(argb);
+						blendedGreen[blended] = Colour.weightGreen(argb);
+						blendedWeight[blended] = 255 - (argb >>> 24);
+						blended++;
+					} else if((end - x) < LONG_RUN_LENGTH) {
+						copiedPixels[copied] = argb;
+						copiedPositions[copied] = i + (y * width);
+						copied++;
+					}
+				}
+				x = end;
+			}
+		}
+		rowRuns[height] = run;
+		rowLongRuns[height] = longRun;
+		rowCopied[height] = copied;
+		rowBlended[height] = blended;
+
+		boolean everyRowSolid = (runCount == height);
+		for(int i = 0; everyRowSolid && (i < runCount); i++) everyRowSolid = (runOpaque[i] && (runX[i] == 0) && (runLengths[i] == width));
+		solid = everyRowSolid;
+	}
+
+	/** Compiles the given Bitmap (see above). If the mode is BlitMode.COLOUR_KEY then the colour key used is Colour.MAGENTA */
+	public CompiledSprite(Bitmap source, Bitmap.BlitMode mode) { this(source, mode, Colour.MAGENTA); }
+
+	private static int kindOf(int argb, Bitmap.BlitMode mode, int colourKey) {
+		switch(mode) {
+			case COLOUR_KEY: return (argb == colourKey) ? SKIPPED : COPIED;
+			case ALPHA_BLEND: return ((argb >>> 24) == 0) ? SKIPPED : (((argb >>> 24) == 0xff) ? COPIED : BLENDED);
+			default: return COPIED;
+		}
+	}
+
+	private static int findRunEnd(int[] pixels, int width, int y, int x, int kind, Bitmap.BlitMode mode, int colourKey) {
+		int end = x + 1;
+		while((end < width) && (kindOf(pixels[end + (y * width)], mode, colourKey) == kind)) end++;
+		return end;
+	}
+
+	private static int[] opaqueCopyOf(int[] pixels) {
+		final int[] opaque = new int[pixels.length];
+		for(int i = 0; i < pixels.length; i++) opaque[i] = (pixels[i] | 0xff000000);
+		return opaque;
+	}
+
+	/** Draws the sprite into the target, with its top-left corner at the point (x, y). Any part of the sprite outside of the target is ignored */
+	public void drawTo(Bitmap target, int x, int y) {
+		assert (target != null) : "Cannot draw a sprite into a null Bitmap";
+		if(target == null) return;
+
+		drawTo(target, x, y, 0, target.height);
+	}
+
+	/**
+	 * Draws only the rows of the sprite that land on the rows of the target from minTargetY up to (but not including) maxTargetY - as if the target were only
+	 * those rows. A SpriteBatch uses this to draw the target a band of rows at a time (see SpriteBatch.draw)
+	 */
+	public void drawTo(Bitmap target, int x, int y, int minTargetY, int maxTargetY) {
+		assert (target != null) : "Cannot draw a sprite into a null Bitmap";
+		if(target == null) return;
+
+		final int startRow = Math.max(0, Math.max(minTargetY, 0) - y), endRow = Math.min(height, Math.min(maxTargetY, target.height) - y);
+		final int minX = Math.max(0, -x), maxX = Math.min(width, target.width - x);
+		if((startRow >= endRow) || (minX >= maxX)) return;
+
+		final int[] dst = target.pixels;
+		final int targetWidth = target.width;
+		if(solid) {
+			for(int row = startRow; row < endRow; row++) System.arraycopy(runPixels, (row * width) + minX, dst, x + minX + ((y + row) * targetWidth), maxX - minX);
+		} else if((minX == 0) && (maxX == width)) {
+			drawListedRows(dst, targetWidth, x + (y * targetWidth), startRow, endRow);
+		} else {
+			for(int row = startRow; row < endRow; row++) drawRuns(dst, x + ((y + row) * targetWidth), row, minX, maxX);
+		}
+
+		target.markDirty(x + minX, y + startRow, maxX - minX, endRow - startRow);
+	}
+
+	// Draws the rows of the sprite from startRow up to (but not including) endRow from its lists of pixels, with its top-left corner at the given offset into
+	// the pixels of a target of the given width
+	private void drawListedRows(int[] dst, int targetWidth, int dstOffset, int startRow, int endRow) {
+		TargetOffsets offsets = targetOffsets;
+		if((offsets == null) || (offsets.targetWidth != targetWidth)) targetOffsets = offsets = new TargetOffsets(targetWidth);
+
+		final int[] longRunOffsets = offsets.longRuns, copiedOffsets = offsets.copied, blendedOffsets = offsets.blended;
+		for(int i = rowLongRuns[startRow], end = rowLongRuns[endRow]; i < end; i++) {
+			final int run = longRuns[i];
+			System.arraycopy(runPixels, runStarts[run], dst, dstOffset + longRunOffsets[i], runLengths[run]);
+		}
+		for(int i = rowCopied[startRow], end = rowCopied[endRow]; i < end; i++) dst[dstOffset + copiedOffsets[i]] = copiedPixels[i];
+
+		// Colour.blendSourceOver gives the source pixel over a transparent pixel, and the same as Colour.blendOntoOpaque over an opaque pixel - so unless a pixel
+		// under the translucent pixels is itself translucent (rare, once a few sprites have been drawn over each other), they can all be blended with the cheaper
+		// Colour.blendWeightedOntoOpaque, keeping the source pixel wherever the pixel under it was transparent. (The alpha plus one, ignoring its lowest bit, is
+		// only zero for an alpha of 0 or 255)
+		final int firstBlended = rowBlended[startRow], endBlended = rowBlended[endRow];
+		int translucentUnder = 0;
+		for(int i = firstBlended; i < endBlended; i++) translucentUnder |= ((dst[dstOffset + blendedOffsets[i]] >>> 24) + 1) & 0xfe;
+		if(translucentUnder == 0) {
+			for(int i = firstBlended; i < endBlended; i++) {
+				final int dstIndex = dstOffset + blendedOffsets[i];
+				final int under = dst[dstIndex];
+				final int blendedOntoOpaque = Colour.blendWeightedOntoOpaque(blendedRedBlue[i], blendedGreen[i], blendedWeight[i], under);
+				dst[dstIndex] = ((under >>> 24) == 0) ? blendedPixels[i] : blendedOntoOpaque;
+			}
+		} else {
+			for(int i = firstBlended; i < endBlended; i++) {
+				final int dstIndex = dstOffset + blendedOffsets[i];
+				dst[dstIndex] = Colour.blendSourceOver(blendedPixels[i], dst[dstIndex]);
+			}
+		}
+	}
+
+	// Draws the runs of one row, clipped to the pixels from minX up to (but not including) maxX of the sprite
+	private void drawRuns(int[] dst, int dstRowOffset, int row, int minX, int maxX) {
+		for(int run = rowRuns[row]; run < rowRuns[row + 1]; run++) {
+			final int start = Math.max(runX[run], minX), end = Math.min(runX[run] + runLengths[run], maxX);
+			if(start >= end) continue;
+
+			final int srcOffset = runStarts[run] - runX[run];
+			if(runOpaque[run]) {
+				System.arraycopy(runPixels, srcOffset + start, dst, dstRowOffset + start, end - start);
+			} else {
+				for(int i = start; i < end; i++) dst[dstRowOffset + i] = Colour.blendSourceOver(runPixels[srcOffset + i], dst[dstRowOffset + i]);
+			}
+		}
+	}
+
+	/** The number of pixels drawn by each draw (of the whole sprite) - i.e. those that aren't skipped */
+	public int getDrawnPixelCount() { return runPixels.length; }
+
+	/*
+	 * Where the long runs and listed pixels of the sprite land in a target of a given width, relative to where its top-left corner lands. These are worked out
+	 * again whenever the sprite is drawn into a target of another width - and never changed once made, so sprites drawn into targets of different widths from
+	 * different threads (see GuiLayer.setIndependent) only ever cost the odd extra set of offsets, rather than drawing with offsets meant for the other target
+	 */
+	private final class TargetOffsets {
+
+		final int targetWidth;
+		final int[] longRuns, copied, blended;
+
+		TargetOffsets(int targetWidth) {
+			this.targetWidth = targetWidth;
+			longRuns = new int[CompiledSprite.this.longRuns.length];
+			copied = new int[copiedPositions.length];
+			blended = new int[blendedPositions.length];
+
+			for(int row = 0; row < height; row++) {
+				for(int i = rowLongRuns[row]; i < rowLongRuns[row + 1]; i++) longRuns[i] = runX[CompiledSprite.this.longRuns[i]] + (row * targetWidth);
+			}
+			for(int i = 0; i < copied.length; i++) copied[i] = offsetOf(copiedPositions[i]);
+			for(int i = 0; i < blended.length; i++) blended[i] = offsetOf(blendedPositions[i]);
+		}
+
+		private int offsetOf(int position) { return (position % width) + ((position / width) * targetWidth); }
+
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.macleod.engine.graphics;
+
+/**
+ * The Compositor flattens any number of Bitmaps into a single opaque framebuffer in software. Rather than asking Java2D to draw (and alpha blend) every layer
+ * separately, each layer's pixels are blended straight into the framebuffer's pixel array, so the only Java2D work left each frame is a single opaque blit of
+ * the framebuffer itself.
+ * <br /><br />
+ * The framebuffer keeps its contents between frames. Whoever is compositing is expected to report the areas of the framebuffer that have changed (its
+ * 'damage') with {@code addDamage}, and a frame is then composited between {@code beginComposite} and {@code endComposite} - only the damaged area is cleared to
+ * the background colour and redrawn. Anything composited outside of the damaged area is ignored
+ */
+public class Compositor {
+
+	private final Bitmap framebuffer;
+	private final DirtyRegion damage = new DirtyRegion();
+	// The damage of the last frame composited, kept for whatever works with the framebuffer afterwards (e.g. an Upscaler, which only redraws what changed)
+	private final DirtyRegion lastComposited = new DirtyRegion();
+
+	private int backgroundColour = Colour.BLACK;
+
+	// Whatever last composited into the framebuffer. If something else starts compositing into it, none of the framebuffer's contents can be trusted
+	private Object lastSource;
+
+	public Compositor(int width, int height) {
+		framebuffer = new Bitmap(width, height, false);
+		invalidate();
+	}
+
+	/** Changes the (opaque) colour left wherever nothing has been composited. This invalidates the whole framebuffer */
+	public void setBackgroundColour(int colourARGB) {
+		assert ((colourARGB >>> 24) == 0xff) : "The background of a Compositor can only be an opaque colour";
+
+		backgroundColour = colourARGB;
+		invalidate();
+	}
+
+	/** Marks the given area of the framebuffer as needing to be redrawn in the next composite */
+	public void addDamage(int x, int y, int width, int height) {
+		damage.add(x, y, width, height);
+		damage.clip(0, 0, framebuffer.width, framebuffer.height);
+	}
+
+	public void addDamage(DirtyRegion region) {
+		assert (region != null) : "Cannot add a null DirtyRegion to the damage of a Compositor";
+		if((region != null) && !region.isEmpty()) addDamage(region.getX(), region.getY(), region.getWidth(), region.getHeight());
+	}
+
+	/** Marks the entire framebuffer as needing to be redrawn in the next composite */
+	public void invalidate() { damage.add(0, 0, framebuffer.width, framebuffer.height); }
+
+	/**
+	 * Starts compositing a frame on behalf of the given source (e.g. a GuiSystem). The damaged area of the framebuffer is cleared to the background colour,
+	 * ready to be composited into. If a different source composited the last frame then the entire framebuffer is redrawn.
+	 *
+	 * @return
+	 * 		Whether anything needs to be composited this frame. If not, the framebuffer already holds the correct frame
+	 */
+	public boolean beginComposite(Object source) {
+		if(source != lastSource) {
+			lastSource = source;
+			invalidate();
+		}
+		if(damage.isEmpty()) return false;
+
+		final int startX = damage.getX(), startY = damage.getY();
+		final int regionWidth = damage.getWidth(), regionHeight = damage.getHeight();
+		if(ParallelRaster.shouldRunInParallel(regionWidth * regionHeight)) {
+			ParallelRaster.forEachRowBand(regionHeight, regionWidth, new ParallelRaster.RowBandOperation() {
+				public void run(int startRow, int endRow) {
+					PixelKernels.fillRect(framebuffer.pixels, framebuffer.width, startX, startY + startRow, regionWidth, endRow - startRow, backgroundColour);
+				}
+			});
+		} else {
+			PixelKernels.fillRect(framebuffer.pixels, framebuffer.width, startX, startY, regionWidth, regionHeight, backgroundColour);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Blends the given Bitmap over the framebuffer with its top-left corner at the point (x, y). Only the parts of the Bitmap that overlap the damaged area of
+	 * the framebuffer are drawn. A Bitmap without an alpha channel is copied over the framebuffer as fully opaque, whatever the alpha bits of its pixels hold
+	 */
+	public void composite(Bitmap layer, int x, int y) {
+		assert (layer != null) : "Cannot composite a null Bitmap";
+		if(layer == null) return;
+
+		// Work out the part of the layer that actually needs drawing once, so the rows below don't need to consider the bounds again. The damage is always
+		// within the framebuffer, so this also clips to the framebuffer
+		final int startX = Math.max(x, damage.getX());
+		final int startY = Math.max(y, damage.getY());
+		final int endX = Math.min(x + layer.width, damage.getX() + damage.getWidth());
+		final int endY = Math.min(y + layer.height, damage.getY() + damage.getHeight());
+		if((startX >= endX) || (startY >= endY)) return;
+
+		final int rowLength = endX - startX;
+		final int numberOfRows = endY - startY;
+		if(ParallelRaster.shouldRunInParallel(rowLength * numberOfRows)) {
+			ParallelRaster.forEachRowBand(numberOfRows, rowLength, new ParallelRaster.RowBandOperation() {
+				public void run(int startRow, int endRow) {
+					compositeRows(layer, x, y, startX, startY + startRow, startY + endRow, rowLength);
+				}
+			});
+		} else {
+			compositeRows(layer, x, y, startX, startY, endY, rowLength);
+		}
+	}
+
+	private void compositeRows(Bitmap layer, int x, int y, int startX, int startY, int endY, int rowLength) {
+		final boolean layerOpaque = !layer.hasAlphaChannel();
+		for(int currentY = startY; currentY < endY; currentY++) {
+			final int srcOffset = (startX - x) + ((currentY - y) * layer.width);
+			final int dstOffset = startX + (currentY * framebuffer.width);
+
+			if(layerOpaque) PixelKernels.copyRowAsOpaque(layer.pixels, srcOffset, framebuffer.pixels, dstOffset, rowLength);
+			else PixelKernels.blendRowOntoOpaque(layer.pixels, srcOffset, framebuffer.pixels, dstOffset, rowLength);
+		}
+	}
+
+	/** Finishes compositing the current frame, so the framebuffer is treated as up to date until more damage is added */
+	public void endComposite() {
+		lastComposited.clear();
+		lastComposited.add(damage);
+		damage.clear();
+	}
+
+	public final Bitmap getFramebuffer() { return framebuffer; }
+	public final int getWidth() { return framebuffer.width; }
+	public final int getHeight() { return framebuffer.height; }
+	public final int getBackgroundColour() { return backgroundColour; }
+
+	/** The area of the framebuffer that will be redrawn by the next composite (or is being redrawn, if called mid-composite) */
+	public final DirtyRegion getDamage() { return damage; }
+	/** The area of the framebuffer redrawn by the last composite. This is empty if nothing needed redrawing */
+	public final DirtyRegion getLastCompositedRegion() { return lastComposited; }
+
+}
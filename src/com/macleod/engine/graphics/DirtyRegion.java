@@ -0,0 +1,56 @@
+package com.macleod.engine.graphics;
+
+/**
+ * A DirtyRegion keeps track of the bounding rectangle of a number of areas that have changed. Only the bounding rectangle is kept (rather than every area
+ * added), which may include some pixels that haven't actually changed - but it means that adding to a region is cheap, never allocates, and that whoever
+ * works with the region afterwards only has one rectangle to consider
+ */
+public final class DirtyRegion {
+
+	// The maximum bounds are exclusive. The region is empty whenever the minimum bounds aren't below the maximum bounds
+	private int minX, minY, maxX, maxY;
+
+	public DirtyRegion() { clear(); }
+
+	public void add(int x, int y, int width, int height) {
+		if((width <= 0) || (height <= 0)) return;
+
+		if(x < minX) minX = x;
+		if(y < minY) minY = y;
+		if((x + width) > maxX) maxX = x + width;
+		if((y + height) > maxY) maxY = y + height;
+	}
+
+	public void add(DirtyRegion region) {
+		assert (region != null) : "Cannot add a null DirtyRegion to another DirtyRegion";
+		if((region != null) && !region.isEmpty()) add(region.getX(), region.getY(), region.getWidth(), region.getHeight());
+	}
+
+	/** Shrinks the region so that it doesn't extend beyond the given rectangle */
+	public void clip(int x, int y, int width, int height) {
+		if(minX < x) minX = x;
+		if(minY < y) minY = y;
+		if(maxX > (x + width)) maxX = x + width;
+		if(maxY > (y + height)) maxY = y + height;
+
+		if(isEmpty()) clear();
+	}
+
+	public void clear() {
+		minX = minY = Integer.MAX_VALUE;
+		maxX = maxY = Integer.MIN_VALUE;
+	}
+
+	public boolean isEmpty() { return ((minX >= maxX) || (minY >= maxY)); }
+
+	/** Returns whether any part of the region overlaps the given rectangle */
+	public boolean intersects(int x, int y, int width, int height) {
+		return (!isEmpty() && (x < maxX) && (y < maxY) && ((x + width) > minX) && ((y + height) > minY));
+	}
+
+	public int getX() { return (isEmpty() ? 0 : minX); }
+	public int getY() { return (isEmpty() ? 0 : minY); }
+	public int getWidth() { return (isEmpty() ? 0 : (maxX - minX)); }
+	public int getHeight() { return (isEmpty() ? 0 : (maxY - minY)); }
+
+}
@@ -0,0 +1,93 @@
+package com.macleod.engine.graphics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelRaster controls whether the larger pixel operations of Bitmaps and Compositors (fills, clears, blits and blends) are split across several threads.
+ * When enabled, an operation covering at least {@code getThreshold()} pixels is split into horizontal bands of rows, each small enough to stay in a core's
+ * cache, and the bands are run on a shared ForkJoinPool. Smaller operations always run on the calling thread, since the cost of handing them to the pool would
+ * outweigh the work itself.
+ * <br /><br />
+ * Every row of an operation is worked out independently of every other row, using exactly the same code as the serial path - so the result is identical
+ * whether or not an operation was run in parallel. Parallel rasterisation is disabled by default
+ */
+public final class ParallelRaster {
+
+	public static final int DEFAULT_THRESHOLD = 256 * 256;
+	// Each band covers roughly this many pixels (128KB of ints), which keeps a band of both the source and destination within a typical L2 cache
+	public static final int DEFAULT_PIXELS_PER_BAND = 32 * 1024;
+
+	private static volatile boolean enabled = false;
+	private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+	private static volatile int threshold = DEFAULT_THRESHOLD;
+	private static volatile int pixelsPerBand = DEFAULT_PIXELS_PER_BAND;
+
+	private ParallelRaster() { }
+
+	public static void setEnabled(boolean enabled) { ParallelRaster.enabled = enabled; }
+
+	/** Changes the pool that parallel operations are run on. By default this is the common ForkJoinPool */
+	public static void setPool(ForkJoinPool pool) {
+		assert (pool != null) : "ParallelRaster cannot use a null ForkJoinPool";
+		if(pool != null) ParallelRaster.pool = pool;
+	}
+
+	/** Changes the number of pixels an operation must cover before it is run in parallel */
+	public static void setThreshold(int threshold) {
+		assert (threshold > 0) : "The ParallelRaster threshold must be positive. Was given " + threshold;
+		if(threshold > 0) ParallelRaster.threshold = threshold;
+	}
+
+	/** Changes (roughly) how many pixels each band of a parallel operation covers */
+	public static void setPixelsPerBand(int pixelsPerBand) {
+		assert (pixelsPerBand > 0) : "The number of pixels in a ParallelRaster band must be positive. Was given " + pixelsPerBand;
+		if(pixelsPerBand > 0) ParallelRaster.pixelsPerBand = pixelsPerBand;
+	}
+
+	public static boolean isEnabled() { return enabled; }
+	public static ForkJoinPool getPool() { return pool; }
+	public static int getThreshold() { return threshold; }
+	public static int getPixelsPerBand() { return pixelsPerBand; }
+
+	/** Returns whether an operation covering the given number of pixels should be split across the pool */
+	static boolean shouldRunInParallel(int numberOfPixels) {
+		return (enabled && (numberOfPixels >= threshold) && (pool.getParallelism() > 1));
+	}
+
+	/** An operation that can be run on any band of rows (from startRow inclusive, to endRow exclusive) independently of every other band */
+	interface RowBandOperation {
+		void run(int startRow, int endRow);
+	}
+
+	/** Runs the given operation over the rows 0 to numberOfRows, split into bands across the pool. This only returns once every band has finished */
+	static void forEachRowBand(int numberOfRows, int rowLength, RowBandOperation operation) {
+		final int rowsPerBand = Math.max(1, pixelsPerBand / Math.max(rowLength, 1));
+		pool.invoke(new RowBandTask(operation, 0, numberOfRows, rowsPerBand));
+	}
+
+	private static final class RowBandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RowBandOperation operation;
+		private final int startRow, endRow, rowsPerBand;
+
+		private RowBandTask(RowBandOperation operation, int startRow, int endRow, int rowsPerBand) {
+			this.operation = operation;
+			this.startRow = startRow;
+			this.endRow = endRow;
+			this.rowsPerBand = rowsPerBand;
+		}
+
+		@Override
+		protected void compute() {
+			if((endRow - startRow) <= rowsPerBand) {
+				operation.run(startRow, endRow);
+			} else {
+				final int middleRow = (startRow + endRow) >>> 1;
+				invokeAll(new RowBandTask(operation, startRow, middleRow, rowsPerBand), new RowBandTask(operation, middleRow, endRow, rowsPerBand));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,273 @@
+package com.macleod.engine.graphics;
+
+import java.util.Arrays;
+
+/**
+ * These are the inner loops for working on whole rows of pixels at once. Everything works directly on the pixel arrays (with an offset into each array) so
+ * that the callers only need to work out the clipping once per row, rather than once per pixel
+ */
+final class PixelKernels {
+
+	private PixelKernels() { }
+
+	// The JIT only vectorises a loop that reads and writes every array at the same index, so spans are blended through these buffers (see blendSpanOntoOpaque)
+	private static final int SCRATCH_LENGTH = 1024;
+	private static final ThreadLocal<int[][]> scratchBuffers = new ThreadLocal<int[][]>() {
+		protected int[][] initialValue() { return new int[][] { new int[SCRATCH_LENGTH], new int[SCRATCH_LENGTH] }; }
+	};
+
+	/**
+	 * Blends a row of source pixels over a row of destination pixels, where the destination is known to be fully opaque (see Colour.blendOntoOpaque). Spans of
+	 * fully transparent source pixels are skipped, spans of fully opaque source pixels are copied in bulk, and spans of translucent source pixels are blended
+	 * in bulk - so layers that are mostly empty or mostly solid cost little more than a scan of their alpha channel. The result is exactly the same as blending
+	 * every pixel with Colour.blendOntoOpaque
+	 */
+	static void blendRowOntoOpaque(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+		int i = 0;
+		while(i < length) {
+			final int srcAlpha = (src[srcOffset + i] >>> 24);
+			final int spanStart = i;
+			i = findSpanEnd(src, srcOffset, i, length, srcAlpha);
+
+			if(srcAlpha == 0xff) System.arraycopy(src, srcOffset + spanStart, dst, dstOffset + spanStart, i - spanStart);
+			else if(srcAlpha != 0) blendSpanOntoOpaque(src, srcOffset + spanStart, dst, dstOffset + spanStart, i - spanStart);
+		}
+	}
+
+	// Finds the end of the span starting at the given pixel: fully transparent pixels, fully opaque pixels or translucent pixels (of any alpha) depending on
+	// the alpha of the first pixel
+	private static int findSpanEnd(int[] src, int srcOffset, int start, int length, int firstAlpha) {
+		int i = start + 1;
+		if((firstAlpha == 0) || (firstAlpha == 0xff)) {
+			while((i < length) && ((src[srcOffset + i] >>> 24) == firstAlpha)) i++;
+		} else {
+			while((i < length) && (isTranslucent(src[srcOffset + i]))) i++;
+		}
+		return i;
+	}
+
+	private static boolean isTranslucent(int argb) {
+		final int alpha = (argb >>> 24);
+		return ((alpha != 0) && (alpha != 0xff));
+	}
+
+	private static void blendSpanOntoOpaque(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+		// Not worth copying through the buffers for a span this short
+		if(length < 16) {
+			for(int i = 0; i < length; i++) dst[dstOffset + i] = Colour.blendOntoOpaque(src[srcOffset + i], dst[dstOffset + i]);
+			return;
+		}
+
+		final int[][] scratch = scratchBuffers.get();
+		final int[] srcScratch = scratch[0], dstScratch = scratch[1];
+		for(int done = 0; done < length; done += SCRATCH_LENGTH) {
+			final int chunkLength = Math.min(SCRATCH_LENGTH, length - done);
+			System.arraycopy(src, srcOffset + done, srcScratch, 0, chunkLength);
+			System.arraycopy(dst, dstOffset + done, dstScratch, 0, chunkLength);
+			for(int i = 0; i < chunkLength; i++) dstScratch[i] = Colour.blendOntoOpaque(srcScratch[i], dstScratch[i]);
+			System.arraycopy(dstScratch, 0, dst, dstOffset + done, chunkLength);
+		}
+	}
+
+	private static boolean isOpaque(int[] pixels, int start, int end) {
+		int allBits = -1;
+		for(int i = start; i < end; i++) allBits &= pixels[i];
+		return ((allBits >>> 24) == 0xff);
+	}
+
+	/**
+	 * Fills a rectangle (already clipped to the pixel array) with a single colour. If the rectangle covers whole rows, those rows are one contiguous run of the
+	 * array, so they are filled in a single call
+	 */
+	static void fillRect(int[] pixels, int stride, int x, int y, int width, int height, int colourARGB) {
+		if(width == stride) {
+			Arrays.fill(pixels, y * stride, (y + height) * stride, colourARGB);
+			return;
+		}
+
+		for(int rowOffset = x + (y * stride), endOffset = x + ((y + height) * stride); rowOffset < endOffset; rowOffset += stride) {
+			Arrays.fill(pixels, rowOffset, rowOffset + width, colourARGB);
+		}
+	}
+
+	/**
+	 * Blends a row of source pixels over a row of destination pixels, where the destination may be translucent (see Colour.blendSourceOver). As with
+	 * {@code blendRowOntoOpaque}, fully transparent spans are skipped and fully opaque spans are copied in bulk. A translucent span whose destination pixels all
+	 * turn out to be opaque is blended in bulk too, since Colour.blendSourceOver gives exactly the same result as Colour.blendOntoOpaque for those
+	 */
+	static void blendRowSourceOver(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+		int i = 0;
+		while(i < length) {
+			final int srcAlpha = (src[srcOffset + i] >>> 24);
+			final int spanStart = i;
+			i = findSpanEnd(src, srcOffset, i, length, srcAlpha);
+
+			if(srcAlpha == 0xff) {
+				System.arraycopy(src, srcOffset + spanStart, dst, dstOffset + spanStart, i - spanStart);
+			} else if(srcAlpha != 0) {
+				if(isOpaque(dst, dstOffset + spanStart, dstOffset + i)) {
+					blendSpanOntoOpaque(src, srcOffset + spanStart, dst, dstOffset + spanStart, i - spanStart);
+				} else {
+					for(int j = spanStart; j < i; j++) dst[dstOffset + j] = Colour.blendSourceOver(src[srcOffset + j], dst[dstOffset + j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Blends a row of source pixels over a row of destination pixels (as {@code blendRowSourceOver}, or {@code blendRowOntoOpaque} if the destination is known
+	 * to be opaque), after multiplying every channel of each source pixel by the matching channel of the tint - so a white source takes on the colour and
+	 * alpha of the tint, as the glyphs of a BitmapFont do. Tinting with white changes nothing, so that is left to the untinted kernels
+	 */
+	static void blendTintedRow(int[] src, int srcOffset, int[] dst, int dstOffset, int length, int tintARGB, boolean ontoOpaque) {
+		if(tintARGB == 0xffffffff) {
+			if(ontoOpaque) blendRowOntoOpaque(src, srcOffset, dst, dstOffset, length);
+			else blendRowSourceOver(src, srcOffset, dst, dstOffset, length);
+			return;
+		}
+
+		final int tintAlpha = (tintARGB >>> 24), tintRed = ((tintARGB >> 16) & 0xff), tintGreen = ((tintARGB >> 8) & 0xff), tintBlue = (tintARGB & 0xff);
+		for(int i = 0; i < length; i++) {
+			final int argb = src[srcOffset + i];
+			final int srcAlpha = (argb >>> 24);
+			if(srcAlpha == 0) continue;
+
+			final int alpha = Colour.divideBy255(srcAlpha * tintAlpha);
+			// A white source pixel (every pixel of a rasterised glyph) takes exactly the colour of the tint, so needs no multiplying
+			final int rgb = ((argb & 0x00ffffff) == 0x00ffffff) ? (tintARGB & 0x00ffffff) : ((Colour.divideBy255(((argb >> 16) & 0xff) * tintRed) << 16)
+					| (Colour.divideBy255(((argb >> 8) & 0xff) * tintGreen) << 8) | Colour.divideBy255((argb & 0xff) * tintBlue));
+			final int tinted = (alpha << 24) | rgb;
+
+			if(alpha == 0xff) dst[dstOffset + i] = tinted;
+			else if(ontoOpaque) dst[dstOffset + i] = Colour.blendOntoOpaque(tinted, dst[dstOffset + i]);
+			else if(alpha != 0) dst[dstOffset + i] = Colour.blendSourceOver(tinted, dst[dstOffset + i]);
+		}
+	}
+
+	/**
+	 * Blends the tint over a rectangle of destination pixels that are known to be opaque, weighted by a coverage value (0 to 255) for each pixel - which gives
+	 * exactly the same result as {@code blendTintedRow} for a white source whose alpha is the coverage, such as a glyph of a BitmapFont. The rows of a glyph
+	 * are far too short to be worth blending one at a time, so the rectangle is gathered into the scratch buffers a band of rows at a time and each band is
+	 * blended in a single loop, which the JIT can vectorise (see blendSpanOntoOpaque)
+	 */
+	static void blendCoverageOntoOpaque(int[] coverage, int coverageOffset, int coverageStride, int[] dst, int dstOffset, int dstStride, int width, int height,
+			int tintARGB) {
+		if(width > SCRATCH_LENGTH) {
+			for(int done = 0; done < width; done += SCRATCH_LENGTH) {
+				blendCoverageOntoOpaque(coverage, coverageOffset + done, coverageStride, dst, dstOffset + done, dstStride, Math.min(SCRATCH_LENGTH, width - done),
+						height, tintARGB);
+			}
+			return;
+		}
+
+		final int[][] scratch = scratchBuffers.get();
+		final int[] coverageScratch = scratch[0], dstScratch = scratch[1];
+		final int rowsPerBand = SCRATCH_LENGTH / width;
+		for(int bandStart = 0; bandStart < height; bandStart += rowsPerBand) {
+			final int bandRows = Math.min(rowsPerBand, height - bandStart);
+			// A whole glyph (the usual case) already has its coverage laid out exactly as the band is, so it needn't be copied
+			final boolean gatherCoverage = ((bandStart != 0) || (coverageOffset != 0) || (coverageStride != width));
+			for(int row = 0; row < bandRows; row++) {
+				if(gatherCoverage) System.arraycopy(coverage, coverageOffset + ((bandStart + row) * coverageStride), coverageScratch, row * width, width);
+				System.arraycopy(dst, dstOffset + ((bandStart + row) * dstStride), dstScratch, row * width, width);
+			}
+			blendCoverageSpan(gatherCoverage ? coverageScratch : coverage, dstScratch, bandRows * width, tintARGB);
+			for(int row = 0; row < bandRows; row++) System.arraycopy(dstScratch, row * width, dst, dstOffset + ((bandStart + row) * dstStride), width);
+		}
+	}
+
+	/**
+	 * Blends the tint over a span of destination pixels that are known to be opaque, weighted by the coverage (0 to 255) of each pixel at the same index. The
+	 * arrays are read and written at the same index, so the JIT can vectorise the loop
+	 */
+	static void blendCoverageSpan(int[] coverage, int[] dst, int length, int tintARGB) {
+		final int tintAlpha = (tintARGB >>> 24);
+		final int tintRedBlue = (tintARGB & 0x00ff00ff), tintGreen = (tintARGB & 0x0000ff00);
+		for(int i = 0; i < length; i++) {
+			final int alpha = Colour.divideBy255(coverage[i] * tintAlpha);
+			final int dstWeight = 255 - alpha;
+			final int dstARGB = dst[i];
+
+			// The same as Colour.blendOntoOpaque with the tint as the source, which an alpha of 0 or 255 leaves exactly as the destination or the tint
+			int redBlue = (tintRedBlue * alpha) + ((dstARGB & 0x00ff00ff) * dstWeight) + 0x00800080;
+			redBlue = ((redBlue + ((redBlue >>> 8) & 0x00ff00ff)) >>> 8) & 0x00ff00ff;
+			int green = (tintGreen * alpha) + ((dstARGB & 0x0000ff00) * dstWeight) + 0x00008000;
+			green = ((green + ((green >>> 8) & 0x00ffff00)) >>> 8) & 0x0000ff00;
+
+			dst[i] = (0xff000000 | redBlue | green);
+		}
+	}
+
+	/** Premultiplies a row of pixels by their alpha, in place (see Colour.premultiply) */
+	static void premultiplyRow(int[] pixels, int offset, int length) {
+		for(int i = offset, end = offset + length; i < end; i++) {
+			final int argb = pixels[i];
+			final int alpha = (argb >>> 24);
+
+			// The same as Colour.premultiply, written out so that the loop can be vectorised
+			int redBlue = ((argb & 0x00ff00ff) * alpha) + 0x00800080;
+			redBlue = ((redBlue + ((redBlue >>> 8) & 0x00ff00ff)) >>> 8) & 0x00ff00ff;
+			int green = ((argb & 0x0000ff00) * alpha) + 0x00008000;
+			green = ((green + ((green >>> 8) & 0x00ffff00)) >>> 8) & 0x0000ff00;
+
+			pixels[i] = (argb & 0xff000000) | redBlue | green;
+		}
+	}
+
+	// Dividing by alpha is replaced by multiplying by (2^24 / alpha) rounded up, which gives exactly the same result for every value an unpremultiplied channel
+	// can be worked out from (up to 255 * 255 + 127) - see Sandbox_PixelKernels
+	private static final long[] UNPREMULTIPLY_FACTORS = new long[256];
+	static {
+		for(int alpha = 1; alpha < 256; alpha++) UNPREMULTIPLY_FACTORS[alpha] = ((1L << 24) / alpha) + 1;
+	}
+
+	/** Reverses {@code premultiplyRow}, in place (see Colour.unpremultiply) */
+	static void unpremultiplyRow(int[] pixels, int offset, int length) {
+		for(int i = offset, end = offset + length; i < end; i++) {
+			final int argb = pixels[i];
+			final int alpha = (argb >>> 24);
+			if(alpha == 0xff) continue;
+			if(alpha == 0) {
+				pixels[i] = 0;
+				continue;
+			}
+
+			final long factor = UNPREMULTIPLY_FACTORS[alpha];
+			final int rounding = (alpha >> 1);
+			final int r = Math.min(255, (int) (((((argb >> 16) & 0xff) * 255 + rounding) * factor) >>> 24));
+			final int g = Math.min(255, (int) (((((argb >> 8) & 0xff) * 255 + rounding) * factor) >>> 24));
+			final int b = Math.min(255, (int) ((((argb & 0xff) * 255 + rounding) * factor) >>> 24));
+			pixels[i] = (argb & 0xff000000) | (r << 16) | (g << 8) | b;
+		}
+	}
+
+	/** Copies one 8 bit channel out of a row of pixels into a row of bytes */
+	static void extractChannelRow(int[] pixels, int offset, byte[] channel, int channelOffset, int length, int shift) {
+		for(int i = 0; i < length; i++) channel[channelOffset + i] = (byte) (pixels[offset + i] >>> shift);
+	}
+
+	/**
+	 * Copies a row of source pixels to a row of destination pixels, making every pixel copied fully opaque - for a source without an alpha channel, whose
+	 * alpha bits mean nothing
+	 */
+	static void copyRowAsOpaque(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+		for(int i = 0; i < length; i++) dst[dstOffset + i] = (src[srcOffset + i] | 0xff000000);
+	}
+
+	/** Copies a row of source pixels to a row of destination pixels, apart from any source pixels that exactly match the colour key */
+	static void colourKeyRow(int[] src, int srcOffset, int[] dst, int dstOffset, int length, int colourKey) {
+		int i = 0;
+		while(i < length) {
+			if(src[srcOffset + i] == colourKey) {
+				i++;
+			} else {
+				final int spanStart = i;
+				i++;
+				while((i < length) && (src[srcOffset + i] != colourKey)) i++;
+
+				System.arraycopy(src, srcOffset + spanStart, dst, dstOffset + spanStart, i - spanStart);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+package com.macleod.engine.graphics;
+
+/**
+ * An Upscaler scales a (small, fixed size) source Bitmap up to fill a destination of any size, using nearest-neighbour sampling so every source pixel stays a
+ * sharp block. This lets a whole GuiSystem be rendered at a low 'virtual' resolution (e.g. 400x225 for pixel art) and scaled up to the window once per frame,
+ * rather than every layer being filled and composited at the full window resolution.
+ * <br /><br />
+ * The destination Bitmap is kept between frames, and only recreated when the destination size changes. Each upscale only redraws the part of the destination
+ * covering the source pixels that changed, and never allocates. Any part of the destination outside of the scaled source (the letterbox bars) is filled with
+ * the letterbox colour.
+ * <br /><br />
+ * Upscaling should only be done from a single thread, but the Viewport (for mapping destination coordinates, e.g. of the mouse, back to the source) can be
+ * read from any thread
+ */
+public class Upscaler {
+
+	public enum ScaleMode {
+		/**
+		 * The source is scaled by the largest whole number that fits within the destination, and centred. Every source pixel becomes exactly the same sized
+		 * block, which is what pixel art needs to look right. If the destination is smaller than the source, the source isn't scaled and its edges are cut off
+		 */
+		INTEGER,
+		/** The source is scaled to be as large as possible while keeping its aspect ratio, and centred. Source pixels may differ in size by a pixel */
+		FIT,
+		/** The source is scaled to cover the whole destination, whatever its aspect ratio */
+		STRETCH;
+	}
+
+	private volatile ScaleMode scaleMode;
+	private volatile int letterboxColour = Colour.BLACK;
+
+	private Bitmap destination;
+	private volatile Viewport viewport;
+	// Whether the whole destination has to be redrawn by the next upscale (e.g. because the scale mode or letterbox colour has changed)
+	private volatile boolean redrawNeeded = true;
+
+	// The source column sampled by each destination column
+	private int[] sourceColumns = new int[0];
+
+	public Upscaler() { this(ScaleMode.INTEGER); }
+
+	public Upscaler(ScaleMode scaleMode) { setScaleMode(scaleMode); }
+
+	public final void setScaleMode(ScaleMode scaleMode) {
+		assert (scaleMode != null) : "Cannot give an Upscaler a null ScaleMode";
+		if(scaleMode == null) return;
+
+		this.scaleMode = scaleMode;
+		redrawNeeded = true;
+	}
+
+	public final void setLetterboxColour(int colourARGB) {
+		assert ((colourARGB >>> 24) == 0xff) : "The letterbox colour of an Upscaler must be opaque. Was given " + Integer.toHexString(colourARGB);
+
+		letterboxColour = (colourARGB | 0xff000000);
+		redrawNeeded = true;
+	}
+
+	/**
+	 * Scales the given source up to the given destination size. Only the part of the destination covering the changed region of the source is redrawn,
+	 * unless the source or destination has changed size since the last upscale (in which case everything is). The changed region can be null, which also
+	 * redraws everything.
+	 *
+	 * @return
+	 * 		The destination Bitmap, holding the upscaled source. This is the same Bitmap every time, until the destination size changes
+	 */
+	public Bitmap upscale(Bitmap source, DirtyRegion changed, int destinationWidth, int destinationHeight) {
+		assert (source != null) : "Cannot upscale a null Bitmap";
+		assert ((destinationWidth > 0) && (destinationHeight > 0)) :
+			"Cannot upscale to non-positive dimensions. Was given dimensions (" + destinationWidth + "," + destinationHeight + ")";
+
+		boolean redrawAll = (changed == null);
+		if(redrawNeeded) {
+			redrawNeeded = false;
+			redrawAll = true;
+		}
+
+		if((destination == null) || (destination.width != destinationWidth) || (destination.height != destinationHeight)) {
+			destination = new Bitmap(destinationWidth, destinationHeight, false);
+			redrawAll = true;
+		}
+
+		final ScaleMode currentScaleMode = scaleMode;
+		Viewport currentViewport = viewport;
+		if((currentViewport == null) || (currentViewport.scaleMode != currentScaleMode) || (currentViewport.sourceWidth != source.width)
+				|| (currentViewport.sourceHeight != source.height) || (currentViewport.destinationWidth != destinationWidth)
+				|| (currentViewport.destinationHeight != destinationHeight)) {
+			currentViewport = new Viewport(currentScaleMode, source.width, source.height, destinationWidth, destinationHeight);
+			viewport = currentViewport;
+			redrawAll = true;
+		}
+
+		if(redrawAll) {
+			// The letterbox bars only need filling when the layout changes, since nothing else ever draws over them
+			PixelKernels.fillRect(destination.pixels, destination.width, 0, 0, destination.width, destination.height, letterboxColour);
+			buildSourceColumns(currentViewport);
+			scaleRegion(source, currentViewport, 0, 0, source.width, source.height);
+			destination.markDirty(0, 0, destination.width, destination.height);
+		} else if(!changed.isEmpty()) {
+			scaleRegion(source, currentViewport, changed.getX(), changed.getY(), changed.getX() + changed.getWidth(), changed.getY() + changed.getHeight());
+		}
+
+		return destination;
+	}
+
+	private void buildSourceColumns(Viewport viewport) {
+		if(sourceColumns.length < viewport.destinationWidth) sourceColumns = new int[viewport.destinationWidth];
+
+		final int startX = Math.max(viewport.x, 0), endX = Math.min(viewport.x + viewport.width, viewport.destinationWidth);
+		for(int x = startX; x < endX; x++) sourceColumns[x] = (int) (((long) (x - viewport.x) * viewport.sourceWidth) / viewport.width);
+	}
+
+	// Redraws the part of the destination covering the given (exclusive) range of source pixels
+	private void scaleRegion(Bitmap source, Viewport viewport, int sourceStartX, int sourceStartY, int sourceEndX, int sourceEndY) {
+		// The first destination pixel sampling each end of the range, clipped to the destination
+		final int startX = Math.max(viewport.x + ceilDivide(sourceStartX, viewport.width, viewport.sourceWidth), 0);
+		final int endX = Math.min(viewport.x + ceilDivide(sourceEndX, viewport.width, viewport.sourceWidth), destination.width);
+		final int startY = Math.max(viewport.y + ceilDivide(sourceStartY, viewport.height, viewport.sourceHeight), 0);
+		final int endY = Math.min(viewport.y + ceilDivide(sourceEndY, viewport.height, viewport.sourceHeight), destination.height);
+		if((startX >= endX) || (startY >= endY)) return;
+
+		int lastSourceY = -1;
+		for(int y = startY; y < endY; y++) {
+			final int sourceY = (int) (((long) (y - viewport.y) * viewport.sourceHeight) / viewport.height);
+			final int rowOffset = y * destination.width;
+
+			if(sourceY == lastSourceY) {
+				// Every destination row sampling the same source row is identical, so only the first of them is worked out
+				System.arraycopy(destination.pixels, rowOffset - destination.width + startX, destination.pixels, rowOffset + startX, endX - startX);
+			} else if(viewport.integerScale == 1) {
+				System.arraycopy(source.pixels, (sourceY * source.width) + (startX - viewport.x), destination.pixels, rowOffset + startX, endX - startX);
+			} else {
+				// Looking each column up in a table turned out faster than writing out runs of integerScale pixels, even for whole number scales
+				final int[] sourcePixels = source.pixels, destinationPixels = destination.pixels;
+				final int sourceOffset = sourceY * source.width;
+				for(int x = startX; x < endX; x++) destinationPixels[rowOffset + x] = sourcePixels[sourceOffset + sourceColumns[x]];
+			}
+			lastSourceY = sourceY;
+		}
+
+		destination.markDirty(startX, startY, endX - startX, endY - startY);
+	}
+
+	// The smallest destination offset whose source pixel is at least the given source position
+	private static int ceilDivide(int sourcePosition, int scaledSize, int sourceSize) {
+		return (int) ((((long) sourcePosition * scaledSize) + sourceSize - 1) / sourceSize);
+	}
+
+	public final ScaleMode getScaleMode() { return scaleMode; }
+	public final int getLetterboxColour() { return letterboxColour; }
+	/** The Bitmap the last upscale drew into, or null if nothing has been upscaled yet */
+	public final Bitmap getDestination() { return destination; }
+	/** The layout used by the last upscale, or null if nothing has been upscaled yet. This is safe to call from any thread */
+	public final Viewport getViewport() { return viewport; }
+
+	/**
+	 * A Viewport is where a source of one size ends up within a destination of another, for a given ScaleMode. The area covered by the scaled source can be
+	 * larger than the destination (and start at a negative position), for a ScaleMode.INTEGER source that is larger than its destination
+	 */
+	public static final class Viewport {
+		public final ScaleMode scaleMode;
+		public final int sourceWidth, sourceHeight;
+		public final int destinationWidth, destinationHeight;
+		/** The area of the destination covered by the scaled source */
+		public final int x, y, width, height;
+		/** The whole number every source pixel is scaled by, or 0 if source pixels are scaled by different amounts */
+		public final int integerScale;
+
+		public Viewport(ScaleMode scaleMode, int sourceWidth, int sourceHeight, int destinationWidth, int destinationHeight) {
+			assert (scaleMode != null) : "Cannot create a Viewport with a null ScaleMode";
+			assert ((sourceWidth > 0) && (sourceHeight > 0) && (destinationWidth > 0) && (destinationHeight > 0)) :
+				"Cannot create a Viewport with non-positive dimensions. Was given (" + sourceWidth + "," + sourceHeight + ") to (" + destinationWidth + ","
+				+ destinationHeight + ")";
+
+			this.scaleMode = scaleMode;
+			this.sourceWidth = sourceWidth;
+			this.sourceHeight = sourceHeight;
+			this.destinationWidth = destinationWidth;
+			this.destinationHeight = destinationHeight;
+
+			switch(scaleMode) {
+				case INTEGER: {
+					final int scale = Math.max(1, Math.min(destinationWidth / sourceWidth, destinationHeight / sourceHeight));
+					width = sourceWidth * scale;
+					height = sourceHeight * scale;
+					break;
+				}
+				case FIT: {
+					// Whichever of the two dimensions runs out of room first decides the scale
+					if(((long) destinationWidth * sourceHeight) <= ((long) destinationHeight * sourceWidth)) {
+						width = destinationWidth;
+						height = Math.max(1, (int) (((long) sourceHeight * destinationWidth) / sourceWidth));
+					} else {
+						width = Math.max(1, (int) (((long) sourceWidth * destinationHeight) / sourceHeight));
+						height = destinationHeight;
+					}
+					break;
+				}
+				default: {
+					width = destinationWidth;
+					height = destinationHeight;
+					break;
+				}
+			}
+
+			x = (destinationWidth - width) / 2;
+			y = (destinationHeight - height) / 2;
+			integerScale = (((width % sourceWidth) == 0) && ((height % sourceHeight) == 0) && ((width / sourceWidth) == (height / sourceHeight)))
+					? (width / sourceWidth) : 0;
+		}
+
+		/** Maps a position across the destination to the matching position across the source. Positions over the letterbox bars map outside of the source */
+		public double toSourceX(double destinationX) { return (((destinationX - x) * sourceWidth) / width); }
+		/** Maps a position down the destination to the matching position down the source. Positions over the letterbox bars map outside of the source */
+		public double toSourceY(double destinationY) { return (((destinationY - y) * sourceHeight) / height); }
+
+		/** Whether the given point of the destination shows part of the source (rather than a letterbox bar) */
+		public boolean containsDestinationPoint(int destinationX, int destinationY) {
+			return ((destinationX >= Math.max(x, 0)) && (destinationY >= Math.max(y, 0)) && (destinationX < Math.min(x + width, destinationWidth))
+					&& (destinationY < Math.min(y + height, destinationHeight)));
+		}
+	}
+
+}
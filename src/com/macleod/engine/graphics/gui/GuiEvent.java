@@ -13,6 +13,8 @@ package com.macleod.engine.graphics.gui;
 //TODO: Polymorphism was considered for the event system, however, it's believed that due to the relatively infrequent creation and almost immediate
 // destruction of the data, a larger-than-necessary object being passed is not the worst situation, and it does provide a 'compactness' that is appealing. This
 // may be revisited in the future
+// Having a single class for every type of event also means GuiEvents can be pooled and reused for any type of event (see the {@code set} method). Because of
+// this, a GuiLayer should never keep hold of an event it has been given once {@code recieveGuiEvent} has returned - it may be reused for a different event
 public class GuiEvent {
 
 	public enum EventType {
@@ -32,6 +34,8 @@ public class GuiEvent {
 		MOUSE_BUTTON_RELEASED(false, true, false),
 		/** A button being held is defined as an ongoing action occuring when someone has pressed a button and not yet released it */
 		MOUSE_BUTTON_HELD(false, true, false),
+		/** A wheel movement occurs whenever the user scrolls their mouse wheel. The amount it was scrolled by is given by the wheel rotation */
+		MOUSE_WHEEL_MOVED(false, true, false),
 		
 		/** A focus gained event occurs whenever the user has started interacting with this application window - after interacting with another program */
 		FOCUS_GAINED(false, false, true),
@@ -46,12 +50,13 @@ public class GuiEvent {
 		}
 	}
 	
-	private final EventType typeOfEvent;
+	private EventType typeOfEvent;
 
 	private int keyCode;
 	private int mouseButtonKey;
 	
 	private double relativeCursorX, relativeCursorY;
+	private double wheelRotation;
 	
 	public GuiEvent(EventType typeOfEvent) {
 		assert (typeOfEvent != null) : "GuiEvent should have a non-null event type";
@@ -66,6 +71,31 @@ public class GuiEvent {
 		relativeCursorY = mouseY;
 	}
 	
+	public GuiEvent(EventType typeOfEvent, int keycode, int mouseButton, double mouseX, double mouseY, double wheelRotation) {
+		this(typeOfEvent, keycode, mouseButton, mouseX, mouseY);
+		this.wheelRotation = wheelRotation;
+	}
+	
+	/** Changes every field of this event, so that a single instance can be reused for many events rather than creating a new instance for each */
+	public final void set(EventType typeOfEvent, int keycode, int mouseButton, double mouseX, double mouseY) {
+		set(typeOfEvent, keycode, mouseButton, mouseX, mouseY, 0);
+	}
+	
+	/** Changes every field of this event, so that a single instance can be reused for many events rather than creating a new instance for each */
+	public final void set(EventType typeOfEvent, int keycode, int mouseButton, double mouseX, double mouseY, double wheelRotation) {
+		assert (typeOfEvent != null) : "GuiEvent should have a non-null event type";
+		this.typeOfEvent = typeOfEvent;
+		this.keyCode = keycode;
+		mouseButtonKey = mouseButton;
+		relativeCursorX = mouseX;
+		relativeCursorY = mouseY;
+		this.wheelRotation = wheelRotation;
+	}
+	
+	public final void copyFrom(GuiEvent event) {
+		set(event.typeOfEvent, event.keyCode, event.mouseButtonKey, event.relativeCursorX, event.relativeCursorY, event.wheelRotation);
+	}
+	
 	public final boolean isFocusEvent() { return typeOfEvent.isFocusInput; }
 	public final boolean isMouseEvent() { return typeOfEvent.isMouseInput; }
 	public final boolean isKeyboardEvent() { return typeOfEvent.isKeyboardInput; }
@@ -83,4 +113,10 @@ public class GuiEvent {
 	/** The value returned represents the mouse button (using the constants that can be found in the java.awt.event.MouseEvent class) */
 	public final int getMouseButton() { return mouseButtonKey; }
 	
+	/**
+	 * The number of 'clicks' the mouse wheel was rotated by (this can be fractional for high resolution wheels and touchpads). Negative values mean the wheel
+	 * was rotated up/away from the user, and positive values mean it was rotated down/towards the user - the same as java.awt.event.MouseWheelEvent
+	 */
+	public final double getWheelRotation() { return wheelRotation; }
+	
 }
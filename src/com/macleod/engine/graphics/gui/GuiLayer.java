@@ -2,13 +2,64 @@ package com.macleod.engine.graphics.gui;
 
 import java.awt.Graphics;
 
+import com.macleod.engine.Log;
 import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.BitmapPool;
 import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.DirtyRegion;
+import com.macleod.engine.io.InputState;
+import com.macleod.engine.loop.TimerScheduler;
+import com.macleod.engine.metrics.LatencyHistogram;
 
 public abstract class GuiLayer extends Bitmap {
 
 	private int x, y;
 	
+	// A retained layer keeps its contents between frames (only changing what it draws over), rather than being cleared before every update
+	private boolean retained = false;
+	
+	// The damage of a layer covers the pixels (relative to the layer) that have changed since it was last composited. Alongside the position it was last
+	// composited at, this lets the GuiSystem work out which part of the screen actually needs redrawing
+	private final DirtyRegion damage = new DirtyRegion();
+	private boolean hasBeenComposited = false;
+	private int compositedX, compositedY;
+	
+	// The system this layer currently belongs to (set and cleared by the GuiSystem itself), or the group it belongs to if it's the child of a GuiLayerGroup
+	// (set and cleared by the group). A layer only ever belongs to one or the other
+	GuiSystem guiSystem;
+	GuiLayerGroup parentGroup;
+	
+	// Whether this layer can be left alone (not prepared or updated) while it is entirely out of sight (see setCullable)
+	private volatile boolean cullable = false;
+	
+	// Each bit is set if the layer wants to be given events of the type with that ordinal
+	private static final int ALL_EVENT_TYPES = (1 << GuiEvent.EventType.values().length) - 1;
+	private int subscribedEventTypes = ALL_EVENT_TYPES;
+	private boolean hitTested = true;
+	
+	// Where the layer is in its GuiSystem's stack, and which cells of the system's LayerGrid it is in (all managed by the GuiSystem and its LayerGrid)
+	int stackIndex = -1;
+	boolean isInGrid = false, isInGridEverywhere = false;
+	int gridMinColumn, gridMinRow, gridMaxColumn, gridMaxRow;
+	
+	// How long each update of this layer took. This is only created once the GuiSystem starts timing layer updates
+	private volatile LatencyHistogram updateTimes;
+	
+	// Whether this layer can be updated at the same time as any other layer (see setIndependent). The rest is managed by the GuiSystem: whether the layer is
+	// updated on the pool in the current plan, the task that does it, and whether the layer moved while being updated there (so the grid can catch up after)
+	private volatile boolean independent = false;
+	boolean updatedInParallel = false, updatingInParallel = false, movedWhileUpdating = false;
+	GuiSystem.LayerUpdateTask updateTask;
+	
+	// A copy of the layer's pixels as of the last frame its GuiSystem published (see GuiSystem.publishFrame), which is composited on another thread while the
+	// layer draws its next frame. This is only created once the layer is first published, and the region is only used while publishing
+	private Bitmap publishedPixels;
+	private final DirtyRegion publishedChanges = new DirtyRegion();
+	
+	// How many updates of this layer have thrown an exception, and the last exception thrown
+	private volatile long updateFailureCount = 0;
+	private volatile RuntimeException lastUpdateFailure;
+	
 	public GuiLayer(int width, int height) { this(0, 0, width, height); }
 	
 	public GuiLayer(int x, int y, int width, int height) {
@@ -17,6 +68,16 @@ public abstract class GuiLayer extends Bitmap {
 		this.y = y;
 	}
 	
+	/**
+	 * Creates a layer whose pixels are taken from the given pool (see BitmapPool). This suits layers that come and go often, such as popups and tooltips - the
+	 * layer should then call {@code release} once it is finished with, typically at the end of {@code onUnload}, and must never be added to a GuiSystem again
+	 */
+	public GuiLayer(BitmapPool pool, int x, int y, int width, int height) {
+		super(pool, width, height, true);
+		this.x = x;
+		this.y = y;
+	}
+	
 	/** 
 	 * This method will be invoked whenever the system that this layer belongs to receives a GuiEvent.
 	 * 
@@ -42,12 +103,207 @@ public abstract class GuiLayer extends Bitmap {
 	 */
 	public abstract void onUnload();
 
-	public final void setX(int x) { this.x = x; }
-	public final void setY(int y) { this.y = y; }
+	public final void setX(int x) {
+		this.x = x;
+		onMoved();
+	}
+	
+	public final void setY(int y) {
+		this.y = y;
+		onMoved();
+	}
+	
+	private void onMoved() {
+		if(parentGroup != null) parentGroup.onChildMoved(this);
+		else if(guiSystem != null) guiSystem.onLayerMoved(this);
+	}
+	
+	/**
+	 * Changes whether this layer is given events of the given type. By default a layer is subscribed to every type of event - unsubscribing from the events a
+	 * layer doesn't use means the GuiSystem can skip the layer entirely for those events
+	 */
+	public final void setSubscribed(GuiEvent.EventType typeOfEvent, boolean subscribed) {
+		assert (typeOfEvent != null) : "Cannot subscribe a GuiLayer to a null event type";
+		if(typeOfEvent == null) return;
+		
+		if(subscribed) subscribedEventTypes |= (1 << typeOfEvent.ordinal());
+		else subscribedEventTypes &= ~(1 << typeOfEvent.ordinal());
+	}
+	
+	public final boolean isSubscribedTo(GuiEvent.EventType typeOfEvent) { return ((subscribedEventTypes & (1 << typeOfEvent.ordinal())) != 0); }
+	
+	/**
+	 * A hit tested layer (the default) is only given mouse events while the cursor is over the layer. A layer that isn't hit tested is given every mouse event
+	 * (that it is subscribed to) wherever the cursor is - for example, to keep following the cursor after it has been dragged outside of the layer
+	 */
+	public final void setHitTested(boolean hitTested) {
+		this.hitTested = hitTested;
+		onMoved();
+	}
+	
+	public final boolean isHitTested() { return hitTested; }
+	
+	/**
+	 * Marks this layer as independent, so that its GuiSystem can update it on a thread pool at the same time as every other layer (see GuiSystem.update),
+	 * rather than on the loop thread in stack order. A layer should only be marked independent if its {@code update} only changes the layer itself - its own
+	 * pixels, fields and position - and reads nothing that another layer changes during its update. It can still poll the InputState, and add or remove
+	 * layers (which are only queued until the next {@code applyPendingChanges}). It can't schedule or cancel timers during its update, since the TimerScheduler
+	 * is only used by the loop thread (see {@code getTimerScheduler}) - but it can from {@code onLoad}, {@code onUnload}, {@code recieveGuiEvent} and the
+	 * timers' own callbacks, which are all run on the loop thread
+	 */
+	public final void setIndependent(boolean independent) {
+		this.independent = independent;
+		if(guiSystem != null) guiSystem.onLayerIndependenceChanged();
+	}
+	
+	public final boolean isIndependent() { return independent; }
+	
+	/**
+	 * Marks this layer as cullable, so that it isn't prepared or updated while it is entirely outside the viewport of its GuiSystem (see
+	 * GuiSystem.setViewport), or outside the visible part of its group (see GuiLayerGroup). A layer should only be cullable if it's fine for it to stop
+	 * entirely while it can't be seen - for example a row of a scrolling list, which only needs to draw itself once it has been scrolled into view
+	 */
+	public final void setCullable(boolean cullable) { this.cullable = cullable; }
+	public final boolean isCullable() { return cullable; }
 
 	public final void drawToGraphicsInstance(Graphics target) { drawToGraphicsInstance(target, x, y); }
 
-	public void prepareForRender() { setPixelRegion(0, 0, width, height, Colour.NO_ALPHA_VALUE); }
+	/**
+	 * This is called before each update of the layer. Unless the layer is retained, anything drawn by the previous update is cleared - but only the region that
+	 * was actually drawn to, rather than the whole layer
+	 */
+	public void prepareForRender() {
+		final DirtyRegion dirtyRegion = getDirtyRegion();
+		if(dirtyRegion.isEmpty()) return;
+		
+		damage.add(dirtyRegion);
+		if(!retained) setPixelRegion(dirtyRegion.getX(), dirtyRegion.getY(), dirtyRegion.getWidth(), dirtyRegion.getHeight(), Colour.NO_ALPHA_VALUE);
+		
+		clearDirtyRegion();
+	}
+	
+	/**
+	 * A retained layer keeps whatever it has drawn between updates, so it only needs to draw what has changed. A layer that isn't retained (the default) is
+	 * cleared before every update, so needs to draw everything it shows every update
+	 */
+	public final void setRetained(boolean retained) { this.retained = retained; }
+	public final boolean isRetained() { return retained; }
+	
+	/** Adds the parts of the screen that this layer has changed since it was last composited to the given (screen) region */
+	final void addDamageTo(DirtyRegion screenDamage) {
+		if(!hasBeenComposited || (x != compositedX) || (y != compositedY)) {
+			// The layer has moved (or is new), so both where it was and where it is now need redrawing
+			if(hasBeenComposited) screenDamage.add(compositedX, compositedY, width, height);
+			screenDamage.add(x, y, width, height);
+		} else {
+			if(!damage.isEmpty()) screenDamage.add(x + damage.getX(), y + damage.getY(), damage.getWidth(), damage.getHeight());
+			
+			final DirtyRegion dirtyRegion = getDirtyRegion();
+			if(!dirtyRegion.isEmpty()) screenDamage.add(x + dirtyRegion.getX(), y + dirtyRegion.getY(), dirtyRegion.getWidth(), dirtyRegion.getHeight());
+		}
+	}
+	
+	/**
+	 * Copies everything this layer has changed since it was last published into its published pixels, adds the parts of the screen it changed to the given
+	 * region, and then treats the layer as composited (see GuiSystem.publishFrame). The published pixels are only ever read by whoever composites the frame,
+	 * so the layer can carry on drawing into its own pixels while they are
+	 */
+	final Bitmap publish(DirtyRegion screenDamage) {
+		addDamageTo(screenDamage);
+		
+		if(publishedPixels == null) {
+			publishedPixels = new Bitmap(width, height, hasAlphaChannel());
+			publishedPixels.drawBitmap(this, 0, 0, width, height, 0, 0, BlitMode.OPAQUE);
+		} else {
+			// Whatever was cleared since the last update is in the damage, and whatever has been drawn since is in the dirty region. Moving the layer doesn't
+			// change its pixels at all, so doesn't need anything copied
+			publishedChanges.clear();
+			publishedChanges.add(damage);
+			publishedChanges.add(getDirtyRegion());
+			if(!publishedChanges.isEmpty()) {
+				final int changedX = publishedChanges.getX(), changedY = publishedChanges.getY();
+				publishedPixels.drawBitmap(this, changedX, changedY, publishedChanges.getWidth(), publishedChanges.getHeight(), changedX, changedY,
+						BlitMode.OPAQUE);
+			}
+		}
+		
+		onComposited();
+		return publishedPixels;
+	}
+	
+	/** Forgets the published pixels, so that the whole layer is copied if it is ever published again */
+	final void discardPublishedPixels() { publishedPixels = null; }
+	
+	final void onComposited() {
+		hasBeenComposited = true;
+		compositedX = x;
+		compositedY = y;
+		
+		damage.clear();
+		// A layer that isn't retained still needs to know what it drew so that it can be cleared before the next update. A retained layer is never cleared, so
+		// its dirty region only needs to cover what has been drawn since the last composite
+		if(retained) clearDirtyRegion();
+	}
+	
+	/** Adds the area this layer covered when it was last composited to the given (screen) region, and forgets it was ever composited */
+	final void onRemovedFromComposite(DirtyRegion screenDamage) {
+		if(hasBeenComposited) screenDamage.add(compositedX, compositedY, width, height);
+		hasBeenComposited = false;
+		publishedPixels = null;
+	}
+	
+	final void recordUpdateTime(long nsDuration) {
+		if(updateTimes == null) updateTimes = new LatencyHistogram();
+		updateTimes.record(nsDuration);
+	}
+	
+	/** How long each update of this layer has taken, or null if its GuiSystem has never timed its updates (see GuiSystem.setLayerUpdateTimingEnabled) */
+	public final LatencyHistogram getUpdateTimes() { return updateTimes; }
+	
+	// The exception is logged in full the first time, and then each time the count of failures doubles - so a layer that fails every frame can't flood the log
+	final void onUpdateFailed(RuntimeException exception) {
+		final long failureCount = updateFailureCount + 1;
+		updateFailureCount = failureCount;
+		lastUpdateFailure = exception;
+		if(Long.bitCount(failureCount) == 1) Log.error("The update of the layer " + this + " has failed (" + failureCount + " times in total)", exception);
+	}
+	
+	/** How many updates of this layer have thrown an exception. The GuiSystem carries on updating (and drawing) a layer whose update has failed */
+	public final long getUpdateFailureCount() { return updateFailureCount; }
+	/** The last exception thrown by an update of this layer, or null if none has */
+	public final RuntimeException getLastUpdateFailure() { return lastUpdateFailure; }
+	
+	/** The system this layer belongs to (directly, or through the groups it is in), or null if it hasn't been added to one */
+	public final GuiSystem getGuiSystem() { return ((parentGroup != null) ? parentGroup.getGuiSystem() : guiSystem); }
+	/** The group this layer is a child of, or null if it isn't in a group */
+	public final GuiLayerGroup getParentGroup() { return parentGroup; }
+	
+	/**
+	 * The state of the keyboard and mouse that can be polled during {@code update} (e.g. to check whether a key is down), or null if the layer isn't in a
+	 * GuiSystem with an InputState
+	 */
+	public final InputState getInputState() {
+		final GuiSystem system = getGuiSystem();
+		return ((system == null) ? null : system.getInputState());
+	}
+	
+	/**
+	 * The scheduler for timers on the clock of the GuiSystem's updates, or null if the layer isn't in a GuiSystem. The timers aren't tied to the layer, so any
+	 * still scheduled should be cancelled in {@code onUnload}. The scheduler isn't thread safe, so this throws an IllegalStateException (failing the update) if
+	 * asked for by an independent layer - or anything in an independent group - while it is being updated on the update pool (see GuiSystem.getTimerScheduler)
+	 */
+	public final TimerScheduler getTimerScheduler() {
+		// Checked here as well as by the GuiSystem, since the pool can run a layer's update on the loop thread - which is safe, but only by chance
+		for(GuiLayer layer = this; layer != null; layer = layer.parentGroup) {
+			if(layer.updatingInParallel) {
+				throw new IllegalStateException("The TimerScheduler of a GuiSystem can only be used from the thread updating the system, not from the update of "
+						+ "an independent layer");
+			}
+		}
+
+		final GuiSystem system = getGuiSystem();
+		return ((system == null) ? null : system.getTimerScheduler());
+	}
 	
 	public final int getX() { return x; }
 	public final int getY() { return y; }
@@ -0,0 +1,318 @@
+package com.macleod.engine.graphics.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.DirtyRegion;
+
+/**
+ * A GuiLayerGroup is a layer made up of other layers (its children), such as a panel and everything in it. The children are positioned relative to the
+ * group's content rather than the screen - a child at (0, 0) is at the top-left of the group, unless the group has been scrolled (see {@code setScroll}). A
+ * group can be a child of another group, and works like any other layer in a GuiSystem.
+ * <br /><br />
+ * The group's own pixels hold every child flattened together (clipped to the bounds of the group), which is what the GuiSystem composites. This is only
+ * redrawn where a child has changed, moved, been added or been removed since the last update - so a panel that hasn't changed costs nothing to composite,
+ * however many layers it is made of. Cullable children (see GuiLayer.setCullable) that are entirely out of sight - outside the group, or outside the part of
+ * the group in the GuiSystem's viewport - are neither prepared nor updated. For a scrolling list, only the rows that can actually be seen are ever touched.
+ * <br /><br />
+ * Events given to the group are given to its children from the top of the group down (just like the layers of a GuiSystem), with the cursor position moved
+ * into the group's content, so that the children see the cursor relative to the same origin as their own positions. Mouse events are only given to the
+ * children under the cursor (and any children that aren't hit tested).
+ * <br /><br />
+ * Like a GuiSystem, children can be added and removed from any thread, but the changes are queued until the start of the group's next update (or until it's
+ * loaded). A subclass overriding {@code update}, {@code recieveGuiEvent}, {@code onLoad} or {@code onUnload} must call the group's own version, or the children
+ * won't be updated, given events, loaded or unloaded
+ */
+public class GuiLayerGroup extends GuiLayer {
+
+	// The children in stack order (the bottom first). Like the stack of a GuiSystem this array is replaced rather than changed, so it can always be iterated over
+	private GuiLayer[] children = new GuiLayer[0];
+	private final ConcurrentLinkedQueue<GuiSystem.PendingChange> pendingChanges = new ConcurrentLinkedQueue<GuiSystem.PendingChange>();
+	private final ArrayList<GuiLayer> childBuilder = new ArrayList<GuiLayer>();
+	private boolean loaded = false;
+
+	// Mouse events are only given to the children under the cursor, found through a grid of the children (in the group's content) just as the GuiSystem does
+	private final LayerGrid childGrid = new LayerGrid();
+	// The children are given a copy of each event with the cursor moved into the group's content, so the event given to the group is never changed. A child can
+	// have the group given another event while it handles one, so each level of nested dispatch has its own copy of the event and its own array of children
+	// (indexed by dispatchDepth), just as the GuiSystem does
+	private GuiLayer[][] childrenUnderCursor = new GuiLayer[2][];
+	private GuiEvent[] childEvents = new GuiEvent[2];
+	private int dispatchDepth = 0;
+
+	private int scrollX = 0, scrollY = 0;
+	private boolean scrolled = false;
+
+	// The part of the group that can be seen (relative to the group, not its content), worked out at the start of every update. Nested groups work theirs out
+	// from their parent's, since the parent is always updated first
+	private final DirtyRegion visibleArea = new DirtyRegion();
+	// What has changed in the group's content since it was last flattened, and the same area relative to the group (once scrolled and clipped to the group)
+	private final DirtyRegion contentDamage = new DirtyRegion();
+	private final DirtyRegion removedChildDamage = new DirtyRegion();
+	private final DirtyRegion groupDamage = new DirtyRegion();
+
+	private int culledChildCount = 0;
+
+	public GuiLayerGroup(int width, int height) { this(0, 0, width, height); }
+
+	public GuiLayerGroup(int x, int y, int width, int height) {
+		super(x, y, width, height);
+		// The group's pixels are the flattened children, which are only redrawn where they have changed - so they must never be cleared between updates
+		setRetained(true);
+	}
+
+	/** Queues the layer to be added to the top of this group the next time the group is updated (or loaded). This is safe to call from any thread */
+	public final void addChild(GuiLayer child) {
+		assert (child != null) : "Cannot add a null GuiLayer to a GuiLayerGroup";
+		assert (child != this) : "Cannot add a GuiLayerGroup to itself";
+		if((child != null) && (child != this)) pendingChanges.add(new GuiSystem.PendingChange(child, true));
+	}
+
+	/** Queues the layer to be removed from this group the next time the group is updated (or loaded). This is safe to call from any thread */
+	public final void removeChild(GuiLayer child) {
+		assert (child != null) : "Cannot remove a null GuiLayer from a GuiLayerGroup";
+		if(child != null) pendingChanges.add(new GuiSystem.PendingChange(child, false));
+	}
+
+	/**
+	 * Makes every addition and removal of children queued since the last call, in the order they were queued. Children are loaded and unloaded as they are
+	 * added and removed, but only while the group itself is loaded. This is called at the start of every update, and should only be called by the thread
+	 * updating the group
+	 */
+	public final void applyPendingChanges() {
+		if(pendingChanges.isEmpty()) return;
+
+		final GuiLayer[] currentChildren = children;
+		for(int i = 0; i < currentChildren.length; i++) childBuilder.add(currentChildren[i]);
+
+		GuiSystem.PendingChange change;
+		while((change = pendingChanges.poll()) != null) {
+			if(change.isAddition) addToGroup(change.layer);
+			else removeFromGroup(change.layer);
+		}
+
+		children = childBuilder.toArray(new GuiLayer[childBuilder.size()]);
+		childBuilder.clear();
+	}
+
+	private void addToGroup(GuiLayer child) {
+		assert (!childBuilder.contains(child)) : "Cannot add a GuiLayer to a GuiLayerGroup it is already in";
+		assert ((child.guiSystem == null) && (child.parentGroup == null)) : "Cannot add a GuiLayer to a GuiLayerGroup while it belongs to something else";
+		assert (!child.isReleased()) : "Cannot add a GuiLayer to a GuiLayerGroup after its pixels have been released";
+
+		childBuilder.add(child);
+		child.parentGroup = this;
+		child.stackIndex = childBuilder.size() - 1;
+		childGrid.insert(child);
+
+		if(loaded) child.onLoad();
+	}
+
+	private void removeFromGroup(GuiLayer child) {
+		final int stackIndex = childBuilder.indexOf(child);
+		if(stackIndex < 0) return;
+
+		childBuilder.remove(stackIndex);
+		childGrid.remove(child);
+		child.stackIndex = -1;
+		for(int i = stackIndex; i < childBuilder.size(); i++) childBuilder.get(i).stackIndex = i;
+
+		child.onRemovedFromComposite(removedChildDamage);
+		if(loaded) child.onUnload();
+		child.parentGroup = null;
+	}
+
+	/**
+	 * Scrolls the content of the group, so that the point (x, y) of the content is shown at the top-left of the group. Scrolling redraws the whole group at its
+	 * next update. This should only be called by the thread updating the group (or while giving it events)
+	 */
+	public final void setScroll(int x, int y) {
+		if((x == scrollX) && (y == scrollY)) return;
+
+		scrollX = x;
+		scrollY = y;
+		scrolled = true;
+	}
+
+	public final int getScrollX() { return scrollX; }
+	public final int getScrollY() { return scrollY; }
+
+	/**
+	 * Updates every child that can be seen (or isn't cullable), from the bottom of the group to the top, then redraws the parts of the group that have changed.
+	 * An exception thrown by the update of a child is caught and counted against the child (see GuiLayer.getUpdateFailureCount), just as the GuiSystem does
+	 */
+	@Override
+	public void update(float sTimeDelay) {
+		applyPendingChanges();
+		findVisibleArea();
+
+		final GuiLayer[] layers = children;
+		int culled = 0;
+		for(int i = 0; i < layers.length; i++) {
+			final GuiLayer child = layers[i];
+			if(isCulled(child)) {
+				culled++;
+				continue;
+			}
+
+			child.prepareForRender();
+			try {
+				child.update(sTimeDelay);
+			} catch(RuntimeException e) {
+				child.onUpdateFailed(e);
+			}
+		}
+		culledChildCount = culled;
+
+		flattenChildren(layers);
+	}
+
+	// Works out which part of the group can be seen, from the viewport of the GuiSystem (or the part of the parent group that can be seen)
+	private void findVisibleArea() {
+		visibleArea.clear();
+		if(parentGroup != null) {
+			final DirtyRegion parentArea = parentGroup.visibleArea;
+			if(!parentArea.isEmpty()) {
+				visibleArea.add(parentArea.getX() + parentGroup.scrollX - getX(), parentArea.getY() + parentGroup.scrollY - getY(), parentArea.getWidth(),
+						parentArea.getHeight());
+			}
+		} else {
+			final GuiSystem system = guiSystem;
+			if((system != null) && system.hasViewport()) {
+				visibleArea.add(system.getViewportX() - getX(), system.getViewportY() - getY(), system.getViewportWidth(), system.getViewportHeight());
+			} else {
+				visibleArea.add(0, 0, width, height);
+			}
+		}
+		visibleArea.clip(0, 0, width, height);
+	}
+
+	private boolean isCulled(GuiLayer child) {
+		return (child.isCullable() && !visibleArea.intersects(child.getX() - scrollX, child.getY() - scrollY, child.width, child.height));
+	}
+
+	// Redraws the part of the group's pixels that has changed, from the children that overlap it. This is the same as the GuiSystem compositing its layers,
+	// but blends onto a transparent background so that the group can be composited over whatever is beneath it
+	private void flattenChildren(GuiLayer[] layers) {
+		for(int i = 0; i < layers.length; i++) layers[i].addDamageTo(contentDamage);
+		contentDamage.add(removedChildDamage);
+		removedChildDamage.clear();
+
+		if(scrolled) {
+			groupDamage.add(0, 0, width, height);
+			scrolled = false;
+		} else if(!contentDamage.isEmpty()) {
+			groupDamage.add(contentDamage.getX() - scrollX, contentDamage.getY() - scrollY, contentDamage.getWidth(), contentDamage.getHeight());
+		}
+		contentDamage.clear();
+		groupDamage.clip(0, 0, width, height);
+
+		if(!groupDamage.isEmpty()) {
+			final int damageX = groupDamage.getX(), damageY = groupDamage.getY();
+			final int damageEndX = damageX + groupDamage.getWidth(), damageEndY = damageY + groupDamage.getHeight();
+			setPixelRegion(damageX, damageY, damageEndX - damageX, damageEndY - damageY, Colour.NO_ALPHA_VALUE);
+
+			for(int i = 0; i < layers.length; i++) {
+				final GuiLayer child = layers[i];
+				final int childX = child.getX() - scrollX, childY = child.getY() - scrollY;
+				final int startX = Math.max(childX, damageX), startY = Math.max(childY, damageY);
+				final int endX = Math.min(childX + child.width, damageEndX), endY = Math.min(childY + child.height, damageEndY);
+				if((startX >= endX) || (startY >= endY)) continue;
+
+				drawBitmap(child, startX - childX, startY - childY, endX - startX, endY - startY, startX, startY, BlitMode.ALPHA_BLEND);
+			}
+			groupDamage.clear();
+		}
+
+		for(int i = 0; i < layers.length; i++) layers[i].onComposited();
+	}
+
+	/**
+	 * Gives the event to the children of the group, from the top of the group down, until one of them absorbs it. Mouse events are given with the cursor moved
+	 * into the group's content, and only to the children under the cursor (or that aren't hit tested) - a child that is hit tested is never given a mouse event
+	 * while the cursor is outside of the group, since that part of the child can't be seen
+	 */
+	@Override
+	public boolean recieveGuiEvent(GuiEvent event) {
+		final int depth = dispatchDepth;
+		if(depth == childEvents.length) {
+			childEvents = Arrays.copyOf(childEvents, depth * 2);
+			childrenUnderCursor = Arrays.copyOf(childrenUnderCursor, depth * 2);
+		}
+		if(childEvents[depth] == null) childEvents[depth] = new GuiEvent(GuiEvent.EventType.FOCUS_GAINED);
+		if((childrenUnderCursor[depth] == null) || (childrenUnderCursor[depth].length < children.length)) {
+			childrenUnderCursor[depth] = new GuiLayer[Math.max(5, children.length * 2)];
+		}
+
+		dispatchDepth++;
+		try {
+			return dispatchToChildren(event, childEvents[depth], childrenUnderCursor[depth]);
+		} finally {
+			dispatchDepth--;
+		}
+	}
+
+	// Gives the event to the children at one level of dispatch, through the copy of the event and the array of children belonging to that level
+	private boolean dispatchToChildren(GuiEvent event, GuiEvent childEvent, GuiLayer[] layersUnderCursor) {
+		childEvent.copyFrom(event);
+		final GuiEvent.EventType typeOfEvent = event.getEventType();
+
+		if(!event.isMouseEvent()) {
+			final GuiLayer[] layers = children;
+			for(int i = (layers.length - 1); i >= 0; i--) {
+				if(layers[i].isSubscribedTo(typeOfEvent) && layers[i].recieveGuiEvent(childEvent)) return true;
+			}
+			return false;
+		}
+
+		final double groupCursorX = event.getRelativeCursorX() - getX(), groupCursorY = event.getRelativeCursorY() - getY();
+		final boolean isInGroup = ((groupCursorX >= 0) && (groupCursorY >= 0) && (groupCursorX < width) && (groupCursorY < height));
+		final double contentCursorX = groupCursorX + scrollX, contentCursorY = groupCursorY + scrollY;
+		childEvent.set(typeOfEvent, event.getKeyCode(), event.getMouseButton(), contentCursorX, contentCursorY, event.getWheelRotation());
+
+		final GuiLayer[] layers = layersUnderCursor;
+		int numberOfLayers = 0;
+		try {
+			numberOfLayers = childGrid.collectLayersAt((int) Math.floor(contentCursorX), (int) Math.floor(contentCursorY), layers);
+			for(int i = (numberOfLayers - 1); i >= 0; i--) {
+				final GuiLayer child = layers[i];
+				if((isInGroup || !child.isHitTested()) && child.isSubscribedTo(typeOfEvent) && child.recieveGuiEvent(childEvent)) return true;
+			}
+		} finally {
+			for(int i = 0; i < numberOfLayers; i++) layers[i] = null;
+		}
+		return false;
+	}
+
+	/** Loads every child of the group (including any still queued to be added) */
+	@Override
+	public void onLoad() {
+		loaded = true;
+		final GuiLayer[] layers = children;
+		for(int i = 0; i < layers.length; i++) layers[i].onLoad();
+		applyPendingChanges();
+	}
+
+	/** Unloads every child of the group. They stay in the group, and are loaded again if the group is */
+	@Override
+	public void onUnload() {
+		final GuiLayer[] layers = children;
+		for(int i = 0; i < layers.length; i++) layers[i].onUnload();
+		loaded = false;
+	}
+
+	// Called by a child whenever it moves (or changes whether it is hit tested), so it can be found under the cursor in its new place
+	final void onChildMoved(GuiLayer child) { childGrid.update(child); }
+
+	/** Returns the child at the given position in the group, where 0 is the bottom of the group */
+	public final GuiLayer getChild(int stackIndex) { return children[stackIndex]; }
+	/** The number of children in the group (not including any waiting to be added) */
+	public final int getChildCount() { return children.length; }
+	/** A copy of every child (from the bottom of the group to the top) */
+	public final GuiLayer[] getChildren() { return children.clone(); }
+	/** How many children were left alone by the last update, because they were cullable and couldn't be seen */
+	public final int getCulledChildCount() { return culledChildCount; }
+
+}
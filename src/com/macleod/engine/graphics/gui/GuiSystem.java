@@ -2,38 +2,183 @@ package com.macleod.engine.graphics.gui;
 
 import java.awt.Graphics;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.DirtyRegion;
+import com.macleod.engine.io.InputRecorder;
+import com.macleod.engine.io.InputState;
+import com.macleod.engine.loop.TimerScheduler;
+
+/**
+ * A GuiSystem is a stack of GuiLayers, which are updated, given events and drawn together.
+ * <br /><br />
+ * Layers can be added and removed from any thread, but the changes don't happen straight away - they are queued until {@code applyPendingChanges} is next
+ * called (which the Application does at the start of every update). All the changes queued since the last call are then made at once, and the layers
+ * are loaded or unloaded on the thread making the call. Everything else (updating, rendering and events) works on the stack as it was after the last call, so
+ * it never sees a stack that is part way through being changed and never needs to lock
+ */
 public class GuiSystem {
 
 	// It's important that we treat the layers like a stack structure because we need to allow some layers to 'absorb' events that we intended only for them
 	// (stopping a button being clicked from also being registered on the layers beneath it). As such, the higher the index of a layer in the array, the
-	// higher in the stack it is
-	private ArrayList<GuiLayer> guiStack = new ArrayList<GuiLayer>(5);
+	// higher in the stack it is.
+	// The array itself is never changed once it has been published here - changes to the stack build a new array which replaces it, so anything iterating
+	// over the stack can keep a reference to the array without worrying about it changing under it
+	private volatile GuiLayer[] guiStack = new GuiLayer[0];
+	
+	// Additions and removals that haven't been made yet, in the order they were requested. The builder is only ever used while applying them
+	private final ConcurrentLinkedQueue<PendingChange> pendingChanges = new ConcurrentLinkedQueue<PendingChange>();
+	private final ArrayList<GuiLayer> stackBuilder = new ArrayList<GuiLayer>(5);
+	
+	// The areas of the screen that were covered by layers that have since been removed - these need redrawing in the next composite
+	private final DirtyRegion removedLayerDamage = new DirtyRegion();
+	
+	private InputState inputState;
+	private boolean layerUpdateTimingEnabled = false;
+	
+	// The number of updates finished so far, which is the tick any event given to the system now is recorded against
+	private long tickCount = 0;
+	private volatile InputRecorder inputRecorder;
+	
+	// Timers run on the clock of the updates, firing at the start of each update before any layer is updated. The scheduler isn't thread safe, so while layers
+	// are being updated on the pool only the thread that called update may use it (see getTimerScheduler)
+	private final TimerScheduler timerScheduler = new TimerScheduler();
+	private volatile Thread parallelUpdateCaller = null;
+	
+	// Mouse events are only given to the layers under the cursor, which the grid finds without having to visit every layer in the stack. A layer can give the
+	// system another mouse event while it handles one, so each level of nested dispatch copies the layers into its own array (indexed by mouseDispatchDepth)
+	private final LayerGrid layerGrid = new LayerGrid();
+	private GuiLayer[][] layersUnderCursor = new GuiLayer[2][];
+	private int mouseDispatchDepth = 0;
+	
+	// Which layers are updated on the pool (see GuiLayer.setIndependent). The plan is only rebuilt when the stack or the independence of a layer changes, so the
+	// same tasks are reused by every update in between
+	private volatile ForkJoinPool updatePool = ForkJoinPool.commonPool();
+	private volatile boolean updatePlanOutdated = true;
+	private GuiLayer[] updatePlanStack = null;
+	private LayerUpdateTask[] parallelUpdateTasks = new LayerUpdateTask[0];
+	private final ParallelUpdateTask parallelUpdate = new ParallelUpdateTask();
 	
+	// The area of the screen that can actually be seen. Cullable layers (see GuiLayer.setCullable) entirely outside of it aren't prepared or updated. Until a
+	// viewport is set, everything is treated as being in view
+	private boolean hasViewport = false;
+	private int viewportX, viewportY, viewportWidth, viewportHeight;
+	
+	// Each layer's damage is added to the compositor separately, so that one layer moving far off the screen doesn't stretch the damage of another
+	private final DirtyRegion layerDamage = new DirtyRegion();
+	
+	// The last frame handed over by publishFrame: each layer's published pixels and position (as x, y pairs), and everything that changed on the screen since
+	// the frame before. These are written by publishFrame on the updating thread and read by compositeTo on the compositing thread, which take turns
+	private volatile boolean publishing = false;
+	private Bitmap[] publishedLayers = new Bitmap[0];
+	private int[] publishedPositions = new int[0];
+	private int publishedLayerCount = 0;
+	private final DirtyRegion publishedDamage = new DirtyRegion();
+	
+	/** Queues the layer to be added to the top of the stack the next time {@code applyPendingChanges} is called. This is safe to call from any thread */
 	public void addLayer(GuiLayer layer) {
 		assert (layer != null) : "Cannot add a null GuiLayer to a GuiSystem"; 
-		if(guiStack != null) {
-			guiStack.add(layer);
-			layer.onLoad();
-		}
+		if(layer != null) pendingChanges.add(new PendingChange(layer, true));
 	}
 	
+	/** Queues the layer to be removed from the stack the next time {@code applyPendingChanges} is called. This is safe to call from any thread */
 	public void removeLayer(GuiLayer layer) { 
 		assert (layer != null) : "Cannot remove a null GuiLayer from a GuiSystem"; 
-		if(layer != null) {
-			guiStack.remove(layer);
-			layer.onUnload();
+		if(layer != null) pendingChanges.add(new PendingChange(layer, false));
+	}
+	
+	/**
+	 * Makes every addition and removal queued since the last call, in the order they were queued, loading and unloading the layers as they go. The new stack
+	 * replaces the old one in a single step. This should only be called between frames by the thread that updates the system
+	 */
+	public void applyPendingChanges() {
+		if(pendingChanges.isEmpty()) return;
+		
+		final GuiLayer[] currentStack = guiStack;
+		for(int i = 0; i < currentStack.length; i++) stackBuilder.add(currentStack[i]);
+		
+		// Layers may add or remove other layers as they load or unload. Those changes are queued too, so they are made as part of this same call
+		PendingChange change;
+		while((change = pendingChanges.poll()) != null) {
+			if(change.isAddition) addToStack(change.layer);
+			else removeFromStack(change.layer);
 		}
+		
+		guiStack = stackBuilder.toArray(new GuiLayer[stackBuilder.size()]);
+		stackBuilder.clear();
+	}
+	
+	private void addToStack(GuiLayer layer) {
+		assert (!stackBuilder.contains(layer)) : "Cannot add a GuiLayer to a GuiSystem it is already in";
+		assert (!layer.isReleased()) : "Cannot add a GuiLayer to a GuiSystem after its pixels have been released";
+		assert (layer.parentGroup == null) : "Cannot add a GuiLayer to a GuiSystem while it is the child of a GuiLayerGroup";
+		
+		stackBuilder.add(layer);
+		layer.guiSystem = this;
+		layer.stackIndex = stackBuilder.size() - 1;
+		layerGrid.insert(layer);
+		
+		layer.onLoad();
 	}
 	
+	private void removeFromStack(GuiLayer layer) {
+		final int stackIndex = stackBuilder.indexOf(layer);
+		if(stackIndex >= 0) {
+			stackBuilder.remove(stackIndex);
+			layerGrid.remove(layer);
+			layer.stackIndex = -1;
+			// Everything above the removed layer has moved down the stack by one (but stays in the same order, so the grid doesn't need changing)
+			for(int i = stackIndex; i < stackBuilder.size(); i++) stackBuilder.get(i).stackIndex = i;
+			
+			layer.onRemovedFromComposite(removedLayerDamage);
+		}
+		layer.onUnload();
+		if(layer.guiSystem == this) layer.guiSystem = null;
+	}
+	
+	/** Returns the layer at the given position in the stack, where 0 is the bottom of the stack */
+	public GuiLayer getLayer(int stackIndex) { return guiStack[stackIndex]; }
+	/** The number of layers in the stack (not including any layers waiting to be added) */
+	public int getLayerCount() { return guiStack.length; }
+	/** A copy of the whole stack (from the bottom to the top). Unlike {@code getLayer}, this is safe to use from any thread */
+	public GuiLayer[] getLayers() { return guiStack.clone(); }
+	
+	/** Gives the layers of this system an InputState they can poll during their updates (the Application does this when the system is given to it) */
+	public void setInputState(InputState inputState) { this.inputState = inputState; }
+	/** The state of the keyboard and mouse, or null if this system hasn't been given one */
+	public InputState getInputState() { return inputState; }
+	
+	/**
+	 * Sets the InputRecorder every event given to this system is recorded by, along with the tick it arrived in (this can be null, to stop recording). Events
+	 * are recorded on the thread giving them to the system, so the recorder should be closed from that thread too
+	 */
+	public void setInputRecorder(InputRecorder inputRecorder) { this.inputRecorder = inputRecorder; }
+	public InputRecorder getInputRecorder() { return inputRecorder; }
+	
 	public void recieveEvent(GuiEvent event) {
 		assert (event != null) : "GuiSystem cannot recieve a null event";
+		if(event == null) return;
+		
+		final InputRecorder currentRecorder = inputRecorder;
+		if(currentRecorder != null) currentRecorder.record(event, tickCount);
+		
+		if(event.isMouseEvent()) {
+			recieveMouseEvent(event);
+			return;
+		}
 		
 		// We iterate backwards because it is a stack
-		for(int i = (guiStack.size() - 1); i >= 0; i--) {
-			final GuiLayer currentLayer = guiStack.get(i);
+		final GuiLayer[] layers = guiStack;
+		final GuiEvent.EventType typeOfEvent = event.getEventType();
+		for(int i = (layers.length - 1); i >= 0; i--) {
+			final GuiLayer currentLayer = layers[i];
 			
-			if(currentLayer != null) {
+			if(currentLayer.isSubscribedTo(typeOfEvent)) {
 				final boolean wasAbsorbed = currentLayer.recieveGuiEvent(event);
 				
 				if(wasAbsorbed) break;
@@ -41,45 +186,390 @@ public class GuiSystem {
 		}
 	}
 	
+	/** Mouse events are only given to the layers under the cursor (and any layers that aren't hit tested), but otherwise work exactly like any other event */
+	private void recieveMouseEvent(GuiEvent event) {
+		final int cursorX = (int) Math.floor(event.getRelativeCursorX());
+		final int cursorY = (int) Math.floor(event.getRelativeCursorY());
+		final GuiEvent.EventType typeOfEvent = event.getEventType();
+		
+		// The layers are copied out of the grid before any of them are given the event, so that a layer changing the system while handling the event can't
+		// change the layers we are part way through - and into an array of this level of dispatch, so neither can a layer giving the system another event
+		final GuiLayer[] layers = claimLayersUnderCursor();
+		int numberOfLayers = 0;
+		try {
+			numberOfLayers = layerGrid.collectLayersAt(cursorX, cursorY, layers);
+			for(int i = (numberOfLayers - 1); i >= 0; i--) {
+				final GuiLayer currentLayer = layers[i];
+				
+				if(currentLayer.isSubscribedTo(typeOfEvent)) {
+					final boolean wasAbsorbed = currentLayer.recieveGuiEvent(event);
+					
+					if(wasAbsorbed) break;
+				}
+			}
+		} finally {
+			for(int i = 0; i < numberOfLayers; i++) layers[i] = null;
+			mouseDispatchDepth--;
+		}
+	}
+	
+	// Returns the array the layers under the cursor are copied into at the next level of dispatch, big enough to hold every layer in the stack. Arrays are only
+	// allocated the first time a level is reached (or the stack outgrows them), so a layer dispatching events of its own doesn't allocate on every event
+	private GuiLayer[] claimLayersUnderCursor() {
+		final int depth = mouseDispatchDepth;
+		if(depth == layersUnderCursor.length) layersUnderCursor = Arrays.copyOf(layersUnderCursor, depth * 2);
+		
+		GuiLayer[] layers = layersUnderCursor[depth];
+		if((layers == null) || (layers.length < guiStack.length)) {
+			layers = new GuiLayer[Math.max(5, guiStack.length * 2)];
+			layersUnderCursor[depth] = layers;
+		}
+		mouseDispatchDepth++;
+		return layers;
+	}
+	
+	/**
+	 * Called by a layer in this system whenever it moves, so that it can be found under the cursor in its new position. A layer moving while it is updated on
+	 * the pool is only noted, and put in its new place in the grid once every layer has finished updating
+	 */
+	void onLayerMoved(GuiLayer layer) {
+		if(layer.updatingInParallel) layer.movedWhileUpdating = true;
+		else layerGrid.update(layer);
+	}
+	
+	/** Called by a layer in this system whenever it is marked (or unmarked) as independent */
+	void onLayerIndependenceChanged() { updatePlanOutdated = true; }
+	
+	/**
+	 * Updates every layer. Layers marked as independent (see GuiLayer.setIndependent) are updated on the update pool - each as a separate task, so that idle
+	 * threads can steal them - while the calling thread updates the rest in stack order. This only returns once every layer has been updated, so nothing is
+	 * composited until they have all finished. If there are no independent layers, everything is updated on the calling thread just as before.
+	 * <br /><br />
+	 * An exception thrown by the update of a layer is caught, logged and counted (see GuiLayer.getUpdateFailureCount), so one broken layer can't stop the rest of
+	 * the layers being updated, or the frame being drawn. Before any layer is updated, the timer scheduler is advanced by the time delay (unless its clock is
+	 * manual), so every timer due by now fires on the calling thread
+	 */
 	public void update(float sTimeDelay) {
-		for(GuiLayer currentLayer : guiStack) {
-			if(currentLayer != null) {
-				currentLayer.update(sTimeDelay);
+		if(!timerScheduler.isManualClock()) timerScheduler.advance(sTimeDelay);
+		
+		final GuiLayer[] layers = guiStack;
+		if(updatePlanOutdated || (layers != updatePlanStack)) planUpdate(layers);
+		
+		final LayerUpdateTask[] tasks = parallelUpdateTasks;
+		if(tasks.length == 0) {
+			for(int i = 0; i < layers.length; i++) updateLayer(layers[i], sTimeDelay);
+		} else {
+			for(int i = 0; i < tasks.length; i++) {
+				tasks[i].reinitialize();
+				tasks[i].sTimeDelay = sTimeDelay;
+			}
+			parallelUpdate.reinitialize();
+			parallelUpdate.tasks = tasks;
+			parallelUpdateCaller = Thread.currentThread();
+			updatePool.execute(parallelUpdate);
+			
+			try {
+				for(int i = 0; i < layers.length; i++) {
+					if(!layers[i].updatedInParallel) updateLayer(layers[i], sTimeDelay);
+				}
+			} finally {
+				// The barrier - nothing after this (such as compositing) can see a layer part way through its update
+				parallelUpdate.join();
+				parallelUpdateCaller = null;
+				for(int i = 0; i < tasks.length; i++) {
+					final GuiLayer layer = tasks[i].layer;
+					if(layer.movedWhileUpdating) {
+						layer.movedWhileUpdating = false;
+						layerGrid.update(layer);
+					}
+				}
 			}
 		}
+		
+		tickCount++;
+		final InputRecorder currentRecorder = inputRecorder;
+		if(currentRecorder != null) currentRecorder.recordTickCount(tickCount);
 	}
 	
-	public void onShutdown() {
-		for(GuiLayer currentLayer : guiStack) {
-			if(currentLayer != null) {
-				currentLayer.onUnload();
+	// Updates a single layer (on whichever thread calls this), timing it if asked to
+	private void updateLayer(GuiLayer layer, float sTimeDelay) {
+		if(isCulled(layer)) return;
+		
+		try {
+			if(!layerUpdateTimingEnabled) {
+				layer.update(sTimeDelay);
+			} else {
+				final long nsStart = System.nanoTime();
+				layer.update(sTimeDelay);
+				layer.recordUpdateTime(System.nanoTime() - nsStart);
 			}
+		} catch(RuntimeException e) {
+			layer.onUpdateFailed(e);
+		}
+	}
+	
+	// Works out which layers are updated on the pool, reusing the task each layer already has where it can
+	private void planUpdate(GuiLayer[] layers) {
+		updatePlanOutdated = false;
+		updatePlanStack = layers;
+		
+		int numberOfIndependentLayers = 0;
+		for(int i = 0; i < layers.length; i++) {
+			layers[i].updatedInParallel = layers[i].isIndependent();
+			if(layers[i].updatedInParallel) numberOfIndependentLayers++;
+		}
+		
+		final LayerUpdateTask[] tasks = new LayerUpdateTask[numberOfIndependentLayers];
+		for(int i = 0, taskIndex = 0; i < layers.length; i++) {
+			final GuiLayer layer = layers[i];
+			if(!layer.updatedInParallel) continue;
+			if((layer.updateTask == null) || (layer.updateTask.system != this)) layer.updateTask = new LayerUpdateTask(this, layer);
+			tasks[taskIndex++] = layer.updateTask;
+		}
+		parallelUpdateTasks = tasks;
+	}
+	
+	/** Changes the pool that independent layers are updated on (see {@code update}). By default this is the common ForkJoinPool */
+	public void setUpdatePool(ForkJoinPool updatePool) {
+		assert (updatePool != null) : "A GuiSystem cannot update its layers on a null ForkJoinPool";
+		if(updatePool != null) this.updatePool = updatePool;
+	}
+	
+	public ForkJoinPool getUpdatePool() { return updatePool; }
+	
+	/** The number of updates this system has finished */
+	public long getTickCount() { return tickCount; }
+	
+	/**
+	 * The scheduler for timers on the clock of this system's updates (see {@code update}). It isn't thread safe, so it must only be used from the thread
+	 * updating the system - and so not from the update of an independent layer (see GuiLayer.setIndependent), which runs on the update pool. Asking for it on
+	 * any other thread while layers are being updated on the pool throws an IllegalStateException, which fails the update of the layer that asked
+	 */
+	public TimerScheduler getTimerScheduler() {
+		final Thread caller = parallelUpdateCaller;
+		if((caller != null) && (caller != Thread.currentThread())) {
+			// Not logged here, since it is the update of an independent layer asking - which logs (and counts) the failure itself
+			throw new IllegalStateException("The TimerScheduler of a GuiSystem can only be used from the thread updating the system, not from the update of an "
+					+ "independent layer");
+		}
+		return timerScheduler;
+	}
+	
+	/** Changes whether the update of every layer is timed individually (see GuiLayer.getUpdateTimes) */
+	public void setLayerUpdateTimingEnabled(boolean enabled) { layerUpdateTimingEnabled = enabled; }
+	public boolean isLayerUpdateTimingEnabled() { return layerUpdateTimingEnabled; }
+	
+	public void onShutdown() {
+		// Anything still queued is made first, so that every layer that was ever loaded is unloaded
+		applyPendingChanges();
+		stopPublishing();
+		// Nothing is left to fire a timer at once every layer has been unloaded
+		timerScheduler.cancelAll();
+		
+		final GuiLayer[] layers = guiStack;
+		for(int i = 0; i < layers.length; i++) {
+			final GuiLayer currentLayer = layers[i];
+			
+			currentLayer.onRemovedFromComposite(removedLayerDamage);
+			currentLayer.onUnload();
+			currentLayer.guiSystem = null;
+			layerGrid.remove(currentLayer);
+			currentLayer.stackIndex = -1;
 		}
 		
 		// Just incase this method was called out of turn, we clear the stack because the layers have now 'unloaded' - meaning issues could arise if we tried 
 		// to interact with them again
-		guiStack.clear();
+		guiStack = new GuiLayer[0];
+		updatePlanStack = null;
+		parallelUpdateTasks = new LayerUpdateTask[0];
 	}
 
 	public void prepareForRender() {
-		for(GuiLayer currentLayer : guiStack) {
-			if(currentLayer != null) {
-				currentLayer.prepareForRender();
-			}
+		final GuiLayer[] layers = guiStack;
+		for(int i = 0; i < layers.length; i++) {
+			if(!isCulled(layers[i])) layers[i].prepareForRender();
 		}
 	}
 	
+	/**
+	 * Sets the area of the screen that can actually be seen (normally the whole of the Screen, which the Application sets before every update). Cullable layers
+	 * (see GuiLayer.setCullable) entirely outside of it are neither prepared nor updated, and groups use it to work out which of their children can be seen.
+	 * This should only be called by the thread that updates the system, between updates
+	 */
+	public void setViewport(int x, int y, int width, int height) {
+		assert ((width >= 0) && (height >= 0)) : "Cannot give a GuiSystem a viewport of negative dimensions. Was given (" + width + "," + height + ")";
+		
+		hasViewport = true;
+		viewportX = x;
+		viewportY = y;
+		viewportWidth = Math.max(width, 0);
+		viewportHeight = Math.max(height, 0);
+	}
+	
+	/** Goes back to treating everything as being in view, so nothing is culled. This should only be called between updates, like {@code setViewport} */
+	public void clearViewport() { hasViewport = false; }
+	
+	public boolean hasViewport() { return hasViewport; }
+	public int getViewportX() { return viewportX; }
+	public int getViewportY() { return viewportY; }
+	public int getViewportWidth() { return viewportWidth; }
+	public int getViewportHeight() { return viewportHeight; }
+	
+	/** Whether any part of the given area of the screen is in the viewport (which it always is, if there is no viewport) */
+	public boolean isInViewport(int x, int y, int width, int height) {
+		if(!hasViewport) return true;
+		return ((x < (viewportX + viewportWidth)) && (y < (viewportY + viewportHeight)) && ((x + width) > viewportX) && ((y + height) > viewportY));
+	}
+	
+	private boolean isCulled(GuiLayer layer) { return (layer.isCullable() && !isInViewport(layer.getX(), layer.getY(), layer.width, layer.height)); }
+	
 	public void drawToGraphicsInstance(Graphics graphics) {
 		assert (graphics != null) : "Cannot draw a GuiSystem to a null Graphics instance";
 		
 		if(graphics != null) {
-			// We iterate backwards because it is a stack
-			for(int i = (guiStack.size() - 1); i >= 0; i--) {
-				final GuiLayer currentLayer = guiStack.get(i);
-				
-				if(currentLayer != null) currentLayer.drawToGraphicsInstance(graphics);
+			// Unlike events, drawing iterates forwards through the stack - the layers higher in the stack are drawn later, so that they appear over the layers
+			// beneath them
+			final GuiLayer[] layers = guiStack;
+			for(int i = 0; i < layers.length; i++) layers[i].drawToGraphicsInstance(graphics);
+		}
+	}
+	
+	/**
+	 * Blends every layer in the system into the framebuffer of the given Compositor (from the bottom of the stack to the top). This is the software equivalent
+	 * of {@code drawToGraphicsInstance} - the result is a single framebuffer that only needs to be drawn once.
+	 * <br /><br />
+	 * Only the part of the framebuffer that has changed since the last composite is redrawn (the bounding rectangle of everything the layers have drawn, cleared,
+	 * or moved away from)
+	 */
+	public void compositeTo(Compositor compositor) {
+		assert (compositor != null) : "Cannot composite a GuiSystem to a null Compositor";
+		if(compositor == null) return;
+		
+		if(publishing) {
+			compositePublishedFrameTo(compositor);
+			return;
+		}
+		
+		final GuiLayer[] layers = guiStack;
+		for(int i = 0; i < layers.length; i++) {
+			layers[i].addDamageTo(layerDamage);
+			compositor.addDamage(layerDamage);
+			layerDamage.clear();
+		}
+		compositor.addDamage(removedLayerDamage);
+		removedLayerDamage.clear();
+		
+		if(compositor.beginComposite(this)) {
+			for(int i = 0; i < layers.length; i++) compositor.composite(layers[i], layers[i].getX(), layers[i].getY());
+		}
+		compositor.endComposite();
+		
+		for(int i = 0; i < layers.length; i++) layers[i].onComposited();
+	}
+	
+	/**
+	 * Hands the layers as they are now over to be composited by another thread, while the thread updating the system carries on with the next update (see
+	 * Application.setPipelined). Only what each layer has changed since the last published frame is copied into its published pixels, and from then on
+	 * {@code compositeTo} composites the last published frame rather than the layers themselves.
+	 * <br /><br />
+	 * This must be called by the thread that updates the system, between updates, and never while {@code compositeTo} is running on another thread. Every
+	 * published frame should be composited before the next is published, since the damage of a frame is only kept until it's composited
+	 */
+	public void publishFrame() {
+		final GuiLayer[] layers = guiStack;
+		if(publishedLayers.length < layers.length) {
+			publishedLayers = new Bitmap[layers.length * 2];
+			publishedPositions = new int[layers.length * 4];
+		}
+		
+		for(int i = 0; i < layers.length; i++) {
+			publishedLayers[i] = layers[i].publish(publishedDamage);
+			publishedPositions[i * 2] = layers[i].getX();
+			publishedPositions[(i * 2) + 1] = layers[i].getY();
+		}
+		// Anything left over from a larger stack is let go of, so a removed layer's pixels aren't kept around
+		for(int i = layers.length; i < publishedLayerCount; i++) publishedLayers[i] = null;
+		publishedLayerCount = layers.length;
+		
+		publishedDamage.add(removedLayerDamage);
+		removedLayerDamage.clear();
+		publishing = true;
+	}
+	
+	/**
+	 * Goes back to compositing the layers themselves, rather than the last published frame. Any damage published but never composited is kept for the next
+	 * composite. Like {@code publishFrame}, this must never be called while {@code compositeTo} is running on another thread
+	 */
+	public void stopPublishing() {
+		if(!publishing) return;
+		
+		publishing = false;
+		removedLayerDamage.add(publishedDamage);
+		publishedDamage.clear();
+		for(int i = 0; i < publishedLayerCount; i++) publishedLayers[i] = null;
+		publishedLayerCount = 0;
+		
+		final GuiLayer[] layers = guiStack;
+		for(int i = 0; i < layers.length; i++) layers[i].discardPublishedPixels();
+	}
+	
+	/** Whether {@code compositeTo} composites the last published frame (see {@code publishFrame}), rather than the layers themselves */
+	public boolean isPublishing() { return publishing; }
+	
+	// The layers were already treated as composited when they were published, so only the published copies are touched here - never the layers themselves
+	private void compositePublishedFrameTo(Compositor compositor) {
+		compositor.addDamage(publishedDamage);
+		publishedDamage.clear();
+		
+		if(compositor.beginComposite(this)) {
+			for(int i = 0; i < publishedLayerCount; i++) compositor.composite(publishedLayers[i], publishedPositions[i * 2], publishedPositions[(i * 2) + 1]);
+		}
+		compositor.endComposite();
+	}
+	
+	// Updates a single independent layer on the pool. Each layer keeps its task, which is reinitialised and reused by every update
+	static final class LayerUpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final GuiSystem system;
+		private final GuiLayer layer;
+		private float sTimeDelay;
+		
+		private LayerUpdateTask(GuiSystem system, GuiLayer layer) {
+			this.system = system;
+			this.layer = layer;
+		}
+		
+		@Override
+		protected void compute() {
+			layer.updatingInParallel = true;
+			try {
+				system.updateLayer(layer, sTimeDelay);
+			} finally {
+				layer.updatingInParallel = false;
 			}
 		}
 	}
 	
+	// Starts every layer's task from inside the pool, so that they are spread across its threads (and stolen between them) rather than queued one at a time
+	private static final class ParallelUpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private LayerUpdateTask[] tasks;
+		
+		@Override
+		protected void compute() { invokeAll(tasks); }
+	}
+	
+	// An addition or removal waiting to be made (which GuiLayerGroup queues its changes of children as too)
+	static final class PendingChange {
+		final GuiLayer layer;
+		final boolean isAddition;
+		
+		PendingChange(GuiLayer layer, boolean isAddition) {
+			this.layer = layer;
+			this.isAddition = isAddition;
+		}
+	}
+	
 }
@@ -0,0 +1,177 @@
+package com.macleod.engine.graphics.gui;
+
+/**
+ * The LayerGrid is a spatial index of the layers in a GuiSystem, so that the layers under the cursor can be found without visiting every layer. The screen is
+ * split into square cells, and each cell keeps a list of the layers overlapping it - so finding the layers at a point only needs to look at the layers in a
+ * single cell.
+ * <br /><br />
+ * The grid grows to fit the layers given to it, up to {@code MAX_CELLS_PER_AXIS} cells in each direction. Anything beyond that (or at a negative position) is
+ * kept in the cells at the edge of the grid, which only makes those cells slower to search - never incorrect. Layers that aren't hit tested (see
+ * GuiLayer.setHitTested) are kept in a separate list that is included in every search.
+ * <br /><br />
+ * Every list is kept in stack order (by GuiLayer.stackIndex), from the bottom of the stack to the top
+ */
+final class LayerGrid {
+
+	static final int CELL_SIZE = 64;
+	static final int MAX_CELLS_PER_AXIS = 256;
+
+	private int columns = 0, rows = 0;
+	private GuiLayer[][] cells = new GuiLayer[0][];
+	private int[] cellCounts = new int[0];
+
+	private GuiLayer[] everywhereLayers = new GuiLayer[4];
+	private int everywhereCount = 0;
+
+	void insert(GuiLayer layer) {
+		if(!layer.isHitTested()) {
+			everywhereLayers = insertInStackOrder(everywhereLayers, everywhereCount, layer);
+			everywhereCount++;
+			layer.isInGrid = true;
+			layer.isInGridEverywhere = true;
+			return;
+		}
+
+		final int minColumn = cellFor(layer.getX()), minRow = cellFor(layer.getY());
+		final int maxColumn = cellFor(layer.getX() + layer.width - 1), maxRow = cellFor(layer.getY() + layer.height - 1);
+		ensureSize(maxColumn + 1, maxRow + 1);
+
+		for(int row = minRow; row <= maxRow; row++) {
+			for(int column = minColumn; column <= maxColumn; column++) {
+				final int cellIndex = column + (row * columns);
+				cells[cellIndex] = insertInStackOrder(cells[cellIndex], cellCounts[cellIndex], layer);
+				cellCounts[cellIndex]++;
+			}
+		}
+
+		layer.isInGrid = true;
+		layer.isInGridEverywhere = false;
+		layer.gridMinColumn = minColumn;
+		layer.gridMinRow = minRow;
+		layer.gridMaxColumn = maxColumn;
+		layer.gridMaxRow = maxRow;
+	}
+
+	void remove(GuiLayer layer) {
+		if(!layer.isInGrid) return;
+		layer.isInGrid = false;
+
+		if(layer.isInGridEverywhere) {
+			everywhereCount = removeFrom(everywhereLayers, everywhereCount, layer);
+			return;
+		}
+
+		for(int row = layer.gridMinRow; row <= layer.gridMaxRow; row++) {
+			for(int column = layer.gridMinColumn; column <= layer.gridMaxColumn; column++) {
+				final int cellIndex = column + (row * columns);
+				cellCounts[cellIndex] = removeFrom(cells[cellIndex], cellCounts[cellIndex], layer);
+			}
+		}
+	}
+
+	/** Moves the layer to the right cells after its position (or whether it is hit tested) has changed */
+	void update(GuiLayer layer) {
+		if(layer.isInGrid && (layer.isInGridEverywhere == !layer.isHitTested())) {
+			// Most movements are small enough that the layer stays in the same cells
+			if(layer.isInGridEverywhere) return;
+			if((cellFor(layer.getX()) == layer.gridMinColumn) && (cellFor(layer.getY()) == layer.gridMinRow)
+					&& (cellFor(layer.getX() + layer.width - 1) == layer.gridMaxColumn) && (cellFor(layer.getY() + layer.height - 1) == layer.gridMaxRow)) {
+				return;
+			}
+		}
+
+		remove(layer);
+		insert(layer);
+	}
+
+	/**
+	 * Fills the given array with every layer that is at the given point (or isn't hit tested), from the bottom of the stack to the top. The array must have
+	 * space for every layer in the grid.
+	 *
+	 * @return
+	 * 		The number of layers put in the array
+	 */
+	int collectLayersAt(int x, int y, GuiLayer[] layersOut) {
+		final int column = cellFor(x), row = cellFor(y);
+
+		GuiLayer[] cell = null;
+		int cellCount = 0;
+		if((column < columns) && (row < rows)) {
+			cell = cells[column + (row * columns)];
+			cellCount = cellCounts[column + (row * columns)];
+		}
+
+		// Both lists are in stack order, so they are merged rather than sorted
+		int count = 0, cellIndex = 0, everywhereIndex = 0;
+		while((cellIndex < cellCount) || (everywhereIndex < everywhereCount)) {
+			if((everywhereIndex >= everywhereCount) || ((cellIndex < cellCount) && (cell[cellIndex].stackIndex < everywhereLayers[everywhereIndex].stackIndex))) {
+				final GuiLayer layer = cell[cellIndex++];
+				if((x >= layer.getX()) && (y >= layer.getY()) && (x < (layer.getX() + layer.width)) && (y < (layer.getY() + layer.height))) {
+					layersOut[count++] = layer;
+				}
+			} else {
+				layersOut[count++] = everywhereLayers[everywhereIndex++];
+			}
+		}
+
+		return count;
+	}
+
+	private static int cellFor(int coordinate) {
+		final int cell = Math.floorDiv(coordinate, CELL_SIZE);
+		if(cell < 0) return 0;
+		if(cell >= MAX_CELLS_PER_AXIS) return (MAX_CELLS_PER_AXIS - 1);
+		return cell;
+	}
+
+	private void ensureSize(int requiredColumns, int requiredRows) {
+		if((requiredColumns <= columns) && (requiredRows <= rows)) return;
+
+		final int newColumns = Math.max(columns, requiredColumns), newRows = Math.max(rows, requiredRows);
+		final GuiLayer[][] newCells = new GuiLayer[newColumns * newRows][];
+		final int[] newCellCounts = new int[newColumns * newRows];
+
+		// Cells are found by their position, so the existing cells keep their contents - they just move to their new index. The list of each new cell is only
+		// created once a layer is put in it
+		for(int row = 0; row < rows; row++) {
+			for(int column = 0; column < columns; column++) {
+				newCells[column + (row * newColumns)] = cells[column + (row * columns)];
+				newCellCounts[column + (row * newColumns)] = cellCounts[column + (row * columns)];
+			}
+		}
+		columns = newColumns;
+		rows = newRows;
+		cells = newCells;
+		cellCounts = newCellCounts;
+	}
+
+	private static GuiLayer[] insertInStackOrder(GuiLayer[] list, int count, GuiLayer layer) {
+		if(list == null) {
+			list = new GuiLayer[4];
+		} else if(count == list.length) {
+			final GuiLayer[] grownList = new GuiLayer[list.length * 2];
+			System.arraycopy(list, 0, grownList, 0, count);
+			list = grownList;
+		}
+
+		// New layers go on top of the stack, so searching from the top usually finds the position straight away
+		int position = count;
+		while((position > 0) && (list[position - 1].stackIndex > layer.stackIndex)) position--;
+
+		System.arraycopy(list, position, list, position + 1, count - position);
+		list[position] = layer;
+		return list;
+	}
+
+	private static int removeFrom(GuiLayer[] list, int count, GuiLayer layer) {
+		for(int i = 0; i < count; i++) {
+			if(list[i] == layer) {
+				System.arraycopy(list, i + 1, list, i, count - i - 1);
+				list[count - 1] = null;
+				return (count - 1);
+			}
+		}
+		return count;
+	}
+
+}
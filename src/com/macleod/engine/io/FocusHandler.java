@@ -17,22 +17,12 @@ public class FocusHandler extends FocusAdapter {
 	
 	@Override
     public void focusGained(FocusEvent e) {
-		if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent focusGainedEvent = new GuiEvent(GuiEvent.EventType.FOCUS_GAINED);
-				application.getGuiSystem().recieveEvent(focusGainedEvent);
-			}
-		}
+		if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.FOCUS_GAINED, -1, -1, -1, -1);
 	}
 
 	@Override
 	public void focusLost(FocusEvent e) {
-		if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent focusLostEvent = new GuiEvent(GuiEvent.EventType.FOCUS_LOST);
-				application.getGuiSystem().recieveEvent(focusLostEvent);
-			}
-		}
+		if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.FOCUS_LOST, -1, -1, -1, -1);
 	}
 	
 }
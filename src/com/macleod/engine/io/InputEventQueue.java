@@ -0,0 +1,173 @@
+package com.macleod.engine.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.macleod.engine.Log;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/**
+ * The InputEventQueue carries input events from the threads that produce them (e.g. the AWT event thread, via the input handlers) to the Application thread,
+ * which hands them to its GuiSystem at a well defined point in each update. This means GuiLayers only ever receive events on the same thread that updates and
+ * renders them.
+ * <br /><br />
+ * The queue is a fixed size ring of GuiEvents that are reused for every event published, so publishing and draining never allocate. Any number of threads may
+ * publish at once without locking, but only a single thread (the Application thread) may drain the queue.
+ * <br /><br />
+ * When a number of cursor movements are waiting in a row, only the last of them is delivered - the layers only care where the cursor ended up. If the queue
+ * fills up (because the Application thread isn't draining it quickly enough) then the OverflowPolicy decides what happens to any further events
+ */
+public class InputEventQueue {
+
+	public enum OverflowPolicy {
+		/** Events published while the queue is full are thrown away (and counted, see {@code getDroppedEventCount}) */
+		DROP,
+		/**
+		 * Threads publishing while the queue is full wait until there is space. Cursor movements are always dropped instead, since a later movement will
+		 * replace them anyway. Only use this while the queue is being drained - otherwise the publishing thread (e.g. the AWT event thread) will wait forever
+		 */
+		BLOCK;
+	}
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final GuiEvent[] events;
+	// Each slot has a sequence number, which is how the producers and the consumer agree on who currently owns the slot without locking (the slot at index i
+	// is free for the event at position p when its sequence is p, and holds that event ready to be drained when its sequence is p + 1)
+	private final AtomicLongArray sequences;
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong(0);
+	// Only the draining thread reads or writes the head, so it doesn't need to be atomic
+	private long head = 0;
+
+	private volatile OverflowPolicy overflowPolicy;
+
+	private final AtomicLong droppedEventCount = new AtomicLong(0);
+	private final AtomicLong coalescedEventCount = new AtomicLong(0);
+
+	public InputEventQueue() { this(DEFAULT_CAPACITY, OverflowPolicy.DROP); }
+
+	/** The capacity is rounded up to the next power of two */
+	public InputEventQueue(int capacity, OverflowPolicy overflowPolicy) {
+		if(capacity <= 0) {
+			final IllegalArgumentException exception = new IllegalArgumentException("An InputEventQueue must have a positive capacity. Was given " + capacity);
+			Log.error("An attempt was made to create an InputEventQueue with an invalid capacity", exception);
+			throw exception;
+		}
+
+		final int roundedCapacity = ((capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+		mask = roundedCapacity - 1;
+
+		events = new GuiEvent[roundedCapacity];
+		sequences = new AtomicLongArray(roundedCapacity);
+		for(int i = 0; i < roundedCapacity; i++) {
+			events[i] = new GuiEvent(GuiEvent.EventType.FOCUS_LOST);
+			sequences.set(i, i);
+		}
+
+		setOverflowPolicy(overflowPolicy);
+	}
+
+	public final void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		assert (overflowPolicy != null) : "Cannot give an InputEventQueue a null OverflowPolicy";
+		if(overflowPolicy != null) this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Adds an event to the back of the queue. This is safe to call from any thread.
+	 *
+	 * @return
+	 * 		Whether the event was added to the queue. If not, the queue was full and the event has been dropped
+	 */
+	public boolean publish(GuiEvent.EventType typeOfEvent, int keycode, int mouseButton, double mouseX, double mouseY) {
+		return publish(typeOfEvent, keycode, mouseButton, mouseX, mouseY, 0);
+	}
+	
+	/** The same as the other {@code publish}, but also giving the rotation of the mouse wheel (see GuiEvent.getWheelRotation) */
+	public boolean publish(GuiEvent.EventType typeOfEvent, int keycode, int mouseButton, double mouseX, double mouseY, double wheelRotation) {
+		assert (typeOfEvent != null) : "Cannot publish an event with a null event type";
+		if(typeOfEvent == null) return false;
+
+		long position;
+		while(true) {
+			position = tail.get();
+			final long difference = sequences.get((int) position & mask) - position;
+
+			if(difference == 0) {
+				// The slot is free - claim it (unless another producer got there first, in which case we try again with the next position)
+				if(tail.compareAndSet(position, position + 1)) break;
+			} else if(difference < 0) {
+				// The slot still holds an event from the previous time around the ring, which means the queue is full. When waiting, we yield rather than spin so
+				// that the draining thread is given the chance to run (even on a single core)
+				if((overflowPolicy == OverflowPolicy.DROP) || (typeOfEvent == GuiEvent.EventType.MOUSE_CURSOR_MOVED)) {
+					droppedEventCount.incrementAndGet();
+					return false;
+				}
+				Thread.yield();
+			}
+		}
+
+		final int index = (int) position & mask;
+		events[index].set(typeOfEvent, keycode, mouseButton, mouseX, mouseY, wheelRotation);
+		// Writing the sequence publishes the event to the draining thread (along with the writes to the event above)
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * Hands every event currently in the queue to the given GuiSystem, in the order they were published. If the GuiSystem is null, the events are thrown away.
+	 * This must only ever be called from a single thread at a time.
+	 *
+	 * @return
+	 * 		The number of events handed to the GuiSystem
+	 */
+	public int drainTo(GuiSystem guiSystem) { return drainTo(null, guiSystem); }
+	
+	/**
+	 * The same as the other {@code drainTo}, but every event is first recorded by the given InputState (if it isn't null). Any event the InputState reports as
+	 * carrying no new information (e.g. a key press repeated by the operating system while the key is held) isn't handed to the GuiSystem
+	 */
+	public int drainTo(InputState inputState, GuiSystem guiSystem) {
+		int numberOfEventsDrained = 0;
+
+		while(true) {
+			final int index = (int) head & mask;
+			if(sequences.get(index) != (head + 1)) break;
+
+			final GuiEvent event = events[index];
+			if((event.getEventType() != GuiEvent.EventType.MOUSE_CURSOR_MOVED) || !isCursorMovementNext(head + 1)) {
+				if((inputState == null) || inputState.recordEvent(event)) {
+					if(guiSystem != null) guiSystem.recieveEvent(event);
+					numberOfEventsDrained++;
+				} else if(guiSystem != null) {
+					// The event wasn't passed on, but may still have changed the InputState - so a recording needs it to rebuild the InputState exactly
+					final InputRecorder recorder = guiSystem.getInputRecorder();
+					if(recorder != null) recorder.recordStateOnly(event, guiSystem.getTickCount());
+				}
+			} else {
+				coalescedEventCount.incrementAndGet();
+			}
+
+			// Hands the slot back to the producers for the next time around the ring
+			sequences.lazySet(index, head + events.length);
+			head++;
+		}
+
+		return numberOfEventsDrained;
+	}
+
+	private boolean isCursorMovementNext(long position) {
+		final int index = (int) position & mask;
+		return ((sequences.get(index) == (position + 1)) && (events[index].getEventType() == GuiEvent.EventType.MOUSE_CURSOR_MOVED));
+	}
+
+	public final int getCapacity() { return events.length; }
+	public final OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+	/** The number of events that have been thrown away because the queue was full */
+	public final long getDroppedEventCount() { return droppedEventCount.get(); }
+	/** The number of cursor movements that were never delivered because a later cursor movement was already waiting behind them */
+	public final long getCoalescedEventCount() { return coalescedEventCount.get(); }
+
+}
@@ -0,0 +1,46 @@
+package com.macleod.engine.io;
+
+/**
+ * The format shared by InputRecorder and InputReplayer.
+ * <br /><br />
+ * An input log starts with a header (the magic number and version, as little-endian ints), followed by a sequence of records. Each record starts with a
+ * single byte: the low bits give its kind (the end of the log, a gap where events were lost, or an event of a particular EventType) and the high bits are
+ * flags describing how the event's fields were written (and whether it was only recorded by the InputState).
+ * <br /><br />
+ * Every event holds the ticks and nanoseconds since the event before it (the recorder reads the clock once per tick, so events of the same tick share a time),
+ * the keycode and mouse button, the cursor position and (only if it isn't zero) the wheel rotation. A cursor position that is a whole number (which it nearly
+ * always is) is written as the difference from the last whole cursor position, while anything else is written as the exact bits of the double. All varints
+ * are written 7 bits at a time, lowest first, and anything that could be negative is zigzag encoded first - so most events only take 6 to 10 bytes
+ */
+final class InputLogCodec {
+
+	// "JGEI" - so that anything that isn't an input log is rejected straight away
+	static final int MAGIC = 0x4A474549;
+	static final int VERSION = 1;
+
+	/** The end of the log, followed by the ticks since the last event (so that ticks after the last event are still replayed) */
+	static final int RECORD_END = 0;
+	/** A gap where events were lost because the recorder fell behind, followed by the number of events lost */
+	static final int RECORD_GAP = 1;
+	/** Any record from this kind up is an event, of the EventType with the ordinal {@code kind - RECORD_FIRST_EVENT} */
+	static final int RECORD_FIRST_EVENT = 2;
+
+	static final int KIND_MASK = 0x1f;
+	static final int FLAG_RAW_CURSOR = 0x20;
+	static final int FLAG_WHEEL = 0x40;
+	/** The event only changed the InputState - it was never given to the GuiSystem (e.g. the release of a mouse button that wasn't down) */
+	static final int FLAG_STATE_ONLY = 0x80;
+
+	// The type byte, two varints of up to 10 bytes for the deltas, two of up to 5 bytes for the keycode and button, two of up to 10 bytes for the cursor and
+	// the raw bits of the wheel rotation
+	static final int MAX_RECORD_SIZE = 1 + 10 + 10 + 5 + 5 + 10 + 10 + 8;
+
+	static long toZigZag(long value) { return ((value << 1) ^ (value >> 63)); }
+	static long fromZigZag(long value) { return ((value >>> 1) ^ -(value & 1)); }
+
+	/** Whether the value can be written as a whole number without changing a single bit of it when read back (so not -0.0, NaN or anything huge) */
+	static boolean isWholeNumber(double value) {
+		return ((Math.abs(value) < 0x1p52) && (Double.doubleToRawLongBits((double) (long) value) == Double.doubleToRawLongBits(value)));
+	}
+
+}
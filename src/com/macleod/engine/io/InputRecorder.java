@@ -0,0 +1,352 @@
+package com.macleod.engine.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.macleod.engine.Log;
+import com.macleod.engine.graphics.gui.GuiEvent;
+
+/**
+ * An InputRecorder records every GuiEvent given to a GuiSystem (see {@code GuiSystem.setInputRecorder}), along with the tick it arrived in and when, into a
+ * compact binary log (see InputLogCodec for the format). Events the InputState took in without passing on are recorded too, since they can still change what
+ * the layers poll. The log can be replayed into any GuiSystem by an InputReplayer - so with fixed tick lengths a session can be reproduced exactly, without a
+ * window.
+ * <br /><br />
+ * Recording an event only encodes it into the current chunk - one of a fixed number of reused byte arrays - so it never allocates or waits. The clock is only
+ * read once per tick (as the GuiSystem finishes each update), so every event in a tick is recorded with the time its tick started. A chunk is handed to a
+ * background thread to be written once it's full (or, checked every tick, once it has held events for a second - so that little is lost if the program dies).
+ * If every chunk is still waiting to be written, events are dropped (and counted) rather than holding up the GuiSystem, and the log records the gap.
+ * <br /><br />
+ * Events must only be recorded from a single thread - the thread giving the GuiSystem its events, which should also be the one to close the recorder
+ */
+public final class InputRecorder implements Closeable {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	public static final int DEFAULT_NUMBER_OF_CHUNKS = 8;
+
+	private static final long NS_HANDOFF_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private final String destination;
+	private final OutputStream out;
+
+	// Chunks cycle from free, to being filled (the current chunk), to pending, and back to free once written. There are never more than numberOfChunks of
+	// them in the pending ring, so there's always room for the end of recording marker as well
+	private final ChunkRing freeChunks;
+	private final ChunkRing pendingChunks;
+	private final Chunk endOfRecording = new Chunk(0);
+	private final Thread writerThread;
+
+	// These are only used by the recording thread
+	private Chunk chunk;
+	private long nsChunkStarted;
+	private final long nsStart = System.nanoTime();
+	private long previousTick = 0, nsPrevious = 0;
+	private long previousCursorX = 0, previousCursorY = 0;
+	private long tickCount = 0;
+	private long nsTick = 0;
+	private long unreportedLostEventCount = 0;
+	private long recordedEventCount = 0, lostEventCount = 0;
+
+	private volatile boolean closed = false;
+	private volatile IOException failure;
+
+	// The counts above, published once per tick (rather than written to a volatile field on every event) for any thread to read
+	private volatile long publishedRecordedEventCount = 0;
+	private volatile long publishedLostEventCount = 0;
+	private final AtomicLong writtenByteCount = new AtomicLong(0);
+
+	public InputRecorder(Path file) throws IOException { this(openFile(file), file.toString(), DEFAULT_CHUNK_SIZE, DEFAULT_NUMBER_OF_CHUNKS); }
+
+	/** Records to the given stream (e.g. in memory, to replay straight away), which is closed when the recorder is */
+	public InputRecorder(OutputStream out) throws IOException { this(out, "a stream", DEFAULT_CHUNK_SIZE, DEFAULT_NUMBER_OF_CHUNKS); }
+
+	public InputRecorder(OutputStream out, int chunkSize, int numberOfChunks) throws IOException { this(out, "a stream", chunkSize, numberOfChunks); }
+
+	private InputRecorder(OutputStream out, String destination, int chunkSize, int numberOfChunks) throws IOException {
+		if((out == null) || (chunkSize < (4 * InputLogCodec.MAX_RECORD_SIZE)) || (numberOfChunks <= 0)) {
+			final IllegalArgumentException exception = new IllegalArgumentException("An InputRecorder needs a stream, chunks of at least "
+					+ (4 * InputLogCodec.MAX_RECORD_SIZE) + " bytes and a positive number of chunks. Was given " + out + ", " + chunkSize + " and "
+					+ numberOfChunks);
+			Log.error("An attempt was made to create an InputRecorder with invalid arguments", exception);
+			throw exception;
+		}
+
+		this.out = out;
+		this.destination = destination;
+
+		freeChunks = new ChunkRing(numberOfChunks);
+		pendingChunks = new ChunkRing(numberOfChunks + 1);
+		for(int i = 0; i < numberOfChunks; i++) freeChunks.add(new Chunk(chunkSize));
+
+		final Chunk header = new Chunk(8);
+		header.writeInt(InputLogCodec.MAGIC);
+		header.writeInt(InputLogCodec.VERSION);
+		try { out.write(header.bytes, 0, header.size);
+		} catch(IOException e) {
+			out.close();
+			throw e;
+		}
+
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "Input recorder");
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		Log.info("Have started recording input to {}", destination);
+	}
+
+	private static OutputStream openFile(Path file) throws IOException {
+		assert (file != null) : "Cannot record input to a null file";
+
+		final Path directory = file.toAbsolutePath().getParent();
+		if(directory != null) Files.createDirectories(directory);
+		return new BufferedOutputStream(Files.newOutputStream(file));
+	}
+
+	/** Records an event given to the GuiSystem during the given tick (the number of updates the GuiSystem had finished when it was given the event) */
+	public void record(GuiEvent event, long tick) { record(event, tick, false); }
+
+	/**
+	 * Records an event that the InputState took in but didn't pass on to the GuiSystem (see {@code InputState.recordEvent}). These still change the InputState
+	 * (e.g. a mouse button released while it wasn't down still moves the cursor), so are needed to rebuild it exactly
+	 */
+	public void recordStateOnly(GuiEvent event, long tick) { record(event, tick, true); }
+
+	private void record(GuiEvent event, long tick, boolean stateOnly) {
+		assert (event != null) : "Cannot record a null event";
+		if((event == null) || closed || (failure != null)) return;
+
+		final long nsNow = nsTick;
+		if(!claimSpace(nsNow)) {
+			lostEventCount++;
+			unreportedLostEventCount++;
+			return;
+		}
+
+		final Chunk current = chunk;
+		final double cursorX = event.getRelativeCursorX(), cursorY = event.getRelativeCursorY();
+		final boolean wholeCursor = (InputLogCodec.isWholeNumber(cursorX) && InputLogCodec.isWholeNumber(cursorY));
+		final long wheelBits = Double.doubleToRawLongBits(event.getWheelRotation());
+
+		int type = InputLogCodec.RECORD_FIRST_EVENT + event.getEventType().ordinal();
+		if(!wholeCursor) type |= InputLogCodec.FLAG_RAW_CURSOR;
+		if(wheelBits != 0) type |= InputLogCodec.FLAG_WHEEL;
+		if(stateOnly) type |= InputLogCodec.FLAG_STATE_ONLY;
+
+		current.writeByte(type);
+		current.writeVarLong(InputLogCodec.toZigZag(tick - previousTick));
+		current.writeVarLong(InputLogCodec.toZigZag(nsNow - nsPrevious));
+		current.writeVarLong(InputLogCodec.toZigZag(event.getKeyCode()));
+		current.writeVarLong(InputLogCodec.toZigZag(event.getMouseButton()));
+		if(wholeCursor) {
+			current.writeVarLong(InputLogCodec.toZigZag((long) cursorX - previousCursorX));
+			current.writeVarLong(InputLogCodec.toZigZag((long) cursorY - previousCursorY));
+			previousCursorX = (long) cursorX;
+			previousCursorY = (long) cursorY;
+		} else {
+			current.writeLong(Double.doubleToRawLongBits(cursorX));
+			current.writeLong(Double.doubleToRawLongBits(cursorY));
+		}
+		if(wheelBits != 0) current.writeLong(wheelBits);
+
+		previousTick = tick;
+		nsPrevious = nsNow;
+		tickCount = Math.max(tickCount, tick);
+		recordedEventCount++;
+	}
+
+	/**
+	 * Notes that the GuiSystem has finished the given number of ticks, so that any ticks after the last event are replayed too. The GuiSystem calls this after
+	 * every update. This is also when the clock is read for the events of the next tick, and when a chunk that has held events for too long is handed off - so
+	 * that events aren't held back for however long it takes for the next one to arrive
+	 */
+	public void recordTickCount(long tickCount) {
+		this.tickCount = Math.max(this.tickCount, tickCount);
+		if(closed) return;
+
+		nsTick = System.nanoTime() - nsStart;
+		if((chunk != null) && (chunk.size > 0) && ((nsTick - nsChunkStarted) >= NS_HANDOFF_INTERVAL)) handOff();
+
+		publishedRecordedEventCount = recordedEventCount;
+		publishedLostEventCount = lostEventCount;
+	}
+
+	// Makes sure the current chunk has room for another record (and for a gap record first, if events have been lost), without ever waiting
+	private boolean claimSpace(long nsNow) {
+		if((chunk != null) && ((chunk.size + (2 * InputLogCodec.MAX_RECORD_SIZE)) > chunk.bytes.length)) handOff();
+		if(chunk == null) {
+			chunk = freeChunks.poll();
+			if(chunk == null) return false;
+			nsChunkStarted = nsNow;
+		}
+
+		if(unreportedLostEventCount > 0) {
+			chunk.writeByte(InputLogCodec.RECORD_GAP);
+			chunk.writeVarLong(unreportedLostEventCount);
+			unreportedLostEventCount = 0;
+		}
+		return true;
+	}
+
+	private void handOff() {
+		pendingChunks.add(chunk);
+		chunk = null;
+	}
+
+	private void writeLoop() {
+		while(true) {
+			final Chunk pending = pendingChunks.take();
+			if(pending == endOfRecording) break;
+
+			if(failure == null) {
+				try {
+					out.write(pending.bytes, 0, pending.size);
+					out.flush();
+					writtenByteCount.addAndGet(pending.size);
+				} catch(IOException e) {
+					Log.error("Failed to write to the input log " + destination + ". Nothing more will be recorded", e);
+					failure = e;
+				}
+			}
+
+			pending.size = 0;
+			freeChunks.add(pending);
+		}
+
+		try { out.close();
+		} catch(IOException e) {
+			Log.error("Failed to close the input log " + destination, e);
+			if(failure == null) failure = e;
+		}
+	}
+
+	/**
+	 * Stops recording, writes the end of the log, and waits for everything to be written and the stream to be closed. This must be called from the recording
+	 * thread (or once nothing else is recording). Closing a recorder that is already closed does nothing.
+	 *
+	 * @throws IOException
+	 * 		If anything failed to be written to the log (including before it was closed)
+	 */
+	@Override
+	public void close() throws IOException {
+		if(!closed) {
+			closed = true;
+
+			// Unlike recording an event, the end of the log is worth waiting for a free chunk for
+			if((chunk != null) && ((chunk.size + (2 * InputLogCodec.MAX_RECORD_SIZE)) > chunk.bytes.length)) handOff();
+			if(chunk == null) chunk = freeChunks.take();
+			if(unreportedLostEventCount > 0) {
+				chunk.writeByte(InputLogCodec.RECORD_GAP);
+				chunk.writeVarLong(unreportedLostEventCount);
+				unreportedLostEventCount = 0;
+			}
+			chunk.writeByte(InputLogCodec.RECORD_END);
+			chunk.writeVarLong(Math.max(tickCount - previousTick, 0));
+			handOff();
+			pendingChunks.add(endOfRecording);
+			publishedRecordedEventCount = recordedEventCount;
+			publishedLostEventCount = lostEventCount;
+
+			boolean interrupted = false;
+			while(writerThread.isAlive()) {
+				try { writerThread.join();
+				} catch(InterruptedException e) { interrupted = true; }
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+		}
+
+		if(failure != null) throw new IOException("Failed to write the input log " + destination, failure);
+	}
+
+	public boolean isClosed() { return closed; }
+	/** Whether writing the log has failed. Once it has, nothing more is recorded */
+	public boolean hasFailed() { return (failure != null); }
+	/** The number of events recorded, as of the end of the last tick (or the recorder being closed) */
+	public long getRecordedEventCount() { return publishedRecordedEventCount; }
+	/** The number of events that were dropped because every chunk was still waiting to be written, as of the end of the last tick */
+	public long getLostEventCount() { return publishedLostEventCount; }
+	public long getWrittenByteCount() { return writtenByteCount.get(); }
+
+	/**
+	 * A fixed size queue of chunks between exactly one thread adding and one thread taking, which never locks or allocates (unlike an ArrayBlockingQueue,
+	 * whose lock allocates a node whenever the two threads contend for it). Each count is only written by its own side. A taker with nothing to take parks
+	 * until the adder unparks it
+	 */
+	private static final class ChunkRing {
+		private final Chunk[] chunks;
+		private volatile long addedCount = 0, takenCount = 0;
+		private volatile Thread parkedTaker;
+
+		private ChunkRing(int capacity) { chunks = new Chunk[capacity]; }
+
+		// The rings are sized so that they can never be full (see the chunk counts above)
+		private void add(Chunk chunk) {
+			final long added = addedCount;
+			if((added - takenCount) >= chunks.length) throw new IllegalStateException("An InputRecorder ring of " + chunks.length + " chunks overflowed");
+
+			chunks[(int) (added % chunks.length)] = chunk;
+			addedCount = added + 1;
+
+			final Thread taker = parkedTaker;
+			if(taker != null) LockSupport.unpark(taker);
+		}
+
+		private Chunk poll() {
+			final long taken = takenCount;
+			if(taken == addedCount) return null;
+
+			final int index = (int) (taken % chunks.length);
+			final Chunk chunk = chunks[index];
+			chunks[index] = null;
+			takenCount = taken + 1;
+			return chunk;
+		}
+
+		// The taker announces itself before checking one last time, so an adder either sees it to unpark, or added before the check
+		private Chunk take() {
+			Chunk chunk;
+			while((chunk = poll()) == null) {
+				parkedTaker = Thread.currentThread();
+				if(takenCount == addedCount) LockSupport.park(this);
+				parkedTaker = null;
+			}
+			return chunk;
+		}
+	}
+
+	private static final class Chunk {
+		private final byte[] bytes;
+		private int size = 0;
+
+		private Chunk(int capacity) { bytes = new byte[capacity]; }
+
+		private void writeByte(int value) { bytes[size++] = (byte) value; }
+
+		private void writeInt(int value) {
+			for(int i = 0; i < 4; i++, value >>>= 8) bytes[size++] = (byte) value;
+		}
+
+		private void writeLong(long value) {
+			for(int i = 0; i < 8; i++, value >>>= 8) bytes[size++] = (byte) value;
+		}
+
+		private void writeVarLong(long value) {
+			while((value & ~0x7fL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+	}
+
+}
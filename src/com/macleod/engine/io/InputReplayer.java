@@ -0,0 +1,232 @@
+package com.macleod.engine.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.macleod.engine.Log;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiSystem;
+import com.macleod.engine.loop.FramePacer;
+
+/**
+ * An InputReplayer gives a GuiSystem the events recorded by an InputRecorder, each in the same tick (and order) it was originally given them. Along with the
+ * same tick length, this reproduces the original session exactly - including the InputState, which is rebuilt from the events as they are replayed.
+ * <br /><br />
+ * {@code replay} drives a GuiSystem through every recorded tick on the calling thread, without a window - either in real time, or as fast as the updates
+ * allow (e.g. for load tests on a build server). {@code replayTick} replays a single tick instead, for anything driving its own loop.
+ * <br /><br />
+ * An InputReplayer must only be used from a single thread, but any number of them can replay at once (each into its own GuiSystem)
+ */
+public final class InputReplayer implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final GuiEvent.EventType[] EVENT_TYPES = GuiEvent.EventType.values();
+
+	private final InputStream in;
+	// The log is read through this buffer rather than a BufferedInputStream, since every event is read a byte at a time
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPosition = 0, bufferLimit = 0;
+
+	// The next event to be replayed, which has been read but not yet given to the GuiSystem
+	private final GuiEvent nextEvent = new GuiEvent(GuiEvent.EventType.FOCUS_LOST);
+	private boolean hasNextEvent = false, hasReadEvent = false, nextEventStateOnly = false;
+	private long nextEventTick = 0, nextEventNsTimestamp = 0;
+	private long previousCursorX = 0, previousCursorY = 0;
+
+	private long tick = 0;
+	// The number of ticks in the log, which is only known once its end has been read
+	private long endTick = -1;
+	private boolean truncated = false;
+
+	private long replayedEventCount = 0, lostEventCount = 0;
+	private long lastEventNsTimestamp = -1;
+
+	public InputReplayer(Path file) throws IOException { this(new BufferedInputStream(Files.newInputStream(file))); }
+
+	/** Replays the log in the given stream, which is closed when the replayer is */
+	public InputReplayer(InputStream in) throws IOException {
+		assert (in != null) : "Cannot replay input from a null stream";
+		this.in = in;
+
+		try {
+			final int magic = readInt(), version = readInt();
+			if((magic != InputLogCodec.MAGIC) || (version != InputLogCodec.VERSION)) {
+				final IOException exception = new IOException("This is not an input log this InputReplayer can read (found magic number "
+						+ Integer.toHexString(magic) + " and version " + version + ")");
+				Log.error("An attempt was made to replay something that isn't a supported input log", exception);
+				throw exception;
+			}
+		} catch(IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Replays every remaining tick of the log into the given GuiSystem on the calling thread, updating the system once per tick exactly as the Application
+	 * would (though nothing is rendered). If the system has no InputState, it is given one.
+	 *
+	 * @param sTimeDelay
+	 * 		The time each update is given - this should match the fixed tick length the log was recorded with
+	 * @param realTime
+	 * 		Whether to wait for each tick to come around (as it originally would have), rather than replaying every tick as fast as possible
+	 * @return
+	 * 		The number of ticks replayed
+	 */
+	public long replay(GuiSystem guiSystem, float sTimeDelay, boolean realTime) throws IOException {
+		assert (guiSystem != null) : "Cannot replay input into a null GuiSystem";
+		assert (sTimeDelay >= 0) : "Cannot replay input with a negative tick length. Was given " + sTimeDelay;
+
+		InputState inputState = guiSystem.getInputState();
+		if(inputState == null) {
+			inputState = new InputState();
+			guiSystem.setInputState(inputState);
+		}
+
+		final FramePacer pacer = realTime ? new FramePacer() : null;
+		final long nsPerTick = (long) (sTimeDelay * 1e9);
+		final long nsStart = System.nanoTime();
+		long ticksReplayed = 0;
+		while(hasMoreTicks()) {
+			if(pacer != null) pacer.waitUntil(nsStart + (ticksReplayed * nsPerTick));
+
+			guiSystem.applyPendingChanges();
+			inputState.beginTick();
+			replayTick(inputState, guiSystem);
+			guiSystem.prepareForRender();
+			guiSystem.update(sTimeDelay);
+			ticksReplayed++;
+		}
+		return ticksReplayed;
+	}
+
+	/**
+	 * Gives the GuiSystem every event recorded in the next tick, after first recording each in the InputState (if there is one). Events that the InputState
+	 * originally took in without passing on are only given to the InputState. The recorded events already include the held events, so
+	 * {@code InputState.dispatchHeldEvents} should not be called as well.
+	 *
+	 * @return
+	 * 		Whether there was another tick to replay
+	 */
+	public boolean replayTick(InputState inputState, GuiSystem guiSystem) throws IOException {
+		if(!hasMoreTicks()) return false;
+
+		while(hasNextEvent && (nextEventTick <= tick)) {
+			if(inputState != null) inputState.recordEvent(nextEvent);
+			if((guiSystem != null) && !nextEventStateOnly) guiSystem.recieveEvent(nextEvent);
+			lastEventNsTimestamp = nextEventNsTimestamp;
+			replayedEventCount++;
+
+			hasNextEvent = false;
+			readNextRecord();
+		}
+
+		tick++;
+		return true;
+	}
+
+	/** Whether there are any ticks left to replay. This may have to read ahead in the log to find out */
+	public boolean hasMoreTicks() throws IOException {
+		if(!hasNextEvent && (endTick < 0)) readNextRecord();
+		return (hasNextEvent || (tick < endTick));
+	}
+
+	// Reads records until the next event or the end of the log
+	private void readNextRecord() throws IOException {
+		try {
+			while(!hasNextEvent && (endTick < 0)) {
+				final int type = readByte();
+				final int kind = (type & InputLogCodec.KIND_MASK);
+
+				if(kind == InputLogCodec.RECORD_END) {
+					endTick = nextEventTick + readVarLong();
+				} else if(kind == InputLogCodec.RECORD_GAP) {
+					lostEventCount += readVarLong();
+				} else {
+					readEvent(type, kind - InputLogCodec.RECORD_FIRST_EVENT);
+				}
+			}
+		} catch(EOFException e) {
+			// Everything up to the end of what was written is still replayed, but no further than the tick of the last event
+			Log.info("The input log ends part way through, after {} events", replayedEventCount);
+			truncated = true;
+			hasNextEvent = false;
+			endTick = (hasReadEvent ? Math.max(tick, nextEventTick + 1) : tick);
+		}
+	}
+
+	private void readEvent(int type, int ordinal) throws IOException {
+		if(ordinal >= EVENT_TYPES.length) throw new IOException("Found a record of unknown kind " + (type & InputLogCodec.KIND_MASK));
+
+		final long eventTick = nextEventTick + InputLogCodec.fromZigZag(readVarLong());
+		final long eventNsTimestamp = nextEventNsTimestamp + InputLogCodec.fromZigZag(readVarLong());
+		final int keyCode = (int) InputLogCodec.fromZigZag(readVarLong());
+		final int mouseButton = (int) InputLogCodec.fromZigZag(readVarLong());
+
+		final double cursorX, cursorY;
+		if((type & InputLogCodec.FLAG_RAW_CURSOR) == 0) {
+			previousCursorX += InputLogCodec.fromZigZag(readVarLong());
+			previousCursorY += InputLogCodec.fromZigZag(readVarLong());
+			cursorX = previousCursorX;
+			cursorY = previousCursorY;
+		} else {
+			cursorX = Double.longBitsToDouble(readLong());
+			cursorY = Double.longBitsToDouble(readLong());
+		}
+		final double wheelRotation = ((type & InputLogCodec.FLAG_WHEEL) == 0) ? 0 : Double.longBitsToDouble(readLong());
+
+		nextEvent.set(EVENT_TYPES[ordinal], keyCode, mouseButton, cursorX, cursorY, wheelRotation);
+		nextEventTick = eventTick;
+		nextEventNsTimestamp = eventNsTimestamp;
+		nextEventStateOnly = ((type & InputLogCodec.FLAG_STATE_ONLY) != 0);
+		hasNextEvent = true;
+		hasReadEvent = true;
+	}
+
+	private int readByte() throws IOException {
+		if(bufferPosition == bufferLimit) {
+			final int numberRead = in.read(buffer, 0, buffer.length);
+			if(numberRead <= 0) throw new EOFException("The input log ended part way through a record");
+			bufferPosition = 0;
+			bufferLimit = numberRead;
+		}
+		return (buffer[bufferPosition++] & 0xff);
+	}
+
+	private int readInt() throws IOException { return (readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24)); }
+
+	private long readLong() throws IOException { return ((readInt() & 0xffffffffL) | ((long) readInt() << 32)); }
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			final int part = readByte();
+			value |= (long) (part & 0x7f) << shift;
+			if((part & 0x80) == 0) return value;
+		}
+		throw new IOException("Found a varint longer than 64 bits");
+	}
+
+	@Override
+	public void close() throws IOException { in.close(); }
+
+	/** The number of ticks replayed so far */
+	public long getTick() { return tick; }
+	/** The number of ticks in the whole log, or -1 if the end of the log hasn't been read yet */
+	public long getEndTick() { return endTick; }
+	public long getReplayedEventCount() { return replayedEventCount; }
+	/** The number of events the recorder had to drop (so won't be replayed) in the part of the log read so far */
+	public long getLostEventCount() { return lostEventCount; }
+	/** When the last event replayed was originally recorded, in nanoseconds since the recording started (or -1 before the first event) */
+	public long getLastEventNsTimestamp() { return lastEventNsTimestamp; }
+	/** Whether the log was cut short (e.g. the program recording it died), which is only known once the end of it has been read */
+	public boolean isTruncated() { return truncated; }
+	/** Whether the whole log has been replayed, with no events lost or missing */
+	public boolean isComplete() { return ((endTick >= 0) && (tick >= endTick) && !hasNextEvent && !truncated && (lostEventCount == 0)); }
+
+}
@@ -0,0 +1,205 @@
+package com.macleod.engine.io;
+
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/**
+ * The InputState is a snapshot of the keyboard and mouse that can be polled at any point during an update (e.g. "is the space bar down?") rather than having
+ * to follow every GuiEvent. It is built up by the Application thread as it drains its InputEventQueue, so it always matches the events the layers have been
+ * given.
+ * <br /><br />
+ * The state is double-buffered by update: {@code beginTick} keeps a copy of the state as it was at the end of the last update, so that presses and releases
+ * can be detected by comparing the two (see {@code wasKeyPressed} and {@code wasKeyReleased}). Keys and mouse buttons are stored as bits rather than in
+ * collections, so neither recording events nor polling allocates.
+ * <br /><br />
+ * The InputState must only be used from the Application thread
+ */
+public final class InputState {
+
+	/** Keycodes from 0 up to (but not including) this value are tracked. Any other keycodes are still passed on as events, but can't be polled */
+	public static final int NUMBER_OF_KEYS = 65536;
+	/** Mouse buttons from 0 up to (but not including) this value are tracked */
+	public static final int NUMBER_OF_MOUSE_BUTTONS = 64;
+
+	private final long[] keysDown = new long[NUMBER_OF_KEYS >>> 6];
+	private final long[] previousKeysDown = new long[NUMBER_OF_KEYS >>> 6];
+	// How many keys are down at the moment, so that generating held events (and starting each tick) can skip the key table entirely when nothing is down
+	private int numberOfKeysDown = 0;
+	private boolean hadKeysDown = false;
+
+	private long mouseButtonsDown = 0, previousMouseButtonsDown = 0;
+
+	private double cursorX = -1, cursorY = -1;
+	private double previousCursorX = -1, previousCursorY = -1;
+	private double wheelRotation = 0;
+
+	private boolean hasFocus = false;
+
+	// Reused for every held event, so generating them doesn't allocate (see the note on GuiEvent about not keeping hold of events)
+	private final GuiEvent heldEvent = new GuiEvent(GuiEvent.EventType.KEYBOARD_KEY_HELD);
+
+	/** Starts a new update - the current state becomes the previous state, and the wheel rotation is reset */
+	public void beginTick() {
+		if(hadKeysDown || (numberOfKeysDown > 0)) System.arraycopy(keysDown, 0, previousKeysDown, 0, keysDown.length);
+		hadKeysDown = (numberOfKeysDown > 0);
+
+		previousMouseButtonsDown = mouseButtonsDown;
+		previousCursorX = cursorX;
+		previousCursorY = cursorY;
+		wheelRotation = 0;
+	}
+
+	/**
+	 * Updates the state to include the given event.
+	 *
+	 * @return
+	 * 		Whether the event tells the layers anything new. A key or button press while it is already down (from the operating system repeating a held key) or
+	 * 		a release of something that isn't down are recorded as nothing new, as are any held events - those are generated by {@code dispatchHeldEvents}
+	 */
+	public boolean recordEvent(GuiEvent event) {
+		assert (event != null) : "An InputState cannot record a null event";
+		if(event == null) return false;
+
+		switch(event.getEventType()) {
+			case KEYBOARD_KEY_PRESSED: return setKeyDown(event.getKeyCode(), true);
+			case KEYBOARD_KEY_RELEASED: return setKeyDown(event.getKeyCode(), false);
+			case KEYBOARD_KEY_HELD: return false;
+
+			case MOUSE_BUTTON_PRESSED:
+				setCursor(event);
+				return setMouseButtonDown(event.getMouseButton(), true);
+			case MOUSE_BUTTON_RELEASED:
+				setCursor(event);
+				return setMouseButtonDown(event.getMouseButton(), false);
+			case MOUSE_BUTTON_HELD: return false;
+			case MOUSE_CURSOR_MOVED:
+				setCursor(event);
+				return true;
+			case MOUSE_WHEEL_MOVED:
+				setCursor(event);
+				wheelRotation += event.getWheelRotation();
+				return true;
+
+			case FOCUS_GAINED:
+				hasFocus = true;
+				return true;
+			case FOCUS_LOST:
+				// Once the window has lost focus we won't be told about keys or buttons being released, so we forget about them now rather than have them stuck
+				// down. No release events are sent for them
+				hasFocus = false;
+				releaseEverything();
+				return true;
+
+			default: return true;
+		}
+	}
+
+	/** Sends a single held event to the GuiSystem for every key and mouse button that is currently down. This is expected to be called once per update */
+	public void dispatchHeldEvents(GuiSystem guiSystem) {
+		if(guiSystem == null) return;
+
+		if(numberOfKeysDown > 0) {
+			for(int wordIndex = 0; wordIndex < keysDown.length; wordIndex++) {
+				long word = keysDown[wordIndex];
+				while(word != 0) {
+					final int keycode = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+					word &= (word - 1);
+
+					heldEvent.set(GuiEvent.EventType.KEYBOARD_KEY_HELD, keycode, -1, cursorX, cursorY);
+					guiSystem.recieveEvent(heldEvent);
+				}
+			}
+		}
+
+		long buttons = mouseButtonsDown;
+		while(buttons != 0) {
+			final int mouseButton = Long.numberOfTrailingZeros(buttons);
+			buttons &= (buttons - 1);
+
+			heldEvent.set(GuiEvent.EventType.MOUSE_BUTTON_HELD, -1, mouseButton, cursorX, cursorY);
+			guiSystem.recieveEvent(heldEvent);
+		}
+	}
+
+	private boolean setKeyDown(int keycode, boolean down) {
+		// Keys we can't track are always passed on, since we can't tell whether they are repeats
+		if((keycode < 0) || (keycode >= NUMBER_OF_KEYS)) return true;
+
+		final int wordIndex = keycode >>> 6;
+		final long bit = 1L << keycode;
+		if(((keysDown[wordIndex] & bit) != 0) == down) return false;
+
+		if(down) {
+			keysDown[wordIndex] |= bit;
+			numberOfKeysDown++;
+		} else {
+			keysDown[wordIndex] &= ~bit;
+			numberOfKeysDown--;
+		}
+		return true;
+	}
+
+	private boolean setMouseButtonDown(int mouseButton, boolean down) {
+		if((mouseButton < 0) || (mouseButton >= NUMBER_OF_MOUSE_BUTTONS)) return true;
+
+		final long bit = 1L << mouseButton;
+		if(((mouseButtonsDown & bit) != 0) == down) return false;
+
+		if(down) mouseButtonsDown |= bit;
+		else mouseButtonsDown &= ~bit;
+		return true;
+	}
+
+	private void setCursor(GuiEvent event) {
+		cursorX = event.getRelativeCursorX();
+		cursorY = event.getRelativeCursorY();
+	}
+
+	private void releaseEverything() {
+		if(numberOfKeysDown > 0) {
+			for(int i = 0; i < keysDown.length; i++) keysDown[i] = 0;
+			numberOfKeysDown = 0;
+		}
+		mouseButtonsDown = 0;
+	}
+
+	private static boolean isKeyInTable(long[] table, int keycode) {
+		if((keycode < 0) || (keycode >= NUMBER_OF_KEYS)) return false;
+		return ((table[keycode >>> 6] & (1L << keycode)) != 0);
+	}
+
+	private static boolean isButtonInMask(long mask, int mouseButton) {
+		if((mouseButton < 0) || (mouseButton >= NUMBER_OF_MOUSE_BUTTONS)) return false;
+		return ((mask & (1L << mouseButton)) != 0);
+	}
+
+	/** The keycode corresponds to the constants found in the java.awt.event.KeyEvent class */
+	public boolean isKeyDown(int keycode) { return isKeyInTable(keysDown, keycode); }
+	/** Whether the key went down since the last update (it is down now, but wasn't at the end of the last update) */
+	public boolean wasKeyPressed(int keycode) { return (isKeyInTable(keysDown, keycode) && !isKeyInTable(previousKeysDown, keycode)); }
+	/** Whether the key came up since the last update (it isn't down now, but was at the end of the last update) */
+	public boolean wasKeyReleased(int keycode) { return (!isKeyInTable(keysDown, keycode) && isKeyInTable(previousKeysDown, keycode)); }
+	public int getNumberOfKeysDown() { return numberOfKeysDown; }
+
+	/** The mouse button corresponds to the constants found in the java.awt.event.MouseEvent class */
+	public boolean isMouseButtonDown(int mouseButton) { return isButtonInMask(mouseButtonsDown, mouseButton); }
+	public boolean wasMouseButtonPressed(int mouseButton) {
+		return (isButtonInMask(mouseButtonsDown, mouseButton) && !isButtonInMask(previousMouseButtonsDown, mouseButton));
+	}
+	public boolean wasMouseButtonReleased(int mouseButton) {
+		return (!isButtonInMask(mouseButtonsDown, mouseButton) && isButtonInMask(previousMouseButtonsDown, mouseButton));
+	}
+
+	/** The cursor position is relative to the top-left of the entire program window. It is (-1, -1) until the cursor is first seen */
+	public double getCursorX() { return cursorX; }
+	public double getCursorY() { return cursorY; }
+	/** How far the cursor has moved since the last update */
+	public double getCursorDeltaX() { return (cursorX - previousCursorX); }
+	public double getCursorDeltaY() { return (cursorY - previousCursorY); }
+
+	/** The total rotation of the mouse wheel since the last update (see GuiEvent.getWheelRotation) */
+	public double getWheelRotation() { return wheelRotation; }
+
+	public boolean hasFocus() { return hasFocus; }
+
+}
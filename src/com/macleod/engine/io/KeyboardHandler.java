@@ -2,18 +2,19 @@ package com.macleod.engine.io;
 
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
 
 import com.macleod.engine.Application;
 import com.macleod.engine.graphics.gui.GuiEvent;
 
-//TODO: Must look at internal caching of key states for mouse button 'held'/'pressed' event distinction
+/**
+ * The KeyboardHandler passes key presses and releases on to the Application's input queue. Every press from the operating system is passed on (including the
+ * presses it repeats while a key is held) - the Application's InputState works out which of those are new presses, and generates the held events itself once
+ * per update
+ */
 public class KeyboardHandler extends KeyAdapter {
 
 	private final Application application;
 	
-	private ArrayList<Integer> keysBeingHeld = new ArrayList<Integer>(10);
-	
 	public KeyboardHandler(Application application) { 
 		assert (application != null) : "KeyboardHandler cannot handle events for a null Application";
 		this.application = application;
@@ -21,40 +22,12 @@ public class KeyboardHandler extends KeyAdapter {
 	
     @Override
     public void keyPressed(KeyEvent e) { 
-    	Integer keycode = Integer.valueOf(e.getKeyCode());
-
-    	// We aren't already aware that we are holding the key, we only need to send out an event for the initial press (as well as the continued press)
-    	if(!keysBeingHeld.contains(keycode)) {
-    		if(application != null) {
-    			if(application.hasGuiSystem()) {
-    				final GuiEvent keyInitialPressEvent = new GuiEvent(GuiEvent.EventType.KEYBOARD_KEY_PRESSED, keycode, -1, -1, -1);
-    				application.getGuiSystem().recieveEvent(keyInitialPressEvent);
-    			}
-    		}
-    		keysBeingHeld.add(keycode);
-    	}
-    	
-    	// Now we send out a notification that the key is still being held
-		if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent keyContinuedPressEvent = new GuiEvent(GuiEvent.EventType.KEYBOARD_KEY_HELD, keycode, -1, -1, -1);
-				application.getGuiSystem().recieveEvent(keyContinuedPressEvent);
-			}
-		}
+    	if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.KEYBOARD_KEY_PRESSED, e.getKeyCode(), -1, -1, -1);
     }
 
     @Override
     public void keyReleased(KeyEvent e) {
-    	Integer keycode = Integer.valueOf(e.getKeyCode());
-    	
-    	if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent keyReleaseEvent = new GuiEvent(GuiEvent.EventType.KEYBOARD_KEY_RELEASED, keycode, -1, -1, -1);
-				application.getGuiSystem().recieveEvent(keyReleaseEvent);
-			}
-		}
-    	
-    	keysBeingHeld.remove(keycode);
+    	if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.KEYBOARD_KEY_RELEASED, e.getKeyCode(), -1, -1, -1);
     }
 
     @Override
@@ -7,7 +7,10 @@ import java.awt.event.MouseWheelEvent;
 import com.macleod.engine.Application;
 import com.macleod.engine.graphics.gui.GuiEvent;
 
-//TODO: Must look at internal caching of button states for mouse button 'held'/'pressed' event distinction
+/**
+ * The MouseHandler passes mouse presses, releases, movements and wheel rotations on to the Application's input queue. Held events are generated once per update
+ * by the Application's InputState, rather than by this handler
+ */
 public class MouseHandler extends MouseAdapter {
 
 	private final Application application;
@@ -19,44 +22,28 @@ public class MouseHandler extends MouseAdapter {
 	
 	@Override
     public void mousePressed(MouseEvent e) {
-		if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent mousePressedEvent = new GuiEvent(GuiEvent.EventType.MOUSE_BUTTON_PRESSED, -1, e.getButton(), e.getX(), e.getY());
-				application.getGuiSystem().recieveEvent(mousePressedEvent);
-			}
-		}
+		if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.MOUSE_BUTTON_PRESSED, -1, e.getButton(), toGuiX(e), toGuiY(e));
 	}
 
 	@Override
     public void mouseReleased(MouseEvent e) {
-		if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent mouseReleasedEvent = new GuiEvent(GuiEvent.EventType.MOUSE_BUTTON_RELEASED, -1, e.getButton(), e.getX(), e.getY());
-				application.getGuiSystem().recieveEvent(mouseReleasedEvent);
-			}
-		}
+		if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.MOUSE_BUTTON_RELEASED, -1, e.getButton(), toGuiX(e), toGuiY(e));
 	}
 
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent mouseMovedEvent = new GuiEvent(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, e.getX(), e.getY());
-				application.getGuiSystem().recieveEvent(mouseMovedEvent);
-			}
-		}
+		if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, toGuiX(e), toGuiY(e));
 	}
 
 	@Override
     public void mouseMoved(MouseEvent e) {
-		if(application != null) {
-			if(application.hasGuiSystem()) {
-				final GuiEvent mouseMovedEvent = new GuiEvent(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, e.getX(), e.getY());
-				application.getGuiSystem().recieveEvent(mouseMovedEvent);
-			}
-		}
+		if(application != null) application.getInputEventQueue().publish(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, toGuiX(e), toGuiY(e));
 	}
 
+	// The cursor position AWT gives is across the window, which may be drawn at a different resolution to the GuiSystem
+	private double toGuiX(MouseEvent e) { return application.getScreen().toGuiX(e.getX()); }
+	private double toGuiY(MouseEvent e) { return application.getScreen().toGuiY(e.getY()); }
+
 	@Override
     public void mouseClicked(MouseEvent e) { }
 	@Override
@@ -64,6 +51,10 @@ public class MouseHandler extends MouseAdapter {
 	@Override
 	public void mouseExited(MouseEvent e) { }
 	@Override
-    public void mouseWheelMoved(MouseWheelEvent e) { }
+    public void mouseWheelMoved(MouseWheelEvent e) {
+		if(application != null) {
+			application.getInputEventQueue().publish(GuiEvent.EventType.MOUSE_WHEEL_MOVED, -1, -1, toGuiX(e), toGuiY(e), e.getPreciseWheelRotation());
+		}
+	}
 	
 }
@@ -0,0 +1,212 @@
+package com.macleod.engine.log;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.macleod.engine.Log;
+
+/**
+ * The AsyncLogWriter hands log messages from the threads that log them to a background thread, which formats them and writes them to every LogSink. Logging a
+ * message therefore only costs the logging thread a few writes into a LogRecord - it never waits on the console or a file, and never allocates.
+ * <br /><br />
+ * Messages are kept in a fixed size ring of reused LogRecords. To log a message, a thread claims the next record with {@code claim}, fills it in, and then
+ * hands it to the background thread with {@code publish}. Any number of threads can log at once without locking. If the ring is full (because messages are
+ * being logged faster than the sinks can write them) the OverflowPolicy decides whether the message is dropped or the logging thread waits for space.
+ * <br /><br />
+ * The background thread is a daemon thread, so it never keeps the program running - but anything still waiting to be written is flushed when the program
+ * shuts down
+ */
+public final class AsyncLogWriter {
+
+	public enum OverflowPolicy {
+		/** Messages logged while the ring is full are thrown away. The number thrown away is reported once there is space again */
+		DROP,
+		/** Threads logging while the ring is full wait until there is space. No message is ever lost, but a slow sink can then slow down the engine */
+		BLOCK;
+	}
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	// How long the background thread sleeps for when there's nothing to write. This is the longest a message can wait before being written
+	private static final long NS_IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long NS_FLUSH_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+	private final LogRecord[] records;
+	// See InputEventQueue - the record at index i is free for the message at position p when its sequence is p, and ready to be written when it is p + 1
+	private final AtomicLongArray sequences;
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong(0);
+	// Only the background thread changes the head, but it is volatile so that flushing threads can see how far it has got
+	private volatile long head = 0;
+	// How far the background thread has got through the ring, including flushing the sinks
+	private volatile long flushedHead = 0;
+
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+	private volatile LogSink[] sinks;
+	private final ArrayList<LogSink> sinksToClose = new ArrayList<LogSink>();
+
+	private final AtomicLong droppedMessageCount = new AtomicLong(0);
+	private long reportedDroppedMessageCount = 0;
+
+	private final Thread writerThread;
+	private final StringBuilder lineBuilder = new StringBuilder(256);
+
+	public AsyncLogWriter(int capacity, LogSink... sinks) {
+		assert (capacity > 0) : "An AsyncLogWriter must have a positive capacity. Was given " + capacity;
+		final int roundedCapacity = ((capacity <= 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+		mask = roundedCapacity - 1;
+
+		records = new LogRecord[roundedCapacity];
+		sequences = new AtomicLongArray(roundedCapacity);
+		for(int i = 0; i < roundedCapacity; i++) {
+			records[i] = new LogRecord();
+			sequences.set(i, i);
+		}
+
+		setSinks(sinks);
+
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "Log writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "Log shutdown flush"));
+	}
+
+	/** Replaces every sink messages are written to. Any sinks that are no longer used are closed by the background thread */
+	public synchronized void setSinks(LogSink... sinks) {
+		final LogSink[] newSinks = (sinks == null) ? new LogSink[0] : sinks.clone();
+		final LogSink[] oldSinks = this.sinks;
+		this.sinks = newSinks;
+
+		if(oldSinks != null) {
+			for(LogSink oldSink : oldSinks) {
+				boolean stillUsed = false;
+				for(LogSink newSink : newSinks) stillUsed |= (newSink == oldSink);
+				// Closing straight away could race with the background thread part way through writing to it, so the close is left for it to do
+				if(!stillUsed) sinksToClose.add(oldSink);
+			}
+		}
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		assert (overflowPolicy != null) : "Cannot give an AsyncLogWriter a null OverflowPolicy";
+		if(overflowPolicy != null) this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Claims the next free record in the ring, which must then be filled in (see {@code getRecord}) and handed to {@code publish}.
+	 *
+	 * @return
+	 * 		The position of the claimed record, or a negative value if the ring was full and the message has been dropped
+	 */
+	public long claim() {
+		while(true) {
+			final long position = tail.get();
+			final long difference = sequences.get((int) position & mask) - position;
+
+			if(difference == 0) {
+				if(tail.compareAndSet(position, position + 1)) return position;
+			} else if(difference < 0) {
+				if((overflowPolicy == OverflowPolicy.DROP) || (Thread.currentThread() == writerThread)) {
+					droppedMessageCount.incrementAndGet();
+					return -1;
+				}
+				Thread.yield();
+			}
+		}
+	}
+
+	public LogRecord getRecord(long position) { return records[(int) position & mask]; }
+
+	/** Hands a claimed (and filled in) record to the background thread to be written */
+	public void publish(long position) { sequences.lazySet((int) position & mask, position + 1); }
+
+	/**
+	 * Waits until every message logged before this call has been written to the sinks (or until a few seconds have passed, in case a sink has stopped
+	 * responding)
+	 */
+	public void flush() {
+		final long target = tail.get();
+		final long nsDeadline = System.nanoTime() + NS_FLUSH_TIMEOUT;
+		while((head < target) && writerThread.isAlive() && ((nsDeadline - System.nanoTime()) > 0)) LockSupport.parkNanos(NS_IDLE_WAIT / 10);
+
+		// Batches are flushed as soon as they're written, but the last batch may still be part way through - so wait for the sinks to be flushed too
+		while((flushedHead < target) && writerThread.isAlive() && ((nsDeadline - System.nanoTime()) > 0)) LockSupport.parkNanos(NS_IDLE_WAIT / 10);
+	}
+
+	private void writeLoop() {
+		while(true) {
+			final LogSink[] currentSinks = sinks;
+			int numberWritten = 0;
+
+			while(true) {
+				final long position = head;
+				final int index = (int) position & mask;
+				if(sequences.get(index) != (position + 1)) break;
+
+				final LogRecord record = records[index];
+				lineBuilder.setLength(0);
+				record.formatTo(lineBuilder);
+				write(currentSinks, record.getLevel(), record.getTimestamp(), lineBuilder);
+
+				record.clear();
+				sequences.lazySet(index, position + records.length);
+				head = position + 1;
+				numberWritten++;
+			}
+
+			final long dropped = droppedMessageCount.get();
+			if(dropped != reportedDroppedMessageCount) {
+				lineBuilder.setLength(0);
+				lineBuilder.append("[WARN] ").append(dropped - reportedDroppedMessageCount).append(" log messages were dropped because the log was full");
+				write(currentSinks, Log.LogLevel.WARN, System.currentTimeMillis(), lineBuilder);
+				reportedDroppedMessageCount = dropped;
+				numberWritten++;
+			}
+
+			if(numberWritten > 0) {
+				for(LogSink sink : currentSinks) {
+					try { sink.flush();
+					} catch(RuntimeException e) { e.printStackTrace(); }
+				}
+			}
+			flushedHead = head;
+
+			synchronized(this) {
+				for(int i = 0; i < sinksToClose.size(); i++) {
+					try { sinksToClose.get(i).close();
+					} catch(RuntimeException e) { e.printStackTrace(); }
+				}
+				sinksToClose.clear();
+			}
+
+			if(numberWritten == 0) LockSupport.parkNanos(NS_IDLE_WAIT);
+		}
+	}
+
+	// A sink that throws is reported straight to the console (logging it would just send it back to the same sink) but doesn't stop the other sinks
+	private static void write(LogSink[] sinks, Log.LogLevel level, long msTimestamp, CharSequence line) {
+		for(LogSink sink : sinks) {
+			try { sink.write(level, msTimestamp, line);
+			} catch(RuntimeException e) { e.printStackTrace(); }
+		}
+	}
+
+	public int getCapacity() { return records.length; }
+	public OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+	public long getDroppedMessageCount() { return droppedMessageCount.get(); }
+	public LogSink[] getSinks() { return sinks.clone(); }
+
+}
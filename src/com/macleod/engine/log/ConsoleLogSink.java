@@ -0,0 +1,23 @@
+package com.macleod.engine.log;
+
+import com.macleod.engine.Log;
+
+/** Writes log messages to the standard output stream, apart from errors which are written to the standard error stream */
+public class ConsoleLogSink implements LogSink {
+
+	@Override
+	public void write(Log.LogLevel level, long msTimestamp, CharSequence line) {
+		if(level == Log.LogLevel.ERROR) System.err.println(line);
+		else System.out.println(line);
+	}
+
+	@Override
+	public void flush() {
+		System.out.flush();
+		System.err.flush();
+	}
+
+	@Override
+	public void close() { flush(); }
+
+}
@@ -0,0 +1,97 @@
+package com.macleod.engine.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import com.macleod.engine.Log;
+
+/**
+ * A LogRecord is a single message waiting in an AsyncLogWriter. Records are reused for every message that passes through the writer, so nothing is allocated
+ * to log a message - the message is kept as its format and arguments, and is only formatted once it reaches the logging thread.
+ * <br /><br />
+ * A message's format can contain any number of "{}" placeholders, which are replaced by the arguments in order. Any placeholders without an argument are
+ * left as they are
+ */
+public final class LogRecord {
+
+	public static final int MAX_ARGUMENTS = 3;
+
+	private Log.LogLevel level;
+	private long msTimestamp;
+	private String threadName;
+	private Object message;
+	private Throwable throwable;
+
+	// Arguments can either be objects or longs (so that numbers don't need to be boxed). Each bit of the long mask is set when that argument is a long
+	private final Object[] objectArguments = new Object[MAX_ARGUMENTS];
+	private final long[] longArguments = new long[MAX_ARGUMENTS];
+	private int longArgumentMask;
+	private int numberOfArguments;
+
+	LogRecord() { }
+
+	public void set(Log.LogLevel level, Object message, Throwable throwable) {
+		this.level = level;
+		this.message = message;
+		this.throwable = throwable;
+		msTimestamp = System.currentTimeMillis();
+		threadName = Thread.currentThread().getName();
+		numberOfArguments = 0;
+		longArgumentMask = 0;
+	}
+
+	public void addArgument(Object argument) {
+		assert (numberOfArguments < MAX_ARGUMENTS) : "A LogRecord can only have " + MAX_ARGUMENTS + " arguments";
+		if(numberOfArguments < MAX_ARGUMENTS) objectArguments[numberOfArguments++] = argument;
+	}
+
+	public void addArgument(long argument) {
+		assert (numberOfArguments < MAX_ARGUMENTS) : "A LogRecord can only have " + MAX_ARGUMENTS + " arguments";
+		if(numberOfArguments < MAX_ARGUMENTS) {
+			longArgumentMask |= (1 << numberOfArguments);
+			longArguments[numberOfArguments++] = argument;
+		}
+	}
+
+	/** Appends the formatted message (including its level, and the stack trace of any throwable) to the given builder */
+	void formatTo(StringBuilder builder) {
+		builder.append('[').append(level.name()).append("] ");
+
+		final String format = String.valueOf(message);
+		int argumentIndex = 0, start = 0;
+		while(true) {
+			final int placeholder = (argumentIndex < numberOfArguments) ? format.indexOf("{}", start) : -1;
+			if(placeholder < 0) {
+				builder.append(format, start, format.length());
+				break;
+			}
+
+			builder.append(format, start, placeholder);
+			if((longArgumentMask & (1 << argumentIndex)) != 0) builder.append(longArguments[argumentIndex]);
+			else builder.append(objectArguments[argumentIndex]);
+
+			argumentIndex++;
+			start = placeholder + 2;
+		}
+
+		if(throwable != null) {
+			final StringWriter stackTrace = new StringWriter();
+			throwable.printStackTrace(new PrintWriter(stackTrace));
+			builder.append(" - ").append(stackTrace.toString().stripTrailing());
+		}
+	}
+
+	/** Forgets every object the record refers to, so a message waiting to be overwritten doesn't keep its arguments alive */
+	void clear() {
+		message = null;
+		throwable = null;
+		threadName = null;
+		for(int i = 0; i < numberOfArguments; i++) objectArguments[i] = null;
+		numberOfArguments = 0;
+	}
+
+	public Log.LogLevel getLevel() { return level; }
+	public long getTimestamp() { return msTimestamp; }
+	public String getThreadName() { return threadName; }
+
+}
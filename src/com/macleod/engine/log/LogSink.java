@@ -0,0 +1,20 @@
+package com.macleod.engine.log;
+
+import com.macleod.engine.Log;
+
+/**
+ * A LogSink is somewhere that formatted log messages end up (e.g. the console or a file). Sinks are only ever called from the logging thread, so they don't
+ * need to be thread safe - and since that thread is never one the engine is waiting on, a sink is free to block on I/O
+ */
+public interface LogSink {
+
+	/** Writes a single formatted message. The line doesn't end with a line separator, and may contain several lines (e.g. for a stack trace) */
+	void write(Log.LogLevel level, long msTimestamp, CharSequence line);
+
+	/** Called after each batch of messages has been written, so that a sink buffering its output can write it out */
+	void flush();
+
+	/** Called once the sink has been removed from the log (or the program is closing) - no more messages will be written to it */
+	void close();
+
+}
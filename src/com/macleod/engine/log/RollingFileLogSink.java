@@ -0,0 +1,127 @@
+package com.macleod.engine.log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import com.macleod.engine.Log;
+
+/**
+ * Writes log messages to a file, prefixed with the time they were logged. Once the file grows beyond a maximum size it is 'rolled' - the file is renamed
+ * with a ".1" suffix (any older rolled files moving up a number, with the oldest being deleted) and a new file is started. This means the log never takes up
+ * more than roughly {@code maxBytesPerFile * (maxRolledFiles + 1)} bytes
+ */
+public class RollingFileLogSink implements LogSink {
+
+	public static final long DEFAULT_MAX_BYTES_PER_FILE = 10 * 1024 * 1024;
+	public static final int DEFAULT_MAX_ROLLED_FILES = 5;
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+	private final Path file;
+	private final long maxBytesPerFile;
+	private final int maxRolledFiles;
+
+	private BufferedWriter writer;
+	private long bytesInFile;
+	private final StringBuilder lineBuilder = new StringBuilder(256);
+
+	public RollingFileLogSink(Path file) throws IOException { this(file, DEFAULT_MAX_BYTES_PER_FILE, DEFAULT_MAX_ROLLED_FILES); }
+
+	public RollingFileLogSink(Path file, long maxBytesPerFile, int maxRolledFiles) throws IOException {
+		if((file == null) || (maxBytesPerFile <= 0) || (maxRolledFiles < 0)) {
+			final IllegalArgumentException exception = new IllegalArgumentException("A RollingFileLogSink needs a file, a positive maximum size and a non-negative "
+					+ "number of rolled files. Was given " + file + ", " + maxBytesPerFile + " and " + maxRolledFiles);
+			Log.error("An attempt was made to create a RollingFileLogSink with invalid arguments", exception);
+			throw exception;
+		}
+
+		this.file = file;
+		this.maxBytesPerFile = maxBytesPerFile;
+		this.maxRolledFiles = maxRolledFiles;
+
+		final Path directory = file.toAbsolutePath().getParent();
+		if(directory != null) Files.createDirectories(directory);
+		open();
+	}
+
+	private void open() throws IOException {
+		writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		bytesInFile = Files.size(file);
+	}
+
+	@Override
+	public void write(Log.LogLevel level, long msTimestamp, CharSequence line) {
+		if(writer == null) return;
+
+		lineBuilder.setLength(0);
+		TIMESTAMP_FORMAT.formatTo(Instant.ofEpochMilli(msTimestamp), lineBuilder);
+		lineBuilder.append(' ').append(line).append(System.lineSeparator());
+
+		try {
+			if(((bytesInFile + lineBuilder.length()) > maxBytesPerFile) && (bytesInFile > 0)) roll();
+
+			writer.append(lineBuilder);
+			// Counting characters rather than encoded bytes is close enough for deciding when to roll (and exact for plain ASCII)
+			bytesInFile += lineBuilder.length();
+		} catch(IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	private void roll() throws IOException {
+		writer.close();
+
+		if(maxRolledFiles == 0) {
+			Files.deleteIfExists(file);
+		} else {
+			Files.deleteIfExists(rolledFile(maxRolledFiles));
+			for(int i = (maxRolledFiles - 1); i >= 1; i--) {
+				final Path rolledFile = rolledFile(i);
+				if(Files.exists(rolledFile)) Files.move(rolledFile, rolledFile(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+			Files.move(file, rolledFile(1), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		open();
+	}
+
+	private Path rolledFile(int number) { return file.resolveSibling(file.getFileName() + "." + number); }
+
+	@Override
+	public void flush() {
+		if(writer == null) return;
+
+		try { writer.flush();
+		} catch(IOException e) { handleFailure(e); }
+	}
+
+	@Override
+	public void close() {
+		if(writer == null) return;
+
+		try { writer.close();
+		} catch(IOException e) { handleFailure(e); }
+		writer = null;
+	}
+
+	// We can't log a failure of the log itself (the message would end up back here), so we report it straight to the console and stop writing to the file
+	private void handleFailure(IOException e) {
+		System.err.println("[ERROR] Failed to write to log file " + file + ", no more messages will be written to it");
+		e.printStackTrace();
+
+		try { writer.close();
+		} catch(IOException closeException) { }
+		writer = null;
+	}
+
+	public final Path getFile() { return file; }
+
+}
@@ -0,0 +1,16 @@
+package com.macleod.engine.loop;
+
+/**
+ * A CappedTimestepLoop behaves like a VariableTimestepLoop (one update per frame, with the real time since the previous frame) but waits between frames so
+ * that no more than the given number of frames are run each second
+ */
+public class CappedTimestepLoop extends VariableTimestepLoop {
+
+	public CappedTimestepLoop(int maxFramesPerSecond) { this(maxFramesPerSecond, new FramePacer()); }
+
+	public CappedTimestepLoop(int maxFramesPerSecond, FramePacer framePacer) {
+		super(maxFramesPerSecond, framePacer);
+		assert (maxFramesPerSecond > 0) : "A CappedTimestepLoop must have a positive frame cap. Was given a frame cap of " + maxFramesPerSecond;
+	}
+
+}
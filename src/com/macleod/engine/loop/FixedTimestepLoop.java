@@ -0,0 +1,85 @@
+package com.macleod.engine.loop;
+
+/**
+ * A FixedTimestepLoop runs its updates at a fixed rate, independent of how often frames are rendered. Real time is collected into an accumulator, and an update
+ * (each with exactly the same time delay) is run for every whole tick the accumulator holds. This gives a deterministic simulation - the same inputs over the
+ * same ticks always produce the same result - regardless of how quickly the machine renders.
+ * <br /><br />
+ * If a frame runs long, the next frame will run several ticks to catch up. To avoid the 'spiral of death' (where catching up takes so long that we fall even
+ * further behind) no more than {@code maxTicksPerFrame} ticks are run in a single frame - any time beyond that is discarded, and the simulation simply runs
+ * slower than real time until the machine can keep up again
+ */
+public class FixedTimestepLoop extends GameLoop {
+
+	public static final int DEFAULT_MAX_TICKS_PER_FRAME = 5;
+
+	private final long nsPerTick;
+	private final float sTimePerTick;
+	private final int maxTicksPerFrame;
+
+	private long nsLastFrame;
+	private long nsAccumulated;
+
+	private long droppedTickCount;
+
+	/** Creates a loop that updates at the given rate, and renders at the same rate */
+	public FixedTimestepLoop(int ticksPerSecond) { this(ticksPerSecond, ticksPerSecond, DEFAULT_MAX_TICKS_PER_FRAME); }
+
+	public FixedTimestepLoop(int ticksPerSecond, int maxFramesPerSecond, int maxTicksPerFrame) {
+		this(ticksPerSecond, maxFramesPerSecond, maxTicksPerFrame, new FramePacer());
+	}
+
+	public FixedTimestepLoop(int ticksPerSecond, int maxFramesPerSecond, int maxTicksPerFrame, FramePacer framePacer) {
+		super(maxFramesPerSecond, framePacer);
+		assert (ticksPerSecond > 0) : "A FixedTimestepLoop must have a positive tick rate. Was given a tick rate of " + ticksPerSecond;
+		assert (maxTicksPerFrame > 0) : "A FixedTimestepLoop must allow at least one tick per frame. Was given a limit of " + maxTicksPerFrame;
+
+		this.nsPerTick = NS_PER_SECOND / ticksPerSecond;
+		this.sTimePerTick = (nsPerTick / (float) NS_PER_SECOND);
+		this.maxTicksPerFrame = maxTicksPerFrame;
+	}
+
+	@Override
+	public void reset(long nsCurrentTime) {
+		super.reset(nsCurrentTime);
+		nsLastFrame = nsCurrentTime;
+		nsAccumulated = 0;
+	}
+
+	@Override
+	public void runFrame(LoopTarget target) {
+		assert (target != null) : "Cannot run a frame of a GameLoop against a null target";
+
+		final long nsCurrentTime = System.nanoTime();
+		nsAccumulated += (nsCurrentTime - nsLastFrame);
+		nsLastFrame = nsCurrentTime;
+
+		int ticksThisFrame = 0;
+		while((nsAccumulated >= nsPerTick) && (ticksThisFrame < maxTicksPerFrame)) {
+			target.update(sTimePerTick);
+			countTick();
+
+			nsAccumulated -= nsPerTick;
+			ticksThisFrame++;
+		}
+
+		// If we still have whole ticks left over then we've hit the catch-up limit, so throw the whole ticks away (keeping the partial tick, so the phase of
+		// the ticks relative to real time is kept)
+		if(nsAccumulated >= nsPerTick) {
+			droppedTickCount += (nsAccumulated / nsPerTick);
+			nsAccumulated %= nsPerTick;
+		}
+
+		target.render();
+		countFrame();
+
+		waitForNextFrame();
+	}
+
+	public final long getTimePerTick() { return nsPerTick; }
+	public final int getMaxTicksPerFrame() { return maxTicksPerFrame; }
+
+	/** The number of ticks that have been discarded (rather than run) because a frame had fallen too far behind */
+	public final long getDroppedTickCount() { return droppedTickCount; }
+
+}
@@ -0,0 +1,62 @@
+package com.macleod.engine.loop;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The FramePacer is responsible for waiting until a given point in time without burning an entire core while doing so. A plain sleep is far too coarse to hit
+ * a frame deadline accurately (most operating systems only promise a millisecond or worse), while spinning the whole time keeps the core at 100%. Instead the
+ * wait is split into three stages:
+ * <ul>
+ * <li>While we are far from the deadline we park the thread, waking up a safety margin early to absorb the scheduler's inaccuracy</li>
+ * <li>When we are close we yield, letting any other runnable threads have the core</li>
+ * <li>For the last few microseconds we spin, which is the only way to reliably land on the deadline itself</li>
+ * </ul>
+ */
+public class FramePacer {
+
+	public static final long DEFAULT_NS_SLEEP_MARGIN = 2000000;
+	public static final long DEFAULT_NS_SPIN_MARGIN = 200000;
+
+	private final long nsSleepMargin;
+	private final long nsSpinMargin;
+
+	public FramePacer() { this(DEFAULT_NS_SLEEP_MARGIN, DEFAULT_NS_SPIN_MARGIN); }
+
+	public FramePacer(long nsSleepMargin, long nsSpinMargin) {
+		assert ((nsSleepMargin >= 0) && (nsSpinMargin >= 0)) :
+			"A FramePacer cannot have negative margins. Was given a sleep margin of " + nsSleepMargin + "ns and a spin margin of " + nsSpinMargin + "ns";
+		assert (nsSleepMargin >= nsSpinMargin) : "A FramePacer must start spinning after it has stopped sleeping";
+
+		this.nsSleepMargin = nsSleepMargin;
+		this.nsSpinMargin = nsSpinMargin;
+	}
+
+	/**
+	 * Blocks the calling thread until {@code System.nanoTime()} has reached (or passed) the given deadline. If the deadline has already passed this returns
+	 * immediately
+	 */
+	public void waitUntil(long nsDeadline) {
+		long nsRemaining = nsDeadline - System.nanoTime();
+
+		// The park can return early (spuriously or due to an interrupt) so we keep going until we are inside the sleep margin. We don't want to swallow an
+		// interrupt for the rest of the thread either, so if one arrives we stop sleeping and let the yield/spin stages finish the wait
+		while((nsRemaining > nsSleepMargin) && !Thread.currentThread().isInterrupted()) {
+			LockSupport.parkNanos(nsRemaining - nsSleepMargin);
+			nsRemaining = nsDeadline - System.nanoTime();
+		}
+
+		while(nsRemaining > nsSpinMargin) {
+			Thread.yield();
+			nsRemaining = nsDeadline - System.nanoTime();
+		}
+
+		while(nsRemaining > 0) {
+			Thread.onSpinWait();
+			nsRemaining = nsDeadline - System.nanoTime();
+		}
+	}
+
+	public final long getSleepMargin() { return nsSleepMargin; }
+	public final long getSpinMargin() { return nsSpinMargin; }
+
+}
@@ -0,0 +1,73 @@
+package com.macleod.engine.loop;
+
+/**
+ * A GameLoop decides how the time of a running Application is divided between updating and rendering. The Application owns the thread (and decides when to
+ * stop), but each iteration of its loop is handed to {@code runFrame}, which performs any updates and the render for one frame - then waits (if the loop has a
+ * frame cap) until the next frame is due.
+ * <br /><br />
+ * A GameLoop is only ever expected to be driven by a single thread at a time
+ */
+public abstract class GameLoop {
+
+	/** Passing this as a frame rate means that frames will be rendered as fast as possible, without waiting between them */
+	public static final int UNCAPPED = 0;
+
+	protected static final long NS_PER_SECOND = 1000000000L;
+
+	private final FramePacer framePacer;
+	private final long nsPerFrame;
+
+	private long nsNextFrame;
+
+	private long tickCount, frameCount;
+
+	protected GameLoop(int maxFramesPerSecond, FramePacer framePacer) {
+		assert (maxFramesPerSecond >= 0) : "A GameLoop cannot have a negative frame cap. Was given a frame cap of " + maxFramesPerSecond;
+		assert (framePacer != null) : "A GameLoop cannot be created with a null FramePacer";
+
+		this.framePacer = framePacer;
+		this.nsPerFrame = ((maxFramesPerSecond > 0) ? (NS_PER_SECOND / maxFramesPerSecond) : 0);
+	}
+
+	/**
+	 * This is called whenever the loop is (re)started by a thread - so that any time accumulated while the loop wasn't running isn't treated as a very long
+	 * frame
+	 */
+	public void reset(long nsCurrentTime) {
+		nsNextFrame = nsCurrentTime;
+	}
+
+	/**
+	 * Performs a single frame of the loop (updates, render, and any waiting before the next frame) against the given target
+	 */
+	public abstract void runFrame(LoopTarget target);
+
+	protected final void countTick() { tickCount++; }
+	protected final void countFrame() { frameCount++; }
+
+	/**
+	 * Waits (if this loop is capped) until the next frame is due. The deadline advances by a fixed step each frame rather than from the current time, so any
+	 * small overshoot in one wait is paid back in the next and the average frame rate stays on target. If we have fallen more than a whole frame behind (e.g.
+	 * a long stall) we don't try to race to catch up - we just start pacing again from now
+	 */
+	protected final void waitForNextFrame() {
+		if(nsPerFrame <= 0) return;
+
+		final long nsCurrentTime = System.nanoTime();
+		nsNextFrame += nsPerFrame;
+		if((nsCurrentTime - nsNextFrame) > nsPerFrame) nsNextFrame = nsCurrentTime;
+
+		framePacer.waitUntil(nsNextFrame);
+	}
+
+	public final boolean isFrameRateCapped() { return (nsPerFrame > 0); }
+	public final long getTargetTimeBetweenFrames() { return nsPerFrame; }
+
+	/** The number of updates (logic ticks) performed by this loop since it was created */
+	public final long getTickCount() { return tickCount; }
+	/** The number of renders performed by this loop since it was created */
+	public final long getFrameCount() { return frameCount; }
+
+	public final FramePacer getFramePacer() { return framePacer; }
+
+}
@@ -0,0 +1,20 @@
+package com.macleod.engine.loop;
+
+/**
+ * A LoopTarget is whatever a GameLoop is driving (normally the Application). The loop decides when, and how often, each of these methods are called - the
+ * target only needs to perform the work
+ */
+public interface LoopTarget {
+
+	/**
+	 * This method is called once per logic 'tick' (alongside how long, in seconds, the tick represents). Depending on the loop being used, this may be called
+	 * several times before a single render, or not at all
+	 */
+	void update(float sTimeDelay);
+
+	/**
+	 * This method is called once per frame, after any updates for that frame have been completed
+	 */
+	void render();
+
+}
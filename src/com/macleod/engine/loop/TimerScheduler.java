@@ -0,0 +1,354 @@
+package com.macleod.engine.loop;
+
+import com.macleod.engine.Log;
+
+/**
+ * A TimerScheduler runs callbacks after a delay (or repeatedly, every period) on the game clock - the time given to each update, rather than real time. Every
+ * GuiSystem has one, which it advances at the start of each update (see GuiSystem.getTimerScheduler), so callbacks are always run on the thread updating
+ * the system, at the boundary between two ticks, before any layer is updated. Nothing is paid for a timer between being scheduled and firing, so a layer
+ * waiting on a timer (a blinking cursor, the delay before a tooltip...) costs nothing on the ticks in between.
+ * <br /><br />
+ * The timers are kept in a hierarchical timing wheel: four wheels of 256 slots, where each slot of the first wheel holds the timers due on a single tick of
+ * the scheduler's resolution, and each slot of the wheels above covers a whole turn of the wheel below. A timer is put straight into the slot its deadline
+ * falls in, and is only moved down a wheel when the wheel below turns to its slot - so scheduling and cancelling a timer never depends on how many others
+ * there are. Timers due on the same tick fire in the order they were scheduled, and timers due on different ticks fire in the order of their deadlines,
+ * even when a single advance covers many ticks.
+ * <br /><br />
+ * The timers are held in arrays rather than as an object each (just like the entities of an EntityWorld), and are referred to by handle. Finished timers are
+ * recycled, so once the scheduler has grown to the most timers it holds at once, scheduling them never allocates.
+ * <br /><br />
+ * For tests, the clock can be made manual (see {@code setManualClock}) - the GuiSystem then stops advancing it, and it only moves when {@code advance} is
+ * called, so a timer-heavy interface can be stepped through deterministically. A TimerScheduler is only meant to be used by a single thread at a time
+ */
+public final class TimerScheduler {
+
+	/** A handle that never belongs to a timer, since every generation starts at 1 */
+	public static final long NO_TIMER = 0;
+
+	public static final long DEFAULT_NS_RESOLUTION = 1000000;
+
+	private static final int WHEELS = 4, SLOT_BITS = 8, SLOTS = 1 << SLOT_BITS, SLOT_MASK = SLOTS - 1;
+	// Timers too far away for even the top wheel wait in one extra list, which is looked through whenever the top wheel turns all the way around
+	private static final int OVERFLOW_LIST = WHEELS * SLOTS;
+	// The list a timer is in, when it isn't in one because its node is free
+	private static final int FREE = -1;
+
+	/**
+	 * A Callback is what a timer runs when it fires. It is given the handle of the timer, so a repeating timer can cancel itself. A Callback can schedule and
+	 * cancel timers (including itself) freely
+	 */
+	public interface Callback {
+		void onTimer(long timer);
+	}
+
+	private final long nsResolution;
+
+	// The time of the scheduler, and the last tick (of the resolution) whose timers have been fired. While a tick's timers are firing, the time is that tick's
+	private long nsTime = 0;
+	private long currentTick = 0;
+
+	private boolean manualClock = false;
+
+	// The properties of each timer node. A node is either free (and in the free list) or in exactly one list of the wheels, doubly linked so it can be taken
+	// out of the middle. A period of 0 means the timer only fires once
+	private long[] nsDeadlines, nsPeriods;
+	private Callback[] callbacks;
+	private int[] next, previous, lists, generations;
+	private final int[] listHeads = new int[OVERFLOW_LIST + 1], listTails = new int[OVERFLOW_LIST + 1];
+	// How many timers are in each wheel (and the overflow list, last)
+	private final int[] wheelCounts = new int[WHEELS + 1];
+	private int freeHead = -1;
+	private int nodeCount = 0;
+
+	private int scheduledCount = 0;
+	private long firedCount = 0, failureCount = 0;
+
+	public TimerScheduler() { this(DEFAULT_NS_RESOLUTION); }
+
+	/** Creates a scheduler whose timers fire at the first tick of the given resolution (in nanoseconds) at or after their deadline */
+	public TimerScheduler(long nsResolution) {
+		if(nsResolution <= 0) {
+			final IllegalArgumentException exception = new IllegalArgumentException("A TimerScheduler needs a positive resolution. Was given " + nsResolution);
+			Log.error("An attempt was made to create a TimerScheduler with an invalid resolution", exception);
+			throw exception;
+		}
+
+		this.nsResolution = nsResolution;
+		for(int i = 0; i <= OVERFLOW_LIST; i++) listHeads[i] = listTails[i] = -1;
+		allocate(64);
+	}
+
+	/**
+	 * Schedules the callback to run once, the given number of seconds from now. A delay of 0 (or less) runs it at the next tick boundary
+	 *
+	 * @return
+	 * 		The handle of the timer, which can be used to cancel it
+	 */
+	public long schedule(float sDelay, Callback callback) { return schedule(toNanoseconds(sDelay), 0, callback); }
+
+	/** Schedules the callback to run the given number of seconds from now, and then every period after that, until the timer is cancelled */
+	public long scheduleRepeating(float sDelay, float sPeriod, Callback callback) {
+		assert (sPeriod > 0) : "A repeating timer needs a positive period. Was given " + sPeriod;
+		return schedule(toNanoseconds(sDelay), toNanoseconds(sPeriod), callback);
+	}
+
+	/**
+	 * Schedules the callback (see above), with the delay and period in nanoseconds. A period of 0 fires the timer only once. Any other period is at least the
+	 * resolution, so a repeating timer fires at most once a tick - the time it fires at is kept in step with its period, so it never drifts
+	 */
+	public long schedule(long nsDelay, long nsPeriod, Callback callback) {
+		if(callback == null) {
+			final IllegalArgumentException exception = new IllegalArgumentException("Cannot schedule a timer with a null callback");
+			Log.error("An attempt was made to schedule a timer without a callback", exception);
+			throw exception;
+		}
+		assert (nsPeriod >= 0) : "A timer cannot have a negative period. Was given " + nsPeriod + "ns";
+
+		if(freeHead < 0) allocate(nodeCount * 2);
+		final int node = freeHead;
+		freeHead = next[node];
+
+		nsDeadlines[node] = nsTime + Math.max(nsDelay, 0);
+		nsPeriods[node] = (nsPeriod <= 0) ? 0 : Math.max(nsPeriod, nsResolution);
+		callbacks[node] = callback;
+		insert(node, Math.max(tickOf(nsDeadlines[node]), currentTick + 1));
+		scheduledCount++;
+
+		return toHandle(node, generations[node]);
+	}
+
+	/**
+	 * Stops the timer with the given handle from firing again
+	 *
+	 * @return
+	 * 		Whether the timer was cancelled - which it isn't if it has already been cancelled, or was a timer that only fires once and has fired
+	 */
+	public boolean cancel(long timer) {
+		final int node = nodeOf(timer);
+		if(node < 0) return false;
+
+		unlink(node);
+		free(node);
+		return true;
+	}
+
+	/** Cancels every timer. Every handle given out so far stops being valid */
+	public void cancelAll() {
+		for(int node = 0; node < nodeCount; node++) {
+			if(lists[node] != FREE) free(node);
+		}
+		for(int i = 0; i <= OVERFLOW_LIST; i++) listHeads[i] = listTails[i] = -1;
+		for(int i = 0; i <= WHEELS; i++) wheelCounts[i] = 0;
+	}
+
+	/** Whether the timer with the given handle will still fire */
+	public boolean isScheduled(long timer) { return (nodeOf(timer) >= 0); }
+
+	/** How many seconds until the timer with the given handle next fires (as of the current time, rather than the tick it will fire on), or -1 if it won't */
+	public float getTimeRemaining(long timer) {
+		final int node = nodeOf(timer);
+		return (node < 0) ? -1 : ((nsDeadlines[node] - nsTime) / 1e9f);
+	}
+
+	/** Moves the clock on by the given number of seconds, firing every timer whose deadline has been reached (see below) */
+	public void advance(float sTimeDelay) { advanceNanoseconds(toNanoseconds(sTimeDelay)); }
+
+	/**
+	 * Moves the clock on by the given number of nanoseconds. The timers are fired tick by tick, each in order of its deadline, with the clock at the tick the
+	 * timer fired on - so a timer scheduled by a callback is scheduled from then, and fires later in the same advance if it is due before the advance ends
+	 */
+	public void advanceNanoseconds(long nsTimeDelay) {
+		assert (nsTimeDelay >= 0) : "Cannot move the clock of a TimerScheduler backwards. Was given " + nsTimeDelay + "ns";
+		if(nsTimeDelay <= 0) return;
+
+		final long nsTarget = nsTime + nsTimeDelay;
+		final long targetTick = nsTarget / nsResolution;
+		while(currentTick < targetTick) {
+			final long nextTick = findNextBusyTick();
+			if(nextTick > targetTick) {
+				currentTick = targetTick;
+				break;
+			}
+
+			currentTick = nextTick;
+			nsTime = currentTick * nsResolution;
+			runTick();
+		}
+		nsTime = nsTarget;
+	}
+
+	// The next tick that could have anything to do. While the lowest wheels are empty there is nothing to fire (or move down) until the lowest wheel that
+	// isn't empty turns, so a scheduler with only distant timers (or none) skips straight over the ticks in between
+	private long findNextBusyTick() {
+		int wheel = 0;
+		while((wheel <= WHEELS) && (wheelCounts[wheel] == 0)) wheel++;
+		if(wheel > WHEELS) return Long.MAX_VALUE;
+		if(wheel == 0) return currentTick + 1;
+
+		final int shift = SLOT_BITS * wheel;
+		return (((currentTick >>> shift) + 1) << shift);
+	}
+
+	/**
+	 * Changes whether the clock is manual. While it is, whoever normally advances the scheduler with each update (see GuiSystem.update) leaves it alone, so it
+	 * only moves when {@code advance} is called directly - e.g. by a test stepping through an interface one timer at a time
+	 */
+	public void setManualClock(boolean manualClock) { this.manualClock = manualClock; }
+
+	// The timers of each wheel's slot are moved down (highest wheel first, so anything moved into a slot about to be moved down is moved on again) whenever the
+	// wheel below turns to it. Then every timer in the first wheel's slot is due, and fired
+	private void runTick() {
+		if((currentTick & SLOT_MASK) == 0) {
+			int wheel = 1;
+			while((wheel < WHEELS) && ((currentTick & ((1L << (SLOT_BITS * (wheel + 1))) - 1)) == 0)) wheel++;
+			if(wheel == WHEELS) cascade(OVERFLOW_LIST);
+			for(int i = Math.min(wheel, WHEELS - 1); i >= 1; i--) cascade((i * SLOTS) + (int) ((currentTick >>> (SLOT_BITS * i)) & SLOT_MASK));
+		}
+
+		final int list = (int) (currentTick & SLOT_MASK);
+		while(listHeads[list] >= 0) {
+			final int node = listHeads[list];
+			unlink(node);
+
+			final long timer = toHandle(node, generations[node]);
+			final Callback callback = callbacks[node];
+			if(nsPeriods[node] > 0) {
+				nsDeadlines[node] += nsPeriods[node];
+				insert(node, Math.max(tickOf(nsDeadlines[node]), currentTick + 1));
+			} else {
+				free(node);
+			}
+
+			firedCount++;
+			try {
+				callback.onTimer(timer);
+			} catch(RuntimeException e) {
+				// One broken callback can't stop the rest of the timers firing. The exception is logged in full the first time, and then each time the count of
+				// failures doubles - so a repeating timer that fails every time can't flood the log
+				failureCount++;
+				if(Long.bitCount(failureCount) == 1) Log.error("A timer callback has failed (" + failureCount + " times in total)", e);
+			}
+		}
+	}
+
+	private void cascade(int list) {
+		int node = listHeads[list];
+		listHeads[list] = listTails[list] = -1;
+		while(node >= 0) {
+			final int following = next[node];
+			wheelCounts[list >> SLOT_BITS]--;
+			lists[node] = FREE;
+			insert(node, Math.max(tickOf(nsDeadlines[node]), currentTick));
+			node = following;
+		}
+	}
+
+	// A timer goes in the lowest wheel whose current turn its tick falls in - i.e. the tick and the current tick only differ in the bits of that wheel (and
+	// those below it). Its slot is then the bits of the tick for that wheel, which is always a slot the wheel hasn't turned to yet
+	private void insert(int node, long tick) {
+		int list = OVERFLOW_LIST;
+		for(int wheel = 0; wheel < WHEELS; wheel++) {
+			final int shift = SLOT_BITS * (wheel + 1);
+			if((tick >>> shift) == (currentTick >>> shift)) {
+				list = (wheel * SLOTS) + (int) ((tick >>> (SLOT_BITS * wheel)) & SLOT_MASK);
+				break;
+			}
+		}
+
+		// Added to the end of the list, so timers due on the same tick fire in the order they were scheduled
+		lists[node] = list;
+		wheelCounts[list >> SLOT_BITS]++;
+		next[node] = -1;
+		previous[node] = listTails[list];
+		if(listTails[list] >= 0) next[listTails[list]] = node;
+		else listHeads[list] = node;
+		listTails[list] = node;
+	}
+
+	private void unlink(int node) {
+		final int list = lists[node];
+		if(previous[node] >= 0) next[previous[node]] = next[node];
+		else listHeads[list] = next[node];
+		if(next[node] >= 0) previous[next[node]] = previous[node];
+		else listTails[list] = previous[node];
+		wheelCounts[list >> SLOT_BITS]--;
+		lists[node] = FREE;
+	}
+
+	private void free(int node) {
+		lists[node] = FREE;
+		callbacks[node] = null;
+		// The generation skips 0 as it wraps, so that NO_TIMER can never be a real handle
+		generations[node] = (generations[node] == Integer.MAX_VALUE) ? 1 : (generations[node] + 1);
+		next[node] = freeHead;
+		freeHead = node;
+		scheduledCount--;
+	}
+
+	private int nodeOf(long timer) {
+		final int node = (int) timer;
+		if((node < 0) || (node >= nodeCount) || (generations[node] != (int) (timer >>> 32)) || (lists[node] == FREE)) return -1;
+		return node;
+	}
+
+	// The first tick at or after the given time
+	private long tickOf(long nsTime) { return ((nsTime + nsResolution - 1) / nsResolution); }
+
+	private static long toNanoseconds(float seconds) { return (long) (seconds * 1e9); }
+
+	private static long toHandle(int node, int generation) { return (((long) generation << 32) | node); }
+
+	private void allocate(int capacity) {
+		if(capacity < 0) {
+			final IllegalStateException exception = new IllegalStateException("A TimerScheduler cannot hold more than " + Integer.MAX_VALUE + " timers");
+			Log.error("A TimerScheduler has run out of room for more timers", exception);
+			throw exception;
+		}
+
+		final int oldCount = nodeCount;
+		nsDeadlines = grow(nsDeadlines, capacity);
+		nsPeriods = grow(nsPeriods, capacity);
+		next = grow(next, capacity);
+		previous = grow(previous, capacity);
+		lists = grow(lists, capacity);
+		generations = grow(generations, capacity);
+		final Callback[] grownCallbacks = new Callback[capacity];
+		if(callbacks != null) System.arraycopy(callbacks, 0, grownCallbacks, 0, oldCount);
+		callbacks = grownCallbacks;
+
+		// The new nodes are added to the free list in order, so the lowest is used first
+		for(int node = capacity - 1; node >= oldCount; node--) {
+			generations[node] = 1;
+			lists[node] = FREE;
+			next[node] = freeHead;
+			freeHead = node;
+		}
+		nodeCount = capacity;
+	}
+
+	private static long[] grow(long[] array, int capacity) {
+		final long[] grown = new long[capacity];
+		if(array != null) System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		final int[] grown = new int[capacity];
+		if(array != null) System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	public long getResolution() { return nsResolution; }
+	public boolean isManualClock() { return manualClock; }
+	/** The time of the scheduler's clock, in nanoseconds since it was created */
+	public long getTime() { return nsTime; }
+	/** The number of timers that will still fire */
+	public int getScheduledCount() { return scheduledCount; }
+	/** How many times a timer has fired (each firing of a repeating timer counts) */
+	public long getFiredCount() { return firedCount; }
+	/** How many callbacks have thrown an exception. The scheduler carries on firing every other timer (and any repeating timer whose callback failed) */
+	public long getFailureCount() { return failureCount; }
+	/** How many timers the scheduler can hold before it needs to allocate more room */
+	public int getCapacity() { return nodeCount; }
+
+}
@@ -0,0 +1,39 @@
+package com.macleod.engine.loop;
+
+/**
+ * A VariableTimestepLoop performs exactly one update per frame, passing however long it has actually been since the previous frame. Without a frame cap this
+ * will run as fast as the CPU allows (useful for measuring raw throughput), but note that the time delay given to each update will differ from frame to frame
+ */
+public class VariableTimestepLoop extends GameLoop {
+
+	private long nsLastFrame;
+
+	public VariableTimestepLoop() { this(UNCAPPED); }
+
+	protected VariableTimestepLoop(int maxFramesPerSecond) { this(maxFramesPerSecond, new FramePacer()); }
+	protected VariableTimestepLoop(int maxFramesPerSecond, FramePacer framePacer) { super(maxFramesPerSecond, framePacer); }
+
+	@Override
+	public void reset(long nsCurrentTime) {
+		super.reset(nsCurrentTime);
+		nsLastFrame = nsCurrentTime;
+	}
+
+	@Override
+	public void runFrame(LoopTarget target) {
+		assert (target != null) : "Cannot run a frame of a GameLoop against a null target";
+
+		final long nsCurrentTime = System.nanoTime();
+		final long nsTimeSinceLastFrame = nsCurrentTime - nsLastFrame;
+		nsLastFrame = nsCurrentTime;
+
+		target.update(nsTimeSinceLastFrame / (float) NS_PER_SECOND);
+		countTick();
+
+		target.render();
+		countFrame();
+
+		waitForNextFrame();
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.macleod.engine.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.macleod.engine.Application;
+import com.macleod.engine.Log;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/**
+ * FrameMetrics keeps a LatencyHistogram for each phase of the frames of an Application, so that the frames that take far longer than the rest (and which
+ * part of the frame was responsible) can be found. The Application records into these from its own threads; anything else can read them at any time, either
+ * through {@code snapshot} or over JMX (see FrameMetricsMXBean).
+ * <br /><br />
+ * Optionally, the update of every layer can be timed individually as well (see {@code setLayerTimingEnabled}). This is disabled by default, since it doubles
+ * the number of timings taken in each update
+ */
+public final class FrameMetrics implements FrameMetricsMXBean {
+
+	public enum Phase {
+		/** Applying any layer changes, and draining the input queue into the GuiSystem */
+		INPUT,
+		/** Clearing whatever each layer drew in its last update (GuiSystem.prepareForRender) */
+		PREPARE,
+		/** Updating every layer (GuiSystem.update) */
+		UPDATE,
+		/** Only when pipelined: the update thread waiting for the render thread to finish the previous frame, before it can hand over the next */
+		WAIT_FOR_RENDER,
+		/** Only when pipelined: copying what the layers changed into their published pixels, to hand the frame over (GuiSystem.publishFrame) */
+		PUBLISH,
+		/** Preparing the Screen to be drawn to (Screen.clear) */
+		CLEAR,
+		/** Drawing the GuiSystem to the Screen (Screen.draw) */
+		DRAW,
+		/** Copying the drawn frame for the FrameRecorder, if there is one */
+		CAPTURE,
+		/** Making the frame visible (Screen.present) */
+		PRESENT,
+		/** Only when pipelined: the render thread waiting for the update thread to hand over the next frame */
+		WAIT_FOR_UPDATE,
+		/** The time between the end of one frame being presented and the end of the next - what the user actually sees */
+		FRAME_INTERVAL;
+	}
+
+	private static final int NUMBER_OF_SLOWEST_LAYERS = 10;
+	private static final AtomicInteger numberOfRegisteredBeans = new AtomicInteger(0);
+
+	private final Application application;
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+	private volatile boolean layerTimingEnabled = false;
+
+	private ObjectName registeredName;
+
+	public FrameMetrics(Application application) {
+		this.application = application;
+		for(int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * Records a single duration of the given phase. Each phase must only ever be recorded by one thread at a time - the thread running the Application, or its
+	 * render thread for the phases of rendering while it is pipelined
+	 */
+	public void record(Phase phase, long nsDuration) { histograms[phase.ordinal()].record(nsDuration); }
+
+	public LatencyHistogram getHistogram(Phase phase) { return histograms[phase.ordinal()]; }
+	public HistogramSnapshot snapshot(Phase phase) { return histograms[phase.ordinal()].snapshot(); }
+
+	@Override
+	public Map<String, HistogramSnapshot.Summary> getPhases() {
+		final Map<String, HistogramSnapshot.Summary> phases = new LinkedHashMap<String, HistogramSnapshot.Summary>();
+		for(Phase phase : Phase.values()) phases.put(phase.name(), snapshot(phase).toSummary());
+		return phases;
+	}
+
+	@Override
+	public String[] getSlowestLayers() {
+		final GuiSystem guiSystem = (application == null) ? null : application.getGuiSystem();
+		if(guiSystem == null) return new String[0];
+
+		final GuiLayer[] layers = guiSystem.getLayers();
+
+		final ArrayList<Integer> timedStackIndices = new ArrayList<Integer>();
+		final HistogramSnapshot[] snapshots = new HistogramSnapshot[layers.length];
+		for(int i = 0; i < layers.length; i++) {
+			if(layers[i].getUpdateTimes() != null) {
+				timedStackIndices.add(i);
+				snapshots[i] = layers[i].getUpdateTimes().snapshot();
+			}
+		}
+
+		Collections.sort(timedStackIndices, new Comparator<Integer>() {
+			public int compare(Integer first, Integer second) { return Long.compare(snapshots[second].getP99(), snapshots[first].getP99()); }
+		});
+
+		final String[] slowestLayers = new String[Math.min(NUMBER_OF_SLOWEST_LAYERS, timedStackIndices.size())];
+		for(int i = 0; i < slowestLayers.length; i++) {
+			final int stackIndex = timedStackIndices.get(i);
+			slowestLayers[i] = stackIndex + ": " + layers[stackIndex].getClass().getName() + " - " + snapshots[stackIndex];
+		}
+		return slowestLayers;
+	}
+
+	@Override
+	public boolean isLayerTimingEnabled() { return layerTimingEnabled; }
+	@Override
+	public void setLayerTimingEnabled(boolean enabled) { layerTimingEnabled = enabled; }
+
+	@Override
+	public void reset() {
+		for(LatencyHistogram histogram : histograms) histogram.reset();
+
+		final GuiSystem guiSystem = (application == null) ? null : application.getGuiSystem();
+		if(guiSystem != null) {
+			for(GuiLayer layer : guiSystem.getLayers()) {
+				if(layer.getUpdateTimes() != null) layer.getUpdateTimes().reset();
+			}
+		}
+	}
+
+	/** Registers these metrics with the platform MBean server. If they can't be registered, the reason is logged and the metrics are still usable directly */
+	public synchronized void registerMBean() {
+		if(registeredName != null) return;
+
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName("com.macleod.engine:type=FrameMetrics,name=Application" + numberOfRegisteredBeans.incrementAndGet());
+			server.registerMBean(this, name);
+			registeredName = name;
+		} catch(Exception e) {
+			Log.warn("Failed to register frame metrics with the platform MBean server - {}", e);
+		}
+	}
+
+	public synchronized void unregisterMBean() {
+		if(registeredName == null) return;
+
+		try { ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+		} catch(Exception e) { Log.warn("Failed to unregister frame metrics from the platform MBean server - {}", e); }
+		registeredName = null;
+	}
+
+	public synchronized ObjectName getRegisteredName() { return registeredName; }
+
+}
@@ -0,0 +1,26 @@
+package com.macleod.engine.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of FrameMetrics, registered with the platform MBean server while an Application is running (under
+ * "com.macleod.engine:type=FrameMetrics"). Every duration is in nanoseconds
+ */
+public interface FrameMetricsMXBean {
+
+	/** The statistics of every phase of a frame, by the name of the phase */
+	Map<String, HistogramSnapshot.Summary> getPhases();
+
+	/**
+	 * The layers with the highest 99th percentile update times (slowest first), as "stack index: class name - statistics". This is empty unless layer timing
+	 * is enabled
+	 */
+	String[] getSlowestLayers();
+
+	boolean isLayerTimingEnabled();
+	void setLayerTimingEnabled(boolean enabled);
+
+	/** Forgets everything recorded so far (including any layer timings) */
+	void reset();
+
+}
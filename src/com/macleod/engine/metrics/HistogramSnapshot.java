@@ -0,0 +1,77 @@
+package com.macleod.engine.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A HistogramSnapshot is a copy of a LatencyHistogram at the moment it was taken, which can be queried for percentiles without being affected by anything
+ * recorded afterwards. All values are in nanoseconds.
+ * <br /><br />
+ * Percentiles are given as the highest value in the bucket the percentile falls in (capped by the maximum value recorded), so they are never under-reported
+ */
+public final class HistogramSnapshot {
+
+	private final long[] bucketCounts;
+	private final long count, totalValue, maxValue;
+
+	HistogramSnapshot(long[] bucketCounts, long count, long totalValue, long maxValue) {
+		this.bucketCounts = bucketCounts;
+		this.count = count;
+		this.totalValue = totalValue;
+		this.maxValue = maxValue;
+	}
+
+	/** Returns the value that the given percentage (from 0 to 100) of the recorded values were less than or equal to */
+	public long getValueAtPercentile(double percentile) {
+		if(count == 0) return 0;
+
+		final long targetCount = Math.max(1, (long) Math.ceil((Math.min(100, Math.max(0, percentile)) / 100.0) * count));
+		long countSoFar = 0;
+		for(int i = 0; i < bucketCounts.length; i++) {
+			countSoFar += bucketCounts[i];
+			if(countSoFar >= targetCount) return Math.min(LatencyHistogram.highestValueIn(i), maxValue);
+		}
+		return maxValue;
+	}
+
+	public long getCount() { return count; }
+	public long getMax() { return maxValue; }
+	public double getMean() { return ((count == 0) ? 0 : (totalValue / (double) count)); }
+
+	public long getP50() { return getValueAtPercentile(50); }
+	public long getP99() { return getValueAtPercentile(99); }
+	public long getP999() { return getValueAtPercentile(99.9); }
+
+	/** The summary of this snapshot that is exposed over JMX */
+	public Summary toSummary() { return new Summary(count, getMean(), getP50(), getP99(), getP999(), maxValue); }
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", count, getMean() / 1e3, getP50() / 1e3, getP99() / 1e3,
+				getP999() / 1e3, maxValue / 1e3);
+	}
+
+	/** A fixed set of statistics from a snapshot (all in nanoseconds), in a form JMX clients can read without any engine classes */
+	public static final class Summary {
+		private final long count;
+		private final double mean;
+		private final long p50, p99, p999, max;
+
+		@ConstructorProperties({ "count", "mean", "p50", "p99", "p999", "max" })
+		public Summary(long count, double mean, long p50, long p99, long p999, long max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public long getCount() { return count; }
+		public double getMean() { return mean; }
+		public long getP50() { return p50; }
+		public long getP99() { return p99; }
+		public long getP999() { return p999; }
+		public long getMax() { return max; }
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.macleod.engine.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram counts how many times each duration (in nanoseconds) has been recorded, so that percentiles can be worked out later. Recording never
+ * allocates and takes a handful of instructions, so it can be done for every phase of every frame.
+ * <br /><br />
+ * The buckets are log-linear: every power of two is split into {@code SUB_BUCKETS} equally sized buckets, so every value is counted to within about 3% of its
+ * real value (and values below {@code 2 * SUB_BUCKETS} nanoseconds are counted exactly), whatever its size.
+ * <br /><br />
+ * Only a single thread may record into a histogram, but any thread may take a snapshot of it at any time. A snapshot taken while a value is being recorded may
+ * be one value behind - but never inconsistent enough to matter for percentiles
+ */
+public final class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Values below this are given a bucket each. Every power of two from here up to 2^62 gets SUB_BUCKETS buckets
+	private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+	static final int NUMBER_OF_BUCKETS = LINEAR_BUCKETS + ((62 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+	private volatile long totalCount, totalValue, maxValue;
+
+	// A reset is only requested by other threads - the recording thread does the reset itself, so that it is never part way through a record when it happens
+	private volatile boolean resetRequested = false;
+
+	/** Counts a single duration. Negative values are counted as 0 */
+	public void record(long nsValue) {
+		if(resetRequested) resetNow();
+
+		final long value = Math.max(0, nsValue);
+		final int bucket = bucketFor(value);
+
+		// There is only ever one thread recording, so the counts don't need to be incremented atomically - they just need to be visible to other threads
+		counts.lazySet(bucket, counts.get(bucket) + 1);
+		totalValue += value;
+		if(value > maxValue) maxValue = value;
+		totalCount++;
+	}
+
+	/** Forgets everything recorded so far. The reset happens the next time a value is recorded (on the recording thread) */
+	public void reset() { resetRequested = true; }
+
+	private void resetNow() {
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) counts.lazySet(i, 0);
+		totalCount = 0;
+		totalValue = 0;
+		maxValue = 0;
+		resetRequested = false;
+	}
+
+	public HistogramSnapshot snapshot() {
+		final long[] bucketCounts = new long[NUMBER_OF_BUCKETS];
+		long count = 0;
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			bucketCounts[i] = counts.get(i);
+			count += bucketCounts[i];
+		}
+		return new HistogramSnapshot(bucketCounts, count, totalValue, maxValue);
+	}
+
+	public long getTotalCount() { return totalCount; }
+
+	static int bucketFor(long value) {
+		if(value < LINEAR_BUCKETS) return (int) value;
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return LINEAR_BUCKETS + ((exponent - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS) + subBucket;
+	}
+
+	/** The smallest value that is counted in the given bucket */
+	static long lowestValueIn(int bucket) {
+		if(bucket < LINEAR_BUCKETS) return bucket;
+
+		final int exponent = ((bucket - LINEAR_BUCKETS) / SUB_BUCKETS) + SUB_BUCKET_BITS + 1;
+		final long subBucket = ((bucket - LINEAR_BUCKETS) % SUB_BUCKETS) + SUB_BUCKETS;
+		return (subBucket << (exponent - SUB_BUCKET_BITS));
+	}
+
+	/** The largest value that is counted in the given bucket */
+	static long highestValueIn(int bucket) {
+		if(bucket < LINEAR_BUCKETS) return bucket;
+		return (bucket == (NUMBER_OF_BUCKETS - 1)) ? Long.MAX_VALUE : (lowestValueIn(bucket + 1) - 1);
+	}
+
+}
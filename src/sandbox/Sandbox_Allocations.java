@@ -0,0 +1,39 @@
+package sandbox;
+
+import java.lang.management.ManagementFactory;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * Measures how many bytes the current thread allocates, for the sandboxes that check something doesn't allocate. Asking the JVM for the number allocates a
+ * little itself (816 bytes on a 64-bit HotSpot, though now and again a call allocates more), and part of that lands between any two readings - so it is
+ * measured once, as the least of several back to back readings, and taken away from every measurement. A measurement is never less than zero, so a check
+ * should only fail on a positive number. Any one measurement can still catch the odd larger call (or the JIT compiling), so a check should measure a few
+ * times and keep the least.
+ */
+public final class Sandbox_Allocations {
+
+	private static final long BYTES_PER_READING = measureBytesPerReading();
+
+	private Sandbox_Allocations() { }
+
+	/** The number of bytes the current thread has allocated so far */
+	public static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/** The number of bytes the current thread has allocated since the given reading of getAllocatedBytes, not counting the readings themselves */
+	public static long getAllocatedBytesSince(long bytesBefore) {
+		return Math.max(0, getAllocatedBytes() - bytesBefore - BYTES_PER_READING);
+	}
+
+	private static long measureBytesPerReading() {
+		long bytesFewest = Long.MAX_VALUE;
+		for(int i = 0; i < 16; i++) {
+			final long bytesBefore = getAllocatedBytes();
+			bytesFewest = Math.min(bytesFewest, getAllocatedBytes() - bytesBefore);
+		}
+		return bytesFewest;
+	}
+
+}
@@ -1,15 +1,20 @@
 package sandbox;
 
 import com.macleod.engine.Application;
+import com.macleod.engine.WindowScreen;
 import com.macleod.engine.graphics.gui.GuiSystem;
 
 /*
  * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * Passing the argument "virtual" draws the GuiSystem at 400x225, scaled up to fill the window.
  */
 public class Sandbox_Application {
 
 	public static void main(String[] args) {
-		final Application app = new Application("Sandbox", 16 * 100, 9 * 100);
+		final WindowScreen screen = new WindowScreen("Sandbox", 16 * 100, 9 * 100, 2);
+		if((args.length > 0) && args[0].equals("virtual")) screen.setVirtualResolution(16 * 25, 9 * 25);
+		final Application app = new Application(screen);
 		
 		final GuiSystem guiSystem = new GuiSystem();
 		guiSystem.addLayer(new Sandbox_ExampleGuiLayer());
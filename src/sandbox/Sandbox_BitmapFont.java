@@ -0,0 +1,293 @@
+package sandbox;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.imageio.ImageIO;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.BitmapFont;
+import com.macleod.engine.graphics.Colour;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It rasterises a BitmapFont from an AWT Font and checks that text drawn with it lands where Graphics.drawString would put it, that kerning is applied, that
+ * clipping leaves everything outside of the clip rectangle alone, that a String and a StringBuilder holding the same text draw the same pixels, and that
+ * only a String drawn more than once is cached. It then writes a tiny BMFont file (a page of solid blocks) and checks that loading it places every glyph
+ * exactly. Finally it times a dashboard of numeric labels that change every frame, drawn with drawText and with Graphics.drawString. It doesn't need a
+ * display, so can be run with java.awt.headless=true. The optional arguments are the number of labels per frame and the number of frames.
+ */
+public class Sandbox_BitmapFont {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		final int numberOfLabels = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+		final int numberOfFrames = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+
+		final Font awtFont = new Font(Font.SANS_SERIF, Font.PLAIN, 16);
+		final long nsStart = System.nanoTime();
+		final BitmapFont font = BitmapFont.create(awtFont, true);
+		System.out.println(String.format("Created %s in %.0fms: a %dx%d atlas with %d kerning pairs", font, (System.nanoTime() - nsStart) / 1e6,
+				font.getPage(0).width, font.getPage(0).height, font.getKerningPairCount()));
+
+		checkAgainstDrawString(font, awtFont);
+		checkKerning(font);
+		checkClipping(font);
+		checkStringBuilder(font);
+		checkLayoutCache(font);
+		checkOpaqueTarget(font);
+		checkBMFont();
+
+		timeLabels(font, awtFont, numberOfLabels, numberOfFrames);
+		System.out.println((failures == 0) ? "Every check passed" : (failures + " checks FAILED"));
+	}
+
+	// The glyphs are rasterised by the same font, so the coverage drawn should be close to what drawString draws - only the rounding of each glyph to a whole
+	// pixel differs. Anything misplaced (or unkerned) gives a far bigger difference
+	private static void checkAgainstDrawString(BitmapFont font, Font awtFont) {
+		final String text = "AVATAR Typewriter, 0123456789 (ToWaY) fjord!";
+		final Bitmap drawn = new Bitmap(600, 40);
+		drawn.drawText(font, text, 10, 10, Colour.WHITE);
+
+		final Bitmap reference = new Bitmap(600, 40);
+		final Graphics2D graphics = (Graphics2D) reference.createGraphicsInstance();
+		graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+		graphics.setFont(awtFont.deriveFont(Collections.singletonMap(TextAttribute.KERNING, TextAttribute.KERNING_ON)));
+		graphics.setColor(Color.WHITE);
+		graphics.drawString(text, 10, 10 + font.getAscent());
+		graphics.dispose();
+
+		long difference = 0, total = 0;
+		for(int y = 0; y < drawn.height; y++) {
+			for(int x = 0; x < drawn.width; x++) {
+				difference += Math.abs((drawn.getPixelARGB(x, y) >>> 24) - (reference.getPixelARGB(x, y) >>> 24));
+				total += (reference.getPixelARGB(x, y) >>> 24);
+			}
+		}
+		final double relativeDifference = difference / (double) Math.max(total, 1);
+		System.out.println(String.format("Against drawString: %.1f%% of the coverage differs", 100 * relativeDifference));
+		if(relativeDifference > 0.25) fail("the text drawn differs too much from drawString");
+	}
+
+	private static void checkKerning(BitmapFont font) {
+		if(font.getKerningPairCount() == 0) {
+			System.out.println("This font has no kerning pairs, so kerning wasn't checked");
+			return;
+		}
+
+		final int kerned = font.measureWidth("AV"), unkerned = font.measureWidth("A") + font.measureWidth("V");
+		System.out.println("\"AV\" is " + kerned + " pixels wide, against " + unkerned + " for \"A\" and \"V\" apart");
+		if(kerned >= unkerned) fail("\"AV\" was not kerned");
+	}
+
+	private static void checkClipping(BitmapFont font) {
+		final int background = Colour.getARGB(255, 20, 30, 40);
+		final Bitmap target = new Bitmap(200, 60);
+		target.setPixelRegion(0, 0, 200, 60, background);
+		target.clearDirtyRegion();
+
+		// Partly off the left and top of the Bitmap as well as partly outside the clip rectangle
+		target.drawText(font, "Clipped text\nSecond line", -5, -4, Colour.RED, 10, 5, 50, 20);
+		for(int y = 0; y < target.height; y++) {
+			for(int x = 0; x < target.width; x++) {
+				final boolean insideClip = ((x >= 10) && (x < 60) && (y >= 5) && (y < 25));
+				if(!insideClip && (target.getPixelARGB(x, y) != background)) {
+					fail("clipping drew outside of the clip rectangle at (" + x + "," + y + ")");
+					return;
+				}
+			}
+		}
+		if(!target.isDirty() || (target.getDirtyRegion().getX() < 10) || (target.getDirtyRegion().getY() < 5)
+				|| ((target.getDirtyRegion().getX() + target.getDirtyRegion().getWidth()) > 60)
+				|| ((target.getDirtyRegion().getY() + target.getDirtyRegion().getHeight()) > 25)) {
+			fail("the dirty region doesn't match the clipped text");
+		}
+	}
+
+	private static void checkStringBuilder(BitmapFont font) {
+		final Bitmap fromString = new Bitmap(300, 60), fromBuilder = new Bitmap(300, 60);
+		fromString.drawText(font, "Frame 1234\nFPS: 59.9", 3, 2, 0x80ffcc00);
+		fromBuilder.drawText(font, new StringBuilder("Frame 1234\nFPS: 59.9"), 3, 2, 0x80ffcc00);
+
+		final int[] stringPixels = new int[300 * 60], builderPixels = new int[300 * 60];
+		fromString.getPixels(stringPixels);
+		fromBuilder.getPixels(builderPixels);
+		if(!Arrays.equals(stringPixels, builderPixels)) fail("a String and a StringBuilder drew different pixels");
+	}
+
+	private static void checkLayoutCache(BitmapFont font) {
+		font.clearLayoutCache();
+		final Bitmap target = new Bitmap(300, 60);
+		final long hitsBefore = font.getLayoutHitCount();
+		target.drawText(font, "Drawn three times", 0, 0, Colour.WHITE);
+		if(font.getCachedLayoutCount() != 0) fail("a String was cached the first time it was drawn");
+		target.drawText(font, "Drawn three times", 0, 0, Colour.WHITE);
+		if(font.getCachedLayoutCount() != 1) fail("a String wasn't cached the second time it was drawn");
+		target.drawText(font, "Drawn three times", 0, 0, Colour.WHITE);
+		if(font.getLayoutHitCount() != (hitsBefore + 1)) fail("a cached String wasn't found in the cache");
+
+		// The Layout given out for a String that isn't cached must not be the scratch Layout, which the next text laid out would overwrite
+		final BitmapFont.Layout layout = font.getLayout("Never cached");
+		final int width = layout.getWidth();
+		font.measureWidth(new StringBuilder("Something far wider than the layout that was given out"));
+		if(layout.getWidth() != width) fail("the Layout of a String that isn't cached changed when other text was laid out");
+	}
+
+	// Text drawn into a Bitmap without an alpha channel takes a faster path (see BitmapFont.CoverageBatch, and PixelKernels.blendCoverageOntoOpaque for clipped
+	// glyphs), which must give exactly the same pixels as blending each glyph over an opaque Bitmap with an alpha channel - including where two glyphs overlap,
+	// as the '_' and 'j' do
+	private static void checkOpaqueTarget(BitmapFont font) {
+		final int background = Colour.getARGB(255, 200, 120, 40);
+		final Bitmap opaque = new Bitmap(300, 60, false), translucent = new Bitmap(300, 60);
+		opaque.setPixelRegion(0, 0, 300, 60, background);
+		translucent.setPixelRegion(0, 0, 300, 60, background);
+		for(int tint : new int[] { Colour.WHITE, 0xff3366cc, 0x80ffffff, 0x4000ff80 }) {
+			opaque.drawText(font, "Opaque: 42.0%\n-17 (AVW) x_j", 2, 3, tint, 0, 0, 250, 45);
+			translucent.drawText(font, "Opaque: 42.0%\n-17 (AVW) x_j", 2, 3, tint, 0, 0, 250, 45);
+		}
+
+		final int[] opaquePixels = new int[300 * 60], translucentPixels = new int[300 * 60];
+		opaque.getPixels(opaquePixels);
+		translucent.getPixels(translucentPixels);
+		if(!Arrays.equals(opaquePixels, translucentPixels)) fail("text drawn into an opaque Bitmap differs from text blended over an opaque background");
+	}
+
+	// A page of solid 4x6 blocks (one per glyph, each a different shade of red) with an exact kerning pair, so every pixel drawn can be predicted
+	private static void checkBMFont() throws IOException {
+		final Path directory = Files.createTempDirectory("bmfont");
+		final Path fontFile = directory.resolve("blocks.fnt");
+		final Path pageFile = directory.resolve("blocks_0.png");
+		try {
+			final BufferedImage page = new BufferedImage(32, 8, BufferedImage.TYPE_INT_RGB);
+			for(int glyph = 0; glyph < 4; glyph++) {
+				for(int y = 0; y < 6; y++) for(int x = 0; x < 4; x++) page.setRGB(1 + (glyph * 6) + x, 1 + y, (64 * (glyph + 1) - 1) << 16);
+			}
+			ImageIO.write(page, "png", pageFile.toFile());
+
+			final StringBuilder fnt = new StringBuilder();
+			fnt.append("info face=\"Blocks\" size=8 bold=0 italic=0 charset=\"\" unicode=1 stretchH=100 smooth=0 aa=1 padding=0,0,0,0 spacing=1,1\n");
+			fnt.append("common lineHeight=10 base=8 scaleW=32 scaleH=8 pages=1 packed=0\n");
+			fnt.append("page id=0 file=\"blocks_0.png\"\n");
+			fnt.append("chars count=4\n");
+			final String characters = "AB?C";
+			for(int glyph = 0; glyph < 4; glyph++) {
+				fnt.append("char id=" + (int) characters.charAt(glyph) + "   x=" + (1 + (glyph * 6)) + " y=1 width=4 height=6 xoffset=1 yoffset=2 xadvance=6 "
+						+ "page=0 chnl=15\n");
+			}
+			fnt.append("kernings count=1\n");
+			fnt.append("kerning first=65 second=66 amount=-2\n");
+			Files.write(fontFile, fnt.toString().getBytes(StandardCharsets.UTF_8));
+
+			final BitmapFont blocks = BitmapFont.load(fontFile);
+			final Bitmap target = new Bitmap(40, 30);
+			// 'A', then 'B' kerned 2 pixels closer, then 'Z' (missing, so drawn as '?'), then 'C' on the next line
+			target.drawText(blocks, "ABZ\nC", 0, 0, Colour.WHITE);
+
+			final int[][] expectedBlocks = { { 1, 2, 0 }, { 5, 2, 1 }, { 11, 2, 2 }, { 1, 12, 3 } };
+			int expectedCoverage = 0;
+			for(int[] block : expectedBlocks) {
+				final int colour = Colour.getARGB(64 * (block[2] + 1) - 1, 255, 255, 255);
+				for(int y = 0; y < 6; y++) {
+					for(int x = 0; x < 4; x++) {
+						if(target.getPixelARGB(block[0] + x, block[1] + y) != colour) {
+							fail("the BMFont glyph " + characters.charAt(block[2]) + " isn't where it should be");
+							return;
+						}
+					}
+				}
+				expectedCoverage += 24;
+			}
+			int coverage = 0;
+			for(int y = 0; y < target.height; y++) for(int x = 0; x < target.width; x++) if(target.getPixelARGB(x, y) != 0) coverage++;
+			if(coverage != expectedCoverage) fail("the BMFont text drew " + coverage + " pixels rather than " + expectedCoverage);
+			if(blocks.measureWidth("AB") != 10) fail("the BMFont text \"AB\" measured " + blocks.measureWidth("AB") + " pixels rather than 10");
+			System.out.println("Loaded " + blocks + " from a BMFont file, with " + blocks.getKerningPairCount() + " kerning pair");
+		} finally {
+			Files.deleteIfExists(fontFile);
+			Files.deleteIfExists(pageFile);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	// A grid of labels whose values change every frame, as a dashboard of counters would
+	private static void timeLabels(BitmapFont font, Font awtFont, int numberOfLabels, int numberOfFrames) {
+		final Bitmap target = new Bitmap(1600, 900, false);
+		final StringBuilder label = new StringBuilder();
+		final int columns = 1600 / 100;
+
+		// Run each once before measuring, so that neither is measured while the JIT is still compiling. Each is then run a few times in turn (keeping the
+		// fastest), since anything else running on the machine easily swamps the difference
+		double bestBuilder = Double.MAX_VALUE, bestString = Double.MAX_VALUE, bestGraphics = Double.MAX_VALUE;
+		long builderAllocated = Long.MAX_VALUE;
+		for(int repeat = 0; repeat < 4; repeat++) {
+			long nsStart = System.nanoTime();
+			final long bytesBefore = Sandbox_Allocations.getAllocatedBytes();
+			for(int frame = 0; frame < numberOfFrames; frame++) {
+				target.setPixelRegion(0, 0, target.width, target.height, Colour.BLACK);
+				for(int i = 0; i < numberOfLabels; i++) {
+					label.setLength(0);
+					label.append("CPU ").append(i).append(": ").append((frame * 7919 + i * 104729) % 100000).append('.').append(i % 10);
+					target.drawText(font, label, (i % columns) * 100, (i / columns) * font.getLineHeight(), Colour.GREEN);
+				}
+			}
+			final double builderMs = (System.nanoTime() - nsStart) / (1e6 * numberOfFrames);
+			if(repeat > 0) builderAllocated = Math.min(builderAllocated, Sandbox_Allocations.getAllocatedBytesSince(bytesBefore));
+
+			nsStart = System.nanoTime();
+			for(int frame = 0; frame < numberOfFrames; frame++) {
+				target.setPixelRegion(0, 0, target.width, target.height, Colour.BLACK);
+				for(int i = 0; i < numberOfLabels; i++) {
+					target.drawText(font, "CPU " + i + ": " + ((frame * 7919 + i * 104729) % 100000) + "." + (i % 10), (i % columns) * 100,
+							(i / columns) * font.getLineHeight(), Colour.GREEN);
+				}
+			}
+			final double stringMs = (System.nanoTime() - nsStart) / (1e6 * numberOfFrames);
+
+			final Graphics2D graphics = (Graphics2D) target.createGraphicsInstance();
+			graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			graphics.setFont(awtFont);
+			nsStart = System.nanoTime();
+			for(int frame = 0; frame < numberOfFrames; frame++) {
+				target.setPixelRegion(0, 0, target.width, target.height, Colour.BLACK);
+				graphics.setColor(Color.GREEN);
+				for(int i = 0; i < numberOfLabels; i++) {
+					graphics.drawString("CPU " + i + ": " + ((frame * 7919 + i * 104729) % 100000) + "." + (i % 10), (i % columns) * 100,
+							((i / columns) * font.getLineHeight()) + font.getAscent());
+				}
+			}
+			final double graphicsMs = (System.nanoTime() - nsStart) / (1e6 * numberOfFrames);
+			graphics.dispose();
+
+			if(repeat > 0) {
+				bestBuilder = Math.min(bestBuilder, builderMs);
+				bestString = Math.min(bestString, stringMs);
+				bestGraphics = Math.min(bestGraphics, graphicsMs);
+			}
+		}
+
+		System.out.println(String.format("%d changing labels per frame: %.3fms with drawText from a StringBuilder (%d bytes allocated over %d frames), %.3fms "
+				+ "with drawText from new Strings, %.3fms with Graphics.drawString", numberOfLabels, bestBuilder, builderAllocated, numberOfFrames, bestString,
+				bestGraphics));
+		System.out.println(String.format("The layout cache holds %d layouts, after %d hits and %d misses", font.getCachedLayoutCount(), font.getLayoutHitCount(),
+				font.getLayoutMissCount()));
+	}
+
+	private static void fail(String message) {
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+
+}
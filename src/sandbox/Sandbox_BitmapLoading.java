@@ -0,0 +1,203 @@
+package sandbox;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.BitmapCache;
+import com.macleod.engine.graphics.BitmapLoader;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.CompiledSprite;
+import com.macleod.engine.graphics.Compositor;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It writes a set of PNG sprites to a temporary directory, then times loading all of them: decoded by ImageIO every time, through a raw cache directory for
+ * the first time (decoding and writing the raw files) and every time after that (reading the raw files), and through a BitmapCache that already holds them.
+ * The Bitmaps loaded each way are checked to be identical. It also checks that images without an alpha channel (a JPEG and a BMP) show up however they are
+ * drawn - loaded directly and through a raw file - and that a raw file is written again once its image changes. The optional arguments are the number of
+ * sprites and their size.
+ */
+public class Sandbox_BitmapLoading {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		final int numberOfSprites = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+		final int spriteSize = (args.length > 1) ? Integer.parseInt(args[1]) : 128;
+
+		final Path directory = Files.createTempDirectory("sandbox-bitmaps");
+		final Path rawCacheDirectory = directory.resolve("raw");
+		try {
+			checkOpaqueImages(directory, rawCacheDirectory);
+			checkStaleRawFile(directory, rawCacheDirectory);
+
+			final Path[] files = writeSprites(directory, numberOfSprites, spriteSize);
+
+			long nsStart = System.nanoTime();
+			final Bitmap[] decoded = new Bitmap[files.length];
+			for(int i = 0; i < files.length; i++) decoded[i] = BitmapLoader.load(files[i]);
+			report("Decoded", System.nanoTime() - nsStart, files.length);
+
+			nsStart = System.nanoTime();
+			for(int i = 0; i < files.length; i++) check(decoded[i], BitmapLoader.load(files[i], rawCacheDirectory), files[i]);
+			report("Decoded and wrote raw files", System.nanoTime() - nsStart, files.length);
+
+			nsStart = System.nanoTime();
+			final Bitmap[] raw = new Bitmap[files.length];
+			for(int i = 0; i < files.length; i++) raw[i] = BitmapLoader.load(files[i], rawCacheDirectory);
+			report("Read raw files", System.nanoTime() - nsStart, files.length);
+			for(int i = 0; i < files.length; i++) check(decoded[i], raw[i], files[i]);
+
+			final BitmapCache cache = new BitmapCache(BitmapCache.DEFAULT_MAX_BYTES, rawCacheDirectory);
+			for(Path file : files) cache.get(file);
+			nsStart = System.nanoTime();
+			for(int i = 0; i < files.length; i++) {
+				if(cache.get(files[i]) != cache.get(files[i])) System.out.println("Cache returned different Bitmaps for " + files[i]);
+			}
+			report("Cache hits", (System.nanoTime() - nsStart) / 2, files.length);
+			System.out.println(String.format("Cache: %d bitmaps, %d bytes, %d hits, %d misses, %d evictions", cache.size(), cache.getRetainedBytes(),
+					cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount()));
+			final long missesBefore = cache.getMissCount();
+			if((cache.getIfPresent(directory.resolve("missing.png")) != null) || (cache.getMissCount() != (missesBefore + 1))) {
+				fail("getIfPresent didn't count a miss for a file that isn't cached");
+			}
+
+			// A cache too small for every sprite should only keep the most recently used ones
+			final BitmapCache smallCache = new BitmapCache(10L * 4 * spriteSize * spriteSize);
+			for(Path file : files) smallCache.get(file);
+			System.out.println(String.format("Small cache: %d bitmaps, %d bytes, %d evictions, holds the last sprite: %b, holds the first sprite: %b",
+					smallCache.size(), smallCache.getRetainedBytes(), smallCache.getEvictionCount(), smallCache.contains(files[files.length - 1]),
+					smallCache.contains(files[0])));
+			System.out.println((failures == 0) ? "Every check passed" : (failures + " checks FAILED"));
+		} finally {
+			final List<Path> paths = new ArrayList<Path>();
+			try(Stream<Path> walk = Files.walk(directory)) {
+				final Iterator<Path> iterator = walk.iterator();
+				while(iterator.hasNext()) paths.add(iterator.next());
+			}
+			// Deepest first, so every directory is empty by the time it is deleted
+			Collections.sort(paths, Collections.reverseOrder());
+			for(Path path : paths) Files.deleteIfExists(path);
+		}
+	}
+
+	private static Path[] writeSprites(Path directory, int numberOfSprites, int spriteSize) throws IOException {
+		final Random random = new Random(0);
+		final Path[] files = new Path[numberOfSprites];
+		for(int i = 0; i < numberOfSprites; i++) {
+			// Every fourth sprite is opaque, so both kinds of image are loaded
+			final boolean opaque = ((i % 4) == 0);
+			final BufferedImage image = new BufferedImage(spriteSize, spriteSize, (opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB));
+			for(int y = 0; y < spriteSize; y++) {
+				for(int x = 0; x < spriteSize; x++) {
+					final int inside = ((x - (spriteSize / 2)) * (x - (spriteSize / 2))) + ((y - (spriteSize / 2)) * (y - (spriteSize / 2)));
+					final int alpha = (inside < ((spriteSize * spriteSize) / 5)) ? 0xff : ((inside < ((spriteSize * spriteSize) / 4)) ? 0x80 : 0);
+					image.setRGB(x, y, (alpha << 24) | (random.nextInt() & 0x00ffffff));
+				}
+			}
+			files[i] = directory.resolve("sprite" + i + ".png");
+			ImageIO.write(image, "png", files[i].toFile());
+		}
+		return files;
+	}
+
+	private static void check(Bitmap expected, Bitmap actual, Path file) {
+		boolean identical = (expected.getWidth() == actual.getWidth()) && (expected.getHeight() == actual.getHeight())
+				&& (expected.hasAlphaChannel() == actual.hasAlphaChannel());
+		for(int y = 0; identical && (y < expected.getHeight()); y++) {
+			for(int x = 0; identical && (x < expected.getWidth()); x++) identical = (expected.getPixelARGB(x, y) == actual.getPixelARGB(x, y));
+		}
+		if(!identical) fail("the Bitmaps loaded from " + file + " differ");
+	}
+
+	// An image without an alpha channel must load as fully opaque pixels, or anything that reads their alpha skips them as transparent
+	private static void checkOpaqueImages(Path directory, Path rawCacheDirectory) throws IOException {
+		final int colour = 0xffff3366;
+		final BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+		for(int y = 0; y < 8; y++) {
+			for(int x = 0; x < 8; x++) image.setRGB(x, y, colour);
+		}
+
+		for(String format : new String[] { "jpg", "bmp" }) {
+			final Path file = directory.resolve("opaque." + format);
+			ImageIO.write(image, format, file.toFile());
+
+			checkShowsUp(BitmapLoader.load(file), colour, file + " (decoded)");
+			checkShowsUp(BitmapLoader.load(file, rawCacheDirectory), colour, file + " (decoded, writing a raw file)");
+			checkShowsUp(BitmapLoader.load(file, rawCacheDirectory), colour, file + " (read from a raw file)");
+		}
+	}
+
+	private static void checkShowsUp(Bitmap sprite, int colour, String description) {
+		if(sprite.hasAlphaChannel()) fail(description + " has an alpha channel");
+
+		for(Bitmap.BlitMode mode : new Bitmap.BlitMode[] { Bitmap.BlitMode.OPAQUE, Bitmap.BlitMode.ALPHA_BLEND }) {
+			final Bitmap target = new Bitmap(16, 16);
+			target.setPixelRegion(0, 0, 16, 16, Colour.BLACK);
+			target.drawBitmap(sprite, 4, 4, mode);
+			if(!isClose(target.getPixelARGB(7, 7), colour)) fail(description + " doesn't show up drawn with drawBitmap in " + mode + " mode");
+
+			final Bitmap compiledTarget = new Bitmap(16, 16);
+			compiledTarget.setPixelRegion(0, 0, 16, 16, Colour.BLACK);
+			new CompiledSprite(sprite, mode).drawTo(compiledTarget, 4, 4);
+			if(!isClose(compiledTarget.getPixelARGB(7, 7), colour)) fail(description + " doesn't show up as a CompiledSprite in " + mode + " mode");
+		}
+
+		// Drawn into a transparent layer, which is then composited - as a sprite drawn into a GuiLayer would be
+		final Bitmap layer = new Bitmap(16, 16);
+		layer.drawBitmap(sprite, 4, 4, Bitmap.BlitMode.OPAQUE);
+		final Compositor compositor = new Compositor(16, 16);
+		compositor.beginComposite(compositor);
+		compositor.composite(layer, 0, 0);
+		compositor.endComposite();
+		if(!isClose(compositor.getFramebuffer().getPixelARGB(7, 7), colour)) fail(description + " doesn't show up once composited");
+	}
+
+	// A JPEG is lossy, so only near enough the right colour can be asked for
+	private static boolean isClose(int argb, int expected) {
+		for(int shift = 0; shift < 32; shift += 8) {
+			if(Math.abs(((argb >>> shift) & 0xff) - ((expected >>> shift) & 0xff)) > 8) return false;
+		}
+		return true;
+	}
+
+	// Once its image changes, a raw file has to be replaced by a new one (rather than being read, or left in place while the image is decoded every time)
+	private static void checkStaleRawFile(Path directory, Path rawCacheDirectory) throws IOException {
+		final Path file = directory.resolve("changing.png");
+		final BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(1, 1, 0xff102030);
+		ImageIO.write(image, "png", file.toFile());
+		BitmapLoader.load(file, rawCacheDirectory);
+
+		image.setRGB(1, 1, 0xff405060);
+		ImageIO.write(image, "png", file.toFile());
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+		if(BitmapLoader.load(file, rawCacheDirectory).getPixelARGB(1, 1) != 0xff405060) fail("a stale raw file was read in place of its changed image");
+		if(BitmapLoader.readRaw(BitmapLoader.getRawCacheFile(file, rawCacheDirectory)).getPixelARGB(1, 1) != 0xff405060) {
+			fail("a stale raw file wasn't written again");
+		}
+	}
+
+	private static void fail(String message) {
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+
+	private static void report(String description, long nsTaken, int numberOfSprites) {
+		System.out.println(String.format("%-28s %8.2fms total, %8.1fus per sprite", description, nsTaken / 1e6, nsTaken / (1e3 * numberOfSprites)));
+	}
+
+}
@@ -0,0 +1,160 @@
+package sandbox;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.BitmapPool;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It simulates popups coming and going: every frame a few popups (of a handful of different sizes) are added to a GuiSystem and the oldest are removed, with
+ * and without a BitmapPool. For each it reports how much was allocated per frame, how many garbage collections happened, and the pool's statistics. It then
+ * reports how much acquiring and releasing a pooled Bitmap allocates on its own (which should only be the Bitmap itself), and checks that a pool holding
+ * many different sizes at once hands back exactly the images it should. The optional argument is the number of frames to simulate.
+ */
+public class Sandbox_BitmapPoolChurn {
+
+	private static final int[][] POPUP_SIZES = { { 200, 120 }, { 320, 200 }, { 480, 320 }, { 640, 480 } };
+	private static final int POPUPS_PER_FRAME = 2, POPUPS_ALIVE = 16;
+
+	public static void main(String[] args) {
+		final int numberOfFrames = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+
+		// Run each once before measuring, so that neither is measured while the JIT is still compiling
+		simulate(null, numberOfFrames / 10);
+		simulate(new BitmapPool(), numberOfFrames / 10);
+
+		report("Without a pool", null, numberOfFrames);
+		report("With a pool", new BitmapPool(), numberOfFrames);
+		reportAcquireAndRelease();
+
+		if(checkManySizes()) System.out.println("Every check passed");
+	}
+
+	// Only the Bitmap object itself should be allocated - the pixels are reused, and so is the pool's record of them
+	private static void reportAcquireAndRelease() {
+		final BitmapPool pool = new BitmapPool();
+		final int repeats = 100000;
+		for(int i = 0; i < repeats; i++) pool.acquire(64 + (i & 3), 64).release();
+
+		final long bytesBefore = getAllocatedBytes();
+		for(int i = 0; i < repeats; i++) pool.acquire(64 + (i & 3), 64).release();
+		final long bytesAllocated = getAllocatedBytes() - bytesBefore;
+		System.out.println(String.format("Acquiring and releasing a pooled Bitmap allocated %.1f bytes", bytesAllocated / (double) repeats));
+	}
+
+	// Releases images of many sizes at once (more than fit in the pool's table of sizes to begin with), then acquires them back in a random order - every
+	// acquire must be a hit exactly when an image of that size is idle
+	private static boolean checkManySizes() {
+		final BitmapPool pool = new BitmapPool();
+		final int numberOfSizes = 100;
+		final int[] idleOfSize = new int[numberOfSizes];
+		final Random random = new Random(2);
+
+		boolean passed = true;
+		long expectedHits = 0, expectedMisses = 0;
+		for(int i = 0; i < 20000; i++) {
+			final int size = random.nextInt(numberOfSizes);
+			final Bitmap bitmap = pool.acquire(1 + size, 1 + ((size * 7) % 13), (size % 2) == 0);
+			if(idleOfSize[size] > 0) {
+				idleOfSize[size]--;
+				expectedHits++;
+			} else {
+				expectedMisses++;
+			}
+
+			if((bitmap.getWidth() != (1 + size)) || (bitmap.getPixelARGB(0, 0) != 0)) passed = false;
+			final int releases = random.nextInt(3);
+			bitmap.release();
+			idleOfSize[size]++;
+			for(int j = 1; j < releases; j++) {
+				pool.acquire(1 + size, 1 + ((size * 7) % 13), (size % 2) == 0).release();
+				expectedHits++;
+			}
+		}
+
+		if(!passed || (pool.getHitCount() != expectedHits) || (pool.getMissCount() != expectedMisses)) {
+			System.out.println(String.format("FAILED: a pool of many sizes had %d hits and %d misses, rather than %d and %d", pool.getHitCount(),
+					pool.getMissCount(), expectedHits, expectedMisses));
+			return false;
+		}
+		return true;
+	}
+
+	private static void report(String description, BitmapPool pool, int numberOfFrames) {
+		final long gcCountBefore = getGarbageCollectionCount();
+		final long bytesBefore = getAllocatedBytes();
+		final long nsStart = System.nanoTime();
+
+		simulate(pool, numberOfFrames);
+
+		final long nsTaken = System.nanoTime() - nsStart;
+		final long bytesAllocated = getAllocatedBytes() - bytesBefore;
+		final long gcCount = getGarbageCollectionCount() - gcCountBefore;
+
+		System.out.println(String.format("%-16s %9.1fKB allocated per frame, %4d collections, %7.1fus per frame", description,
+				bytesAllocated / (1024.0 * numberOfFrames), gcCount, nsTaken / (1e3 * numberOfFrames)));
+		if(pool != null) {
+			System.out.println(String.format("%-16s %d hits, %d misses, %d evictions, %d idle (%dKB retained)", "", pool.getHitCount(), pool.getMissCount(),
+					pool.getEvictionCount(), pool.getIdleCount(), pool.getRetainedBytes() / 1024));
+		}
+	}
+
+	private static void simulate(BitmapPool pool, int numberOfFrames) {
+		final GuiSystem guiSystem = new GuiSystem();
+		final PopupLayer[] alive = new PopupLayer[POPUPS_ALIVE];
+		int nextPopup = 0;
+
+		for(int frame = 0; frame < numberOfFrames; frame++) {
+			for(int i = 0; i < POPUPS_PER_FRAME; i++, nextPopup++) {
+				final int slot = nextPopup % POPUPS_ALIVE;
+				if(alive[slot] != null) guiSystem.removeLayer(alive[slot]);
+
+				final int[] size = POPUP_SIZES[nextPopup % POPUP_SIZES.length];
+				alive[slot] = (pool == null) ? new PopupLayer(size[0], size[1]) : new PopupLayer(pool, size[0], size[1]);
+				guiSystem.addLayer(alive[slot]);
+			}
+
+			guiSystem.applyPendingChanges();
+			guiSystem.prepareForRender();
+			guiSystem.update(1 / 60f);
+		}
+
+		guiSystem.onShutdown();
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static long getGarbageCollectionCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, collector.getCollectionCount());
+		return count;
+	}
+
+	private static class PopupLayer extends GuiLayer {
+		private PopupLayer(BitmapPool pool, int width, int height) {
+			super(pool, 20, 20, width, height);
+		}
+
+		private PopupLayer(int width, int height) { super(20, 20, width, height); }
+
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+
+		public void update(float sTimeDelay) { setPixelRegion(0, 0, getWidth(), 16, Colour.RED); }
+
+		public void onLoad() { }
+
+		// A pooled popup gives its pixels back as soon as it has been removed. This does nothing for a popup that didn't come from a pool
+		public void onUnload() { release(); }
+	}
+
+}
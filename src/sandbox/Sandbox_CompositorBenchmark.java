@@ -0,0 +1,108 @@
+package sandbox;
+
+import java.awt.Graphics;
+import java.util.Random;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It compares the cost of drawing a GuiSystem to a 1600x900 target with one Java2D draw per layer, against compositing every layer in software and drawing the
+ * result once. It doesn't need a display, so can be run with java.awt.headless=true.
+ */
+public class Sandbox_CompositorBenchmark {
+
+	private static final int TARGET_WIDTH = 16 * 100, TARGET_HEIGHT = 9 * 100;
+	private static final int WARMUP_FRAMES = 50, MEASURED_FRAMES = 200;
+
+	public static void main(String[] args) {
+		System.out.println("Translucent panels:");
+		runBenchmark(true);
+		System.out.println("Opaque borders (like Sandbox_ExampleGuiLayer):");
+		runBenchmark(false);
+	}
+
+	private static void runBenchmark(boolean translucentBody) {
+		for(int numberOfLayers : new int[] { 5, 50, 500 }) {
+			final GuiSystem guiSystem = createGuiSystem(numberOfLayers, translucentBody);
+
+			final Bitmap target = new Bitmap(TARGET_WIDTH, TARGET_HEIGHT, false);
+			final Graphics targetGraphics = target.createGraphicsInstance();
+			final Compositor compositor = new Compositor(TARGET_WIDTH, TARGET_HEIGHT);
+
+			final double msPerLayerFrame = timeFrames(new Runnable() {
+				public void run() {
+					targetGraphics.fillRect(0, 0, TARGET_WIDTH, TARGET_HEIGHT);
+					guiSystem.drawToGraphicsInstance(targetGraphics);
+				}
+			});
+			final double msCompositedFrame = timeFrames(new Runnable() {
+				public void run() {
+					// We want to measure compositing the whole frame, not just what has changed since the last one
+					compositor.invalidate();
+					guiSystem.compositeTo(compositor);
+					compositor.getFramebuffer().drawToGraphicsInstance(targetGraphics, 0, 0);
+				}
+			});
+
+			// A more typical frame only changes a small part of the screen - here a 40x40 area of one layer - so only that is recomposited
+			final GuiLayer changingLayer = guiSystem.getLayer(0);
+			final double msDirtyFrame = timeFrames(new Runnable() {
+				public void run() {
+					changingLayer.setPixelRegion(20, 20, 40, 40, Colour.WHITE);
+					guiSystem.compositeTo(compositor);
+					compositor.getFramebuffer().drawToGraphicsInstance(targetGraphics, 0, 0);
+				}
+			});
+
+			System.out.println(String.format("%4d layers: per-layer Java2D %8.3fms/frame, software compositor %8.3fms/frame (%.2fx), dirty region only %8.3fms/frame",
+					numberOfLayers, msPerLayerFrame, msCompositedFrame, msPerLayerFrame / msCompositedFrame, msDirtyFrame));
+			targetGraphics.dispose();
+		}
+	}
+
+	private static double timeFrames(Runnable frame) {
+		for(int i = 0; i < WARMUP_FRAMES; i++) frame.run();
+
+		final long nsStart = System.nanoTime();
+		for(int i = 0; i < MEASURED_FRAMES; i++) frame.run();
+		return (System.nanoTime() - nsStart) / (MEASURED_FRAMES * 1e6);
+	}
+
+	// Each layer is a 200x150 panel at a random position, with an opaque border and either a translucent or an empty body - so between the two runs we cover
+	// the three kinds of span the compositor treats differently
+	private static GuiSystem createGuiSystem(int numberOfLayers, boolean translucentBody) {
+		final Random random = new Random(numberOfLayers);
+		final GuiSystem guiSystem = new GuiSystem();
+
+		for(int i = 0; i < numberOfLayers; i++) {
+			final GuiLayer layer = new BenchmarkLayer(random.nextInt(TARGET_WIDTH - 200), random.nextInt(TARGET_HEIGHT - 150), 200, 150);
+			// The layers are only drawn once (here), so they need to keep their contents between frames
+			layer.setRetained(true);
+			if(translucentBody) layer.setPixelRegion(10, 10, 180, 130, Colour.getARGB(128, random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+			layer.setPixelRegion(0, 0, 200, 4, Colour.WHITE);
+			layer.setPixelRegion(0, 146, 200, 4, Colour.WHITE);
+			guiSystem.addLayer(layer);
+		}
+		// There's no Application here to add the layers at the start of an update, so they're added straight away
+		guiSystem.applyPendingChanges();
+
+		return guiSystem;
+	}
+
+	private static class BenchmarkLayer extends GuiLayer {
+		public BenchmarkLayer(int x, int y, int width, int height) { super(x, y, width, height); }
+
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+		public void update(float sTimeDelay) { }
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}
@@ -0,0 +1,109 @@
+package sandbox;
+
+import java.util.Random;
+
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It measures how long a GuiSystem takes to dispatch cursor movements as the number of layers grows. The layers are small widgets spread over a 1600x900
+ * screen, and the cursor visits random points on the screen. Each layer count is measured twice: with the GuiSystem's spatial index, and with every layer
+ * visited from the top of the stack down (checking its own bounds, as layers had to before the index existed) for comparison.
+ */
+public class Sandbox_DispatchBenchmark {
+
+	private static final int SCREEN_WIDTH = 1600, SCREEN_HEIGHT = 900;
+	private static final int WIDGET_SIZE = 40;
+	private static final int NUMBER_OF_EVENTS = 200000;
+
+	public static void main(String[] args) {
+		final int[] layerCounts = { 10, 100, 1000, 5000 };
+
+		System.out.println("layers | indexed ns/event | linear ns/event | layers visited per event (indexed / linear)");
+		for(int layerCount : layerCounts) {
+			final GuiSystem guiSystem = new GuiSystem();
+			final BenchmarkLayer[] layers = new BenchmarkLayer[layerCount];
+			final Random random = new Random(layerCount);
+			for(int i = 0; i < layerCount; i++) {
+				layers[i] = new BenchmarkLayer(random.nextInt(SCREEN_WIDTH - WIDGET_SIZE), random.nextInt(SCREEN_HEIGHT - WIDGET_SIZE));
+				guiSystem.addLayer(layers[i]);
+			}
+			// There's no Application here to add the layers at the start of an update, so they're added straight away
+			guiSystem.applyPendingChanges();
+
+			final double[] cursorX = new double[1024], cursorY = new double[1024];
+			for(int i = 0; i < cursorX.length; i++) {
+				cursorX[i] = random.nextInt(SCREEN_WIDTH);
+				cursorY[i] = random.nextInt(SCREEN_HEIGHT);
+			}
+
+			final GuiEvent event = new GuiEvent(GuiEvent.EventType.MOUSE_CURSOR_MOVED);
+
+			// Warm up both paths before measuring either
+			for(int i = 0; i < NUMBER_OF_EVENTS; i++) {
+				event.set(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, cursorX[i & 1023], cursorY[i & 1023]);
+				guiSystem.recieveEvent(event);
+				dispatchLinearly(layers, event);
+			}
+
+			BenchmarkLayer.visits = 0;
+			long nsStart = System.nanoTime();
+			for(int i = 0; i < NUMBER_OF_EVENTS; i++) {
+				event.set(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, cursorX[i & 1023], cursorY[i & 1023]);
+				guiSystem.recieveEvent(event);
+			}
+			final double nsIndexed = (System.nanoTime() - nsStart) / (double) NUMBER_OF_EVENTS;
+			final double indexedVisits = BenchmarkLayer.visits / (double) NUMBER_OF_EVENTS;
+
+			BenchmarkLayer.visits = 0;
+			nsStart = System.nanoTime();
+			for(int i = 0; i < NUMBER_OF_EVENTS; i++) {
+				event.set(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, cursorX[i & 1023], cursorY[i & 1023]);
+				dispatchLinearly(layers, event);
+			}
+			final double nsLinear = (System.nanoTime() - nsStart) / (double) NUMBER_OF_EVENTS;
+			final double linearVisits = BenchmarkLayer.visits / (double) NUMBER_OF_EVENTS;
+
+			System.out.println(String.format("%6d | %16.1f | %15.1f | %.2f / %.2f", layerCount, nsIndexed, nsLinear, indexedVisits, linearVisits));
+		}
+	}
+
+	/** How the GuiSystem dispatched events before it had a spatial index - every layer is asked, and has to check its own bounds */
+	private static void dispatchLinearly(BenchmarkLayer[] layers, GuiEvent event) {
+		for(int i = (layers.length - 1); i >= 0; i--) {
+			if(layers[i].recieveGuiEventWithBoundsCheck(event)) break;
+		}
+	}
+
+	private static class BenchmarkLayer extends GuiLayer {
+		private static long visits = 0;
+		private int hoverCount = 0;
+
+		private BenchmarkLayer(int x, int y) { super(x, y, WIDGET_SIZE, WIDGET_SIZE); }
+
+		public boolean recieveGuiEvent(GuiEvent event) {
+			visits++;
+			hoverCount++;
+			return true;
+		}
+
+		private boolean recieveGuiEventWithBoundsCheck(GuiEvent event) {
+			visits++;
+			final int cursorX = (int) event.getRelativeCursorX();
+			final int cursorY = (int) event.getRelativeCursorY();
+			if((cursorX >= getX()) && (cursorY >= getY()) && (cursorX < (getX() + getWidth())) && (cursorY < (getY() + getHeight()))) {
+				hoverCount++;
+				return true;
+			}
+			return false;
+		}
+
+		public void update(float sTimeDelay) { }
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}
@@ -0,0 +1,266 @@
+package sandbox;
+
+import java.util.Random;
+
+import com.macleod.engine.entity.EntityLayer;
+import com.macleod.engine.entity.EntityWorld;
+import com.macleod.engine.entity.SpriteBatch;
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It fills an EntityLayer with a hundred thousand entities bouncing around the screen at random depths, as a mix of opaque and alpha blended sprites, and runs
+ * it (composited into a framebuffer, as a Screen would) at a fixed 60 ticks per second of game time - reporting how long each part of a frame took, and
+ * whether it all fits within a 60th of a second on one core. Alongside, it checks that the handle of a destroyed entity is never mistaken for the entity
+ * given its slot, that creating and destroying entities never allocates once the world has grown, that deeper sprites are drawn over shallower ones, that
+ * drawing with the batch gives exactly the pixels of drawing every sprite in depth order, and that every bounded entity stayed within its bounds. It doesn't
+ * need a display, so can be run with java.awt.headless=true. The optional arguments are the number of entities, the number of frames, and "opaque" to draw
+ * only the opaque sprites.
+ */
+public class Sandbox_EntityStress {
+
+	private static final int SCREEN_WIDTH = 1280, SCREEN_HEIGHT = 720, SPRITE_SIZE = 8;
+	private static final float S_TICK = 1 / 60f;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		final int numberOfEntities = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		final int numberOfFrames = (args.length > 1) ? Integer.parseInt(args[1]) : 600;
+		final boolean onlyOpaque = (args.length > 2) && args[2].equals("opaque");
+
+		checkHandles();
+		checkChurnDoesNotAllocate(numberOfEntities);
+		checkDepthOrder();
+		checkMatchesDrawingInOrder(200, 250);
+		checkMatchesDrawingInOrder(333, 130);
+
+		final EntityLayer layer = new EntityLayer(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, new EntityWorld(numberOfEntities));
+		final SpriteBatch batch = layer.getSpriteBatch();
+		final int[] spriteIds = { batch.addSprite(createSquare(Colour.getARGB(255, 230, 90, 60)), Bitmap.BlitMode.OPAQUE),
+				batch.addSprite(createSquare(Colour.getARGB(255, 60, 200, 120)), Bitmap.BlitMode.OPAQUE),
+				batch.addSprite(createCircle(Colour.getARGB(255, 90, 140, 255), SPRITE_SIZE), Bitmap.BlitMode.ALPHA_BLEND),
+				batch.addSprite(createCircle(Colour.getARGB(255, 250, 220, 80), SPRITE_SIZE), Bitmap.BlitMode.ALPHA_BLEND) };
+		layer.getMovementSystem().setBounds(0, 0, SCREEN_WIDTH - SPRITE_SIZE, SCREEN_HEIGHT - SPRITE_SIZE);
+
+		final EntityWorld world = layer.getWorld();
+		final Random random = new Random(0);
+		for(int i = 0; i < numberOfEntities; i++) {
+			final long entity = world.create(random.nextFloat() * (SCREEN_WIDTH - SPRITE_SIZE), random.nextFloat() * (SCREEN_HEIGHT - SPRITE_SIZE),
+					spriteIds[random.nextInt(onlyOpaque ? 2 : spriteIds.length)], random.nextInt(SpriteBatch.Z_LEVELS));
+			world.setVelocity(entity, (random.nextFloat() - 0.5f) * 240, (random.nextFloat() - 0.5f) * 240);
+			world.setFlags(entity, EntityWorld.FLAG_VISIBLE | EntityWorld.FLAG_BOUNDED);
+		}
+
+		final GuiSystem guiSystem = new GuiSystem();
+		guiSystem.addLayer(layer);
+		guiSystem.applyPendingChanges();
+		final Compositor compositor = new Compositor(SCREEN_WIDTH, SCREEN_HEIGHT);
+
+		// The first fifth of the frames are left out of the timings, since the JIT is still compiling
+		final int warmUpFrames = numberOfFrames / 5;
+		long nsPreparing = 0, nsUpdating = 0, nsCompositing = 0, nsSlowestFrame = 0;
+		for(int frame = 0; frame < numberOfFrames; frame++) {
+			final long nsStart = System.nanoTime();
+			guiSystem.prepareForRender();
+			final long nsPrepared = System.nanoTime();
+			guiSystem.update(S_TICK);
+			final long nsUpdated = System.nanoTime();
+			guiSystem.compositeTo(compositor);
+			final long nsComposited = System.nanoTime();
+
+			if(frame >= warmUpFrames) {
+				nsPreparing += nsPrepared - nsStart;
+				nsUpdating += nsUpdated - nsPrepared;
+				nsCompositing += nsComposited - nsUpdated;
+				nsSlowestFrame = Math.max(nsSlowestFrame, nsComposited - nsStart);
+			}
+		}
+
+		final int timedFrames = numberOfFrames - warmUpFrames;
+		final double msFrame = (nsPreparing + nsUpdating + nsCompositing) / (1e6 * timedFrames);
+		System.out.println(String.format("%d entities (%d drawn): %.2fms clearing, %.2fms moving and drawing, %.2fms compositing - %.2fms per frame (slowest "
+				+ "%.2fms), so %s 60 ticks per second on one core", numberOfEntities, batch.getDrawnCount(), nsPreparing / (1e6 * timedFrames),
+				nsUpdating / (1e6 * timedFrames), nsCompositing / (1e6 * timedFrames), msFrame, nsSlowestFrame / 1e6,
+				(msFrame <= (1000 / 60.0)) ? "keeps up with" : "FALLS BEHIND"));
+
+		timeParts(layer);
+
+		final float[] x = world.getXs(), y = world.getYs();
+		for(int i = 0; i < world.getCount(); i++) {
+			if((x[i] < 0) || (y[i] < 0) || (x[i] > (SCREEN_WIDTH - SPRITE_SIZE)) || (y[i] > (SCREEN_HEIGHT - SPRITE_SIZE))) {
+				fail("entity " + i + " escaped its bounds, to (" + x[i] + ", " + y[i] + ")");
+				break;
+			}
+		}
+
+		System.out.println((failures == 0) ? "Every check passed" : (failures + " checks FAILED"));
+	}
+
+	// Splits the update into moving and drawing, to see where the time goes
+	private static void timeParts(EntityLayer layer) {
+		final int repeats = 100;
+		long nsMoving = 0, nsDrawing = 0;
+		for(int i = 0; i < repeats; i++) {
+			final long nsStart = System.nanoTime();
+			layer.getMovementSystem().update(layer.getWorld(), S_TICK);
+			final long nsMoved = System.nanoTime();
+			layer.getSpriteBatch().draw(layer.getWorld(), layer);
+			nsMoving += nsMoved - nsStart;
+			nsDrawing += System.nanoTime() - nsMoved;
+		}
+		System.out.println(String.format("Moving every entity took %.3fms, and culling, sorting and drawing them took %.2fms", nsMoving / (1e6 * repeats),
+				nsDrawing / (1e6 * repeats)));
+	}
+
+	private static void checkHandles() {
+		final EntityWorld world = new EntityWorld(4);
+		final long first = world.create(0, 0, 0, 0);
+		final long second = world.create(1, 1, 0, 0);
+		world.destroy(first);
+		final long reused = world.create(2, 2, 0, 0);
+
+		if(((int) reused) != ((int) first)) fail("the slot of a destroyed entity wasn't reused");
+		if(world.isAlive(first) || world.destroy(first)) fail("the handle of a destroyed entity was mistaken for the entity given its slot");
+		if(!world.isAlive(second) || (world.getX(second) != 1) || !world.isAlive(reused) || (world.getX(reused) != 2)) {
+			fail("destroying an entity changed the entities left");
+		}
+		if(world.isAlive(EntityWorld.NO_ENTITY)) fail("NO_ENTITY was treated as a live entity");
+
+		try {
+			world.getX(first);
+			fail("reading a destroyed entity didn't throw");
+		} catch(IllegalArgumentException e) { }
+	}
+
+	private static void checkChurnDoesNotAllocate(int numberOfEntities) {
+		final EntityWorld world = new EntityWorld(numberOfEntities);
+		final long[] entities = new long[numberOfEntities];
+		for(int i = 0; i < numberOfEntities; i++) entities[i] = world.create(i, i, 0, 0);
+
+		// Run it through a few times, keeping the least allocated, so that nothing the JIT does while compiling is counted
+		final Random random = new Random(1);
+		long bytesAllocated = Long.MAX_VALUE;
+		for(int repeat = 0; repeat < 4; repeat++) {
+			final long bytesBefore = Sandbox_Allocations.getAllocatedBytes();
+			churn(world, entities, random, 100);
+			bytesAllocated = Math.min(bytesAllocated, Sandbox_Allocations.getAllocatedBytesSince(bytesBefore));
+		}
+
+		System.out.println(String.format("Destroying and creating %d entities a frame for 100 frames allocated %d bytes", numberOfEntities / 10,
+				bytesAllocated));
+		if(bytesAllocated > 0) fail("creating and destroying entities allocated once the world had grown");
+	}
+
+	private static void churn(EntityWorld world, long[] entities, Random random, int frames) {
+		for(int frame = 0; frame < frames; frame++) {
+			for(int i = 0; i < (entities.length / 10); i++) {
+				final int which = random.nextInt(entities.length);
+				world.destroy(entities[which]);
+				entities[which] = world.create(frame, i, 0, 0);
+			}
+		}
+	}
+
+	private static void checkDepthOrder() {
+		final EntityWorld world = new EntityWorld(4);
+		final SpriteBatch batch = new SpriteBatch();
+		final int red = batch.addSprite(createSquare(Colour.RED), Bitmap.BlitMode.OPAQUE);
+		final int blue = batch.addSprite(createSquare(Colour.BLUE), Bitmap.BlitMode.OPAQUE);
+		world.create(10, 10, red, 5);
+		world.create(12, 12, blue, 2);
+		world.create(-100, 10, blue, 9);
+
+		final Bitmap target = new Bitmap(32, 32);
+		final int drawn = batch.draw(world, target);
+		if(target.getPixelARGB(13, 13) != Colour.RED) fail("a sprite of a lesser depth was drawn over a sprite of a greater depth");
+		if((drawn != 2) || (batch.getCulledCount() != 1)) fail("drew " + drawn + " entities, when one of the three was off the target");
+	}
+
+	// The batch draws the target a band of rows at a time, with whichever way of drawing each sprite is cheapest - so this draws a jumble of sprites hanging
+	// off every edge (small and large circles, a bar taller than a band, a colour keyed sprite, and some at depths that need clamping) with the batch, and then
+	// again one at a time in depth order with Bitmap.drawBitmap. Every pixel should match
+	private static void checkMatchesDrawingInOrder(int targetWidth, int targetHeight) {
+		final Bitmap bar = new Bitmap(6, 150);
+		bar.setPixelRegion(0, 0, 6, 150, Colour.getARGB(128, 40, 250, 200));
+		bar.setPixelRegion(2, 0, 2, 150, Colour.getARGB(255, 250, 250, 250));
+		final Bitmap keyed = createSquare(Colour.getARGB(200, 10, 20, 30));
+		for(int i = 0; i < SPRITE_SIZE; i++) keyed.setPixel(i, i, Colour.MAGENTA);
+		// Without an alpha channel, so opaque however it is drawn - whatever its alpha bits hold
+		final Bitmap withoutAlpha = new Bitmap(SPRITE_SIZE, SPRITE_SIZE, false);
+		for(int i = 0; i < (SPRITE_SIZE * SPRITE_SIZE); i++) withoutAlpha.setPixel(i % SPRITE_SIZE, i / SPRITE_SIZE, (i * 0x01030507) & 0x80ffffff);
+
+		final Bitmap[] sprites = { createSquare(Colour.getARGB(255, 230, 90, 60)), createCircle(Colour.getARGB(255, 90, 140, 255), SPRITE_SIZE),
+				createCircle(Colour.getARGB(255, 250, 220, 80), 40), bar, keyed, withoutAlpha };
+		final Bitmap.BlitMode[] modes = { Bitmap.BlitMode.OPAQUE, Bitmap.BlitMode.ALPHA_BLEND, Bitmap.BlitMode.ALPHA_BLEND, Bitmap.BlitMode.ALPHA_BLEND,
+				Bitmap.BlitMode.COLOUR_KEY, Bitmap.BlitMode.ALPHA_BLEND };
+		final SpriteBatch batch = new SpriteBatch();
+		for(int i = 0; i < sprites.length; i++) batch.addSprite(sprites[i], modes[i]);
+		batch.setCamera(3.5f, -2.25f);
+
+		final EntityWorld world = new EntityWorld(3000);
+		final Random random = new Random(2);
+		for(int i = 0; i < 3000; i++) {
+			final long entity = world.create((random.nextFloat() * (targetWidth + 100)) - 50, (random.nextFloat() * (targetHeight + 320)) - 160,
+					random.nextInt(sprites.length), random.nextInt(SpriteBatch.Z_LEVELS + 10) - 5);
+			if(random.nextInt(10) == 0) world.setFlags(entity, 0);
+		}
+
+		// Drawn twice, so that the second draw reuses everything the batch (and each sprite) worked out for the first
+		final Bitmap batched = new Bitmap(targetWidth, targetHeight);
+		batch.draw(world, batched);
+		batched.setPixelRegion(0, 0, targetWidth, targetHeight, Colour.NO_ALPHA_VALUE);
+		batch.draw(world, batched);
+
+		final Bitmap inOrder = new Bitmap(targetWidth, targetHeight);
+		for(int depth = 0; depth < SpriteBatch.Z_LEVELS; depth++) {
+			for(int i = 0; i < world.getCount(); i++) {
+				final int z = Math.max(0, Math.min(world.getZs()[i], SpriteBatch.Z_LEVELS - 1));
+				if((z != depth) || ((world.getFlagsArray()[i] & EntityWorld.FLAG_VISIBLE) == 0)) continue;
+
+				final int sprite = world.getSprites()[i];
+				inOrder.drawBitmap(sprites[sprite], (int) Math.floor(world.getXs()[i] - 3.5f), (int) Math.floor(world.getYs()[i] + 2.25f), modes[sprite]);
+			}
+		}
+
+		for(int y = 0; y < targetHeight; y++) {
+			for(int x = 0; x < targetWidth; x++) {
+				if(batched.getPixelARGB(x, y) != inOrder.getPixelARGB(x, y)) {
+					fail("drawing " + targetWidth + "x" + targetHeight + " with the batch gave " + Integer.toHexString(batched.getPixelARGB(x, y)) + " at ("
+							+ x + ", " + y + "), rather than the " + Integer.toHexString(inOrder.getPixelARGB(x, y)) + " of drawing in depth order");
+					return;
+				}
+			}
+		}
+	}
+
+	private static Bitmap createSquare(int colour) {
+		final Bitmap sprite = new Bitmap(SPRITE_SIZE, SPRITE_SIZE);
+		sprite.setPixelRegion(0, 0, SPRITE_SIZE, SPRITE_SIZE, colour);
+		return sprite;
+	}
+
+	// A circle with a soft edge, so that it has to be alpha blended
+	private static Bitmap createCircle(int colour, int size) {
+		final Bitmap sprite = new Bitmap(size, size);
+		final double centre = (size - 1) / 2.0;
+		for(int y = 0; y < size; y++) {
+			for(int x = 0; x < size; x++) {
+				final double distance = Math.hypot(x - centre, y - centre);
+				final int alpha = (int) Math.round(255 * Math.max(0, Math.min(1, (size / 2.0) - distance)));
+				if(alpha > 0) sprite.setPixel(x, y, (alpha << 24) | (colour & 0x00ffffff));
+			}
+		}
+		return sprite;
+	}
+
+	private static void fail(String message) {
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+
+}
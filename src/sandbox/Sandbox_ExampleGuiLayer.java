@@ -22,21 +22,16 @@ public class Sandbox_ExampleGuiLayer extends GuiLayer {
 	public boolean recieveGuiEvent(GuiEvent event) { 
 		if(event != null) {
 			if(event.isMouseEvent()) {
+				// The GuiSystem only gives a layer mouse events while the cursor is over it, so there's no need to check the cursor is within our bounds
 				if(event.getEventType() == GuiEvent.EventType.MOUSE_BUTTON_PRESSED) {
-					final int cursorX = (int) event.getRelativeCursorX();
-					final int cursorY = (int) event.getRelativeCursorY();
+					final int mouseButton = event.getMouseButton();
 					
-					// Make sure we only consider the event if the click occurred while the cursor is hovering over the layer's bounds
-					if((cursorX >= getX()) && (cursorY >= getY()) && (cursorX < (getX() + getWidth())) && (cursorY < (getY() + getHeight()))) {
-						final int mouseButton = event.getMouseButton();
-						
-						if(mouseButton == MouseEvent.BUTTON1) {
-							randomizeBoxColour();
-						}
-						
-						// We want to absorb the event since it occurred inside the layer's bounds
-						return true;
+					if(mouseButton == MouseEvent.BUTTON1) {
+						randomizeBoxColour();
 					}
+					
+					// We want to absorb the event since it occurred inside the layer's bounds
+					return true;
 				}
 			}
 		}
@@ -0,0 +1,172 @@
+package sandbox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.macleod.engine.HeadlessScreen;
+import com.macleod.engine.capture.FrameRecorder;
+import com.macleod.engine.capture.FrameRecordingReader;
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It draws frames of boxes moving around a HeadlessScreen as fast as it can, capturing every frame with a FrameRecorder and remembering a hash of each. The
+ * recording is then played back with a FrameRecordingReader, checking that every frame that wasn't dropped comes back exactly as it was drawn - and again
+ * after cutting the end off the file, as if the program had died while recording. It reports how large the recording is per frame, how many frames were
+ * dropped, and how long capturing took. It doesn't need a display, so can be run with java.awt.headless=true. The optional arguments are the number of
+ * frames and the number of moving boxes.
+ */
+public class Sandbox_FrameRecording {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		final int numberOfFrames = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		final int numberOfBoxes = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+		final Path file = Files.createTempFile("frames", ".rec");
+		final Path truncatedFile = Files.createTempFile("frames-truncated", ".rec");
+		try {
+			final long[] hashes = record(file, numberOfFrames, numberOfBoxes);
+			check("Whole recording", file, hashes, false);
+
+			final byte[] bytes = Files.readAllBytes(file);
+			Files.write(truncatedFile, Arrays.copyOf(bytes, bytes.length / 2));
+			check("Truncated recording", truncatedFile, hashes, true);
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(truncatedFile);
+		}
+
+		System.out.println((failures == 0) ? "Every frame played back exactly as it was drawn" : (failures + " checks FAILED"));
+	}
+
+	private static long[] record(Path file, int numberOfFrames, int numberOfBoxes) throws IOException {
+		final HeadlessScreen screen = new HeadlessScreen(16 * 100, 9 * 100);
+		final GuiSystem guiSystem = new GuiSystem();
+		final Random random = new Random(0);
+		guiSystem.addLayer(new BackgroundLayer(screen.getWidth(), screen.getHeight()));
+		for(int i = 0; i < numberOfBoxes; i++) guiSystem.addLayer(new BoxLayer(random, screen.getWidth(), screen.getHeight()));
+
+		final long[] hashes = new long[numberOfFrames];
+		final int[] pixels = new int[screen.getWidth() * screen.getHeight()];
+		final FrameRecorder recorder = new FrameRecorder(file);
+		long nsCapturing = 0;
+		final long nsStart = System.nanoTime();
+		for(int frame = 0; frame < numberOfFrames; frame++) {
+			guiSystem.applyPendingChanges();
+			guiSystem.prepareForRender();
+			guiSystem.update(1 / 60f);
+			screen.clear();
+			screen.draw(guiSystem);
+
+			final long nsCaptureStart = System.nanoTime();
+			recorder.capture(screen.getFramebuffer());
+			nsCapturing += System.nanoTime() - nsCaptureStart;
+
+			screen.getFramebuffer().getPixels(pixels);
+			hashes[frame] = Arrays.hashCode(pixels);
+			screen.present();
+		}
+		final long nsDrawing = System.nanoTime() - nsStart;
+		recorder.close();
+		guiSystem.onShutdown();
+
+		System.out.println(String.format("Recorded %d frames in %.0fms (%.3fms per frame spent capturing): %d written, %d dropped", numberOfFrames,
+				nsDrawing / 1e6, nsCapturing / (1e6 * numberOfFrames), recorder.getWrittenFrameCount(), recorder.getDroppedFrameCount()));
+		System.out.println(String.format("%.1fKB per frame before deflating, %.1fKB per frame in the file (a raw frame is %dKB)",
+				recorder.getWrittenByteCount() / (1024.0 * recorder.getWrittenFrameCount()), Files.size(file) / (1024.0 * recorder.getWrittenFrameCount()),
+				(4 * pixels.length) / 1024));
+
+		if((recorder.getWrittenFrameCount() + recorder.getDroppedFrameCount()) != numberOfFrames) {
+			failures++;
+			System.out.println("MISMATCH: " + recorder.getWrittenFrameCount() + " frames written and " + recorder.getDroppedFrameCount() + " dropped, from "
+					+ numberOfFrames + " captured");
+		}
+		return hashes;
+	}
+
+	private static void check(String description, Path file, long[] hashes, boolean expectTruncated) throws IOException {
+		int numberRead = 0;
+		long lastFrameNumber = -1;
+		final long nsStart = System.nanoTime();
+		try(FrameRecordingReader reader = new FrameRecordingReader(file)) {
+			final int[] pixels = new int[16 * 100 * 9 * 100];
+			while(reader.nextFrame()) {
+				final Bitmap frame = reader.getFrame();
+				frame.getPixels(pixels);
+				if((reader.getFrameNumber() <= lastFrameNumber) || (reader.getFrameNumber() >= hashes.length)
+						|| (Arrays.hashCode(pixels) != hashes[(int) reader.getFrameNumber()])) {
+					failures++;
+					System.out.println("MISMATCH in " + description + " at frame " + reader.getFrameNumber());
+					return;
+				}
+				lastFrameNumber = reader.getFrameNumber();
+				numberRead++;
+			}
+
+			if(reader.isTruncated() != expectTruncated) {
+				failures++;
+				System.out.println("MISMATCH in " + description + ": expected the recording " + (expectTruncated ? "" : "not ") + "to be truncated");
+			}
+		}
+
+		System.out.println(String.format("%s: played back %d frames (up to frame %d) in %.0fms", description, numberRead, lastFrameNumber,
+				(System.nanoTime() - nsStart) / 1e6));
+	}
+
+	// A static gradient, so that most of every frame is unchanged (as most of most frames are)
+	private static class BackgroundLayer extends GuiLayer {
+		private BackgroundLayer(int width, int height) {
+			super(width, height);
+			setRetained(true);
+			for(int y = 0; y < height; y++) setPixelRegion(0, y, width, 1, Colour.getARGB(255, (y * 255) / height, 64, 255 - ((y * 255) / height)));
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+		public void update(float sTimeDelay) { }
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+	private static class BoxLayer extends GuiLayer {
+		private final int screenWidth, screenHeight;
+		private int dx, dy;
+		private int frame = 0;
+
+		private BoxLayer(Random random, int screenWidth, int screenHeight) {
+			super(random.nextInt(screenWidth - 80), random.nextInt(screenHeight - 80), 80, 80);
+			this.screenWidth = screenWidth;
+			this.screenHeight = screenHeight;
+			setRetained(true);
+			dx = 1 + random.nextInt(6);
+			dy = 1 + random.nextInt(6);
+			setPixelRegion(0, 0, 80, 80, (0x80 << 24) | (random.nextInt() & 0x00ffffff));
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+
+		public void update(float sTimeDelay) {
+			if(((getX() + dx) < 0) || ((getX() + dx + getWidth()) > screenWidth)) dx = -dx;
+			if(((getY() + dy) < 0) || ((getY() + dy + getHeight()) > screenHeight)) dy = -dy;
+			setX(getX() + dx);
+			setY(getY() + dy);
+
+			// A strip that changes every frame, as an animation inside the box would
+			setPixelRegion(0, 0, getWidth(), 8, Colour.getARGB(255, frame & 0xff, 255 - (frame & 0xff), 128));
+			frame++;
+		}
+
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}
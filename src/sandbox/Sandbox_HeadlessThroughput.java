@@ -0,0 +1,36 @@
+package sandbox;
+
+import com.macleod.engine.Application;
+import com.macleod.engine.HeadlessScreen;
+import com.macleod.engine.graphics.gui.GuiSystem;
+import com.macleod.engine.loop.VariableTimestepLoop;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It runs the sandbox GuiSystem on a HeadlessScreen with an uncapped loop, so it can be used to measure raw engine throughput on machines without a display
+ * (e.g. with java.awt.headless=true). The optional arguments are the number of example layers and the number of seconds to run for.
+ */
+public class Sandbox_HeadlessThroughput {
+
+	public static void main(String[] args) throws InterruptedException {
+		final int numberOfLayers = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+		final int secondsToRun = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+		final HeadlessScreen screen = new HeadlessScreen(16 * 100, 9 * 100);
+		final Application app = new Application(screen);
+		app.setGameLoop(new VariableTimestepLoop());
+
+		final GuiSystem guiSystem = new GuiSystem();
+		for(int i = 0; i < numberOfLayers; i++) guiSystem.addLayer(new Sandbox_ExampleGuiLayer());
+
+		app.setGuiSystem(guiSystem);
+		app.start();
+		Thread.sleep(secondsToRun * 1000L);
+		app.stop();
+
+		System.out.println(String.format("%d layers: %d frames in %ds (%.1f fps average)", numberOfLayers, screen.getPresentedFrameCount(), secondsToRun,
+				screen.getPresentedFrameCount() / (double) secondsToRun));
+	}
+
+}
@@ -0,0 +1,215 @@
+package sandbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+import com.macleod.engine.io.InputEventQueue;
+import com.macleod.engine.io.InputRecorder;
+import com.macleod.engine.io.InputReplayer;
+import com.macleod.engine.io.InputState;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It runs a synthetic session of random keyboard and mouse input through an InputEventQueue and InputState into a GuiSystem (in the same order the
+ * Application does), recording it with an InputRecorder. Every layer keeps a checksum of the events it was given and of what it polled from the InputState
+ * during its updates. The session is then replayed into a fresh GuiSystem, which must end up with exactly the same checksums. It reports how much recording
+ * adds to each tick (and whether it allocated), how large the log is, and how many sessions can be replayed per second across every core. It doesn't need a
+ * display, so can be run with java.awt.headless=true. The optional arguments are the number of ticks in the session and the number of sessions to replay.
+ */
+public class Sandbox_InputReplay {
+
+	private static final float S_TICK = 1 / 60f;
+
+	public static void main(String[] args) throws Exception {
+		final int numberOfTicks = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		final int numberOfSessions = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+
+		// Run both once before measuring, so that neither is measured while the JIT is still compiling. Each is then run a few times in turn (keeping the
+		// fastest), since anything else running on the machine easily swamps the difference
+		runSession(numberOfTicks / 4, null);
+		runSession(numberOfTicks / 4, new InputRecorder(new ByteArrayOutputStream()));
+
+		Session unrecorded = null, recorded = null;
+		ByteArrayOutputStream log = null;
+		InputRecorder recorder = null;
+		for(int repeat = 0; repeat < 3; repeat++) {
+			final Session unrecordedRepeat = runSession(numberOfTicks, null);
+			if((unrecorded == null) || (unrecordedRepeat.nsTicking < unrecorded.nsTicking)) unrecorded = unrecordedRepeat;
+
+			final ByteArrayOutputStream logRepeat = new ByteArrayOutputStream();
+			final InputRecorder recorderRepeat = new InputRecorder(logRepeat);
+			final Session recordedRepeat = runSession(numberOfTicks, recorderRepeat);
+			recorderRepeat.close();
+			if((recorded == null) || (recordedRepeat.nsTicking < recorded.nsTicking)) {
+				recorded = recordedRepeat;
+				log = logRepeat;
+				recorder = recorderRepeat;
+			}
+		}
+
+		System.out.println(String.format("%d events recorded over %d ticks: dispatching and updating took %.0fns per tick without recording, %.0fns with (%d more bytes "
+				+ "allocated while recording)", recorder.getRecordedEventCount(), numberOfTicks, unrecorded.nsTicking / (double) numberOfTicks,
+				recorded.nsTicking / (double) numberOfTicks, recorded.bytesAllocated - unrecorded.bytesAllocated));
+		System.out.println(String.format("The log is %d bytes (%.1f bytes per event), with %d events lost", log.size(), log.size() / (double) recorder
+				.getRecordedEventCount(), recorder.getLostEventCount()));
+
+		final byte[] bytes = log.toByteArray();
+		final long[] replayedChecksums = replay(bytes);
+		boolean matches = true;
+		for(int i = 0; i < recorded.checksums.length; i++) matches &= (recorded.checksums[i] == replayedChecksums[i]);
+		System.out.println(matches ? "The replayed session matched the recorded session exactly" : "MISMATCH between the recorded and replayed sessions");
+
+		timeReplays(bytes, numberOfSessions, recorded.checksums[0]);
+	}
+
+	private static Session runSession(int numberOfTicks, InputRecorder recorder) {
+		final GuiSystem guiSystem = createGuiSystem();
+		final InputState inputState = new InputState();
+		guiSystem.setInputState(inputState);
+		guiSystem.setInputRecorder(recorder);
+		final InputEventQueue queue = new InputEventQueue();
+		final Random random = new Random(0);
+
+		final Session session = new Session();
+		final long bytesBefore = getAllocatedBytes();
+		for(int tick = 0; tick < numberOfTicks; tick++) {
+			publishRandomInput(queue, random);
+
+			guiSystem.applyPendingChanges();
+			final long nsStart = System.nanoTime();
+			inputState.beginTick();
+			queue.drainTo(inputState, guiSystem);
+			inputState.dispatchHeldEvents(guiSystem);
+			session.nsTicking += System.nanoTime() - nsStart;
+
+			// The update is timed too, since that is where the recorder reads the clock and hands off chunks once per tick
+			guiSystem.prepareForRender();
+			final long nsUpdateStart = System.nanoTime();
+			guiSystem.update(S_TICK);
+			session.nsTicking += System.nanoTime() - nsUpdateStart;
+		}
+		session.bytesAllocated = getAllocatedBytes() - bytesBefore;
+		session.checksums = getChecksums(guiSystem);
+		return session;
+	}
+
+	private static long[] replay(byte[] log) throws IOException {
+		final GuiSystem guiSystem = createGuiSystem();
+		try(InputReplayer replayer = new InputReplayer(new ByteArrayInputStream(log))) {
+			replayer.replay(guiSystem, S_TICK, false);
+			if(!replayer.isComplete()) System.out.println("MISMATCH: the replayed log was incomplete");
+		}
+		return getChecksums(guiSystem);
+	}
+
+	private static void timeReplays(final byte[] log, final int numberOfSessions, final long expectedChecksum) throws InterruptedException {
+		final AtomicLong nextSession = new AtomicLong(0);
+		final AtomicLong mismatches = new AtomicLong(0);
+		final Thread[] threads = new Thread[Runtime.getRuntime().availableProcessors()];
+		final long nsStart = System.nanoTime();
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while(nextSession.getAndIncrement() < numberOfSessions) {
+							if(replay(log)[0] != expectedChecksum) mismatches.incrementAndGet();
+						}
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread thread : threads) thread.join();
+		final double sTaken = (System.nanoTime() - nsStart) / 1e9;
+
+		System.out.println(String.format("Replayed %d sessions on %d threads in %.2fs (%.0f sessions per second), %d mismatched", numberOfSessions,
+				threads.length, sTaken, numberOfSessions / sTaken, mismatches.get()));
+	}
+
+	// A few keys held down for a while, bursts of cursor movement (some between whole pixels, as with a virtual resolution), clicks and the odd wheel scroll
+	private static void publishRandomInput(InputEventQueue queue, Random random) {
+		if(random.nextInt(8) == 0) {
+			final GuiEvent.EventType type = random.nextBoolean() ? GuiEvent.EventType.KEYBOARD_KEY_PRESSED : GuiEvent.EventType.KEYBOARD_KEY_RELEASED;
+			queue.publish(type, 37 + random.nextInt(4), -1, 0, 0);
+		}
+		for(int i = random.nextInt(4); i > 0; i--) {
+			final double x = random.nextInt(800) + ((random.nextInt(4) == 0) ? 0.25 : 0), y = random.nextInt(600);
+			queue.publish(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, x, y);
+		}
+		if(random.nextInt(20) == 0) {
+			final GuiEvent.EventType type = random.nextBoolean() ? GuiEvent.EventType.MOUSE_BUTTON_PRESSED : GuiEvent.EventType.MOUSE_BUTTON_RELEASED;
+			queue.publish(type, -1, 1 + random.nextInt(3), random.nextInt(800), random.nextInt(600));
+		}
+		if(random.nextInt(50) == 0) queue.publish(GuiEvent.EventType.MOUSE_WHEEL_MOVED, -1, -1, random.nextInt(800), random.nextInt(600), random.nextInt(5) - 2);
+	}
+
+	private static GuiSystem createGuiSystem() {
+		final GuiSystem guiSystem = new GuiSystem();
+		guiSystem.addLayer(new ChecksumLayer(0, 0, 800, 600, false));
+		for(int i = 0; i < 8; i++) guiSystem.addLayer(new ChecksumLayer((i % 4) * 200, (i / 4) * 300, 200, 300, true));
+		guiSystem.applyPendingChanges();
+		return guiSystem;
+	}
+
+	private static long[] getChecksums(GuiSystem guiSystem) {
+		final long[] checksums = new long[guiSystem.getLayerCount()];
+		for(int i = 0; i < checksums.length; i++) checksums[i] = ((ChecksumLayer) guiSystem.getLayer(i)).checksum;
+		return checksums;
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static class Session {
+		private long nsTicking, bytesAllocated;
+		private long[] checksums;
+	}
+
+	private static class ChecksumLayer extends GuiLayer {
+		private final boolean absorbsClicks;
+		private long checksum = 17;
+
+		private ChecksumLayer(int x, int y, int width, int height, boolean absorbsClicks) {
+			super(x, y, width, height);
+			this.absorbsClicks = absorbsClicks;
+			setRetained(true);
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) {
+			mix(event.getEventType().ordinal());
+			mix(event.getKeyCode());
+			mix(event.getMouseButton());
+			mix(Double.doubleToLongBits(event.getRelativeCursorX()));
+			mix(Double.doubleToLongBits(event.getRelativeCursorY()));
+			mix(Double.doubleToLongBits(event.getWheelRotation()));
+			return (absorbsClicks && (event.getEventType() == GuiEvent.EventType.MOUSE_BUTTON_PRESSED));
+		}
+
+		public void update(float sTimeDelay) {
+			final InputState inputState = getInputState();
+			mix(inputState.getNumberOfKeysDown());
+			mix(inputState.wasKeyPressed(38) ? 1 : 0);
+			mix(inputState.isMouseButtonDown(1) ? 1 : 0);
+			mix(Double.doubleToLongBits(inputState.getCursorDeltaX()));
+			mix(Double.doubleToLongBits(inputState.getWheelRotation()));
+			mix(inputState.hasFocus() ? 1 : 0);
+		}
+
+		private void mix(long value) { checksum = (checksum * 31) + value; }
+
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}
@@ -0,0 +1,248 @@
+package sandbox;
+
+import java.util.Arrays;
+
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiLayerGroup;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It builds a scrolling list of a few hundred rows twice: once as a flat stack of layers that are all moved to scroll the list (as the only option was
+ * before), and once as cullable rows inside a GuiLayerGroup that is scrolled instead - with one of the rows inside a group of its own, and another group of
+ * rows sitting entirely off the screen. Every row shows a value that changes every few ticks. The list is scrolled for the first half of the frames and left
+ * still for the rest, and both versions must composite exactly the same frame every time. It then reports how long each frame took both ways, checks that
+ * clicks reach the right row at the right position, that nothing off the screen was ever updated, and that a layer giving the GuiSystem an event while it
+ * handles one doesn't disturb the event being dispatched. It doesn't need a display, so can be run with java.awt.headless=true. The optional arguments are the
+ * number of rows and the number of frames.
+ */
+public class Sandbox_LayerGroups {
+
+	private static final int SCREEN_WIDTH = 320, SCREEN_HEIGHT = 400, ROW_HEIGHT = 20, NESTED_ROW = 250;
+
+	private static int tick = 0;
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		final int numberOfRows = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+		final int numberOfFrames = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+		// The flat list, where scrolling means moving every row
+		final GuiSystem flatSystem = new GuiSystem();
+		final RowLayer[] flatRows = new RowLayer[numberOfRows];
+		for(int i = 0; i < numberOfRows; i++) {
+			flatRows[i] = new RowLayer(i, i * ROW_HEIGHT);
+			flatSystem.addLayer(flatRows[i]);
+		}
+
+		// The grouped list, where the rows stay where they are in the group's content and the group is scrolled instead
+		final GuiSystem groupedSystem = new GuiSystem();
+		final GuiLayerGroup list = new GuiLayerGroup(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+		final RowLayer[] groupedRows = new RowLayer[numberOfRows];
+		for(int i = 0; i < numberOfRows; i++) {
+			if(i == NESTED_ROW) {
+				final GuiLayerGroup nestedGroup = new GuiLayerGroup(0, i * ROW_HEIGHT, SCREEN_WIDTH, ROW_HEIGHT);
+				nestedGroup.setCullable(true);
+				groupedRows[i] = new RowLayer(i, 0);
+				nestedGroup.addChild(groupedRows[i]);
+				list.addChild(nestedGroup);
+			} else {
+				groupedRows[i] = new RowLayer(i, i * ROW_HEIGHT);
+				list.addChild(groupedRows[i]);
+			}
+			groupedRows[i].setCullable(true);
+		}
+		groupedSystem.addLayer(list);
+
+		final GuiLayerGroup hiddenPanel = new GuiLayerGroup(SCREEN_WIDTH * 2, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+		hiddenPanel.setCullable(true);
+		final RowLayer[] hiddenRows = new RowLayer[20];
+		for(int i = 0; i < hiddenRows.length; i++) {
+			hiddenRows[i] = new RowLayer(i, i * ROW_HEIGHT);
+			hiddenPanel.addChild(hiddenRows[i]);
+		}
+		groupedSystem.addLayer(hiddenPanel);
+
+		final Compositor flatCompositor = new Compositor(SCREEN_WIDTH, SCREEN_HEIGHT);
+		final Compositor groupedCompositor = new Compositor(SCREEN_WIDTH, SCREEN_HEIGHT);
+		final int[] flatPixels = new int[SCREEN_WIDTH * SCREEN_HEIGHT], groupedPixels = new int[SCREEN_WIDTH * SCREEN_HEIGHT];
+		final int maxScroll = (numberOfRows * ROW_HEIGHT) - SCREEN_HEIGHT;
+
+		long nsFlat = 0, nsGrouped = 0;
+		int mismatchedFrames = 0;
+		int scroll = 0;
+		for(int frame = 0; frame < numberOfFrames; frame++) {
+			tick = frame;
+			if(frame < (numberOfFrames / 2)) scroll = (frame * 7) % maxScroll;
+
+			final long nsFlatStart = System.nanoTime();
+			for(int i = 0; i < numberOfRows; i++) flatRows[i].setY((i * ROW_HEIGHT) - scroll);
+			runFrame(flatSystem, flatCompositor);
+			final long nsGroupedStart = System.nanoTime();
+			list.setScroll(0, scroll);
+			runFrame(groupedSystem, groupedCompositor);
+			final long nsEnd = System.nanoTime();
+
+			// The first few frames are left out of the timings, since the JIT is still compiling
+			if(frame >= (numberOfFrames / 10)) {
+				nsFlat += nsGroupedStart - nsFlatStart;
+				nsGrouped += nsEnd - nsGroupedStart;
+			}
+
+			flatCompositor.getFramebuffer().getPixels(flatPixels);
+			groupedCompositor.getFramebuffer().getPixels(groupedPixels);
+			if(!Arrays.equals(flatPixels, groupedPixels)) mismatchedFrames++;
+		}
+
+		final int timedFrames = numberOfFrames - (numberOfFrames / 10);
+		System.out.println(String.format("%d rows over %d frames: %.3fms per frame as a flat stack, %.3fms as a group (%.2fx), with %d of the rows culled",
+				numberOfRows, numberOfFrames, nsFlat / (1e6 * timedFrames), nsGrouped / (1e6 * timedFrames), nsFlat / (double) nsGrouped,
+				list.getCulledChildCount()));
+		if(mismatchedFrames != 0) fail(mismatchedFrames + " frames composited differently as a group");
+
+		long flatUpdates = 0, groupedUpdates = 0;
+		for(int i = 0; i < numberOfRows; i++) {
+			flatUpdates += flatRows[i].updates;
+			groupedUpdates += groupedRows[i].updates;
+		}
+		System.out.println(String.format("The rows were updated %d times as a flat stack, and %d times as a group", flatUpdates, groupedUpdates));
+		for(RowLayer row : hiddenRows) {
+			if(row.updates != 0) fail("a row entirely off the screen was updated " + row.updates + " times");
+		}
+
+		// Clicks anywhere on the list must reach the row under the cursor, relative to that row (including the row in a group of its own, once scrolled to)
+		scroll = (NESTED_ROW * ROW_HEIGHT) - 100;
+		list.setScroll(0, scroll);
+		final GuiEvent event = new GuiEvent(GuiEvent.EventType.MOUSE_BUTTON_PRESSED);
+		final int[][] clicks = { { 5, 5 }, { 100, 199 }, { 319, 399 }, { 40, 107 } };
+		for(int[] click : clicks) {
+			event.set(GuiEvent.EventType.MOUSE_BUTTON_PRESSED, -1, 1, click[0] + 0.5, click[1]);
+			groupedSystem.recieveEvent(event);
+
+			final RowLayer row = groupedRows[(click[1] + scroll) / ROW_HEIGHT];
+			if((row.lastClickX != (click[0] + 0.5)) || (row.lastClickY != ((click[1] + scroll) % ROW_HEIGHT))) {
+				fail("the click at (" + click[0] + ", " + click[1] + ") reached row " + row.index + " at (" + row.lastClickX + ", " + row.lastClickY + ")");
+			}
+		}
+
+		checkNestedDispatch();
+
+		System.out.println((failures == 0) ? "Every check passed" : (failures + " checks FAILED"));
+	}
+
+	// A layer inside a group gives the GuiSystem another event while handling a click, which reaches the same group again - the layers and children beneath it
+	// must still be given the click, as a click
+	private static void checkNestedDispatch() {
+		final GuiSystem guiSystem = new GuiSystem();
+		final EventCountingLayer bottom = new EventCountingLayer();
+		final EventCountingLayer child = new EventCountingLayer();
+		final GuiLayerGroup group = new GuiLayerGroup(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+		group.addChild(child);
+		group.addChild(new RedispatchingLayer(guiSystem));
+		guiSystem.addLayer(bottom);
+		guiSystem.addLayer(group);
+		guiSystem.applyPendingChanges();
+
+		final GuiEvent click = new GuiEvent(GuiEvent.EventType.MOUSE_BUTTON_PRESSED);
+		click.set(GuiEvent.EventType.MOUSE_BUTTON_PRESSED, -1, 1, 10, 10);
+		guiSystem.recieveEvent(click);
+
+		if((bottom.presses != 1) || (child.presses != 1)) {
+			fail("a nested event stopped the click reaching the layers beneath (" + bottom.presses + " and " + child.presses + " presses, rather than 1)");
+		}
+		if((bottom.moves != 1) || (child.moves != 1)) fail("the nested event wasn't given to every layer under the cursor");
+	}
+
+	private static void runFrame(GuiSystem guiSystem, Compositor compositor) {
+		guiSystem.applyPendingChanges();
+		guiSystem.setViewport(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+		guiSystem.prepareForRender();
+		guiSystem.update(1 / 60f);
+		guiSystem.compositeTo(compositor);
+	}
+
+	private static void fail(String message) {
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+
+	// Shows a bar for a value that changes every 16 ticks (at a different tick for each row), only redrawing itself when the value has changed
+	private static class RowLayer extends GuiLayer {
+		private final int index;
+		private int shownValue = -1;
+		private long updates = 0;
+		private double lastClickX = -1, lastClickY = -1;
+
+		private RowLayer(int index, int y) {
+			super(0, y, SCREEN_WIDTH, ROW_HEIGHT);
+			this.index = index;
+			setRetained(true);
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) {
+			if(event.getEventType() != GuiEvent.EventType.MOUSE_BUTTON_PRESSED) return false;
+
+			lastClickX = event.getRelativeCursorX() - getX();
+			lastClickY = event.getRelativeCursorY() - getY();
+			return true;
+		}
+
+		public void update(float sTimeDelay) {
+			updates++;
+			final int value = 1 + ((((tick + index) / 16) * 37 + (index * 11)) % (SCREEN_WIDTH - 9));
+			if(value == shownValue) return;
+
+			shownValue = value;
+			setPixelRegion(0, 0, getWidth(), getHeight(), ((index % 2) == 0) ? Colour.getARGB(255, 24, 24, 32) : Colour.getARGB(255, 32, 32, 40));
+			setPixelRegion(4, 4, value, getHeight() - 8, Colour.getARGB(255, 80, 140 + (index % 100), 220));
+		}
+
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+	// Counts the clicks and cursor movements given to it, without absorbing either
+	private static class EventCountingLayer extends GuiLayer {
+		private int presses = 0, moves = 0;
+
+		private EventCountingLayer() { super(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT); }
+
+		public boolean recieveGuiEvent(GuiEvent event) {
+			if(event.getEventType() == GuiEvent.EventType.MOUSE_BUTTON_PRESSED) presses++;
+			if(event.getEventType() == GuiEvent.EventType.MOUSE_CURSOR_MOVED) moves++;
+			return false;
+		}
+
+		public void update(float sTimeDelay) { }
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+	// Gives the GuiSystem a cursor movement of its own whenever it is clicked, while the click is still being dispatched
+	private static class RedispatchingLayer extends GuiLayer {
+		private final GuiSystem guiSystem;
+		private final GuiEvent nestedEvent = new GuiEvent(GuiEvent.EventType.MOUSE_CURSOR_MOVED);
+
+		private RedispatchingLayer(GuiSystem guiSystem) {
+			super(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+			this.guiSystem = guiSystem;
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) {
+			if(event.getEventType() == GuiEvent.EventType.MOUSE_BUTTON_PRESSED) {
+				nestedEvent.set(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, 20, 20);
+				guiSystem.recieveEvent(nestedEvent);
+			}
+			return false;
+		}
+
+		public void update(float sTimeDelay) { }
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}
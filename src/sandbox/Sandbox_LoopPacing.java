@@ -0,0 +1,79 @@
+package sandbox;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import com.macleod.engine.loop.CappedTimestepLoop;
+import com.macleod.engine.loop.FixedTimestepLoop;
+import com.macleod.engine.loop.GameLoop;
+import com.macleod.engine.loop.LoopTarget;
+import com.macleod.engine.loop.VariableTimestepLoop;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It drives each type of GameLoop without a window (so it can be run with java.awt.headless=true) against a target that pretends to do a small amount of work,
+ * and reports how accurately frames were paced and how much of a core the loop used while doing so.
+ */
+public class Sandbox_LoopPacing {
+
+	private static final int FRAMES_PER_RUN = 600;
+	private static final long NS_SIMULATED_WORK = 2000000;
+
+	public static void main(String[] args) {
+		measure("Fixed (60 ticks, 60fps cap)", new FixedTimestepLoop(60));
+		measure("Fixed (120 ticks, 60fps cap)", new FixedTimestepLoop(120, 60, FixedTimestepLoop.DEFAULT_MAX_TICKS_PER_FRAME));
+		measure("Capped (60fps)", new CappedTimestepLoop(60));
+		measure("Capped (144fps)", new CappedTimestepLoop(144));
+		measure("Variable (uncapped)", new VariableTimestepLoop());
+	}
+
+	private static void measure(String name, GameLoop loop) {
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		final long[] nsFrameStarts = new long[FRAMES_PER_RUN + 1];
+		final int[] frameIndex = new int[1];
+
+		final LoopTarget target = new LoopTarget() {
+			public void update(float sTimeDelay) { }
+
+			public void render() {
+				nsFrameStarts[frameIndex[0]++] = System.nanoTime();
+
+				final long nsWorkEnd = System.nanoTime() + NS_SIMULATED_WORK;
+				while(System.nanoTime() < nsWorkEnd) Thread.onSpinWait();
+			}
+		};
+
+		loop.reset(System.nanoTime());
+		final long nsCpuStart = threadBean.getCurrentThreadCpuTime();
+		final long nsWallStart = System.nanoTime();
+		while(frameIndex[0] <= FRAMES_PER_RUN) loop.runFrame(target);
+		final long nsWall = System.nanoTime() - nsWallStart;
+		final long nsCpu = threadBean.getCurrentThreadCpuTime() - nsCpuStart;
+
+		final long[] nsIntervals = new long[FRAMES_PER_RUN];
+		for(int i = 0; i < FRAMES_PER_RUN; i++) nsIntervals[i] = nsFrameStarts[i + 1] - nsFrameStarts[i];
+
+		final long nsTarget = loop.getTargetTimeBetweenFrames();
+		final long[] nsErrors = new long[FRAMES_PER_RUN];
+		double nsMean = 0;
+		for(int i = 0; i < FRAMES_PER_RUN; i++) {
+			nsMean += nsIntervals[i];
+			nsErrors[i] = Math.abs(nsIntervals[i] - nsTarget);
+		}
+		nsMean /= FRAMES_PER_RUN;
+		Arrays.sort(nsErrors);
+
+		System.out.println(name);
+		System.out.println(String.format("  mean frame %.3fms (target %s), %.1f fps", nsMean / 1e6,
+				(nsTarget > 0) ? String.format("%.3fms", nsTarget / 1e6) : "uncapped", 1e9 / nsMean));
+		if(nsTarget > 0) {
+			System.out.println(String.format("  jitter p50 %.1fus, p99 %.1fus, max %.1fus",
+					nsErrors[FRAMES_PER_RUN / 2] / 1e3, nsErrors[(FRAMES_PER_RUN * 99) / 100] / 1e3, nsErrors[FRAMES_PER_RUN - 1] / 1e3));
+		}
+		System.out.println(String.format("  %d ticks over %d frames, loop thread used %.1f%% of a core",
+				loop.getTickCount(), loop.getFrameCount(), (100.0 * nsCpu) / nsWall));
+	}
+
+}
@@ -0,0 +1,99 @@
+package sandbox;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.ParallelRaster;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It times fills, opaque blits and alpha blends over Bitmaps of several sizes, serially and with ParallelRaster enabled at several thread counts. Each
+ * parallel result is also checked to be identical to the serial result.
+ */
+public class Sandbox_ParallelRasterBenchmark {
+
+	private static final int[][] SIZES = { { 256, 256 }, { 1024, 1024 }, { 1600, 900 }, { 4096, 4096 } };
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16 };
+	private static final int WARMUP_ITERATIONS = 20, MEASURED_ITERATIONS = 50;
+
+	private enum Operation { FILL, BLIT, BLEND }
+
+	public static void main(String[] args) {
+		System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+		for(int[] size : SIZES) {
+			final int width = size[0], height = size[1];
+			final Bitmap source = createSource(width, height);
+
+			for(Operation operation : Operation.values()) {
+				final StringBuilder line = new StringBuilder(String.format("%4dx%-4d %-5s", width, height, operation));
+
+				ParallelRaster.setEnabled(false);
+				final Bitmap serialTarget = new Bitmap(width, height);
+				final double msSerial = time(operation, source, serialTarget);
+				line.append(String.format("  serial %8.3fms", msSerial));
+
+				ParallelRaster.setEnabled(true);
+				for(int threads : THREAD_COUNTS) {
+					if(threads == 1) continue;
+
+					final ForkJoinPool pool = new ForkJoinPool(threads);
+					ParallelRaster.setPool(pool);
+
+					final Bitmap parallelTarget = new Bitmap(width, height);
+					final double msParallel = time(operation, source, parallelTarget);
+					line.append(String.format("  %2dt %8.3fms", threads, msParallel));
+
+					if(!Arrays.equals(pixelsOf(serialTarget), pixelsOf(parallelTarget))) line.append(" (MISMATCH)");
+					pool.shutdown();
+				}
+				ParallelRaster.setEnabled(false);
+				ParallelRaster.setPool(ForkJoinPool.commonPool());
+
+				System.out.println(line);
+			}
+		}
+	}
+
+	// Every timed run starts from the same target contents and performs the same sequence of operations, so the serial and parallel results can be compared
+	private static double time(Operation operation, Bitmap source, Bitmap target) {
+		for(int i = 0; i < WARMUP_ITERATIONS; i++) run(operation, source, target, i);
+
+		target.setPixelRegion(0, 0, target.width, target.height, Colour.NO_ALPHA_VALUE);
+		final long nsStart = System.nanoTime();
+		for(int i = 0; i < MEASURED_ITERATIONS; i++) run(operation, source, target, i);
+		return (System.nanoTime() - nsStart) / (MEASURED_ITERATIONS * 1e6);
+	}
+
+	private static void run(Operation operation, Bitmap source, Bitmap target, int iteration) {
+		switch(operation) {
+			case FILL: target.setPixelRegion(0, 0, target.width, target.height, Colour.getARGB(255, iteration & 0xff, 0, 0)); break;
+			case BLIT: target.drawBitmap(source, 0, 0, source.width, source.height, 0, 0); break;
+			case BLEND: target.drawBitmap(source, 0, 0, source.width, source.height, 0, 0, Bitmap.BlitMode.ALPHA_BLEND); break;
+		}
+	}
+
+	// The source is a mix of transparent, opaque and translucent pixels so the blend touches every path of the kernel
+	private static Bitmap createSource(int width, int height) {
+		final Random random = new Random(width * 31 + height);
+		final Bitmap source = new Bitmap(width, height);
+		for(int y = 0; y < height; y += 8) {
+			final int alpha = (random.nextInt(3) == 0) ? 0 : ((random.nextInt(2) == 0) ? 255 : random.nextInt(256));
+			source.setPixelRegion(0, y, width, 8, Colour.getARGB(alpha, random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+		}
+		return source;
+	}
+
+	private static int[] pixelsOf(Bitmap bitmap) {
+		final int[] pixels = new int[bitmap.width * bitmap.height];
+		for(int y = 0; y < bitmap.height; y++) {
+			for(int x = 0; x < bitmap.width; x++) pixels[x + y * bitmap.width] = bitmap.getPixelARGB(x, y);
+		}
+		return pixels;
+	}
+
+}
@@ -0,0 +1,188 @@
+package sandbox;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It updates a dashboard of busy chart layers (each working out and plotting a noisy series every frame, and drifting around its own cell of the screen)
+ * along with a few ordinary layers, first with every layer updated in stack order and then with the charts marked as independent, so that they are updated
+ * across a ForkJoinPool. Both runs must leave every layer with exactly the same pixels. One chart and one ordinary layer throw an exception every few frames,
+ * which must be counted without stopping any other layer from being updated. Once the charts have moved around while being updated on the pool, a mouse
+ * event at the centre of each must still reach it. It doesn't need a display, so can be run with java.awt.headless=true. The optional arguments are the
+ * number of charts, the number of frames and the parallelism of the pool.
+ */
+public class Sandbox_ParallelUpdate {
+
+	private static final int CELL_WIDTH = 200, CELL_HEIGHT = 120, COLUMNS = 8;
+	private static final int FAILING_FRAMES = 7;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		final int numberOfCharts = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+		final int numberOfFrames = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+		final int parallelism = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		// Run both once before measuring, so that neither is measured while the JIT is still compiling
+		run(numberOfCharts, numberOfFrames / 4, null);
+		run(numberOfCharts, numberOfFrames / 4, pool);
+
+		final Run serial = run(numberOfCharts, numberOfFrames, null);
+		final Run parallel = run(numberOfCharts, numberOfFrames, pool);
+		System.out.println(String.format("%d charts over %d frames: %.3fms per update in stack order, %.3fms with the charts updated on %d threads (%.2fx)",
+				numberOfCharts, numberOfFrames, serial.nsUpdating / (1e6 * numberOfFrames), parallel.nsUpdating / (1e6 * numberOfFrames), parallelism,
+				serial.nsUpdating / (double) parallel.nsUpdating));
+
+		for(int i = 0; i < serial.hashes.length; i++) {
+			if(serial.hashes[i] != parallel.hashes[i]) fail("layer " + i + " drew different pixels when updated on the pool");
+		}
+
+		final long expectedFailures = (numberOfFrames + FAILING_FRAMES - 1) / FAILING_FRAMES;
+		for(Run run : new Run[] { serial, parallel }) {
+			if((run.failingChart.getUpdateFailureCount() != expectedFailures) || (run.failingLayer.getUpdateFailureCount() != expectedFailures)) {
+				fail("expected " + expectedFailures + " failed updates of each failing layer, but counted " + run.failingChart.getUpdateFailureCount()
+						+ " and " + run.failingLayer.getUpdateFailureCount());
+			}
+		}
+		System.out.println("Each failing layer failed " + parallel.failingChart.getUpdateFailureCount() + " times, without stopping the other layers");
+
+		pool.shutdown();
+		System.out.println((failures == 0) ? "Every check passed" : (failures + " checks FAILED"));
+	}
+
+	private static Run run(int numberOfCharts, int numberOfFrames, ForkJoinPool pool) {
+		final GuiSystem guiSystem = new GuiSystem();
+		if(pool != null) guiSystem.setUpdatePool(pool);
+
+		final Run run = new Run();
+		guiSystem.addLayer(new CounterLayer(false));
+		final ChartLayer[] charts = new ChartLayer[numberOfCharts];
+		for(int i = 0; i < numberOfCharts; i++) {
+			charts[i] = new ChartLayer(i, (i == 3));
+			charts[i].setIndependent(pool != null);
+			guiSystem.addLayer(charts[i]);
+		}
+		run.failingChart = charts[3];
+		run.failingLayer = new CounterLayer(true);
+		guiSystem.addLayer(run.failingLayer);
+		guiSystem.applyPendingChanges();
+
+		for(int frame = 0; frame < numberOfFrames; frame++) {
+			guiSystem.applyPendingChanges();
+			guiSystem.prepareForRender();
+
+			final long nsStart = System.nanoTime();
+			guiSystem.update(1 / 60f);
+			run.nsUpdating += System.nanoTime() - nsStart;
+		}
+
+		// Every chart has moved while it was updated, so this only reaches it if its place under the cursor was kept up to date
+		final GuiEvent event = new GuiEvent(GuiEvent.EventType.MOUSE_CURSOR_MOVED);
+		for(ChartLayer chart : charts) {
+			event.set(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, chart.getX() + (chart.getWidth() / 2), chart.getY() + (chart.getHeight() / 2), 0);
+			guiSystem.recieveEvent(event);
+			if(!chart.wasHovered) fail("a chart didn't get the mouse event at its centre after moving");
+		}
+
+		run.hashes = new long[guiSystem.getLayerCount()];
+		final int[] pixels = new int[CELL_WIDTH * CELL_HEIGHT];
+		for(int i = 0; i < run.hashes.length; i++) {
+			final GuiLayer layer = guiSystem.getLayer(i);
+			final int[] layerPixels = (layer.width * layer.height <= pixels.length) ? pixels : new int[layer.width * layer.height];
+			layer.getPixels(layerPixels);
+			run.hashes[i] = (31L * Arrays.hashCode(layerPixels)) + layer.getX() * 7919 + layer.getY();
+		}
+		guiSystem.onShutdown();
+		return run;
+	}
+
+	private static void fail(String message) {
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+
+	private static class Run {
+		private long nsUpdating;
+		private long[] hashes;
+		private GuiLayer failingChart, failingLayer;
+	}
+
+	// Works out a few hundred samples of a noisy series every frame and plots them as bars, drifting a few pixels around its own cell (so never over another)
+	private static class ChartLayer extends GuiLayer {
+		private final int index, cellX, cellY;
+		private final boolean failing;
+		private final double[] samples = new double[CELL_WIDTH - 20];
+		private int frame = 0;
+		private boolean wasHovered = false;
+
+		private ChartLayer(int index, boolean failing) {
+			super(((index % COLUMNS) * CELL_WIDTH) + 5, ((index / COLUMNS) * CELL_HEIGHT) + 5, CELL_WIDTH - 10, CELL_HEIGHT - 10);
+			this.index = index;
+			this.cellX = (index % COLUMNS) * CELL_WIDTH;
+			this.cellY = (index / COLUMNS) * CELL_HEIGHT;
+			this.failing = failing;
+			setRetained(true);
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) {
+			if(event.getEventType() == GuiEvent.EventType.MOUSE_CURSOR_MOVED) wasHovered = true;
+			return true;
+		}
+
+		public void update(float sTimeDelay) {
+			frame++;
+			setX(cellX + 5 + (int) Math.round(4 * Math.sin(frame * 0.05 + index)));
+			setY(cellY + 5 + (int) Math.round(4 * Math.cos(frame * 0.07 + index)));
+
+			for(int i = 0; i < samples.length; i++) {
+				double value = 0;
+				for(int harmonic = 1; harmonic <= 12; harmonic++) value += Math.sin((i + frame) * 0.02 * harmonic + index) / harmonic;
+				samples[i] = value;
+			}
+
+			setPixelRegion(0, 0, getWidth(), getHeight(), Colour.getARGB(255, 16, 16, 24));
+			for(int i = 0; i < samples.length; i++) {
+				final int barHeight = Math.max(1, Math.min(getHeight() - 2, (int) ((samples[i] + 2) * (getHeight() / 4.0))));
+				setPixelRegion(5 + i, getHeight() - 1 - barHeight, 1, barHeight, Colour.getARGB(255, 64, 160 + (index * 3) % 96, 255 - (i % 128)));
+			}
+
+			if(failing && ((frame % FAILING_FRAMES) == 1)) throw new IllegalStateException("A chart failing on purpose (frame " + frame + ")");
+		}
+
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+	// A layer updated on the loop thread in stack order, which counts its updates
+	private static class CounterLayer extends GuiLayer {
+		private final boolean failing;
+		private int frame = 0;
+
+		private CounterLayer(boolean failing) {
+			super(0, 0, 16, 16);
+			this.failing = failing;
+			setHitTested(false);
+			setSubscribed(GuiEvent.EventType.MOUSE_CURSOR_MOVED, false);
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+
+		public void update(float sTimeDelay) {
+			frame++;
+			setPixel(frame % 16, (frame / 16) % 16, Colour.getARGB(255, frame & 0xff, 0, 0));
+			if(failing && ((frame % FAILING_FRAMES) == 1)) throw new IllegalArgumentException("A layer failing on purpose (frame " + frame + ")");
+		}
+
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}
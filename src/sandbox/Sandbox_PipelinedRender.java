@@ -0,0 +1,168 @@
+package sandbox;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.macleod.engine.Application;
+import com.macleod.engine.Screen;
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+import com.macleod.engine.loop.VariableTimestepLoop;
+import com.macleod.engine.metrics.FrameMetrics;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It runs an Application with an uncapped loop on a Screen whose present blocks for a while without using the CPU (as a BufferStrategy waiting for the
+ * display does), and layers whose updates take about as long - first with every frame updated and presented in turn, and then pipelined. Every layer draws
+ * the number of its current tick (as a colour): half fill themselves with it, and the other half only draw a small square of it that moves along every tick.
+ * The Screen checks each frame as it's presented - every layer must show the same tick, no earlier than the tick of the frame before, and nothing left over
+ * from an earlier tick - so a frame presented part way through being drawn is caught. It doesn't need a display, so can be run with java.awt.headless=true.
+ * The optional arguments are the number of seconds to run each for, and how many milliseconds each update and each present take.
+ */
+public class Sandbox_PipelinedRender {
+
+	private static final int COLUMNS = 8, ROWS = 4, CELL_WIDTH = 80, CELL_HEIGHT = 90, SQUARE_SIZE = 8;
+
+	public static void main(String[] args) throws InterruptedException {
+		final int secondsToRun = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+		final double msPerUpdate = (args.length > 1) ? Double.parseDouble(args[1]) : 4;
+		final double msPerPresent = (args.length > 2) ? Double.parseDouble(args[2]) : 4;
+
+		final Run sequential = run(false, secondsToRun, msPerUpdate, msPerPresent);
+		final Run pipelined = run(true, secondsToRun, msPerUpdate, msPerPresent);
+
+		System.out.println(String.format("%.1fms updates and %.1fms presents: %.1f fps in turn, %.1f fps pipelined (%.2fx)", msPerUpdate, msPerPresent,
+				sequential.framesPerSecond, pipelined.framesPerSecond, pipelined.framesPerSecond / sequential.framesPerSecond));
+		System.out.println(String.format("While pipelined, updates waited %.3fms per frame for the render thread, and the render thread waited %.3fms per "
+				+ "frame for updates (handing each frame over took %.3fms)", pipelined.msWaitingForRender, pipelined.msWaitingForUpdate, pipelined.msPublishing));
+
+		final long badFrames = sequential.screen.badFrames + pipelined.screen.badFrames;
+		System.out.println((badFrames == 0) ? ("Every one of the " + (sequential.screen.frames + pipelined.screen.frames) + " frames was whole")
+				: ("FAILED: " + badFrames + " frames were presented part way through being drawn, or out of order"));
+	}
+
+	private static Run run(boolean pipelined, int secondsToRun, double msPerUpdate, double msPerPresent) throws InterruptedException {
+		final CheckingScreen screen = new CheckingScreen((long) (msPerPresent * 1e6));
+		final Application app = new Application(screen);
+		app.setGameLoop(new VariableTimestepLoop());
+		app.setPipelined(pipelined);
+
+		final GuiSystem guiSystem = new GuiSystem();
+		final long nsPerLayerUpdate = (long) ((msPerUpdate * 1e6) / (COLUMNS * ROWS));
+		for(int i = 0; i < (COLUMNS * ROWS); i++) guiSystem.addLayer(new TickLayer(i, nsPerLayerUpdate));
+		app.setGuiSystem(guiSystem);
+
+		app.start();
+		Thread.sleep(secondsToRun * 1000L);
+		app.stop();
+
+		final Run run = new Run();
+		run.screen = screen;
+		run.framesPerSecond = screen.frames / (double) secondsToRun;
+		final FrameMetrics metrics = app.getFrameMetrics();
+		run.msWaitingForRender = metrics.snapshot(FrameMetrics.Phase.WAIT_FOR_RENDER).getMean() / 1e6;
+		run.msWaitingForUpdate = metrics.snapshot(FrameMetrics.Phase.WAIT_FOR_UPDATE).getMean() / 1e6;
+		run.msPublishing = metrics.snapshot(FrameMetrics.Phase.PUBLISH).getMean() / 1e6;
+		return run;
+	}
+
+	private static int getTickColour(int tick) { return Colour.getARGB(255, 128 | ((tick >> 16) & 0x7f), (tick >> 8) & 0xff, tick & 0xff); }
+	private static int getTick(int colour) { return (colour & 0x7fffff); }
+
+	private static class Run {
+		private CheckingScreen screen;
+		private double framesPerSecond, msWaitingForRender, msWaitingForUpdate, msPublishing;
+	}
+
+	// Composites into an off-screen framebuffer like a HeadlessScreen, but checks every frame and then blocks for a while before presenting it
+	private static class CheckingScreen extends Screen {
+		private final Compositor compositor = new Compositor(COLUMNS * CELL_WIDTH, ROWS * CELL_HEIGHT);
+		private final long nsPerPresent;
+		private final int[] pixels = new int[compositor.getWidth() * compositor.getHeight()];
+		private long frames = 0, badFrames = 0;
+		private int lastTick = -1;
+
+		private CheckingScreen(long nsPerPresent) { this.nsPerPresent = nsPerPresent; }
+
+		public void clear() { }
+
+		public void draw(GuiSystem guiSystem) {
+			if(guiSystem != null) guiSystem.compositeTo(compositor);
+		}
+
+		public void present() {
+			if(!isWhole()) badFrames++;
+			frames++;
+
+			final long nsEnd = System.nanoTime() + nsPerPresent;
+			for(long nsLeft = nsPerPresent; nsLeft > 0; nsLeft = nsEnd - System.nanoTime()) LockSupport.parkNanos(nsLeft);
+		}
+
+		// The first layer says which tick the frame is meant to be, and every other layer must agree with it exactly
+		private boolean isWhole() {
+			compositor.getFramebuffer().getPixels(pixels);
+			final int width = compositor.getWidth();
+			if(pixels[0] == Colour.BLACK) return (lastTick < 0);
+
+			final int tick = getTick(pixels[0]);
+			final int tickColour = getTickColour(tick);
+			final boolean inOrder = (tick >= lastTick);
+			lastTick = tick;
+			if(!inOrder) return false;
+
+			for(int i = 0; i < (COLUMNS * ROWS); i++) {
+				final int cellX = (i % COLUMNS) * CELL_WIDTH, cellY = (i / COLUMNS) * CELL_HEIGHT;
+				final int squareX = TickLayer.getSquareX(tick);
+				for(int y = 0; y < CELL_HEIGHT; y++) {
+					for(int x = 0; x < CELL_WIDTH; x++) {
+						final boolean inSquare = ((x >= squareX) && (x < (squareX + SQUARE_SIZE)) && (y < SQUARE_SIZE));
+						final int expected = (TickLayer.isFilled(i) || inSquare) ? tickColour : Colour.BLACK;
+						if(pixels[cellX + x + ((cellY + y) * width)] != expected) return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		public int getWidth() { return compositor.getWidth(); }
+		public int getHeight() { return compositor.getHeight(); }
+		public Bitmap getFramebuffer() { return compositor.getFramebuffer(); }
+	}
+
+	// Either fills itself with the colour of its tick, or (if it isn't retained) draws a square of it that moves along the top of the layer every tick. Each
+	// update then keeps the CPU busy until it has taken its share of the update time
+	private static class TickLayer extends GuiLayer {
+		private final int index;
+		private final long nsPerUpdate;
+		private int tick = 0;
+
+		private TickLayer(int index, long nsPerUpdate) {
+			super((index % COLUMNS) * CELL_WIDTH, (index / COLUMNS) * CELL_HEIGHT, CELL_WIDTH, CELL_HEIGHT);
+			this.index = index;
+			this.nsPerUpdate = nsPerUpdate;
+			setRetained(isFilled(index));
+		}
+
+		private static boolean isFilled(int index) { return ((index % 2) == 0); }
+		private static int getSquareX(int tick) { return (tick % (CELL_WIDTH - SQUARE_SIZE)); }
+
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+
+		public void update(float sTimeDelay) {
+			final long nsStart = System.nanoTime();
+			tick++;
+			if(isFilled(index)) setPixelRegion(0, 0, getWidth(), getHeight(), getTickColour(tick));
+			else setPixelRegion(getSquareX(tick), 0, SQUARE_SIZE, SQUARE_SIZE, getTickColour(tick));
+
+			while((System.nanoTime() - nsStart) < nsPerUpdate) Math.sin(tick);
+		}
+
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}
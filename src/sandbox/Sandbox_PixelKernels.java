@@ -0,0 +1,210 @@
+package sandbox;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.Compositor;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It checks that the row kernels behind Compositor.composite, Bitmap.drawBitmap (in ALPHA_BLEND mode), Bitmap.premultiplyAlpha/unpremultiplyAlpha and
+ * Bitmap.extractChannel give exactly the same pixels as working through every pixel with the matching Colour method - for random, sparse and oddly offset
+ * content, and for Bitmaps without an alpha channel (which must be drawn as opaque whatever their alpha bits hold, in OPAQUE mode as well). Premultiplying
+ * and unpremultiplying are also checked against Colour for every possible colour. Then it times compositing a full screen layer through the Compositor
+ * against checking and blending one pixel at a time. The optional arguments are the width and height of the screen.
+ */
+public class Sandbox_PixelKernels {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		final int width = (args.length > 0) ? Integer.parseInt(args[0]) : 1600;
+		final int height = (args.length > 1) ? Integer.parseInt(args[1]) : 900;
+		final Random random = new Random(0);
+
+		for(int pass = 0; pass < 3; pass++) {
+			final boolean sparse = (pass == 1);
+			checkComposite(createLayer(width, height, sparse, random), random.nextInt(64) - 32, random.nextInt(64) - 32, random);
+			checkDrawBitmap(createLayer(301, 203, sparse, random), createLayer(257, 199, (pass == 2), random), random.nextInt(7) - 3, random.nextInt(7) - 3,
+					Bitmap.BlitMode.ALPHA_BLEND);
+			checkDrawBitmap(createLayer(301, 203, sparse, random), createOpaque(257, 199, random), random.nextInt(7) - 3, random.nextInt(7) - 3,
+					Bitmap.BlitMode.ALPHA_BLEND);
+		}
+		for(Bitmap.BlitMode mode : new Bitmap.BlitMode[] { Bitmap.BlitMode.OPAQUE, Bitmap.BlitMode.ALPHA_BLEND }) {
+			checkDrawBitmap(createWithoutAlpha(301, 203, random), createLayer(257, 199, false, random), random.nextInt(7) - 3, random.nextInt(7) - 3, mode);
+		}
+		checkComposite(createWithoutAlpha(width / 2, height / 2, random), random.nextInt(64) - 32, random.nextInt(64) - 32, random);
+		checkPremultiply();
+		checkExtractChannel(createLayer(123, 45, false, random));
+		System.out.println((failures == 0) ? "Every kernel matched its Colour reference exactly" : (failures + " checks FAILED"));
+
+		timeComposite(width, height, random);
+	}
+
+	private static void checkComposite(Bitmap layer, int x, int y, Random random) {
+		final Compositor compositor = new Compositor(layer.getWidth(), layer.getHeight());
+		compositor.setBackgroundColour(0xff000000 | random.nextInt());
+		compositor.invalidate();
+		compositor.beginComposite(compositor);
+		compositor.composite(layer, x, y);
+		compositor.endComposite();
+
+		final Bitmap framebuffer = compositor.getFramebuffer();
+		for(int py = 0; py < framebuffer.getHeight(); py++) {
+			for(int px = 0; px < framebuffer.getWidth(); px++) {
+				int expected = compositor.getBackgroundColour();
+				if(layer.isPointInDimensions(px - x, py - y)) {
+					// A layer without an alpha channel is opaque, whatever its alpha bits hold
+					final int argb = layer.getPixelARGB(px - x, py - y);
+					expected = layer.hasAlphaChannel() ? Colour.blendOntoOpaque(argb, expected) : (argb | 0xff000000);
+				}
+				if(!check("Compositor.composite", px, py, expected, framebuffer.getPixelARGB(px, py))) return;
+			}
+		}
+	}
+
+	private static void checkDrawBitmap(Bitmap source, Bitmap target, int x, int y, Bitmap.BlitMode mode) {
+		final int[] before = new int[target.getWidth() * target.getHeight()];
+		for(int i = 0; i < before.length; i++) before[i] = target.getPixelARGB(i % target.getWidth(), i / target.getWidth());
+
+		target.drawBitmap(source, x, y, mode);
+
+		for(int py = 0; py < target.getHeight(); py++) {
+			for(int px = 0; px < target.getWidth(); px++) {
+				int expected = before[px + (py * target.getWidth())];
+				if(source.isPointInDimensions(px - x, py - y)) {
+					// A source without an alpha channel is opaque, whatever its alpha bits hold
+					final int argb = source.hasAlphaChannel() ? source.getPixelARGB(px - x, py - y) : (source.getPixelARGB(px - x, py - y) | 0xff000000);
+					expected = (mode == Bitmap.BlitMode.OPAQUE) ? argb : Colour.blendSourceOver(argb, expected);
+				}
+				if(!check("Bitmap.drawBitmap", px, py, expected, target.getPixelARGB(px, py))) return;
+			}
+		}
+	}
+
+	// Every alpha with every value of a channel, spread across the red, green and blue channels so that each of them sees every value
+	private static void checkPremultiply() {
+		final Bitmap bitmap = new Bitmap(256, 256);
+		for(int alpha = 0; alpha < 256; alpha++) {
+			for(int value = 0; value < 256; value++) bitmap.setPixel(value, alpha, Colour.getARGB(alpha, value, 255 - value, (value * 7) & 0xff));
+		}
+
+		final int[] original = new int[256 * 256];
+		for(int i = 0; i < original.length; i++) original[i] = bitmap.getPixelARGB(i & 0xff, i >> 8);
+
+		bitmap.premultiplyAlpha();
+		for(int i = 0; i < original.length; i++) {
+			if(!check("Bitmap.premultiplyAlpha", i & 0xff, i >> 8, Colour.premultiply(original[i]), bitmap.getPixelARGB(i & 0xff, i >> 8))) break;
+		}
+
+		// Unpremultiplying is also checked on colours that were never premultiplied, where a channel can be brighter than the alpha
+		for(int i = 0; i < original.length; i++) bitmap.setPixel(i & 0xff, i >> 8, original[i]);
+		bitmap.unpremultiplyAlpha();
+		for(int i = 0; i < original.length; i++) {
+			if(!check("Bitmap.unpremultiplyAlpha", i & 0xff, i >> 8, Colour.unpremultiply(original[i]), bitmap.getPixelARGB(i & 0xff, i >> 8))) break;
+		}
+
+		// Premultiplying an opaque colour changes nothing, and unpremultiplying a premultiplied colour should get back close to where it started
+		for(int i = 0; i < original.length; i++) {
+			final int roundTrip = Colour.unpremultiply(Colour.premultiply(original[i]));
+			final int alpha = (original[i] >>> 24);
+			if((alpha == 0xff) && (roundTrip != original[i])) check("Colour.premultiply (opaque)", i & 0xff, i >> 8, original[i], roundTrip);
+			for(Colour.Channel channel : Colour.Channel.values()) {
+				if((alpha > 0) && (Math.abs(channel.getComponent(roundTrip) - channel.getComponent(original[i])) > ((128 + alpha) / alpha))) {
+					check("Colour.unpremultiply (round trip)", i & 0xff, i >> 8, original[i], roundTrip);
+					break;
+				}
+			}
+		}
+	}
+
+	private static void checkExtractChannel(Bitmap bitmap) {
+		for(Colour.Channel channel : Colour.Channel.values()) {
+			final byte[] extracted = bitmap.extractChannel(channel, null);
+			for(int i = 0; i < extracted.length; i++) {
+				final int px = i % bitmap.getWidth(), py = i / bitmap.getWidth();
+				if(!check("Bitmap.extractChannel(" + channel + ")", px, py, channel.getComponent(bitmap.getPixelARGB(px, py)), extracted[i] & 0xff)) break;
+			}
+		}
+	}
+
+	private static void timeComposite(int width, int height, Random random) {
+		final Bitmap layer = createLayer(width, height, false, random);
+		final Compositor compositor = new Compositor(width, height);
+		final int[] framebuffer = new int[width * height];
+		final int[] layerPixels = new int[width * height];
+		for(int i = 0; i < layerPixels.length; i++) layerPixels[i] = layer.getPixelARGB(i % width, i / width);
+
+		long nsKernel = Long.MAX_VALUE, nsReference = Long.MAX_VALUE;
+		for(int repeat = 0; repeat < 50; repeat++) {
+			long nsStart = System.nanoTime();
+			compositor.invalidate();
+			compositor.beginComposite(compositor);
+			compositor.composite(layer, 0, 0);
+			compositor.endComposite();
+			nsKernel = Math.min(nsKernel, System.nanoTime() - nsStart);
+
+			nsStart = System.nanoTime();
+			Arrays.fill(framebuffer, compositor.getBackgroundColour());
+			for(int i = 0; i < framebuffer.length; i++) {
+				final int alpha = (layerPixels[i] >>> 24);
+				if(alpha == 0xff) framebuffer[i] = layerPixels[i];
+				else if(alpha != 0) framebuffer[i] = Colour.blendOntoOpaque(layerPixels[i], framebuffer[i]);
+			}
+			nsReference = Math.min(nsReference, System.nanoTime() - nsStart);
+		}
+
+		System.out.println(String.format("Compositing a translucent %dx%d layer: %.2fms through the Compositor, %.2fms one pixel at a time (best of 50)", width,
+				height, nsKernel / 1e6, nsReference / 1e6));
+	}
+
+	/** A Bitmap of random translucent colours, or (if sparse) mostly transparent with a few opaque and translucent panels and single pixels */
+	private static Bitmap createLayer(int width, int height, boolean sparse, Random random) {
+		final Bitmap layer = new Bitmap(width, height);
+		if(!sparse) {
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) layer.setPixel(x, y, random.nextInt());
+			}
+			return layer;
+		}
+
+		for(int i = 0; i < 30; i++) {
+			final int alpha = random.nextBoolean() ? 0xff : random.nextInt(256);
+			layer.setPixelRegion(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(width / 4), 1 + random.nextInt(height / 4),
+					(alpha << 24) | (random.nextInt() & 0x00ffffff));
+		}
+		for(int i = 0; i < 200; i++) layer.setPixel(random.nextInt(width), random.nextInt(height), random.nextInt());
+		return layer;
+	}
+
+	private static Bitmap createOpaque(int width, int height, Random random) {
+		final Bitmap bitmap = new Bitmap(width, height);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) bitmap.setPixel(x, y, 0xff000000 | random.nextInt());
+		}
+		// A few translucent pixels, so that some blocks have to fall back to blending each pixel
+		for(int i = 0; i < 50; i++) bitmap.setPixel(random.nextInt(width), random.nextInt(height), random.nextInt());
+		return bitmap;
+	}
+
+	// A Bitmap without an alpha channel, whose alpha bits are all over the place (as a Bitmap loaded from an opaque image may have left them)
+	private static Bitmap createWithoutAlpha(int width, int height, Random random) {
+		final Bitmap bitmap = new Bitmap(width, height, false);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) bitmap.setPixel(x, y, random.nextInt());
+		}
+		return bitmap;
+	}
+
+	private static boolean check(String description, int x, int y, int expected, int actual) {
+		if(expected == actual) return true;
+
+		failures++;
+		System.out.println(String.format("MISMATCH in %s at (%d,%d): expected %08x, was %08x", description, x, y, expected, actual));
+		return false;
+	}
+
+}
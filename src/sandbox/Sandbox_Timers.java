@@ -0,0 +1,401 @@
+package sandbox;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiLayerGroup;
+import com.macleod.engine.graphics.gui.GuiSystem;
+import com.macleod.engine.loop.TimerScheduler;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It schedules a large number of timers (with delays from a few milliseconds to over an hour, some of them scheduling more timers as they fire) on a
+ * TimerScheduler, cancels some of them, and advances the clock in uneven steps - checking that every timer left fires exactly once, at the first tick at or
+ * after its deadline, in the order of their deadlines (and of being scheduled, for those due on the same tick). It then checks that a repeating timer never
+ * drifts from its period, that timers further away than the wheels reach (over 49 days) still fire on time, that handles of cancelled or fired timers are
+ * never mistaken for later timers, that a failing callback doesn't stop the others, and that scheduling, cancelling and firing never allocate once the
+ * scheduler has grown. Lastly a GuiSystem is run with a layer blinking on a timer - on its own clock, and on a manual clock - and with layers updated on the
+ * pool that try to schedule timers (which they mustn't be able to), and how long each operation takes is reported. It doesn't need a display, so can be run with java.awt.headless=true. The optional argument is the number of timers.
+ */
+public class Sandbox_Timers {
+
+	private static final long NS_RESOLUTION = TimerScheduler.DEFAULT_NS_RESOLUTION;
+	private static final float S_TICK = 1 / 60f;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		final int numberOfTimers = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+		checkOrdering(numberOfTimers);
+		checkRepeatingDoesNotDrift();
+		checkDistantTimers();
+		checkHandles();
+		checkFailingCallbacks();
+		checkChurnDoesNotAllocate(numberOfTimers / 10);
+		checkGuiSystem();
+		checkIndependentLayers();
+		timeOperations(numberOfTimers);
+
+		System.out.println((failures == 0) ? "Every check passed" : (failures + " checks FAILED"));
+	}
+
+	private static void checkOrdering(int numberOfTimers) {
+		final TimerScheduler scheduler = new TimerScheduler();
+		final Random random = new Random(0);
+		final OrderChecker checker = new OrderChecker(scheduler, random);
+
+		final long[] handles = new long[numberOfTimers];
+		for(int i = 0; i < numberOfTimers; i++) {
+			// Mostly short delays, with some far enough away to pass through every wheel
+			final long nsDelay = (random.nextInt(4) == 0) ? (long) (random.nextDouble() * 3600e9) : (long) (random.nextDouble() * 2e9);
+			handles[i] = checker.schedule(nsDelay);
+		}
+
+		int cancelled = 0;
+		for(int i = 0; i < numberOfTimers; i += 3) {
+			if(checker.cancel(i)) cancelled++;
+			if(checker.cancel(i)) fail("a timer was cancelled twice");
+		}
+
+		// Uneven steps - mostly around a frame, some much longer
+		while(scheduler.getScheduledCount() > 0) {
+			final long nsStep = (random.nextInt(50) == 0) ? (long) (random.nextDouble() * 300e9) : (long) (random.nextDouble() * 40e6);
+			scheduler.advanceNanoseconds(nsStep);
+		}
+
+		final long expectedFirings = (numberOfTimers - cancelled) + checker.followUps;
+		System.out.println(String.format("%d timers scheduled (%d cancelled, %d more scheduled as others fired) over %.0f minutes: %d fired", numberOfTimers,
+				cancelled, checker.followUps, scheduler.getTime() / 60e9, checker.fired));
+		if(checker.fired != expectedFirings) fail(checker.fired + " timers fired, when " + expectedFirings + " should have");
+		if(scheduler.getFiredCount() != checker.fired) fail("the scheduler counted " + scheduler.getFiredCount() + " timers firing, not " + checker.fired);
+		if(checker.cancelledFired) fail("a cancelled timer fired");
+	}
+
+	// Checks every firing against the deadline of the timer and the firing before it. Each timer is numbered in the order it was scheduled, and is due on the
+	// first tick at or after its deadline - but never the tick it was scheduled on
+	private static class OrderChecker {
+		private final TimerScheduler scheduler;
+		private final Random random;
+		private long[] nsDeadlines = new long[1024], handles = new long[1024], earliestTicks = new long[1024];
+		private boolean[] cancelled = new boolean[1024];
+		private int scheduledCount = 0;
+		private long fired = 0, followUps = 0;
+		private long lastTick = -1;
+		private int lastNumber = -1;
+		private boolean cancelledFired = false;
+
+		private OrderChecker(TimerScheduler scheduler, Random random) {
+			this.scheduler = scheduler;
+			this.random = random;
+		}
+
+		private long schedule(long nsDelay) {
+			if(scheduledCount == nsDeadlines.length) {
+				nsDeadlines = Arrays.copyOf(nsDeadlines, scheduledCount * 2);
+				handles = Arrays.copyOf(handles, scheduledCount * 2);
+				earliestTicks = Arrays.copyOf(earliestTicks, scheduledCount * 2);
+				cancelled = Arrays.copyOf(cancelled, scheduledCount * 2);
+			}
+			final int number = scheduledCount++;
+			nsDeadlines[number] = scheduler.getTime() + nsDelay;
+			earliestTicks[number] = (scheduler.getTime() / NS_RESOLUTION) + 1;
+			handles[number] = scheduler.schedule(nsDelay, 0, new TimerScheduler.Callback() {
+				public void onTimer(long timer) { onFired(number, timer); }
+			});
+			return handles[number];
+		}
+
+		private boolean cancel(int number) {
+			cancelled[number] = true;
+			return scheduler.cancel(handles[number]);
+		}
+
+		private void onFired(int number, long timer) {
+			fired++;
+			if(cancelled[number] || (timer != handles[number])) cancelledFired = true;
+
+			final long tick = scheduler.getTime() / NS_RESOLUTION;
+			final long expectedTick = Math.max((nsDeadlines[number] + NS_RESOLUTION - 1) / NS_RESOLUTION, earliestTicks[number]);
+			if(tick != expectedTick) fail("timer " + number + " fired on tick " + tick + ", rather than tick " + expectedTick);
+			if((tick < lastTick) || ((tick == lastTick) && (number < lastNumber))) {
+				fail("timer " + number + " (due on tick " + tick + ") fired after timer " + lastNumber + " (due on tick " + lastTick + ")");
+			}
+			lastTick = tick;
+			lastNumber = number;
+
+			// Some timers schedule another as they fire, which can be due before the advance that fired them ends
+			if((number % 10) == 0) {
+				followUps++;
+				schedule((long) (random.nextDouble() * 100e6));
+			}
+		}
+	}
+
+	private static void checkRepeatingDoesNotDrift() {
+		final TimerScheduler scheduler = new TimerScheduler();
+		final long nsPeriod = (long) (S_TICK * 1e9);
+		final long[] firings = new long[1];
+		scheduler.scheduleRepeating(S_TICK, S_TICK, new TimerScheduler.Callback() {
+			public void onTimer(long timer) {
+				final long count = ++firings[0];
+				final long expectedTick = ((count * nsPeriod) + NS_RESOLUTION - 1) / NS_RESOLUTION;
+				if((scheduler.getTime() / NS_RESOLUTION) != expectedTick) {
+					fail("firing " + count + " of a repeating timer was on tick " + (scheduler.getTime() / NS_RESOLUTION) + ", not tick " + expectedTick);
+					scheduler.cancel(timer);
+				}
+			}
+		});
+
+		// Ten minutes, in steps that don't line up with the period
+		final long nsTotal = 600L * 1000000000L;
+		for(long nsDone = 0; nsDone < nsTotal; nsDone += 7000000) scheduler.advanceNanoseconds(7000000);
+		final long expectedFirings = (nsTotal / 7000000 + 1) * 7000000 / nsPeriod;
+		if(firings[0] != expectedFirings) fail("a repeating timer fired " + firings[0] + " times in ten minutes, rather than " + expectedFirings);
+	}
+
+	private static void checkDistantTimers() {
+		final TimerScheduler scheduler = new TimerScheduler();
+		final long nsDay = 86400L * 1000000000L;
+		final long[] nsDelays = { 3 * nsDay, 49 * nsDay, 50 * nsDay, 120 * nsDay, 400 * nsDay };
+		final long[] nsFiredAt = new long[nsDelays.length];
+		for(int i = 0; i < nsDelays.length; i++) {
+			final int index = i;
+			scheduler.schedule(nsDelays[i], 0, new TimerScheduler.Callback() {
+				public void onTimer(long timer) { nsFiredAt[index] = scheduler.getTime(); }
+			});
+		}
+
+		// An hour at a time, for well over a year
+		final long nsStart = System.nanoTime();
+		for(int hour = 0; hour < (410 * 24); hour++) scheduler.advanceNanoseconds(3600L * 1000000000L);
+		final long nsTaken = System.nanoTime() - nsStart;
+
+		for(int i = 0; i < nsDelays.length; i++) {
+			if(nsFiredAt[i] != nsDelays[i]) fail("a timer due after " + (nsDelays[i] / nsDay) + " days fired after " + (nsFiredAt[i] / (double) nsDay) + " days");
+		}
+		System.out.println(String.format("Advancing over a year of game time (an hour at a time) with timers up to 400 days away took %.2fms", nsTaken / 1e6));
+	}
+
+	private static void checkHandles() {
+		final TimerScheduler scheduler = new TimerScheduler();
+		final TimerScheduler.Callback nothing = new TimerScheduler.Callback() {
+			public void onTimer(long timer) { }
+		};
+
+		final long cancelled = scheduler.schedule(1, nothing);
+		scheduler.cancel(cancelled);
+		final long reused = scheduler.schedule(1, nothing);
+		if(((int) reused) != ((int) cancelled)) fail("the node of a cancelled timer wasn't reused");
+		if(scheduler.isScheduled(cancelled) || scheduler.cancel(cancelled)) fail("the handle of a cancelled timer was mistaken for a later timer");
+		if(!scheduler.isScheduled(reused)) fail("a timer wasn't scheduled");
+		if(Math.abs(scheduler.getTimeRemaining(reused) - 1) > 1e-6) fail("a timer due in a second had " + scheduler.getTimeRemaining(reused) + "s remaining");
+
+		scheduler.advance(1f);
+		if(scheduler.isScheduled(reused) || scheduler.cancel(reused)) fail("a timer that only fires once was still scheduled after it had fired");
+		if(scheduler.isScheduled(TimerScheduler.NO_TIMER)) fail("NO_TIMER was treated as a scheduled timer");
+
+		// A repeating timer cancelling itself from its own callback
+		final int[] firings = new int[1];
+		scheduler.scheduleRepeating(0.1f, 0.1f, new TimerScheduler.Callback() {
+			public void onTimer(long timer) {
+				if(++firings[0] == 3) scheduler.cancel(timer);
+			}
+		});
+		scheduler.advance(1f);
+		if(firings[0] != 3) fail("a repeating timer that cancelled itself on its third firing fired " + firings[0] + " times");
+	}
+
+	private static void checkFailingCallbacks() {
+		final TimerScheduler scheduler = new TimerScheduler();
+		final int[] firings = new int[1];
+		scheduler.scheduleRepeating(0.01f, 0.01f, new TimerScheduler.Callback() {
+			public void onTimer(long timer) { throw new IllegalStateException("A deliberately failing timer"); }
+		});
+		scheduler.scheduleRepeating(0.01f, 0.01f, new TimerScheduler.Callback() {
+			public void onTimer(long timer) { firings[0]++; }
+		});
+		scheduler.advance(0.1f);
+
+		if((scheduler.getFailureCount() != 10) || (firings[0] != 10)) {
+			fail("with a failing timer, " + scheduler.getFailureCount() + " failures were counted and the other timer fired " + firings[0] + " times");
+		}
+	}
+
+	private static void checkChurnDoesNotAllocate(int numberOfTimers) {
+		final TimerScheduler scheduler = new TimerScheduler();
+		final TimerScheduler.Callback nothing = new TimerScheduler.Callback() {
+			public void onTimer(long timer) { }
+		};
+		final long[] handles = new long[numberOfTimers];
+		final Random random = new Random(1);
+		for(int i = 0; i < numberOfTimers; i++) handles[i] = scheduler.schedule(random.nextFloat() * 5, nothing);
+
+		// Run it through a few times, keeping the least allocated, so that nothing the JIT does while compiling is counted
+		long bytesAllocated = Long.MAX_VALUE;
+		for(int repeat = 0; repeat < 4; repeat++) {
+			final long bytesBefore = Sandbox_Allocations.getAllocatedBytes();
+			for(int tick = 0; tick < 600; tick++) {
+				for(int i = 0; i < (numberOfTimers / 100); i++) {
+					final int which = random.nextInt(numberOfTimers);
+					scheduler.cancel(handles[which]);
+					handles[which] = (random.nextBoolean() ? scheduler.schedule(random.nextFloat() * 5, nothing)
+							: scheduler.scheduleRepeating(random.nextFloat(), random.nextFloat() + 0.1f, nothing));
+				}
+				scheduler.advance(S_TICK);
+			}
+			bytesAllocated = Math.min(bytesAllocated, Sandbox_Allocations.getAllocatedBytesSince(bytesBefore));
+		}
+
+		System.out.println(String.format("With %d timers scheduled, churning %d a tick for 600 ticks allocated %d bytes (%d timers fired)", numberOfTimers,
+				numberOfTimers / 100, bytesAllocated, scheduler.getFiredCount()));
+		if(bytesAllocated > 0) fail("scheduling, cancelling and firing timers allocated once the scheduler had grown");
+	}
+
+	private static void checkGuiSystem() {
+		final GuiSystem guiSystem = new GuiSystem();
+		final BlinkingLayer layer = new BlinkingLayer();
+		guiSystem.addLayer(layer);
+		guiSystem.applyPendingChanges();
+
+		// On the system's own clock, a blink every half a second
+		for(int tick = 0; tick < 60; tick++) guiSystem.update(S_TICK);
+		if(layer.blinks != 2) fail("a layer blinking every half a second blinked " + layer.blinks + " times in 60 ticks of a 60th of a second");
+		if(layer.blinkedAfterUpdate) fail("a timer fired after a layer had been updated in the same tick");
+
+		// On a manual clock, the updates don't move the timers at all
+		final TimerScheduler scheduler = guiSystem.getTimerScheduler();
+		scheduler.setManualClock(true);
+		for(int tick = 0; tick < 600; tick++) guiSystem.update(S_TICK);
+		if(layer.blinks != 2) fail("a timer fired while its clock was manual and hadn't been advanced");
+		scheduler.advance(0.4f);
+		if(layer.blinks != 2) fail("a timer fired before its deadline on a manual clock");
+		scheduler.advance(0.1f);
+		if(layer.blinks != 3) fail("a timer didn't fire when a manual clock was advanced to its deadline");
+		scheduler.setManualClock(false);
+
+		guiSystem.removeLayer(layer);
+		guiSystem.applyPendingChanges();
+		if(scheduler.getScheduledCount() != 0) fail("a layer's timer was still scheduled after the layer was removed");
+	}
+
+	// The scheduler isn't thread safe, so an independent layer (or a child of an independent group) can't use it during its update on the pool - while a layer
+	// updated on the loop thread still can
+	private static void checkIndependentLayers() {
+		final GuiSystem guiSystem = new GuiSystem();
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		guiSystem.setUpdatePool(pool);
+
+		final SchedulingLayer independent = new SchedulingLayer();
+		independent.setIndependent(true);
+		final SchedulingLayer child = new SchedulingLayer();
+		final GuiLayerGroup group = new GuiLayerGroup(0, 0, 8, 8);
+		group.addChild(child);
+		group.setIndependent(true);
+		final SchedulingLayer onLoopThread = new SchedulingLayer();
+		guiSystem.addLayer(independent);
+		guiSystem.addLayer(group);
+		guiSystem.addLayer(onLoopThread);
+		guiSystem.applyPendingChanges();
+
+		final int ticks = 10;
+		for(int tick = 0; tick < ticks; tick++) guiSystem.update(S_TICK);
+		pool.shutdown();
+
+		if((independent.scheduled != 0) || (independent.getUpdateFailureCount() != ticks) || (child.scheduled != 0) || (child.getUpdateFailureCount() != ticks)) {
+			fail("a layer updated on the pool used the timer scheduler (" + independent.scheduled + " and " + child.scheduled + " timers scheduled)");
+		}
+		if((onLoopThread.scheduled != ticks) || (onLoopThread.getUpdateFailureCount() != 0)) fail("a layer updated on the loop thread couldn't schedule timers");
+		if(guiSystem.getTimerScheduler().getScheduledCount() != ticks) fail("the scheduler held timers that no layer had scheduled");
+	}
+
+	// Schedules a timer far in the future every update
+	private static class SchedulingLayer extends GuiLayer {
+		private int scheduled = 0;
+
+		private SchedulingLayer() { super(0, 0, 8, 8); }
+
+		public void update(float sTimeDelay) {
+			getTimerScheduler().schedule(60, new TimerScheduler.Callback() {
+				public void onTimer(long timer) { }
+			});
+			scheduled++;
+		}
+
+		public void onLoad() { }
+		public void onUnload() { }
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+	}
+
+	// Blinks on a repeating timer, noting whether the timer ever fires after the layer was updated in the same tick
+	private static class BlinkingLayer extends GuiLayer {
+		private long blinkTimer = TimerScheduler.NO_TIMER;
+		private int blinks = 0;
+		private long lastUpdateTick = -1;
+		private boolean blinkedAfterUpdate = false;
+
+		private BlinkingLayer() { super(0, 0, 8, 8); }
+
+		public void onLoad() {
+			blinkTimer = getTimerScheduler().scheduleRepeating(0.5f, 0.5f, new TimerScheduler.Callback() {
+				public void onTimer(long timer) {
+					blinks++;
+					if(lastUpdateTick == getGuiSystem().getTickCount()) blinkedAfterUpdate = true;
+				}
+			});
+		}
+
+		public void onUnload() { getTimerScheduler().cancel(blinkTimer); }
+
+		public void update(float sTimeDelay) { lastUpdateTick = getGuiSystem().getTickCount(); }
+
+		public boolean recieveGuiEvent(GuiEvent event) { return false; }
+	}
+
+	private static void timeOperations(int numberOfTimers) {
+		final TimerScheduler scheduler = new TimerScheduler();
+		final TimerScheduler.Callback nothing = new TimerScheduler.Callback() {
+			public void onTimer(long timer) { }
+		};
+		final long[] handles = new long[numberOfTimers];
+		final Random random = new Random(2);
+		final float[] sDelays = new float[numberOfTimers];
+		for(int i = 0; i < numberOfTimers; i++) sDelays[i] = random.nextFloat() * 60;
+
+		// Warmed up first, then each is run a few times (keeping the fastest), since anything else running on the machine easily swamps the difference
+		double nsBestSchedule = Double.MAX_VALUE, nsBestCancel = Double.MAX_VALUE, nsBestFire = Double.MAX_VALUE;
+		for(int repeat = 0; repeat < 5; repeat++) {
+			long nsStart = System.nanoTime();
+			for(int i = 0; i < numberOfTimers; i++) handles[i] = scheduler.schedule(sDelays[i], nothing);
+			nsBestSchedule = Math.min(nsBestSchedule, (System.nanoTime() - nsStart) / (double) numberOfTimers);
+
+			nsStart = System.nanoTime();
+			for(int i = 0; i < numberOfTimers; i += 2) scheduler.cancel(handles[i]);
+			nsBestCancel = Math.min(nsBestCancel, (System.nanoTime() - nsStart) / (numberOfTimers / 2.0));
+
+			final long firedBefore = scheduler.getFiredCount();
+			nsStart = System.nanoTime();
+			scheduler.advance(61f);
+			nsBestFire = Math.min(nsBestFire, (System.nanoTime() - nsStart) / (double) (scheduler.getFiredCount() - firedBefore));
+		}
+
+		// What a single tick costs with every timer still waiting (nothing due for at least a minute)
+		for(int i = 0; i < numberOfTimers; i++) scheduler.schedule(60 + sDelays[i], nothing);
+		final long nsStart = System.nanoTime();
+		for(int tick = 0; tick < 3600; tick++) scheduler.advance(S_TICK);
+		final double nsPerIdleTick = (System.nanoTime() - nsStart) / 3600.0;
+
+		System.out.println(String.format("With %d timers: %.0fns to schedule one, %.0fns to cancel one, %.0fns to fire one (including moving it down the "
+				+ "wheels), and %.0fns a tick while they all wait", numberOfTimers, nsBestSchedule, nsBestCancel, nsBestFire, nsPerIdleTick));
+	}
+
+	private static void fail(String message) {
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+
+}
@@ -0,0 +1,114 @@
+package sandbox;
+
+import java.util.Random;
+
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.DirtyRegion;
+import com.macleod.engine.graphics.Upscaler;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It checks that every ScaleMode of the Upscaler samples exactly the source pixel its Viewport maps each destination pixel to (and fills everything else with
+ * the letterbox colour) - for a range of source and destination sizes, and after redrawing only part of the source. Then it times filling a full screen of
+ * panels at 1600x900, against filling the same panels at 400x225 and upscaling the result. It doesn't need a display, so can be run with
+ * java.awt.headless=true.
+ */
+public class Sandbox_Upscaler {
+
+	private static final int[][] SIZES = { { 400, 225, 1600, 900 }, { 400, 225, 1920, 1080 }, { 400, 225, 1366, 768 }, { 320, 240, 1600, 900 },
+			{ 400, 225, 300, 200 }, { 7, 5, 64, 31 }, { 64, 64, 63, 65 } };
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		final Random random = new Random(0);
+		for(Upscaler.ScaleMode scaleMode : Upscaler.ScaleMode.values()) {
+			for(int[] size : SIZES) check(scaleMode, size[0], size[1], size[2], size[3], random);
+		}
+		System.out.println((failures == 0) ? "Every upscale matched its Viewport exactly" : (failures + " checks FAILED"));
+
+		time(random);
+	}
+
+	private static void check(Upscaler.ScaleMode scaleMode, int sourceWidth, int sourceHeight, int destinationWidth, int destinationHeight, Random random) {
+		final Upscaler upscaler = new Upscaler(scaleMode);
+		upscaler.setLetterboxColour(0xff203040);
+		final Bitmap source = new Bitmap(sourceWidth, sourceHeight, false);
+		for(int y = 0; y < sourceHeight; y++) {
+			for(int x = 0; x < sourceWidth; x++) source.setPixel(x, y, 0xff000000 | random.nextInt());
+		}
+
+		final String description = scaleMode + " " + sourceWidth + "x" + sourceHeight + " to " + destinationWidth + "x" + destinationHeight;
+		if(!matches(description, upscaler, source, upscaler.upscale(source, null, destinationWidth, destinationHeight))) return;
+
+		// Redrawing part of the source should leave the destination exactly as if the whole source had been upscaled again
+		for(int i = 0; i < 20; i++) {
+			final DirtyRegion changed = new DirtyRegion();
+			final int x = random.nextInt(sourceWidth), y = random.nextInt(sourceHeight);
+			changed.add(x, y, 1 + random.nextInt(sourceWidth - x), 1 + random.nextInt(sourceHeight - y));
+			source.setPixelRegion(changed.getX(), changed.getY(), changed.getWidth(), changed.getHeight(), 0xff000000 | random.nextInt());
+
+			if(!matches(description + " (partly redrawn)", upscaler, source, upscaler.upscale(source, changed, destinationWidth, destinationHeight))) return;
+		}
+	}
+
+	private static boolean matches(String description, Upscaler upscaler, Bitmap source, Bitmap destination) {
+		final Upscaler.Viewport viewport = upscaler.getViewport();
+		for(int y = 0; y < destination.getHeight(); y++) {
+			for(int x = 0; x < destination.getWidth(); x++) {
+				final int expected = viewport.containsDestinationPoint(x, y)
+						? source.getPixelARGB((int) Math.floor(viewport.toSourceX(x)), (int) Math.floor(viewport.toSourceY(y))) : upscaler.getLetterboxColour();
+				if(expected != destination.getPixelARGB(x, y)) {
+					failures++;
+					System.out.println(String.format("MISMATCH in %s at (%d,%d): expected %08x, was %08x", description, x, y, expected,
+							destination.getPixelARGB(x, y)));
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// Each frame fills the same translucent panels (scaled to the resolution) into a Bitmap and composites it, as a GuiSystem of panels would
+	private static void time(Random random) {
+		final int[][] panels = new int[200][];
+		for(int i = 0; i < panels.length; i++) {
+			panels[i] = new int[] { random.nextInt(380), random.nextInt(210), 4 + random.nextInt(60), 4 + random.nextInt(40), random.nextInt() };
+		}
+
+		final Bitmap fullLayer = new Bitmap(1600, 900);
+		final Compositor fullCompositor = new Compositor(1600, 900);
+		final Bitmap virtualLayer = new Bitmap(400, 225);
+		final Compositor virtualCompositor = new Compositor(400, 225);
+		final Upscaler upscaler = new Upscaler();
+
+		long nsFull = Long.MAX_VALUE, nsVirtual = Long.MAX_VALUE;
+		for(int repeat = 0; repeat < 100; repeat++) {
+			long nsStart = System.nanoTime();
+			drawFrame(fullLayer, fullCompositor, panels, 4);
+			nsFull = Math.min(nsFull, System.nanoTime() - nsStart);
+
+			nsStart = System.nanoTime();
+			drawFrame(virtualLayer, virtualCompositor, panels, 1);
+			upscaler.upscale(virtualCompositor.getFramebuffer(), virtualCompositor.getLastCompositedRegion(), 1600, 900);
+			nsVirtual = Math.min(nsVirtual, System.nanoTime() - nsStart);
+		}
+
+		System.out.println(String.format("Panels at 1600x900: %.2fms per frame. Panels at 400x225 upscaled to 1600x900: %.2fms per frame (best of 100)",
+				nsFull / 1e6, nsVirtual / 1e6));
+	}
+
+	private static void drawFrame(Bitmap layer, Compositor compositor, int[][] panels, int scale) {
+		layer.setPixelRegion(0, 0, layer.getWidth(), layer.getHeight(), Colour.NO_ALPHA_VALUE);
+		for(int[] panel : panels) layer.setPixelRegion(panel[0] * scale, panel[1] * scale, panel[2] * scale, panel[3] * scale, (panel[4] & 0x00ffffff) | 0x80000000);
+
+		compositor.invalidate();
+		compositor.beginComposite(compositor);
+		compositor.composite(layer, 0, 0);
+		compositor.endComposite();
+	}
+
+}
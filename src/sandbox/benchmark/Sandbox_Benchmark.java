@@ -0,0 +1,32 @@
+package sandbox.benchmark;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * A single benchmark run by Sandbox_Benchmarks. Anything a benchmark needs (Bitmaps, GuiSystems...) is created in setUp, so that only the benchmarks actually
+ * being run take up memory. run performs the measured operation the given number of times, and returns something computed from the results - which the runner
+ * keeps hold of, so the JIT can't decide the work was pointless and remove it.
+ */
+public abstract class Sandbox_Benchmark {
+
+	private final String name;
+
+	protected Sandbox_Benchmark(String name) { this.name = name; }
+
+	public final String getName() { return name; }
+
+	protected void setUp() { }
+
+	protected abstract long run(int numberOfOperations);
+
+	/**
+	 * Runs the given number of operations and returns how many nanoseconds they took. A benchmark can override this if part of each operation shouldn't be
+	 * timed (e.g. getting something into the state the measured part needs) - it must then time the measured part itself
+	 */
+	protected long runTimed(int numberOfOperations) {
+		final long nsStart = System.nanoTime();
+		Sandbox_Benchmarks.consume(run(numberOfOperations));
+		return (System.nanoTime() - nsStart);
+	}
+
+}
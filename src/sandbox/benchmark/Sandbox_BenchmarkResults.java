@@ -0,0 +1,171 @@
+package sandbox.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * A set of results from Sandbox_Benchmarks, which can be written to and read from a results file and compared against another set of results. A results file
+ * is tab separated, with one benchmark per line (its name, median nanoseconds per operation, the error of that (see add), and the number of iterations it was
+ * measured over). Lines starting with '#' describe the machine and JVM the results were measured on, and are ignored when reading.
+ *
+ * A benchmark has regressed if it is more than the threshold percentage slower than the baseline, and the difference is bigger than the error of the two
+ * measurements combined (so that noisy benchmarks don't fail CI on their noise alone). It can also be run by itself to compare two existing results files:
+ *
+ *     java -cp <classes> sandbox.benchmark.Sandbox_BenchmarkResults <baseline file> <results file> [threshold percent]
+ */
+public class Sandbox_BenchmarkResults {
+
+	public static final double DEFAULT_THRESHOLD_PERCENT = 10;
+	private static final double MAD_TO_STANDARD_DEVIATION = 1.4826;
+
+	private final Map<String, Result> results = new LinkedHashMap<String, Result>();
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.err.println("Expected the baseline results file and the results file to compare to it (and optionally the threshold percentage)");
+			System.exit(2);
+		}
+
+		final Sandbox_BenchmarkResults baseline = readFrom(new File(args[0]));
+		final Sandbox_BenchmarkResults results = readFrom(new File(args[1]));
+		final double thresholdPercent = (args.length > 2) ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+
+		if(baseline.printComparison(results, thresholdPercent, System.out)) System.exit(1);
+	}
+
+	/**
+	 * Adds the result of a benchmark from the nanoseconds per operation of each of its measured iterations. The median is used rather than the mean (and the
+	 * median absolute deviation rather than the standard deviation), since on a shared CI host the odd iteration can be slowed down massively by something
+	 * else running on the machine - which would otherwise swing the result far more than any real change in the engine
+	 */
+	public Result add(String name, double[] nsPerOperation) {
+		final double median = medianOf(nsPerOperation);
+
+		final double[] deviations = new double[nsPerOperation.length];
+		for(int i = 0; i < deviations.length; i++) deviations[i] = Math.abs(nsPerOperation[i] - median);
+		// Scaled so that, for normally distributed results, it is the same as the standard deviation
+		final double error = MAD_TO_STANDARD_DEVIATION * medianOf(deviations);
+
+		final Result result = new Result(name, median, error, nsPerOperation.length);
+		results.put(name, result);
+		return result;
+	}
+
+	private static double medianOf(double[] values) {
+		final double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		final int middle = sorted.length / 2;
+		return ((sorted.length % 2) == 1) ? sorted[middle] : ((sorted[middle - 1] + sorted[middle]) / 2);
+	}
+
+	public Result get(String name) { return results.get(name); }
+	public List<Result> getAll() { return new ArrayList<Result>(results.values()); }
+
+	public void writeTo(File file) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		lines.add("# java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + ")");
+		lines.add("# " + System.getProperty("os.name") + " " + System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " processors");
+		lines.add("# benchmark\tns/op\terror\titerations");
+		for(Result result : results.values()) {
+			lines.add(String.format(Locale.ROOT, "%s\t%.3f\t%.3f\t%d", result.name, result.nsPerOperation, result.nsError, result.numberOfIterations));
+		}
+
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null) parent.mkdirs();
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+	}
+
+	public static Sandbox_BenchmarkResults readFrom(File file) throws IOException {
+		final Sandbox_BenchmarkResults results = new Sandbox_BenchmarkResults();
+		int lineNumber = 0;
+		for(String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			lineNumber++;
+			if(line.isBlank() || line.startsWith("#")) continue;
+
+			final String[] columns = line.split("\t");
+			if(columns.length != 4) throw new IOException("Line " + lineNumber + " of " + file + " is not a benchmark result: " + line);
+
+			try {
+				final Result result = new Result(columns[0], Double.parseDouble(columns[1]), Double.parseDouble(columns[2]), Integer.parseInt(columns[3]));
+				results.results.put(result.name, result);
+			} catch(NumberFormatException e) {
+				throw new IOException("Line " + lineNumber + " of " + file + " is not a benchmark result: " + line, e);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Prints how each of the given results compares to these (treating these as the baseline).
+	 *
+	 * @return
+	 * 		Whether any of the given results regressed
+	 */
+	public boolean printComparison(Sandbox_BenchmarkResults current, double thresholdPercent, PrintStream out) {
+		int numberRegressed = 0, numberImproved = 0, numberCompared = 0;
+
+		out.println(String.format("%-44s %14s %14s %9s  %s", "benchmark", "baseline ns/op", "current ns/op", "change", ""));
+		for(Result result : current.results.values()) {
+			final Result baseline = results.get(result.name);
+			if(baseline == null) {
+				out.println(String.format("%-44s %14s %14.2f %9s  %s", result.name, "-", result.nsPerOperation, "-", "new"));
+				continue;
+			}
+
+			numberCompared++;
+			final double changePercent = ((result.nsPerOperation - baseline.nsPerOperation) / baseline.nsPerOperation) * 100;
+			final boolean outsideError = Math.abs(result.nsPerOperation - baseline.nsPerOperation) > (result.nsError + baseline.nsError);
+
+			String verdict = "";
+			if(outsideError && (changePercent > thresholdPercent)) {
+				verdict = "REGRESSED";
+				numberRegressed++;
+			} else if(outsideError && (changePercent < -thresholdPercent)) {
+				verdict = "improved";
+				numberImproved++;
+			}
+
+			out.println(String.format("%-44s %14.2f %14.2f %+8.1f%%  %s", result.name, baseline.nsPerOperation, result.nsPerOperation, changePercent, verdict));
+		}
+
+		for(Result baseline : results.values()) {
+			if(!current.results.containsKey(baseline.name)) {
+				out.println(String.format("%-44s %14.2f %14s %9s  %s", baseline.name, baseline.nsPerOperation, "-", "-", "missing"));
+			}
+		}
+
+		out.println(String.format("%d compared (threshold %.1f%%): %d regressed, %d improved", numberCompared, thresholdPercent, numberRegressed, numberImproved));
+		return (numberRegressed > 0);
+	}
+
+	public static final class Result {
+		private final String name;
+		private final double nsPerOperation, nsError;
+		private final int numberOfIterations;
+
+		private Result(String name, double nsPerOperation, double nsError, int numberOfIterations) {
+			this.name = name;
+			this.nsPerOperation = nsPerOperation;
+			this.nsError = nsError;
+			this.numberOfIterations = numberOfIterations;
+		}
+
+		public String getName() { return name; }
+		public double getNsPerOperation() { return nsPerOperation; }
+		/** How much the nanoseconds per operation varied between the measured iterations (see add) */
+		public double getNsError() { return nsError; }
+		public int getNumberOfIterations() { return numberOfIterations; }
+	}
+
+}
@@ -0,0 +1,551 @@
+package sandbox.benchmark;
+
+import java.awt.Font;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.macleod.engine.HeadlessScreen;
+import com.macleod.engine.graphics.Bitmap;
+import com.macleod.engine.graphics.BitmapFont;
+import com.macleod.engine.graphics.Colour;
+import com.macleod.engine.graphics.Compositor;
+import com.macleod.engine.graphics.Upscaler;
+import com.macleod.engine.graphics.gui.GuiEvent;
+import com.macleod.engine.graphics.gui.GuiLayer;
+import com.macleod.engine.graphics.gui.GuiSystem;
+
+/*
+ * This class purely exists for testing - it doesn't need to be compiled in the main engine.
+ *
+ * It runs a fixed set of micro-benchmarks over the hot paths of the engine (pixel access, colour packing, GuiSystem dispatch/update/prepare and whole headless
+ * frames), so that the engine's performance can be compared between versions. It works in the same way as JMH: each benchmark is calibrated to run for a
+ * fixed time per iteration, given a number of warm-up iterations for the JIT to settle, and then measured over several more. By default every benchmark is run
+ * in a fresh JVM, so that the profile the JIT builds for one benchmark (e.g. GuiSystem.update with 10 layers) doesn't skew the code it compiles for the next.
+ *
+ * The results (in nanoseconds per operation) can be written to a results file, and compared against an earlier results file (see Sandbox_BenchmarkResults).
+ * When compared, the exit status is 1 if anything regressed - so this can be run as-is on a headless CI host, e.g.
+ *
+ *     java -Djava.awt.headless=true -cp <classes> sandbox.benchmark.Sandbox_Benchmarks --baseline src/sandbox/benchmark/baseline-results.tsv
+ *
+ * or, through the Maven build, as "mvn -B verify -P benchmark" (which does the same, and writes the results to target/benchmark-results.tsv). The jmh profile
+ * runs JMH versions of the same benchmarks instead (see the Sandbox_Jmh* classes in jmh/sandbox/benchmark).
+ *
+ * The arguments (all optional) are:
+ *     --filter <regex>       Only run the benchmarks whose name contains a match for the given expression
+ *     --output <file>        Write the results to the given file
+ *     --baseline <file>      Compare the results to the given results file
+ *     --threshold <percent>  How much slower than the baseline a benchmark has to be to count as a regression (default 10)
+ *     --warmup <n>           The number of warm-up iterations (default 5)
+ *     --iterations <n>       The number of measured iterations (default 10)
+ *     --iteration-ms <n>     How long each iteration runs for (default 100)
+ *     --forks <n>            How many fresh JVMs each benchmark is run in - 0 runs everything in this JVM (default 1)
+ *     --list                 List the benchmarks without running them
+ */
+public class Sandbox_Benchmarks {
+
+	private static final int[] BITMAP_SIZES = { 64, 512, 2048 };
+	private static final int[] LAYER_COUNTS = { 10, 100, 1000 };
+	static final int SCREEN_WIDTH = 1600, SCREEN_HEIGHT = 900;
+	private static final int WIDGET_SIZE = 40;
+	private static final int SINGLE_OPERATION_WARMUP_CALLS = 20000;
+
+	// Forked JVMs report each result on a line starting with this, so that it can be picked out from anything else they print
+	private static final String FORKED_RESULT_PREFIX = "#result\t";
+
+	// Everything a benchmark returns is folded into this, so that none of the work can be optimised away
+	private static volatile long sink;
+
+	static void consume(long value) { sink += value; }
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String filter = "", outputPath = null, baselinePath = null, forkedBenchmarkName = null;
+		double thresholdPercent = Sandbox_BenchmarkResults.DEFAULT_THRESHOLD_PERCENT;
+		int warmupIterations = 5, measuredIterations = 10, msPerIteration = 100, forks = 1;
+		boolean listOnly = false;
+
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--filter": filter = args[++i]; break;
+				case "--output": outputPath = args[++i]; break;
+				case "--baseline": baselinePath = args[++i]; break;
+				case "--threshold": thresholdPercent = Double.parseDouble(args[++i]); break;
+				case "--warmup": warmupIterations = Integer.parseInt(args[++i]); break;
+				case "--iterations": measuredIterations = Integer.parseInt(args[++i]); break;
+				case "--iteration-ms": msPerIteration = Integer.parseInt(args[++i]); break;
+				case "--forks": forks = Integer.parseInt(args[++i]); break;
+				case "--list": listOnly = true; break;
+				// Only used when a benchmark is being run in a forked JVM
+				case "--forked": forkedBenchmarkName = args[++i]; break;
+				default:
+					System.err.println("Unknown argument '" + args[i] + "'");
+					System.exit(2);
+			}
+		}
+
+		if(forkedBenchmarkName != null) {
+			for(Sandbox_Benchmark benchmark : createBenchmarks()) {
+				if(benchmark.getName().equals(forkedBenchmarkName)) {
+					final double[] nsPerOperation = measure(benchmark, warmupIterations, measuredIterations, msPerIteration);
+					final StringBuilder line = new StringBuilder(FORKED_RESULT_PREFIX);
+					for(double score : nsPerOperation) line.append(score).append('\t');
+					System.out.println(line.toString().trim());
+				}
+			}
+			return;
+		}
+
+		final Pattern filterPattern = Pattern.compile(filter);
+		final List<Sandbox_Benchmark> benchmarks = new ArrayList<Sandbox_Benchmark>();
+		for(Sandbox_Benchmark benchmark : createBenchmarks()) {
+			if(filterPattern.matcher(benchmark.getName()).find()) benchmarks.add(benchmark);
+		}
+
+		if(listOnly) {
+			for(Sandbox_Benchmark benchmark : benchmarks) System.out.println(benchmark.getName());
+			return;
+		}
+
+		final Sandbox_BenchmarkResults results = new Sandbox_BenchmarkResults();
+		for(Sandbox_Benchmark benchmark : benchmarks) {
+			final double[] nsPerOperation;
+			if(forks <= 0) {
+				nsPerOperation = measure(benchmark, warmupIterations, measuredIterations, msPerIteration);
+			} else {
+				final ArrayList<Double> scores = new ArrayList<Double>();
+				for(int fork = 0; fork < forks; fork++) scores.addAll(measureInFork(benchmark.getName(), warmupIterations, measuredIterations, msPerIteration));
+
+				nsPerOperation = new double[scores.size()];
+				for(int i = 0; i < nsPerOperation.length; i++) nsPerOperation[i] = scores.get(i);
+			}
+
+			final Sandbox_BenchmarkResults.Result result = results.add(benchmark.getName(), nsPerOperation);
+			System.out.println(String.format("%-44s %14.2f +- %10.2f ns/op", result.getName(), result.getNsPerOperation(), result.getNsError()));
+		}
+
+		if(outputPath != null) {
+			results.writeTo(new File(outputPath));
+			System.out.println("Results written to " + outputPath);
+		}
+
+		if(baselinePath != null) {
+			final Sandbox_BenchmarkResults baseline = Sandbox_BenchmarkResults.readFrom(new File(baselinePath));
+			final boolean anyRegressed = baseline.printComparison(results, thresholdPercent, System.out);
+			if(anyRegressed) System.exit(1);
+		}
+	}
+
+	/**
+	 * Calibrates the benchmark to run for about the given time per iteration, then runs the warm-up and measured iterations.
+	 *
+	 * @return
+	 * 		The nanoseconds per operation of each measured iteration
+	 */
+	private static double[] measure(Sandbox_Benchmark benchmark, int warmupIterations, int measuredIterations, int msPerIteration) {
+		benchmark.setUp();
+
+		final long nsPerIteration = TimeUnit.MILLISECONDS.toNanos(msPerIteration);
+
+		// The benchmark is first called many times with a single operation. Otherwise, the first calls with a lot of operations would have the JIT compile the
+		// loop within run part way through (on-stack replacement), which can be far slower than compiling run as a whole - and it's down to chance which one
+		// the rest of the benchmark ends up using (in practice, this made some results swing by 10x between runs)
+		final long nsWarmStart = System.nanoTime();
+		for(int i = 0; (i < SINGLE_OPERATION_WARMUP_CALLS) && ((System.nanoTime() - nsWarmStart) < nsPerIteration); i++) benchmark.runTimed(1);
+
+		int numberOfOperations = 1;
+		long nsTaken = benchmark.runTimed(numberOfOperations);
+		// Double the number of operations until a run takes a noticeable part of an iteration, then scale it up to fill the whole iteration
+		while((nsTaken < (nsPerIteration / 10)) && (numberOfOperations < (Integer.MAX_VALUE / 2))) {
+			numberOfOperations *= 2;
+			nsTaken = benchmark.runTimed(numberOfOperations);
+		}
+		numberOfOperations = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (numberOfOperations * (double) nsPerIteration) / Math.max(1, nsTaken)));
+
+		for(int i = 0; i < warmupIterations; i++) benchmark.runTimed(numberOfOperations);
+
+		final double[] nsPerOperation = new double[measuredIterations];
+		for(int i = 0; i < measuredIterations; i++) nsPerOperation[i] = benchmark.runTimed(numberOfOperations) / (double) numberOfOperations;
+		return nsPerOperation;
+	}
+
+	private static List<Double> measureInFork(String benchmarkName, int warmupIterations, int measuredIterations, int msPerIteration)
+			throws IOException, InterruptedException {
+		final List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		// The forked JVM is given the same options as this one (e.g. -ea or -Djava.awt.headless=true), so that the two measure the same thing
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Sandbox_Benchmarks.class.getName());
+		command.add("--forked");
+		command.add(benchmarkName);
+		command.add("--warmup");
+		command.add(Integer.toString(warmupIterations));
+		command.add("--iterations");
+		command.add(Integer.toString(measuredIterations));
+		command.add("--iteration-ms");
+		command.add(Integer.toString(msPerIteration));
+
+		final Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		final List<Double> scores = new ArrayList<Double>();
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(!line.startsWith(FORKED_RESULT_PREFIX)) {
+					System.out.println(line);
+					continue;
+				}
+				for(String score : line.substring(FORKED_RESULT_PREFIX.length()).split("\t")) scores.add(Double.parseDouble(score));
+			}
+		}
+
+		final int exitStatus = process.waitFor();
+		if(exitStatus != 0 || scores.isEmpty()) throw new IllegalStateException("The forked JVM for '" + benchmarkName + "' failed (exit status " + exitStatus + ")");
+		return scores;
+	}
+
+	static List<Sandbox_Benchmark> createBenchmarks() {
+		final List<Sandbox_Benchmark> benchmarks = new ArrayList<Sandbox_Benchmark>();
+
+		for(final int size : BITMAP_SIZES) {
+			// The sizes are all powers of two, so pixels can be visited with masks and shifts rather than divisions (which would cost more than the pixel access)
+			final int mask = size - 1;
+			final int shift = Integer.numberOfTrailingZeros(size);
+
+			benchmarks.add(new Sandbox_Benchmark("Bitmap.setPixel/" + size) {
+				private Bitmap bitmap;
+				protected void setUp() { bitmap = new Bitmap(size, size); }
+				protected long run(int numberOfOperations) {
+					for(int i = 0; i < numberOfOperations; i++) bitmap.setPixel(i & mask, (i >>> shift) & mask, i);
+					return bitmap.getPixelARGB(0, 0);
+				}
+			});
+
+			benchmarks.add(new Sandbox_Benchmark("Bitmap.getPixelARGB/" + size) {
+				private Bitmap bitmap;
+				protected void setUp() {
+					bitmap = new Bitmap(size, size);
+					bitmap.setPixelRegion(0, 0, size, size, Colour.RED);
+				}
+				protected long run(int numberOfOperations) {
+					long total = 0;
+					for(int i = 0; i < numberOfOperations; i++) total += bitmap.getPixelARGB(i & mask, (i >>> shift) & mask);
+					return total;
+				}
+			});
+
+			benchmarks.add(new Sandbox_Benchmark("Bitmap.setPixelRegion/" + size + "/16x16") {
+				private Bitmap bitmap;
+				protected void setUp() { bitmap = new Bitmap(size, size); }
+				protected long run(int numberOfOperations) {
+					// The region moves around the Bitmap (sometimes hanging off of the edges, so that clipping is measured too)
+					for(int i = 0; i < numberOfOperations; i++) bitmap.setPixelRegion((i * 37) & mask, (i * 101) & mask, 16, 16, i);
+					return bitmap.getPixelARGB(0, 0);
+				}
+			});
+
+			benchmarks.add(new Sandbox_Benchmark("Bitmap.setPixelRegion/" + size + "/full") {
+				private Bitmap bitmap;
+				protected void setUp() { bitmap = new Bitmap(size, size); }
+				protected long run(int numberOfOperations) {
+					for(int i = 0; i < numberOfOperations; i++) bitmap.setPixelRegion(0, 0, size, size, i);
+					return bitmap.getPixelARGB(mask, mask);
+				}
+			});
+		}
+
+		benchmarks.add(new Sandbox_Benchmark("Compositor.composite/translucent/" + SCREEN_WIDTH + "x" + SCREEN_HEIGHT) {
+			private Compositor compositor;
+			private Bitmap layer;
+			protected void setUp() {
+				compositor = new Compositor(SCREEN_WIDTH, SCREEN_HEIGHT);
+				layer = createLayer(SCREEN_WIDTH, SCREEN_HEIGHT, false);
+			}
+			protected long run(int numberOfOperations) {
+				for(int i = 0; i < numberOfOperations; i++) compositeFrame(compositor, layer, this);
+				return compositor.getFramebuffer().getPixelARGB(0, 0);
+			}
+		});
+
+		benchmarks.add(new Sandbox_Benchmark("Compositor.composite/sparse/" + SCREEN_WIDTH + "x" + SCREEN_HEIGHT) {
+			private Compositor compositor;
+			private Bitmap layer;
+			protected void setUp() {
+				compositor = new Compositor(SCREEN_WIDTH, SCREEN_HEIGHT);
+				layer = createLayer(SCREEN_WIDTH, SCREEN_HEIGHT, true);
+			}
+			protected long run(int numberOfOperations) {
+				for(int i = 0; i < numberOfOperations; i++) compositeFrame(compositor, layer, this);
+				return compositor.getFramebuffer().getPixelARGB(0, 0);
+			}
+		});
+
+		benchmarks.add(new Sandbox_Benchmark("Bitmap.drawBitmap/alphaBlend/512") {
+			private Bitmap source, target;
+			protected void setUp() {
+				source = createLayer(512, 512, false);
+				target = createLayer(512, 512, false);
+			}
+			protected long run(int numberOfOperations) {
+				for(int i = 0; i < numberOfOperations; i++) target.drawBitmap(source, 0, 0, Bitmap.BlitMode.ALPHA_BLEND);
+				return target.getPixelARGB(0, 0);
+			}
+		});
+
+		benchmarks.add(new Sandbox_Benchmark("Bitmap.drawBitmap/alphaBlendOntoOpaque/512") {
+			private Bitmap source, target;
+			protected void setUp() {
+				source = createLayer(512, 512, false);
+				target = new Bitmap(512, 512);
+				target.setPixelRegion(0, 0, 512, 512, Colour.BLACK);
+			}
+			protected long run(int numberOfOperations) {
+				for(int i = 0; i < numberOfOperations; i++) target.drawBitmap(source, 0, 0, Bitmap.BlitMode.ALPHA_BLEND);
+				return target.getPixelARGB(0, 0);
+			}
+		});
+
+		benchmarks.add(new Sandbox_Benchmark("Bitmap.premultiplyAlpha/512") {
+			private Bitmap bitmap;
+			protected void setUp() { bitmap = createLayer(512, 512, false); }
+			protected long run(int numberOfOperations) {
+				// Unpremultiplying straight afterwards keeps the pixels from fading towards black as the benchmark runs
+				for(int i = 0; i < numberOfOperations; i++) {
+					bitmap.premultiplyAlpha();
+					bitmap.unpremultiplyAlpha();
+				}
+				return bitmap.getPixelARGB(0, 0);
+			}
+		});
+
+		for(final Upscaler.ScaleMode scaleMode : new Upscaler.ScaleMode[] { Upscaler.ScaleMode.INTEGER, Upscaler.ScaleMode.FIT }) {
+			benchmarks.add(new Sandbox_Benchmark("Upscaler.upscale/" + scaleMode.name().toLowerCase(Locale.ROOT) + "/400x225-" + SCREEN_WIDTH + "x" + SCREEN_HEIGHT) {
+				private Upscaler upscaler;
+				private Bitmap source;
+				protected void setUp() {
+					upscaler = new Upscaler(scaleMode);
+					source = createLayer(400, 225, false);
+				}
+				protected long run(int numberOfOperations) {
+					// With no changed region given, the whole destination is redrawn every time
+					for(int i = 0; i < numberOfOperations; i++) upscaler.upscale(source, null, SCREEN_WIDTH, SCREEN_HEIGHT);
+					return upscaler.getDestination().getPixelARGB(SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2);
+				}
+			});
+		}
+
+		benchmarks.add(new Sandbox_Benchmark("Bitmap.drawText/changingLabel") {
+			private BitmapFont font;
+			private Bitmap target;
+			private final StringBuilder label = new StringBuilder();
+			protected void setUp() {
+				font = BitmapFont.create(new Font(Font.SANS_SERIF, Font.PLAIN, 16), true);
+				target = new Bitmap(SCREEN_WIDTH, SCREEN_HEIGHT, false);
+			}
+			protected long run(int numberOfOperations) {
+				// A counter that changes on every draw, as the labels of a dashboard would
+				for(int i = 0; i < numberOfOperations; i++) {
+					label.setLength(0);
+					label.append("CPU ").append(i & 0xff).append(": ").append((i * 7919) % 100000).append('.').append(i % 10);
+					target.drawText(font, label, (i & 0xf) * 100, ((i >>> 4) & 0x1f) * font.getLineHeight(), Colour.GREEN);
+				}
+				return target.getPixelARGB(0, 0);
+			}
+		});
+
+		benchmarks.add(new Sandbox_Benchmark("Colour.getARGB") {
+			protected long run(int numberOfOperations) {
+				long total = 0;
+				for(int i = 0; i < numberOfOperations; i++) total += Colour.getARGB((i >>> 24) & 0xff, (i >>> 16) & 0xff, (i >>> 8) & 0xff, i & 0xff);
+				return total;
+			}
+		});
+
+		benchmarks.add(new Sandbox_Benchmark("Colour.getComponents") {
+			private final int[] colours = new int[1024];
+			protected void setUp() {
+				final Random random = new Random(0);
+				for(int i = 0; i < colours.length; i++) colours[i] = random.nextInt();
+			}
+			protected long run(int numberOfOperations) {
+				long total = 0;
+				for(int i = 0; i < numberOfOperations; i++) {
+					final int colour = colours[i & 1023];
+					total += Colour.getAComponent(colour) + Colour.getRComponent(colour) + Colour.getGComponent(colour) + Colour.getBComponent(colour);
+				}
+				return total;
+			}
+		});
+
+		for(final int layerCount : LAYER_COUNTS) {
+			benchmarks.add(new Sandbox_Benchmark("GuiSystem.recieveEvent/mouse/" + layerCount) {
+				private GuiSystem guiSystem;
+				private final GuiEvent event = new GuiEvent(GuiEvent.EventType.MOUSE_CURSOR_MOVED);
+				private final double[] cursorX = new double[1024], cursorY = new double[1024];
+				protected void setUp() {
+					guiSystem = createGuiSystem(layerCount, false);
+					final Random random = new Random(layerCount);
+					for(int i = 0; i < cursorX.length; i++) {
+						cursorX[i] = random.nextInt(SCREEN_WIDTH);
+						cursorY[i] = random.nextInt(SCREEN_HEIGHT);
+					}
+				}
+				protected long run(int numberOfOperations) {
+					for(int i = 0; i < numberOfOperations; i++) {
+						event.set(GuiEvent.EventType.MOUSE_CURSOR_MOVED, -1, -1, cursorX[i & 1023], cursorY[i & 1023]);
+						guiSystem.recieveEvent(event);
+					}
+					return BenchmarkLayer.eventsRecieved;
+				}
+			});
+
+			benchmarks.add(new Sandbox_Benchmark("GuiSystem.recieveEvent/key/" + layerCount) {
+				private GuiSystem guiSystem;
+				private final GuiEvent event = new GuiEvent(GuiEvent.EventType.KEYBOARD_KEY_PRESSED);
+				protected void setUp() { guiSystem = createGuiSystem(layerCount, false); }
+				protected long run(int numberOfOperations) {
+					// None of the layers absorb key events, so each of these visits the whole stack
+					for(int i = 0; i < numberOfOperations; i++) {
+						event.set(GuiEvent.EventType.KEYBOARD_KEY_PRESSED, i & 0xff, -1, 0, 0);
+						guiSystem.recieveEvent(event);
+					}
+					return BenchmarkLayer.eventsRecieved;
+				}
+			});
+
+			benchmarks.add(new Sandbox_Benchmark("GuiSystem.update/" + layerCount) {
+				private GuiSystem guiSystem;
+				protected void setUp() { guiSystem = createGuiSystem(layerCount, true); }
+				protected long run(int numberOfOperations) {
+					for(int i = 0; i < numberOfOperations; i++) {
+						guiSystem.update(1 / 60f);
+						// Otherwise the dirty regions would never be reset. The layers are retained so this doesn't clear anything, and costs very little
+						guiSystem.prepareForRender();
+					}
+					return guiSystem.getLayer(0).getPixelARGB(0, 0);
+				}
+			});
+
+			benchmarks.add(new Sandbox_Benchmark("GuiSystem.prepareForRender/" + layerCount) {
+				private GuiSystem guiSystem;
+				protected void setUp() { guiSystem = createGuiSystem(layerCount, false); }
+				protected long run(int numberOfOperations) { throw new UnsupportedOperationException(); }
+				protected long runTimed(int numberOfOperations) {
+					// Preparing only has something to clear if the layers drew something in an update, so each update is run first but not timed
+					long nsTaken = 0;
+					for(int i = 0; i < numberOfOperations; i++) {
+						guiSystem.update(1 / 60f);
+						final long nsStart = System.nanoTime();
+						guiSystem.prepareForRender();
+						nsTaken += (System.nanoTime() - nsStart);
+					}
+					consume(guiSystem.getLayer(0).getPixelARGB(0, 0));
+					return nsTaken;
+				}
+			});
+
+			benchmarks.add(new Sandbox_Benchmark("Frame.headless/" + layerCount) {
+				private GuiSystem guiSystem;
+				private HeadlessScreen screen;
+				protected void setUp() {
+					guiSystem = createGuiSystem(layerCount, false);
+					screen = new HeadlessScreen(SCREEN_WIDTH, SCREEN_HEIGHT);
+				}
+				protected long run(int numberOfOperations) {
+					// The same work the Application does for each frame (without any input to process)
+					for(int i = 0; i < numberOfOperations; i++) {
+						guiSystem.applyPendingChanges();
+						guiSystem.prepareForRender();
+						guiSystem.update(1 / 60f);
+						screen.clear();
+						screen.draw(guiSystem);
+						screen.present();
+					}
+					return screen.getPresentedFrameCount();
+				}
+			});
+		}
+
+		return benchmarks;
+	}
+
+	/**
+	 * Creates a Bitmap of random colours. A sparse Bitmap is mostly transparent, with a scattering of opaque and translucent panels (like a typical GUI layer) -
+	 * otherwise every pixel is translucent
+	 */
+	private static Bitmap createLayer(int width, int height, boolean sparse) {
+		final Bitmap layer = new Bitmap(width, height);
+		final Random random = new Random(width * height);
+		if(!sparse) {
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) layer.setPixel(x, y, ((1 + random.nextInt(254)) << 24) | (random.nextInt() & 0x00ffffff));
+			}
+			return layer;
+		}
+
+		for(int i = 0; i < 40; i++) {
+			final int alpha = random.nextBoolean() ? 0xff : (64 + random.nextInt(128));
+			layer.setPixelRegion(random.nextInt(width), random.nextInt(height), 40 + random.nextInt(200), 20 + random.nextInt(100),
+					(alpha << 24) | (random.nextInt() & 0x00ffffff));
+		}
+		return layer;
+	}
+
+	private static void compositeFrame(Compositor compositor, Bitmap layer, Object source) {
+		compositor.invalidate();
+		compositor.beginComposite(source);
+		compositor.composite(layer, 0, 0);
+		compositor.endComposite();
+	}
+
+	/** Creates a GuiSystem of small widgets spread over the screen, always in the same places for the same number of layers */
+	static GuiSystem createGuiSystem(int layerCount, boolean retained) {
+		final GuiSystem guiSystem = new GuiSystem();
+		final Random random = new Random(layerCount);
+		for(int i = 0; i < layerCount; i++) {
+			final BenchmarkLayer layer = new BenchmarkLayer(random.nextInt(SCREEN_WIDTH - WIDGET_SIZE), random.nextInt(SCREEN_HEIGHT - WIDGET_SIZE), random.nextInt());
+			layer.setRetained(retained);
+			guiSystem.addLayer(layer);
+		}
+		// There's no Application here to add the layers at the start of an update, so they're added straight away
+		guiSystem.applyPendingChanges();
+		return guiSystem;
+	}
+
+	/** A widget like Sandbox_ExampleGuiLayer - it draws a border each update, and absorbs mouse events over it */
+	static class BenchmarkLayer extends GuiLayer {
+		static long eventsRecieved = 0;
+		private final int colour;
+
+		private BenchmarkLayer(int x, int y, int colour) {
+			super(x, y, WIDGET_SIZE, WIDGET_SIZE);
+			this.colour = colour | 0xff000000;
+		}
+
+		public boolean recieveGuiEvent(GuiEvent event) {
+			eventsRecieved++;
+			return event.isMouseEvent();
+		}
+
+		public void update(float sTimeDelay) {
+			final int borderThickness = 8;
+			setPixelRegion(0, 0, borderThickness, getHeight(), colour);
+			setPixelRegion(getWidth() - borderThickness, 0, borderThickness, getHeight(), colour);
+			setPixelRegion(borderThickness, 0, getWidth() - (2 * borderThickness), borderThickness, colour);
+			setPixelRegion(borderThickness, getHeight() - borderThickness, getWidth() - (2 * borderThickness), borderThickness, colour);
+		}
+
+		public void onLoad() { }
+		public void onUnload() { }
+	}
+
+}